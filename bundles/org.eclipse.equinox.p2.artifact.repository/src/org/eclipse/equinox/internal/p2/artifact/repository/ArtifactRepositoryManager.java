@@ -13,14 +13,15 @@
 package org.eclipse.equinox.internal.p2.artifact.repository;
 
 import java.net.URI;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepository;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.repository.helpers.AbstractRepositoryManager;
 import org.eclipse.equinox.internal.p2.repository.helpers.LocationProperties;
 import org.eclipse.equinox.p2.core.*;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.repository.ICompositeRepository;
 import org.eclipse.equinox.p2.repository.IRepository;
 import org.eclipse.equinox.p2.repository.artifact.*;
 import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactRepositoryFactory;
@@ -32,6 +33,8 @@ import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactRepositoryFactory;
  * having just one repository in a given URL..  
  */
 public class ArtifactRepositoryManager extends AbstractRepositoryManager<IArtifactKey> implements IArtifactRepositoryManager {
+	// rough estimate of the memory used by an artifact, in bytes
+	private static final long ESTIMATED_ARTIFACT_SIZE = 512;
 
 	public ArtifactRepositoryManager(IProvisioningAgent agent) {
 		super(agent);
@@ -69,6 +72,22 @@ public class ArtifactRepositoryManager extends AbstractRepositoryManager<IArtifa
 		return factory.load(location, flags, monitor);
 	}
 
+	protected long estimateSize(IRepository<IArtifactKey> repository) {
+		int size;
+		if (repository instanceof ICompositeRepository<?>)
+			// the children are loaded through the manager and cached on their own
+			size = 0;
+		else if (repository instanceof SimpleArtifactRepository)
+			size = ((SimpleArtifactRepository) repository).size();
+		else {
+			// count the keys without collecting them
+			size = 0;
+			for (Iterator<IArtifactKey> iter = repository.query(ArtifactKeyQuery.ALL_KEYS, null).iterator(); iter.hasNext(); iter.next())
+				size++;
+		}
+		return (long) size * ESTIMATED_ARTIFACT_SIZE;
+	}
+
 	protected String getBundleId() {
 		return Activator.ID;
 	}
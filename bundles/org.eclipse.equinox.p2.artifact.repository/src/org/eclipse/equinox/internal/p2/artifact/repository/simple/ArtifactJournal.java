@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository.simple;
+
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.IProcessingStepDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.spi.ProcessingStepDescriptor;
+
+/**
+ * An append-only journal of the changes made to a simple artifact repository since its
+ * artifacts file was last written. Writing a change appends a record to the journal instead
+ * of rewriting the whole artifacts file, and a process which already loaded the repository
+ * catches up by reading only the records appended since it last read the journal.
+ * <p>
+ * The journal starts with a header naming the timestamp of the artifacts file it applies to,
+ * followed by records which each start with their length. A record which is not completely
+ * written yet is ignored until it is. When the artifacts file is written again, the journal
+ * is reset to an empty journal applying to the new artifacts file.
+ * <p>
+ * The journal is only written by the holder of the lock of the repository.
+ */
+class ArtifactJournal {
+	static final String JOURNAL_FILENAME = "artifacts.journal"; //$NON-NLS-1$
+
+	private static final int MAGIC = 0x70324a4c;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+
+	static final byte ADD = 1;
+	static final byte REMOVE = 2;
+	static final byte PROPERTY = 3;
+
+	/**
+	 * A change of the repository recorded in the journal.
+	 */
+	static class Change {
+		final byte type;
+		final SimpleArtifactDescriptor descriptor;
+		final String key;
+		final String value;
+
+		Change(byte type, SimpleArtifactDescriptor descriptor) {
+			this.type = type;
+			this.descriptor = descriptor;
+			this.key = null;
+			this.value = null;
+		}
+
+		Change(String key, String value) {
+			this.type = PROPERTY;
+			this.descriptor = null;
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private final File file;
+	// the timestamp of the artifacts file the read or written records apply to
+	private long base = -1;
+	// the length of the journal read or written so far
+	private volatile long position = 0;
+	private int records = 0;
+	// whether the journal applies to another artifacts file than the loaded one
+	private boolean outdated = false;
+
+	ArtifactJournal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Return the number of records read or written since the journal was reset.
+	 */
+	int getRecords() {
+		return records;
+	}
+
+	/**
+	 * Return whether records were appended to the journal, or the journal was reset, since
+	 * it was last read or written.
+	 */
+	boolean hasNewRecords() {
+		return file.length() != position;
+	}
+
+	/**
+	 * Read the records appended to the journal since it was last read or written.
+	 *
+	 * @param artifactsTimestamp the timestamp of the loaded artifacts file
+	 * @return the changes, or <code>null</code> if the journal applies to another
+	 * artifacts file and the repository has to be loaded again
+	 */
+	List<Change> read(long artifactsTimestamp) throws IOException {
+		List<Change> changes = new ArrayList<Change>();
+		if (!file.exists())
+			return changes;
+		RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			long length = raf.length();
+			if (length < HEADER_SIZE)
+				// the journal is being reset
+				return changes;
+			if (raf.readInt() != MAGIC || raf.readInt() != FORMAT_VERSION)
+				throw new IOException("Invalid artifact repository journal: " + file); //$NON-NLS-1$
+			long journalBase = raf.readLong();
+			if (journalBase != artifactsTimestamp || (position > 0 && journalBase != base)) {
+				// the records of an outdated journal are never read
+				outdated = true;
+				position = length;
+				return null;
+			}
+			if (position == 0) {
+				base = journalBase;
+				position = HEADER_SIZE;
+			}
+			raf.seek(position);
+			while (length - position >= 4) {
+				int recordLength = raf.readInt();
+				if (length - position - 4 < recordLength)
+					// the record is being appended
+					break;
+				byte[] record = new byte[recordLength];
+				raf.readFully(record);
+				changes.add(readChange(new DataInputStream(new ByteArrayInputStream(record))));
+				position += 4 + recordLength;
+				records++;
+			}
+			return changes;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Append the given changes to the journal. The journal must have been read up to its end.
+	 */
+	void append(List<Change> changes) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (Change change : changes) {
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			writeChange(new DataOutputStream(record), change);
+			out.writeInt(record.size());
+			record.writeTo(out);
+		}
+		out.flush();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			if (outdated || position < HEADER_SIZE || raf.length() != position)
+				throw new IOException("Artifact repository journal is out of date: " + file); //$NON-NLS-1$
+			raf.seek(position);
+			// a single write, so that readers see as few partial records as possible
+			raf.write(bytes.toByteArray());
+			position += bytes.size();
+			records += changes.size();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Empty the journal, which then applies to the artifacts file with the given timestamp.
+	 */
+	void reset(long artifactsTimestamp) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeLong(artifactsTimestamp);
+		out.flush();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			raf.setLength(0);
+			raf.write(bytes.toByteArray());
+		} finally {
+			raf.close();
+		}
+		base = artifactsTimestamp;
+		position = HEADER_SIZE;
+		records = 0;
+		outdated = false;
+	}
+
+	/**
+	 * Delete the journal, when the repository is no longer journaled.
+	 */
+	void delete() {
+		file.delete();
+		base = -1;
+		position = 0;
+		records = 0;
+		outdated = false;
+	}
+
+	private static void writeChange(DataOutputStream out, Change change) throws IOException {
+		out.writeByte(change.type);
+		if (change.type == PROPERTY) {
+			out.writeUTF(change.key);
+			writeString(out, change.value);
+			return;
+		}
+		SimpleArtifactDescriptor descriptor = change.descriptor;
+		IArtifactKey key = descriptor.getArtifactKey();
+		out.writeUTF(key.getClassifier());
+		out.writeUTF(key.getId());
+		out.writeUTF(key.getVersion().toString());
+		writeProperties(out, descriptor.getProperties());
+		writeProperties(out, descriptor.getRepositoryProperties());
+		IProcessingStepDescriptor[] steps = descriptor.getProcessingSteps();
+		out.writeInt(steps.length);
+		for (int i = 0; i < steps.length; i++) {
+			out.writeUTF(steps[i].getProcessorId());
+			writeString(out, steps[i].getData());
+			out.writeBoolean(steps[i].isRequired());
+		}
+	}
+
+	private static Change readChange(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		if (type == PROPERTY)
+			return new Change(in.readUTF(), readString(in));
+		if (type != ADD && type != REMOVE)
+			throw new IOException("Unknown artifact repository journal record: " + type); //$NON-NLS-1$
+		String classifier = in.readUTF();
+		String id = in.readUTF();
+		Version version = Version.create(in.readUTF());
+		SimpleArtifactDescriptor descriptor = new SimpleArtifactDescriptor(new ArtifactKey(classifier, id, version));
+		descriptor.addProperties(readProperties(in));
+		descriptor.addRepositoryProperties(readProperties(in));
+		IProcessingStepDescriptor[] steps = new IProcessingStepDescriptor[in.readInt()];
+		for (int i = 0; i < steps.length; i++)
+			steps[i] = new ProcessingStepDescriptor(in.readUTF(), readString(in), in.readBoolean());
+		descriptor.setProcessingSteps(steps);
+		return new Change(type, descriptor);
+	}
+
+	private static void writeProperties(DataOutputStream out, Map<String, String> properties) throws IOException {
+		out.writeInt(properties.size());
+		for (Entry<String, String> entry : properties.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeUTF(entry.getValue());
+		}
+	}
+
+	private static Map<String, String> readProperties(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		Map<String, String> properties = new LinkedHashMap<String, String>(size);
+		for (int i = 0; i < size; i++)
+			properties.put(in.readUTF(), in.readUTF());
+		return properties;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
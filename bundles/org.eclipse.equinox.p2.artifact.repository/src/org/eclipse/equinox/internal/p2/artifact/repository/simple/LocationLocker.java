@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository.simple;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.core.runtime.*;
+import org.eclipse.osgi.service.datalocation.Location;
+
+/**
+ * Acquires and releases the lock location of a simple artifact repository.
+ * <p>
+ * While a process holds the location, it also holds an exclusive lock on a holder file next
+ * to the lock of the location. A process waiting for the location tries to get a shared lock
+ * of that file at regular intervals, which succeeds as soon as the holder releases the location.
+ * A thread waiting for a location held by this process is notified when it is released. When
+ * file locks are not available, for example on execution environments without java.nio, or when
+ * the holder does not lock the holder file, the waiting thread checks the location at regular
+ * intervals instead. File locks are only ever tried, so a waiting thread notices within one
+ * interval that its monitor is canceled.
+ */
+class LocationLocker {
+	private static final String HOLDER_FILENAME = ".holder"; //$NON-NLS-1$
+	// the longest time a thread waits for a notification before checking the location or the holder file again
+	private static final long MAX_WAIT = 200;
+	// a wait for the holder file shorter than this means the holder did not lock it
+	private static final long MIN_BLOCKING_TIME = 10;
+
+	// the holder files locked by this process, by location
+	private static final Map<Location, RandomAccessFile> heldFiles = new HashMap<Location, RandomAccessFile>();
+	// notified whenever a location is released by this process
+	private static final Object released = new Object();
+
+	/*
+	 * Isolates the use of file locks, which are not available on all execution environments.
+	 */
+	private static class FileLocks {
+		static RandomAccessFile hold(File file, IProgressMonitor monitor) throws Exception {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+			try {
+				// the waiting processes hold the file only for a moment
+				while (raf.getChannel().tryLock() == null) {
+					if (monitor.isCanceled())
+						throw new OperationCanceledException();
+					awaitRelease();
+				}
+				return raf;
+			} catch (Exception e) {
+				raf.close();
+				throw e;
+			}
+		}
+
+		static boolean await(File file, IProgressMonitor monitor) throws Exception {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+			try {
+				while (true) {
+					FileLock lock = raf.getChannel().tryLock(0, Long.MAX_VALUE, true);
+					if (lock != null) {
+						lock.release();
+						return true;
+					}
+					if (monitor.isCanceled())
+						return false;
+					awaitRelease();
+				}
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+	/**
+	 * Lock the given location, waiting until it is released by its holder if asked to.
+	 *
+	 * @return whether the location is locked, <code>false</code> if it is held by someone
+	 * else and either the caller did not want to wait or the monitor was canceled
+	 */
+	static boolean lock(Location location, boolean wait, IProgressMonitor monitor) throws IOException {
+		boolean holderLocksFile = true;
+		while (true) {
+			if (location.lock()) {
+				holdFile(location, monitor);
+				return true;
+			}
+			if (!wait || monitor.isCanceled())
+				return false;
+			long start = System.currentTimeMillis();
+			if (holderLocksFile && awaitFile(location, monitor)) {
+				holderLocksFile = System.currentTimeMillis() - start >= MIN_BLOCKING_TIME;
+			} else {
+				awaitRelease();
+				holderLocksFile = true;
+			}
+		}
+	}
+
+	/**
+	 * Release the given location locked by {@link #lock(Location, boolean, IProgressMonitor)}.
+	 */
+	static void release(Location location) {
+		RandomAccessFile heldFile;
+		synchronized (heldFiles) {
+			heldFile = heldFiles.remove(location);
+		}
+		// the location is released first, so that a process woken up by the holder file finds it free
+		location.release();
+		if (heldFile != null) {
+			try {
+				heldFile.close();
+			} catch (Throwable t) {
+				// the file lock is released anyway when the process ends
+			}
+		}
+		synchronized (released) {
+			released.notifyAll();
+		}
+	}
+
+	private static File getHolderFile(Location location) {
+		File directory = null;
+		try {
+			directory = URIUtil.toFile(URIUtil.toURI(location.getURL()));
+		} catch (URISyntaxException e) {
+			// use the path of the URL as is
+		}
+		if (directory == null)
+			directory = new File(location.getURL().getFile());
+		return new File(directory, HOLDER_FILENAME);
+	}
+
+	private static void holdFile(Location location, IProgressMonitor monitor) {
+		try {
+			RandomAccessFile heldFile = FileLocks.hold(getHolderFile(location), monitor);
+			synchronized (heldFiles) {
+				heldFiles.put(location, heldFile);
+			}
+		} catch (Throwable t) {
+			// file locks are not available, a thread of this process is checking the file, or the
+			// monitor was canceled; the waiting processes will check the location at regular intervals
+		}
+	}
+
+	/*
+	 * Returns whether the holder file could be locked, which happens once the holder
+	 * has released it, or false if the monitor was canceled before.
+	 */
+	private static boolean awaitFile(Location location, IProgressMonitor monitor) {
+		try {
+			return FileLocks.await(getHolderFile(location), monitor);
+		} catch (Throwable t) {
+			// file locks are not available, or the holder is in this process
+			return false;
+		}
+	}
+
+	private static void awaitRelease() {
+		synchronized (released) {
+			try {
+				released.wait(MAX_WAIT);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		}
+	}
+}
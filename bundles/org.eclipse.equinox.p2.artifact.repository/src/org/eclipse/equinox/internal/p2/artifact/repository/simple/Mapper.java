@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,14 +13,25 @@ package org.eclipse.equinox.internal.p2.artifact.repository.simple;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Dictionary;
-import java.util.Hashtable;
+import java.util.*;
 import org.eclipse.core.runtime.URIUtil;
 import org.osgi.framework.*;
 
+/**
+ * Maps artifacts to their location in a repository using ordered rules, each made of an
+ * LDAP filter on the repository location and the classifier, id, version and format of
+ * the artifact, and of a location template in which ${repoUrl}, ${classifier}, ${id},
+ * ${version} and ${format} are replaced.
+ * <p>
+ * The rules are compiled when the mapper is initialized: filters which only test the
+ * attributes for equality are matched by comparing the values directly, and templates
+ * are split into their constant parts and variables. Other filters are evaluated by the
+ * framework, as they always were.
+ */
 public class Mapper {
 	private Filter[] filters;
 	private String[] outputStrings;
+	private Rule[] rules;
 
 	private static final String REPOURL = "repoUrl"; //$NON-NLS-1$
 	private static final String CLASSIFIER = "classifier"; //$NON-NLS-1$
@@ -28,9 +39,97 @@ public class Mapper {
 	private static final String ID = "id"; //$NON-NLS-1$
 	private static final String VERSION = "version"; //$NON-NLS-1$
 
+	// the attributes and template variables, by index
+	private static final String[] ATTRIBUTES = {REPOURL, CLASSIFIER, ID, VERSION, FORMAT};
+	private static final int NO_ATTRIBUTE = -1;
+
+	/**
+	 * A compiled mapping rule.
+	 */
+	private static class Rule {
+		// the value each attribute must be equal to, null for an untested attribute;
+		// the array is null when the rule is matched by evaluating its filter
+		final String[] required;
+		final Filter filter;
+		// the constant parts of the template, each followed by the variable of the same index
+		final String[] parts;
+		final int[] variables;
+		final boolean usesRepoUrl;
+
+		Rule(String[] required, Filter filter, String template) {
+			this.required = required;
+			this.filter = filter;
+			List<String> partList = new ArrayList<String>();
+			List<Integer> variableList = new ArrayList<Integer>();
+			int index = 0;
+			while (true) {
+				int beginning = template.indexOf("${", index); //$NON-NLS-1$
+				if (beginning == -1) {
+					partList.add(template.substring(index));
+					variableList.add(new Integer(NO_ATTRIBUTE));
+					break;
+				}
+				int end = template.indexOf('}', beginning);
+				if (end == -1) {
+					// an unterminated variable leaves the whole template unchanged
+					partList.clear();
+					variableList.clear();
+					partList.add(template);
+					variableList.add(new Integer(NO_ATTRIBUTE));
+					break;
+				}
+				partList.add(template.substring(index, beginning));
+				variableList.add(new Integer(indexOf(template.substring(beginning + 2, end))));
+				index = end + 1;
+			}
+			parts = partList.toArray(new String[partList.size()]);
+			variables = new int[parts.length];
+			boolean repoUrl = filter != null || (required != null && required[0] != null);
+			for (int i = 0; i < variables.length; i++) {
+				variables[i] = variableList.get(i).intValue();
+				repoUrl |= variables[i] == 0;
+			}
+			usesRepoUrl = repoUrl;
+		}
+
+		boolean matches(String[] values) {
+			if (filter != null)
+				return filter.match(toDictionary(values));
+			for (int i = 0; i < required.length; i++) {
+				if (required[i] != null && !required[i].equals(values[i]))
+					return false;
+			}
+			return true;
+		}
+
+		URI expand(String[] values) {
+			StringBuffer output = new StringBuffer();
+			for (int i = 0; i < parts.length; i++) {
+				output.append(parts[i]);
+				if (variables[i] != NO_ATTRIBUTE) {
+					String value = values[variables[i]];
+					if (value != null) {
+						// currently our mapping rules assume the repo URL is not "/" terminated. 
+						// This may be the case for repoURLs in the root of a URL space e.g. root of a jar file or file:/c:/
+						if (variables[i] == 0 && value.endsWith("/")) //$NON-NLS-1$
+							output.append(value.substring(0, value.length() - 1));
+						else
+							output.append(value);
+					}
+				}
+			}
+			try {
+				return URIUtil.fromString(output.toString());
+			} catch (URISyntaxException e) {
+				return null;
+			}
+		}
+	}
+
 	public Mapper() {
 		filters = new Filter[0];
 		outputStrings = new String[0];
+		rules = new Rule[0];
 	}
 
 	/**
@@ -40,83 +139,101 @@ public class Mapper {
 	public void initialize(BundleContext ctx, String[][] mappingRules) {
 		filters = new Filter[mappingRules.length];
 		outputStrings = new String[mappingRules.length];
+		List<Rule> compiled = new ArrayList<Rule>(mappingRules.length);
 		for (int i = 0; i < mappingRules.length; i++) {
 			try {
 				filters[i] = ctx.createFilter(mappingRules[i][0]);
 				outputStrings[i] = mappingRules[i][1];
+				String[] required = compileFilter(mappingRules[i][0]);
+				compiled.add(new Rule(required, required == null ? filters[i] : null, outputStrings[i]));
 			} catch (InvalidSyntaxException e) {
 				//TODO Neeed to process this
 				e.printStackTrace();
 			}
 		}
+		rules = compiled.toArray(new Rule[compiled.size()]);
 	}
 
 	public URI map(URI repositoryLocation, String classifier, String id, String version, String format) {
-		String locationString = URIUtil.toUnencodedString(repositoryLocation);
-		Dictionary<String, Object> values = new Hashtable<String, Object>(5);
-		if (repositoryLocation != null)
-			values.put(REPOURL, locationString);
-
-		if (classifier != null)
-			values.put(CLASSIFIER, classifier);
-
-		if (id != null)
-			values.put(ID, id);
-
-		if (version != null)
-			values.put(VERSION, version);
-
-		if (format != null)
-			values.put(FORMAT, format);
-
-		for (int i = 0; i < filters.length; i++) {
-			if (filters[i].match(values))
-				return doReplacement(outputStrings[i], locationString, classifier, id, version, format);
+		String[] values = new String[ATTRIBUTES.length];
+		values[1] = classifier;
+		values[2] = id;
+		values[3] = version;
+		values[4] = format;
+		for (int i = 0; i < rules.length; i++) {
+			if (rules[i].usesRepoUrl && values[0] == null && repositoryLocation != null)
+				values[0] = URIUtil.toUnencodedString(repositoryLocation);
+			if (rules[i].matches(values))
+				return rules[i].expand(values);
 		}
 		return null;
 	}
 
-	private URI doReplacement(String pattern, String repoLocation, String classifier, String id, String version, String format) {
-		try {
-			// currently our mapping rules assume the repo URL is not "/" terminated. 
-			// This may be the case for repoURLs in the root of a URL space e.g. root of a jar file or file:/c:/
-			if (repoLocation.endsWith("/")) //$NON-NLS-1$
-				repoLocation = repoLocation.substring(0, repoLocation.length() - 1);
+	static Dictionary<String, Object> toDictionary(String[] values) {
+		Dictionary<String, Object> result = new Hashtable<String, Object>(values.length);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null)
+				result.put(ATTRIBUTES[i], values[i]);
+		}
+		return result;
+	}
 
-			StringBuffer output = new StringBuffer(pattern);
-			int index = 0;
-			while (index < output.length()) {
-				int beginning = output.indexOf("${", index); //$NON-NLS-1$
-				if (beginning == -1)
-					return URIUtil.fromString(output.toString());
-
-				int end = output.indexOf("}", beginning); //$NON-NLS-1$
-				if (end == -1)
-					return URIUtil.fromString(pattern);
-
-				String varName = output.substring(beginning + 2, end);
-				String varValue = null;
-				if (varName.equalsIgnoreCase(CLASSIFIER)) {
-					varValue = classifier;
-				} else if (varName.equalsIgnoreCase(ID)) {
-					varValue = id;
-				} else if (varName.equalsIgnoreCase(VERSION)) {
-					varValue = version;
-				} else if (varName.equalsIgnoreCase(REPOURL)) {
-					varValue = repoLocation;
-				} else if (varName.equalsIgnoreCase(FORMAT)) {
-					varValue = format;
-				}
-				if (varValue == null)
-					varValue = ""; //$NON-NLS-1$
+	static int indexOf(String attribute) {
+		for (int i = 0; i < ATTRIBUTES.length; i++) {
+			if (ATTRIBUTES[i].equalsIgnoreCase(attribute))
+				return i;
+		}
+		return NO_ATTRIBUTE;
+	}
 
-				output.replace(beginning, end + 1, varValue);
-				index = beginning + varValue.length();
-			}
-			return URIUtil.fromString(output.toString());
-		} catch (URISyntaxException e) {
+	/*
+	 * Returns the value each attribute must be equal to for the given filter to match, or null
+	 * if the filter is not a conjunction of simple equality tests on distinct known attributes.
+	 */
+	static String[] compileFilter(String filter) {
+		String[] required = new String[ATTRIBUTES.length];
+		String trimmed = filter.trim();
+		if (!trimmed.startsWith("(") || !trimmed.endsWith(")")) //$NON-NLS-1$ //$NON-NLS-2$
 			return null;
+		String content = trimmed.substring(1, trimmed.length() - 1).trim();
+		if (!content.startsWith("&")) //$NON-NLS-1$
+			return compileEquality(content, required) ? required : null;
+		content = content.substring(1).trim();
+		if (content.length() == 0)
+			return null;
+		while (content.length() > 0) {
+			if (content.charAt(0) != '(')
+				return null;
+			int end = content.indexOf(')');
+			if (end == -1 || !compileEquality(content.substring(1, end), required))
+				return null;
+			content = content.substring(end + 1).trim();
+		}
+		return required;
+	}
+
+	private static boolean compileEquality(String test, String[] required) {
+		int equals = test.indexOf('=');
+		if (equals <= 0)
+			return false;
+		String value = test.substring(equals + 1);
+		int attribute = indexOf(test.substring(0, equals).trim());
+		if (attribute == NO_ATTRIBUTE || required[attribute] != null || value.length() == 0 || !value.equals(value.trim()))
+			return false;
+		for (int i = 0; i < test.length(); i++) {
+			switch (test.charAt(i)) {
+				case '(' :
+				case '*' :
+				case '\\' :
+				case '~' :
+				case '<' :
+				case '>' :
+					// nested filters, substrings, escapes and approximate or ordered comparisons
+					return false;
+			}
 		}
+		required[attribute] = value;
+		return true;
 	}
 
 	public String toString() {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.artifact.repository.simple;
 
+import java.net.URI;
 import java.util.Map;
 import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
@@ -21,6 +22,25 @@ public class SimpleArtifactDescriptor extends ArtifactDescriptor {
 
 	protected Map<String, String> repositoryProperties = new OrderedProperties();
 
+	/*
+	 * A location of this descriptor computed by the mapper of a repository, and what it was computed from.
+	 */
+	private static class MappedLocation {
+		final Mapper mapper;
+		final URI repositoryLocation;
+		final String format;
+		final URI location;
+
+		MappedLocation(Mapper mapper, URI repositoryLocation, String format, URI location) {
+			this.mapper = mapper;
+			this.repositoryLocation = repositoryLocation;
+			this.format = format;
+			this.location = location;
+		}
+	}
+
+	private volatile MappedLocation mappedLocation;
+
 	public SimpleArtifactDescriptor(IArtifactKey key) {
 		super(key);
 	}
@@ -52,6 +72,23 @@ public class SimpleArtifactDescriptor extends ArtifactDescriptor {
 		return OrderedProperties.unmodifiableProperties(repositoryProperties);
 	}
 
+	/**
+	 * Returns the location last mapped for this descriptor by the given mapper, or <code>null</code>
+	 * if it has to be mapped again.
+	 */
+	URI getMappedLocation(Mapper mapper, URI repositoryLocation, String format) {
+		MappedLocation mapped = mappedLocation;
+		if (mapped == null || mapped.mapper != mapper || mapped.repositoryLocation != repositoryLocation)
+			return null;
+		if (format == null ? mapped.format != null : !format.equals(mapped.format))
+			return null;
+		return mapped.location;
+	}
+
+	void setMappedLocation(Mapper mapper, URI repositoryLocation, String format, URI location) {
+		mappedLocation = new MappedLocation(mapper, repositoryLocation, format, location);
+	}
+
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
@@ -26,7 +26,7 @@ import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.equinox.internal.p2.artifact.processors.md5.MD5Verifier;
 import org.eclipse.equinox.internal.p2.artifact.repository.*;
 import org.eclipse.equinox.internal.p2.artifact.repository.Messages;
-import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
+import org.eclipse.equinox.internal.p2.core.helpers.*;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.p2.metadata.expression.CompoundIterator;
 import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
@@ -80,6 +80,20 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	 */
 	public static final String PROP_BLOBSTORE_NAME = "p2.blobstore.name"; //$NON-NLS-1$
 
+	/**
+	 * Repository property specifying whether the changes of the descriptors and properties are
+	 * appended to a journal instead of rewriting the artifacts file on each change. The journal
+	 * is compacted into the artifacts file when it grows too large, and when the lock of the
+	 * repository is released, so that clients which do not read the journal find all changes
+	 * in the artifacts file.
+	 */
+	public static final String PROP_JOURNAL = "p2.journal"; //$NON-NLS-1$
+
+	/**
+	 * The smallest number of journal records which causes the journal to be compacted.
+	 */
+	private static final int MIN_COMPACTION_RECORDS = 1000;
+
 	/**
 	 * Does this instance of the repository currently hold a lock
 	 */
@@ -90,7 +104,25 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	 */
 	private Boolean canLock = null;
 
-	private long cacheTimestamp = 0l;
+	private volatile long cacheTimestamp = 0l;
+
+	private volatile ArtifactJournal journal;
+	/**
+	 * The timestamp of the artifacts file the descriptors were last loaded from or saved to
+	 */
+	private long artifactsTimestamp = -1;
+	/**
+	 * The changes to append to the journal when the repository is next saved
+	 */
+	private List<ArtifactJournal.Change> pendingChanges = new ArrayList<ArtifactJournal.Change>();
+	/**
+	 * Whether the repository changed in a way that cannot be journaled since it was last saved
+	 */
+	private boolean fullSaveNeeded = false;
+	/**
+	 * Whether changes were appended to the journal since the artifacts file was last written
+	 */
+	private boolean journalAppended = false;
 
 	public class ArtifactOutputStream extends OutputStream implements IStateful {
 		private boolean closed;
@@ -235,19 +267,32 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	private static final String XML_EXTENSION = ".xml"; //$NON-NLS-1$
 	protected Set<SimpleArtifactDescriptor> artifactDescriptors = new HashSet<SimpleArtifactDescriptor>();
 	/**
-	 * Map<IArtifactKey,List<IArtifactDescriptor>> containing the index of artifacts in the repository.
+	 * The published snapshot of the index of artifacts in the repository, used by readers without
+	 * locking the repository.
 	 */
-	private Map<IArtifactKey, List<IArtifactDescriptor>> artifactMap = new HashMap<IArtifactKey, List<IArtifactDescriptor>>();
-	private transient BlobStore blobStore;
-	transient private Mapper mapper = new Mapper();
-	private KeyIndex keyIndex;
-	private boolean snapshotNeeded = false;
+	private volatile DescriptorSnapshot snapshot = new DescriptorSnapshot(new HashMap<IArtifactKey, List<IArtifactDescriptor>>());
+	/**
+	 * The copy of the index of artifacts modified by the current update, published by
+	 * {@link #publishDescriptors()}. Guarded by the repository monitor.
+	 */
+	private Map<IArtifactKey, List<IArtifactDescriptor>> updatedMap;
+	/**
+	 * The number of batches being executed. The updated index is only published when the
+	 * outermost batch completes. Guarded by the repository monitor.
+	 */
+	private int batchDepth = 0;
+	private transient volatile BlobStore blobStore;
+	transient private volatile Mapper mapper = new Mapper();
+	/**
+	 * The location of the repository, read without locking the repository
+	 */
+	private volatile URI repositoryLocation;
 
 	static final private String PUBLISH_PACK_FILES_AS_SIBLINGS = "publishPackFilesAsSiblings"; //$NON-NLS-1$
 
 	private static final int DEFAULT_MAX_THREADS = 4;
 
-	protected String[][] mappingRules = DEFAULT_MAPPING_RULES;
+	protected volatile String[][] mappingRules = DEFAULT_MAPPING_RULES;
 
 	private MirrorSelector mirrors;
 
@@ -286,49 +331,87 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		this.mappingRules = mappingRules;
 		for (SimpleArtifactDescriptor desc : artifactDescriptors)
 			mapDescriptor(desc);
+		publishDescriptors();
 	}
 
-	private synchronized void mapDescriptor(IArtifactDescriptor descriptor) {
-		IArtifactKey key = descriptor.getArtifactKey();
-		if (snapshotNeeded) {
-			cloneAritfactMap();
-			snapshotNeeded = false;
+	/**
+	 * An index of the artifacts in the repository, which is never modified once published.
+	 */
+	private static class DescriptorSnapshot {
+		final Map<IArtifactKey, List<IArtifactDescriptor>> artifactMap;
+		private KeyIndex keyIndex;
+
+		DescriptorSnapshot(Map<IArtifactKey, List<IArtifactDescriptor>> artifactMap) {
+			this.artifactMap = artifactMap;
 		}
-		List<IArtifactDescriptor> descriptors = artifactMap.get(key);
-		if (descriptors == null) {
-			descriptors = new ArrayList<IArtifactDescriptor>();
-			artifactMap.put(key, descriptors);
+
+		synchronized KeyIndex getKeyIndex() {
+			if (keyIndex == null)
+				keyIndex = new KeyIndex(artifactMap.keySet());
+			return keyIndex;
 		}
+	}
+
+	/*
+	 * Return the copy of the index of artifacts modified by the current update. The lists
+	 * of descriptors are shared with the published index, so they are copied when modified.
+	 */
+	private synchronized Map<IArtifactKey, List<IArtifactDescriptor>> getUpdatedMap() {
+		if (updatedMap == null)
+			updatedMap = new HashMap<IArtifactKey, List<IArtifactDescriptor>>(snapshot.artifactMap);
+		return updatedMap;
+	}
+
+	private synchronized void mapDescriptor(IArtifactDescriptor descriptor) {
+		IArtifactKey key = descriptor.getArtifactKey();
+		Map<IArtifactKey, List<IArtifactDescriptor>> map = getUpdatedMap();
+		List<IArtifactDescriptor> oldDescriptors = map.get(key);
+		List<IArtifactDescriptor> descriptors = new ArrayList<IArtifactDescriptor>(oldDescriptors == null ? 1 : oldDescriptors.size() + 1);
+		if (oldDescriptors != null)
+			descriptors.addAll(oldDescriptors);
 		descriptors.add(descriptor);
-		keyIndex = null;
+		map.put(key, descriptors);
 	}
 
 	private synchronized void unmapDescriptor(IArtifactDescriptor descriptor) {
 		IArtifactKey key = descriptor.getArtifactKey();
-		List<IArtifactDescriptor> descriptors = artifactMap.get(key);
-		if (descriptors == null)
+		Map<IArtifactKey, List<IArtifactDescriptor>> map = getUpdatedMap();
+		List<IArtifactDescriptor> oldDescriptors = map.get(key);
+		if (oldDescriptors == null)
 			return;
 
-		if (snapshotNeeded) {
-			cloneAritfactMap();
-			snapshotNeeded = false;
-			descriptors = artifactMap.get(key);
-		}
+		List<IArtifactDescriptor> descriptors = new ArrayList<IArtifactDescriptor>(oldDescriptors);
 		descriptors.remove(descriptor);
 		if (descriptors.isEmpty())
-			artifactMap.remove(key);
-		keyIndex = null;
+			map.remove(key);
+		else
+			map.put(key, descriptors);
 	}
 
-	private void cloneAritfactMap() {
-		HashMap<IArtifactKey, List<IArtifactDescriptor>> clone = new HashMap<IArtifactKey, List<IArtifactDescriptor>>(artifactMap.size());
-		for (Entry<IArtifactKey, List<IArtifactDescriptor>> entry : artifactMap.entrySet())
-			clone.put(entry.getKey(), new ArrayList<IArtifactDescriptor>(entry.getValue()));
-		artifactMap = clone;
+	/*
+	 * Return the index of artifacts to read. A thread holding the repository monitor reads the
+	 * index it may be updating, other threads read the published snapshot.
+	 */
+	private Map<IArtifactKey, List<IArtifactDescriptor>> getArtifactMap() {
+		if (Thread.holdsLock(this) && updatedMap != null)
+			return updatedMap;
+		return snapshot.artifactMap;
+	}
+
+	/*
+	 * Publish the index of artifacts modified by the current update, if any, unless the
+	 * update is part of a batch.
+	 */
+	private synchronized void publishDescriptors() {
+		if (updatedMap == null || batchDepth > 0)
+			return;
+		snapshot = new DescriptorSnapshot(updatedMap);
+		updatedMap = null;
 	}
 
 	public SimpleArtifactRepository(IProvisioningAgent agent, String repositoryName, URI location, Map<String, String> properties) {
 		super(agent, repositoryName, REPOSITORY_TYPE, REPOSITORY_VERSION.toString(), location, null, null, properties);
+		this.repositoryLocation = location;
 
 		boolean lockAcquired = false;
 		try {
@@ -375,8 +458,10 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			SimpleArtifactDescriptor internalDescriptor = createInternalDescriptor(toAdd);
 			artifactDescriptors.add(internalDescriptor);
 			mapDescriptor(internalDescriptor);
+			recordChange(new ArtifactJournal.Change(ArtifactJournal.ADD, internalDescriptor));
 			save();
 		} finally {
+			publishDescriptors();
 			if (lockAcquired)
 				unlock();
 		}
@@ -422,9 +507,11 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 				SimpleArtifactDescriptor internalDescriptor = createInternalDescriptor(descriptors[i]);
 				artifactDescriptors.add(internalDescriptor);
 				mapDescriptor(internalDescriptor);
+				recordChange(new ArtifactJournal.Change(ArtifactJournal.ADD, internalDescriptor));
 			}
 			save();
 		} finally {
+			publishDescriptors();
 			if (lockAcquired)
 				unlock();
 		}
@@ -480,30 +567,26 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return buffer.toString();
 	}
 
-	public synchronized boolean contains(IArtifactDescriptor descriptor) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+	public boolean contains(IArtifactDescriptor descriptor) {
+		refresh();
 		SimpleArtifactDescriptor simpleDescriptor = createInternalDescriptor(descriptor);
-		return artifactDescriptors.contains(simpleDescriptor);
+		List<IArtifactDescriptor> descriptors = getArtifactMap().get(simpleDescriptor.getArtifactKey());
+		return descriptors != null && descriptors.contains(simpleDescriptor);
 	}
 
-	public synchronized boolean contains(IArtifactKey key) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
-		return artifactMap.containsKey(key);
+	public boolean contains(IArtifactKey key) {
+		refresh();
+		return getArtifactMap().containsKey(key);
 	}
 
-	public synchronized URI createLocation(ArtifactDescriptor descriptor) {
+	public URI createLocation(ArtifactDescriptor descriptor) {
 		if (flatButPackedEnabled(descriptor)) {
 			return getLocationForPackedButFlatArtifacts(descriptor);
 		}
 		// if the descriptor is canonical, clear out any UUID that might be set and use the Mapper
 		if (descriptor.getProcessingSteps().length == 0) {
 			descriptor.setProperty(ARTIFACT_UUID, null);
-			IArtifactKey key = descriptor.getArtifactKey();
-			URI result = mapper.map(getLocation(), key.getClassifier(), key.getId(), key.getVersion().toString(), descriptor.getProperty(IArtifactDescriptor.FORMAT));
+			URI result = mapLocation(descriptor);
 			if (result != null) {
 				if (isFolderBased(descriptor) && URIUtil.lastSegment(result).endsWith(JAR_EXTENSION)) {
 					return URIUtil.removeFileExtension(result);
@@ -541,8 +624,10 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			}
 		}
 		boolean result = artifactDescriptors.remove(descriptor);
-		if (result)
+		if (result) {
 			unmapDescriptor(descriptor);
+			recordChange(new ArtifactJournal.Change(ArtifactJournal.REMOVE, simple));
+		}
 
 		return result;
 	}
@@ -676,9 +761,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	public IStatus getArtifact(IArtifactDescriptor descriptor, OutputStream destination, IProgressMonitor monitor) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+		refresh();
 		if (monitor.isCanceled())
 			return Status.CANCEL_STATUS;
 		ProcessingStepHandler handler = new ProcessingStepHandler();
@@ -691,20 +774,15 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	public IStatus getRawArtifact(IArtifactDescriptor descriptor, OutputStream destination, IProgressMonitor monitor) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+		refresh();
 		if (monitor.isCanceled())
 			return Status.CANCEL_STATUS;
 		return downloadArtifact(descriptor, destination, monitor);
 	}
 
-	public synchronized IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
-
-		List<IArtifactDescriptor> result = artifactMap.get(key);
+	public IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
+		refresh();
+		List<IArtifactDescriptor> result = getArtifactMap().get(key);
 		if (result == null)
 			return new IArtifactDescriptor[0];
 
@@ -726,9 +804,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	public IStatus getArtifacts(IArtifactRequest[] requests, IProgressMonitor monitor) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+		refresh();
 		if (monitor.isCanceled())
 			return Status.CANCEL_STATUS;
 
@@ -772,11 +848,9 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return (monitor.isCanceled() ? Status.CANCEL_STATUS : overallStatus);
 	}
 
-	public synchronized IArtifactDescriptor getCompleteArtifactDescriptor(IArtifactKey key) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
-		List<IArtifactDescriptor> descriptors = artifactMap.get(key);
+	public IArtifactDescriptor getCompleteArtifactDescriptor(IArtifactKey key) {
+		refresh();
+		List<IArtifactDescriptor> descriptors = getArtifactMap().get(key);
 		if (descriptors == null)
 			return null;
 
@@ -802,18 +876,39 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	 * this arrangement "flat but packed".
 	 */
 	private boolean flatButPackedEnabled(IArtifactDescriptor descriptor) {
-		return Boolean.TRUE.toString().equals(getProperties().get(PUBLISH_PACK_FILES_AS_SIBLINGS)) && IArtifactDescriptor.FORMAT_PACKED.equals(descriptor.getProperty(IArtifactDescriptor.FORMAT));
+		return Boolean.TRUE.toString().equals(getProperty(PUBLISH_PACK_FILES_AS_SIBLINGS)) && IArtifactDescriptor.FORMAT_PACKED.equals(descriptor.getProperty(IArtifactDescriptor.FORMAT));
 	}
 
 	/**
 	 * @see #flatButPackedEnabled(IArtifactDescriptor)
 	 */
 	private URI getLocationForPackedButFlatArtifacts(IArtifactDescriptor descriptor) {
+		return mapLocation(descriptor);
+	}
+
+	/*
+	 * Maps the given descriptor to its location using the mapping rules. The location is
+	 * remembered by the descriptors of this repository until the rules, the location of the
+	 * repository or the format of the descriptor change.
+	 */
+	private URI mapLocation(IArtifactDescriptor descriptor) {
+		Mapper currentMapper = mapper;
+		URI repositoryLocation = getLocation();
+		String format = descriptor.getProperty(IArtifactDescriptor.FORMAT);
+		SimpleArtifactDescriptor simple = descriptor instanceof SimpleArtifactDescriptor ? (SimpleArtifactDescriptor) descriptor : null;
+		if (simple != null) {
+			URI result = simple.getMappedLocation(currentMapper, repositoryLocation, format);
+			if (result != null)
+				return result;
+		}
 		IArtifactKey key = descriptor.getArtifactKey();
-		return mapper.map(getLocation(), key.getClassifier(), key.getId(), key.getVersion().toString(), descriptor.getProperty(IArtifactDescriptor.FORMAT));
+		URI result = currentMapper.map(repositoryLocation, key.getClassifier(), key.getId(), key.getVersion().toString(), format);
+		if (simple != null && result != null)
+			simple.setMappedLocation(currentMapper, repositoryLocation, format, result);
+		return result;
 	}
 
-	public synchronized URI getLocation(IArtifactDescriptor descriptor) {
+	public URI getLocation(IArtifactDescriptor descriptor) {
 		// if the artifact has a uuid then use it
 		String uuid = descriptor.getProperty(ARTIFACT_UUID);
 		if (uuid != null)
@@ -838,8 +933,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 
 			// if the descriptor is complete then use the mapping rules...
 			if (descriptor.getProcessingSteps().length == 0) {
-				IArtifactKey key = descriptor.getArtifactKey();
-				URI result = mapper.map(getLocation(), key.getClassifier(), key.getId(), key.getVersion().toString(), descriptor.getProperty(IArtifactDescriptor.FORMAT));
+				URI result = mapLocation(descriptor);
 				if (result != null) {
 					if (isFolderBased(descriptor) && URIUtil.lastSegment(result).endsWith(JAR_EXTENSION))
 						return URIUtil.removeFileExtension(result);
@@ -879,9 +973,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	public OutputStream getOutputStream(IArtifactDescriptor descriptor) throws ProvisionException {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+		refresh();
 
 		assertModifiable();
 
@@ -954,10 +1046,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_WRITE, msg, e));
 	}
 
-	public synchronized String[][] getRules() {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+	public String[][] getRules() {
+		refresh();
 		return mappingRules;
 	}
 
@@ -977,8 +1067,17 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		initializeMapper();
 		for (SimpleArtifactDescriptor desc : artifactDescriptors)
 			desc.setRepository(this);
-		if (updateTimestamp)
+		if (updateTimestamp) {
 			updateTimestamp();
+			// the journal applies to the artifacts file which was just loaded
+			try {
+				artifactsTimestamp = Long.parseLong(getProperty(IRepository.PROP_TIMESTAMP));
+			} catch (NumberFormatException e) {
+				artifactsTimestamp = -1;
+			}
+			if (!readJournal() && Tracing.DEBUG_METADATA_PARSING)
+				Tracing.debug("Ignoring the outdated journal of artifact repository " + repoLocation); //$NON-NLS-1$
+		}
 		if (canLock == null)
 			canLock = new Boolean(canLock());
 	}
@@ -992,8 +1091,10 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	private synchronized void initializeMapper() {
-		mapper = new Mapper();
-		mapper.initialize(Activator.getContext(), mappingRules);
+		// readers use the mapper without locking, so it is only published once initialized
+		Mapper newMapper = new Mapper();
+		newMapper.initialize(Activator.getContext(), mappingRules);
+		mapper = newMapper;
 	}
 
 	private boolean isFolderBased(IArtifactDescriptor descriptor) {
@@ -1046,6 +1147,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			if (changed)
 				save();
 		} finally {
+			publishDescriptors();
 			if (lockAcquired)
 				unlock();
 		}
@@ -1063,6 +1165,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			if (doRemoveArtifact(descriptor))
 				save();
 		} finally {
+			publishDescriptors();
 			if (lockAcquired)
 				unlock();
 		}
@@ -1083,6 +1186,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			if (changed)
 				save();
 		} finally {
+			publishDescriptors();
 			if (lockAcquired)
 				unlock();
 		}
@@ -1106,6 +1210,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			if (changed)
 				save();
 		} finally {
+			publishDescriptors();
 			if (lockAcquired)
 				unlock();
 		}
@@ -1127,6 +1232,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			if (changed)
 				save();
 		} finally {
+			publishDescriptors();
 			if (lockAcquired)
 				unlock();
 		}
@@ -1176,6 +1282,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	public void save() {
 		if (disableSave)
 			return;
+		if (saveToJournal())
+			return;
 		boolean compress = "true".equalsIgnoreCase(getProperty(PROP_COMPRESSED)); //$NON-NLS-1$
 		save(compress);
 	}
@@ -1209,8 +1317,10 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 					jOs.putNextEntry(new JarEntry(new Path(artifactsFile.getAbsolutePath()).lastSegment()));
 					os = jOs;
 				}
-				super.setProperty(IRepository.PROP_TIMESTAMP, Long.toString(System.currentTimeMillis()), new NullProgressMonitor());
+				long timestamp = System.currentTimeMillis();
+				super.setProperty(IRepository.PROP_TIMESTAMP, Long.toString(timestamp), new NullProgressMonitor());
 				new SimpleArtifactRepositoryIO(getProvisioningAgent()).write(this, os);
+				resetJournal(timestamp);
 			} catch (IOException e) {
 				// TODO proper exception handling
 				e.printStackTrace();
@@ -1224,6 +1334,98 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		}
 	}
 
+	/*
+	 * Append the changes made since the repository was last saved to the journal, unless
+	 * the repository is not journaled, the journal is due for compaction or the changes
+	 * cannot be journaled. Return whether the changes were saved.
+	 */
+	private boolean saveToJournal() {
+		try {
+			if (pendingChanges.isEmpty() || fullSaveNeeded || !isJournaled())
+				return false;
+			ArtifactJournal currentJournal = getJournal();
+			if (currentJournal.getRecords() + pendingChanges.size() > Math.max(MIN_COMPACTION_RECORDS, artifactDescriptors.size() / 4))
+				return false;
+			try {
+				currentJournal.append(pendingChanges);
+				journalAppended = true;
+				return true;
+			} catch (IOException e) {
+				// the journal does not apply to the loaded artifacts file, write the artifacts file instead
+				return false;
+			}
+		} finally {
+			pendingChanges.clear();
+		}
+	}
+
+	/*
+	 * Start a new journal for the artifacts file which was just written.
+	 */
+	private void resetJournal(long timestamp) throws IOException {
+		artifactsTimestamp = timestamp;
+		pendingChanges.clear();
+		fullSaveNeeded = false;
+		journalAppended = false;
+		if (isJournaled())
+			getJournal().reset(timestamp);
+		else if (journal != null || getJournalFile().exists())
+			getJournal().delete();
+	}
+
+	private boolean isJournaled() {
+		return isLocal() && "true".equals(getProperty(PROP_JOURNAL)); //$NON-NLS-1$
+	}
+
+	private File getJournalFile() {
+		return new File(URIUtil.toFile(getLocation()), ArtifactJournal.JOURNAL_FILENAME);
+	}
+
+	private ArtifactJournal getJournal() {
+		if (journal == null)
+			journal = new ArtifactJournal(getJournalFile());
+		return journal;
+	}
+
+	private void recordChange(ArtifactJournal.Change change) {
+		if (isJournaled())
+			pendingChanges.add(change);
+	}
+
+	/*
+	 * Apply the changes appended to the journal since it was last read. Return false if the
+	 * journal applies to another artifacts file, which has to be loaded instead.
+	 */
+	private boolean readJournal() {
+		if (!isJournaled())
+			return true;
+		try {
+			List<ArtifactJournal.Change> changes = getJournal().read(artifactsTimestamp);
+			if (changes == null)
+				return false;
+			applyChanges(changes);
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Could not read the journal of artifact repository " + getLocation(), e)); //$NON-NLS-1$
+		}
+		return true;
+	}
+
+	private void applyChanges(List<ArtifactJournal.Change> changes) {
+		for (ArtifactJournal.Change change : changes) {
+			if (change.type == ArtifactJournal.PROPERTY) {
+				doSetProperty(change.key, change.value, new NullProgressMonitor(), false);
+			} else if (change.type == ArtifactJournal.ADD) {
+				if (artifactDescriptors.add(change.descriptor)) {
+					change.descriptor.setRepository(this);
+					mapDescriptor(change.descriptor);
+				}
+			} else if (artifactDescriptors.remove(change.descriptor)) {
+				unmapDescriptor(change.descriptor);
+			}
+		}
+		publishDescriptors();
+	}
+
 	private String doSetProperty(String key, String newValue, IProgressMonitor monitor, boolean save) {
 		String oldValue = super.setProperty(key, newValue, new NullProgressMonitor());
 		if (oldValue == newValue || (oldValue != null && oldValue.equals(newValue)))
@@ -1238,8 +1440,12 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 				initializeMapper();
 			}
 		}
-		if (save)
+		if (save) {
+			recordChange(new ArtifactJournal.Change(key, newValue));
+			if (PROP_JOURNAL.equals(key))
+				fullSaveNeeded = true;
 			save();
+		}
 		return oldValue;
 	}
 
@@ -1260,6 +1466,32 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 
 	public synchronized void setRules(String[][] rules) {
 		mappingRules = rules;
+		fullSaveNeeded = true;
+	}
+
+	public synchronized void setName(String value) {
+		super.setName(value);
+		fullSaveNeeded = true;
+	}
+
+	public synchronized void setDescription(String description) {
+		super.setDescription(description);
+		fullSaveNeeded = true;
+	}
+
+	public synchronized void setProvider(String provider) {
+		super.setProvider(provider);
+		fullSaveNeeded = true;
+	}
+
+	public URI getLocation() {
+		URI location = repositoryLocation;
+		return location != null ? location : super.getLocation();
+	}
+
+	protected synchronized void setLocation(URI location) {
+		super.setLocation(location);
+		repositoryLocation = location;
 	}
 
 	public String toString() {
@@ -1269,11 +1501,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	public IQueryable<IArtifactDescriptor> descriptorQueryable() {
 		return new IQueryable<IArtifactDescriptor>() {
 			public IQueryResult<IArtifactDescriptor> query(IQuery<IArtifactDescriptor> query, IProgressMonitor monitor) {
-				synchronized (SimpleArtifactRepository.this) {
-					snapshotNeeded = true;
-					Collection<List<IArtifactDescriptor>> descs = SimpleArtifactRepository.this.artifactMap.values();
-					return query.perform(new CompoundIterator<IArtifactDescriptor>(descs.iterator()));
-				}
+				Collection<List<IArtifactDescriptor>> descs = getArtifactMap().values();
+				return query.perform(new CompoundIterator<IArtifactDescriptor>(descs.iterator()));
 			}
 		};
 	}
@@ -1282,12 +1511,16 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return IndexProvider.query(this, query, monitor);
 	}
 
-	public synchronized Iterator<IArtifactKey> everything() {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
-		snapshotNeeded = true;
-		return artifactMap.keySet().iterator();
+	public Iterator<IArtifactKey> everything() {
+		refresh();
+		return Collections.unmodifiableSet(getArtifactMap().keySet()).iterator();
+	}
+
+	/**
+	 * Return the number of artifact keys in the repository.
+	 */
+	public int size() {
+		return getArtifactMap().size();
 	}
 
 	public IStatus executeBatch(IRunnableWithProgress runnable, IProgressMonitor monitor) {
@@ -1295,6 +1528,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 
 		boolean lockAcquired = false;
 		synchronized (this) {
+			// the descriptors added by the batch are published once, when it completes
+			batchDepth++;
 			try {
 				if (canLock()) {
 					lockAcquired = lockAndLoad(false, monitor);
@@ -1318,6 +1553,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 					else
 						result = new Status(IStatus.ERROR, Activator.ID, e.getMessage(), e);
 				} finally {
+					batchDepth--;
+					publishDescriptors();
 					if (lockAcquired)
 						unlock();
 				}
@@ -1328,15 +1565,12 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return result;
 	}
 
-	public synchronized IIndex<IArtifactKey> getIndex(String memberName) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+	public IIndex<IArtifactKey> getIndex(String memberName) {
+		refresh();
 		if (ArtifactKey.MEMBER_ID.equals(memberName)) {
-			snapshotNeeded = true;
-			if (keyIndex == null)
-				keyIndex = new KeyIndex(artifactMap.keySet());
-			return keyIndex;
+			if (Thread.holdsLock(this) && updatedMap != null)
+				return new KeyIndex(updatedMap.keySet());
+			return snapshot.getKeyIndex();
 		}
 		return null;
 	}
@@ -1414,22 +1648,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		}
 
 		lockLocation = getLockLocation();
-		boolean locked = lockLocation.lock();
-		if (locked || !wait)
-			return locked;
-
-		//Someone else must have the directory locked
-		while (true) {
-			if (monitor.isCanceled())
-				return false;
-			try {
-				Thread.sleep(200); // 5x per second
-			} catch (InterruptedException e) {/*ignore*/
-			}
-			locked = lockLocation.lock();
-			if (locked)
-				return true;
-		}
+		return LocationLocker.lock(lockLocation, wait, monitor);
 	}
 
 	/**
@@ -1469,6 +1688,31 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			monitor.done();
 	}
 
+	/**
+	 * Loads the changes made to the repository on disk, for the methods reading the
+	 * repository without locking it. The repository is only locked when the artifacts
+	 * file or its journal changed since they were last read, so that concurrent readers
+	 * do not wait for each other.
+	 */
+	private void refresh() {
+		URI location = getLocation();
+		if (!URIUtil.isFileURI(location) || !isChangedOnDisk(location))
+			return;
+		synchronized (this) {
+			load(new NullProgressMonitor());
+		}
+	}
+
+	private boolean isChangedOnDisk(URI location) {
+		File artifactsFile = URIUtil.toFile(getActualLocation(location, true));
+		if (!artifactsFile.exists())
+			artifactsFile = URIUtil.toFile(getActualLocation(location, false));
+		if (artifactsFile.lastModified() > cacheTimestamp)
+			return true;
+		ArtifactJournal currentJournal = journal;
+		return currentJournal != null && currentJournal.hasNewRecords();
+	}
+
 	private void updateTimestamp() {
 		if (!isModifiable())
 			return;
@@ -1499,7 +1743,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			try {
 				File localFile = repositoryFactory.getLocalFile(getLocation(), subMonitor.newChild(1));
 				long lastModified = localFile.lastModified();
-				if (lastModified <= cacheTimestamp)
+				// catch up with the journal unless the artifacts file was written again
+				if (lastModified <= cacheTimestamp && readJournal())
 					return;
 				cacheTimestamp = lastModified;
 			} catch (Exception e) {
@@ -1533,7 +1778,13 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 
 				//
 				this.artifactDescriptors = ((SimpleArtifactRepository) repositoryOnDisk).artifactDescriptors;
-				this.artifactMap = ((SimpleArtifactRepository) repositoryOnDisk).artifactMap;
+				this.snapshot = ((SimpleArtifactRepository) repositoryOnDisk).snapshot;
+				this.updatedMap = null;
+				this.journal = ((SimpleArtifactRepository) repositoryOnDisk).journal;
+				this.artifactsTimestamp = ((SimpleArtifactRepository) repositoryOnDisk).artifactsTimestamp;
+				this.pendingChanges.clear();
+				this.fullSaveNeeded = false;
+				this.journalAppended = false;
 			}
 		} finally {
 			monitor.done();
@@ -1541,7 +1792,19 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return;
 	}
 
+	/*
+	 * Write the changes appended to the journal into the artifacts file.
+	 */
+	private void compactJournal() {
+		if (!journalAppended)
+			return;
+		boolean compress = "true".equalsIgnoreCase(getProperty(PROP_COMPRESSED)); //$NON-NLS-1$
+		save(compress);
+	}
+
 	private void unlock() {
+		// leave a complete artifacts file to the clients which do not read the journal
+		compactJournal();
 		if (!Activator.getInstance().enableArtifactLocking()) {
 			holdsLock = false;
 			return;
@@ -1549,7 +1812,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		if (lockLocation != null) {
 			// If we don't have the lock location, then we don't have the lock
 			holdsLock = false;
-			lockLocation.release();
+			LocationLocker.release(lockLocation);
 		}
 		lockLocation = null;
 	}
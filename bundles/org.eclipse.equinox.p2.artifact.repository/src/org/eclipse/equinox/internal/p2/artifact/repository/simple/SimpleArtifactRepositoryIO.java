@@ -146,22 +146,7 @@ public class SimpleArtifactRepositoryIO {
 			return true; // Don't use locking
 
 		lockLocation = getLockLocation(repositoryLocation);
-		boolean locked = lockLocation.lock();
-		if (locked || !wait)
-			return locked;
-
-		//Someone else must have the directory locked
-		while (true) {
-			if (monitor.isCanceled())
-				return false;
-			try {
-				Thread.sleep(200); // 5x per second
-			} catch (InterruptedException e) {/*ignore*/
-			}
-			locked = lockLocation.lock();
-			if (locked)
-				return true;
-		}
+		return LocationLocker.lock(lockLocation, wait, monitor);
 	}
 
 	private void unlock(URI repositoryLocation) {
@@ -169,7 +154,7 @@ public class SimpleArtifactRepositoryIO {
 			return;
 
 		if (lockLocation != null) {
-			lockLocation.release();
+			LocationLocker.release(lockLocation);
 		}
 	}
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -67,15 +67,7 @@ public class FileUtils {
 				throw new IOException(e.getMessage());
 			}
 		}
-		InputStream in = new FileInputStream(zipFile);
-		try {
-			return unzipStream(in, zipFile.length(), outputDir, null, null);
-		} catch (IOException e) {
-			// add the file name to the message
-			throw new IOException(NLS.bind(Messages.Util_Error_Unzipping, zipFile, e.getMessage()));
-		} finally {
-			in.close();
-		}
+		return unzipFile(zipFile, outputDir, null, null);
 	}
 
 	/**
@@ -83,19 +75,17 @@ public class FileUtils {
 	 * monitor may be null.
 	 */
 	public static File[] unzipFile(File zipFile, File outputDir, String taskName, IProgressMonitor monitor) throws IOException {
-		InputStream in = new FileInputStream(zipFile);
 		try {
-			return unzipStream(in, zipFile.length(), outputDir, taskName, monitor);
+			return new ZipExtractor(zipFile, outputDir).extract(taskName, monitor);
 		} catch (IOException e) {
 			// add the file name to the message
 			throw new IOException(NLS.bind(Messages.Util_Error_Unzipping, zipFile, e.getMessage()));
-		} finally {
-			in.close();
 		}
 	}
 
 	/**
-	 * Unzip from an InputStream to an output directory.
+	 * Unzip from an InputStream to an output directory. The entries are read one after
+	 * the other; prefer {@link #unzipFile(File, File)} when the zip is available as a file.
 	 */
 	public static File[] unzipStream(InputStream stream, long size, File outputDir, String taskName, IProgressMonitor monitor) throws IOException {
 		InputStream is = monitor == null ? stream : stream; // new ProgressMonitorInputStream(stream, size, size, taskName, monitor); TODO Commented code
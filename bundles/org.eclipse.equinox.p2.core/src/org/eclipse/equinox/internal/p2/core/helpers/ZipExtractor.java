@@ -0,0 +1,270 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.core.helpers;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+
+/**
+ * Extracts a zip file to an output directory. The entries are listed from the central
+ * directory of the zip file, the directories are created up front, and the files are
+ * then inflated by several threads at the same time, each file being written in large
+ * blocks to a file which has been sized to the length of the entry beforehand.
+ * <p>
+ * The extracted files are returned in the order of the entries in the zip file, and
+ * the progress monitor is only used by the calling thread.
+ */
+public class ZipExtractor {
+	/**
+	 * System property specifying the maximum number of threads inflating files at the
+	 * same time. A value of 1 extracts the files one after the other in the calling thread.
+	 */
+	public static final String PROP_UNZIP_THREADS = "eclipse.p2.unzip.threads"; //$NON-NLS-1$
+	private static final int MAX_DEFAULT_THREADS = 4;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long POLL_INTERVAL = 100;
+
+	private final File zipFile;
+	private final File outputDir;
+
+	private final Object lock = new Object();
+	// the files which remain to be inflated, the largest last
+	private final LinkedList<ZipEntry> queue = new LinkedList<ZipEntry>();
+	private int extracted = 0;
+	private long bytesWritten = 0;
+	private int running = 0;
+	private Throwable failure;
+
+	/**
+	 * Thread inflating queued entries until the queue is empty or an extraction failed.
+	 */
+	private class ExtractThread extends Thread {
+		private final ZipFile zip;
+
+		ExtractThread(ZipFile zip, int index) {
+			super("p2 unzip " + index); //$NON-NLS-1$
+			setDaemon(true);
+			this.zip = zip;
+		}
+
+		public void run() {
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				ZipEntry entry;
+				while ((entry = next()) != null) {
+					long written = extract(zip, entry, buffer);
+					synchronized (lock) {
+						extracted++;
+						bytesWritten += written;
+					}
+				}
+			} catch (Throwable t) {
+				synchronized (lock) {
+					if (failure == null)
+						failure = t;
+					queue.clear();
+				}
+			} finally {
+				synchronized (lock) {
+					running--;
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+
+	public ZipExtractor(File zipFile, File outputDir) {
+		this.zipFile = zipFile;
+		this.outputDir = outputDir;
+	}
+
+	/**
+	 * Return the maximum number of threads inflating files, as configured by the
+	 * {@link #PROP_UNZIP_THREADS} property.
+	 */
+	public static int getConfiguredThreads() {
+		String value = System.getProperty(PROP_UNZIP_THREADS);
+		if (value != null) {
+			try {
+				return Math.max(1, Integer.parseInt(value));
+			} catch (NumberFormatException e) {
+				System.err.println("Ignoring user-specified '" + PROP_UNZIP_THREADS + "' value of: " + value); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return Math.min(MAX_DEFAULT_THREADS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Prepare the location of a file about to be extracted, which already exists. Invoked
+	 * by the calling thread, before any file is inflated. This implementation deletes the
+	 * existing file.
+	 */
+	protected void prepareExisting(File outFile) throws IOException {
+		outFile.delete();
+	}
+
+	/**
+	 * Extract all entries of the zip file.
+	 *
+	 * @param taskName the name of the task reported to the monitor, may be <code>null</code>
+	 * @param monitor the progress monitor, may be <code>null</code>
+	 * @return the extracted files and directories, in the order of their entries
+	 */
+	public File[] extract(String taskName, IProgressMonitor monitor) throws IOException {
+		return extract(taskName, monitor, getConfiguredThreads());
+	}
+
+	public File[] extract(String taskName, IProgressMonitor monitor, int maxThreads) throws IOException {
+		ZipFile zip = new ZipFile(zipFile);
+		try {
+			List<File> unzippedFiles = new ArrayList<File>();
+			// the files to inflate by name, the last entry of a name wins
+			Map<String, ZipEntry> files = new LinkedHashMap<String, ZipEntry>();
+			for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+				ZipEntry entry = e.nextElement();
+				File outFile = new File(outputDir, entry.getName());
+				unzippedFiles.add(outFile);
+				if (entry.isDirectory()) {
+					outFile.mkdirs();
+				} else {
+					if (outFile.exists())
+						prepareExisting(outFile);
+					else
+						outFile.getParentFile().mkdirs();
+					files.remove(entry.getName());
+					files.put(entry.getName(), entry);
+				}
+			}
+			if (unzippedFiles.isEmpty())
+				// There must be at least one entry in a zip file.
+				throw new IOException(Messages.Util_Invalid_Zip_File_Format);
+
+			List<ZipEntry> sorted = new ArrayList<ZipEntry>(files.values());
+			// the largest files are inflated first so that the threads finish at about the same time
+			Collections.sort(sorted, new Comparator<ZipEntry>() {
+				public int compare(ZipEntry e1, ZipEntry e2) {
+					long s1 = e1.getCompressedSize();
+					long s2 = e2.getCompressedSize();
+					return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+				}
+			});
+			queue.addAll(sorted);
+
+			SubMonitor sub = taskName == null ? SubMonitor.convert(monitor, sorted.size()) : SubMonitor.convert(monitor, taskName, sorted.size());
+			try {
+				int threads = Math.min(maxThreads, sorted.size());
+				if (threads > 1)
+					extractInParallel(zip, threads, sub);
+				else
+					extractSerially(zip, sub);
+			} finally {
+				sub.done();
+			}
+			return unzippedFiles.toArray(new File[unzippedFiles.size()]);
+		} finally {
+			zip.close();
+		}
+	}
+
+	private void extractSerially(ZipFile zip, SubMonitor sub) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		ZipEntry entry;
+		while ((entry = next()) != null) {
+			long written = extract(zip, entry, buffer);
+			synchronized (lock) {
+				bytesWritten += written;
+			}
+			sub.worked(1);
+		}
+	}
+
+	private void extractInParallel(ZipFile zip, int threads, SubMonitor sub) throws IOException {
+		synchronized (lock) {
+			for (int i = 0; i < threads; i++) {
+				running++;
+				new ExtractThread(zip, i).start();
+			}
+			int reported = 0;
+			while (true) {
+				if (extracted > reported) {
+					sub.worked(extracted - reported);
+					reported = extracted;
+				}
+				if (running == 0)
+					break;
+				try {
+					lock.wait(POLL_INTERVAL);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+			}
+			if (failure instanceof IOException)
+				throw (IOException) failure;
+			if (failure instanceof RuntimeException)
+				throw (RuntimeException) failure;
+			if (failure instanceof Error)
+				throw (Error) failure;
+		}
+	}
+
+	/**
+	 * Return the number of bytes written to the extracted files.
+	 */
+	public long getBytesWritten() {
+		synchronized (lock) {
+			return bytesWritten;
+		}
+	}
+
+	ZipEntry next() {
+		synchronized (lock) {
+			return queue.isEmpty() ? null : queue.removeLast();
+		}
+	}
+
+	long extract(ZipFile zip, ZipEntry entry, byte[] buffer) throws IOException {
+		File outFile = new File(outputDir, entry.getName());
+		long written = 0;
+		InputStream in = zip.getInputStream(entry);
+		try {
+			RandomAccessFile out;
+			try {
+				out = new RandomAccessFile(outFile, "rw"); //$NON-NLS-1$
+			} catch (FileNotFoundException e) {
+				// TEMP: ignore this for now in case we're trying to replace
+				// a running eclipse.exe
+				return 0;
+			}
+			try {
+				long size = entry.getSize();
+				if (size > 0)
+					out.setLength(size);
+				int len;
+				while ((len = in.read(buffer)) != -1) {
+					out.write(buffer, 0, len);
+					written += len;
+				}
+				if (written != size)
+					out.setLength(written);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		outFile.setLastModified(entry.getTime());
+		return written;
+	}
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ * 	IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.*;
+
+/**
+ * A bounded cache of the explanations computed for unsatisfiable problems, keyed by
+ * the {@link ProblemFingerprint} of the problem. Computing an explanation is much more
+ * expensive than finding out that a problem has no solution, and users tend to submit
+ * the same failing request several times while adjusting their selection.
+ */
+public class ExplanationCache {
+	private static final int MAX_ENTRIES = 16;
+
+	private final Map<String, Set<Explanation>> cache = new LinkedHashMap<String, Set<Explanation>>(MAX_ENTRIES, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, Set<Explanation>> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	public synchronized Set<Explanation> get(String fingerprint) {
+		return cache.get(fingerprint);
+	}
+
+	public synchronized void put(String fingerprint, Set<Explanation> explanation) {
+		cache.put(fingerprint, Collections.unmodifiableSet(explanation));
+	}
+
+	public synchronized void clear() {
+		cache.clear();
+	}
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ * 	IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IRequirement;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.query.QueryUtil;
+
+/**
+ * Computes a stable digest of everything that determines the encoding of a planning
+ * problem: the requirements of the entry point, the roots which are already installed,
+ * the installable units of the slice, the selection context and whether or not meta
+ * requirements are considered. Two problems with the same fingerprint have the same
+ * encoding, regardless of the order in which their installable units were gathered.
+ */
+public class ProblemFingerprint {
+	private static final char SEPARATOR = '\n';
+
+	private ProblemFingerprint() {
+		// static helper only
+	}
+
+	public static String compute(IInstallableUnit entryPoint, IInstallableUnit[] alreadyExistingRoots, IQueryable<IInstallableUnit> slice, Map<String, String> selectionContext, boolean considerMetaRequirements) {
+		return compute(entryPoint, alreadyExistingRoots, slice, selectionContext, considerMetaRequirements, null, null);
+	}
+
+	/**
+	 * Compute the fingerprint of a problem, also taking into account what is currently installed
+	 * and the units being added. Those do not change the encoding of the problem but they change
+	 * the optimization function, and therefore the solution.
+	 */
+	public static String compute(IInstallableUnit entryPoint, IInstallableUnit[] alreadyExistingRoots, IQueryable<IInstallableUnit> slice, Map<String, String> selectionContext, boolean considerMetaRequirements, IQueryable<IInstallableUnit> installedIUs, Collection<IInstallableUnit> newRoots) {
+		List<String> requirements = new ArrayList<String>();
+		for (IRequirement req : entryPoint.getRequirements()) {
+			requirements.add(req.toString() + ' ' + req.getMin() + ' ' + req.getMax() + ' ' + req.isGreedy() + ' ' + req.getFilter());
+		}
+		Collections.sort(requirements);
+
+		List<String> existingRoots = new ArrayList<String>(alreadyExistingRoots.length);
+		for (int i = 0; i < alreadyExistingRoots.length; i++)
+			existingRoots.add(toString(alreadyExistingRoots[i]));
+		Collections.sort(existingRoots);
+
+		List<String> units = new ArrayList<String>();
+		for (Iterator<IInstallableUnit> iter = slice.query(QueryUtil.createIUAnyQuery(), null).iterator(); iter.hasNext();)
+			units.add(toString(iter.next()));
+		Collections.sort(units);
+
+		List<String> context = new ArrayList<String>(selectionContext.size());
+		for (Map.Entry<String, String> entry : selectionContext.entrySet())
+			context.add(entry.getKey() + '=' + entry.getValue());
+		Collections.sort(context);
+
+		List<String> installed = new ArrayList<String>();
+		if (installedIUs != null) {
+			for (Iterator<IInstallableUnit> iter = installedIUs.query(QueryUtil.createIUAnyQuery(), null).iterator(); iter.hasNext();)
+				installed.add(toString(iter.next()));
+			Collections.sort(installed);
+		}
+
+		List<String> added = new ArrayList<String>();
+		if (newRoots != null) {
+			for (IInstallableUnit iu : newRoots)
+				added.add(toString(iu));
+			Collections.sort(added);
+		}
+
+		try {
+			MessageDigest algorithm = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			update(algorithm, requirements);
+			update(algorithm, existingRoots);
+			update(algorithm, units);
+			update(algorithm, context);
+			if (installedIUs != null || newRoots != null) {
+				update(algorithm, installed);
+				update(algorithm, added);
+			}
+			algorithm.update(Boolean.toString(considerMetaRequirements).getBytes("UTF-8")); //$NON-NLS-1$
+			return new BigInteger(1, algorithm.digest()).toString(16);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toString(IInstallableUnit iu) {
+		return iu.getId() + ' ' + iu.getVersion();
+	}
+
+	private static void update(MessageDigest algorithm, List<String> values) throws UnsupportedEncodingException {
+		// include the size so that values can't shift from one list into the next
+		algorithm.update(Integer.toString(values.size()).getBytes("UTF-8")); //$NON-NLS-1$
+		for (String value : values) {
+			algorithm.update(value.getBytes("UTF-8")); //$NON-NLS-1$
+			algorithm.update((byte) SEPARATOR);
+		}
+	}
+}
@@ -23,6 +23,7 @@ import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
 import org.eclipse.equinox.internal.p2.director.Explanation.NotInstallableRoot;
 import org.eclipse.equinox.internal.p2.metadata.IRequiredCapability;
 import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.provisional.p2.director.PlanningReport;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
 import org.eclipse.equinox.p2.query.*;
@@ -64,6 +65,29 @@ public class Projector {
 	private Map<IInstallableUnitFragment, Set<IInstallableUnit>> fragments = new HashMap<IInstallableUnitFragment, Set<IInstallableUnit>>();
 
 	private int numberOfInstalledIUs;
+	private boolean explanationComplete = true;
+	//The explanations of the roots to install and of the IUs known to be not installable on their own,
+	//returned as a partial explanation when the computation of the explanation runs out of time
+	private Set<Explanation> rootExplanations = new LinkedHashSet<Explanation>();
+	private Set<Explanation> isolatedExplanations = new LinkedHashSet<Explanation>();
+
+	private SolverStrategy strategy = SolverStrategy.ECLIPSE_P2;
+	private volatile IPBSolver solver;
+	private boolean timedOut = false;
+	private Map<IInstallableUnitFragment, List<IInstallableUnit>> resolvedFragments; //set when the solution does not come from the solver
+
+	//Statistics of the encoding and the solving, see #fillReport
+	private int encodedIUs = 0;
+	private int encodedRequirements = 0;
+	private int encodedPatches = 0;
+	private long encodingTime = -1;
+	private long solvingTime = -1;
+	private int solverConstraints = -1;
+	private int solverVariables = -1;
+	private long solverDecisions = -1;
+	private long solverConflicts = -1;
+	private long solverRestarts = -1;
+	private long explanationTime = -1;
 
 	//Non greedy things
 	private Set<IInstallableUnit> nonGreedyIUs; //All the IUs that would satisfy non greedy dependencies
@@ -156,6 +180,15 @@ public class Projector {
 		this.considerMetaRequirements = considerMetaRequirements;
 	}
 
+	public Projector(IQueryable<IInstallableUnit> q, Map<String, String> context, Set<IInstallableUnit> nonGreedyIUs, boolean considerMetaRequirements, SolverStrategy strategy) {
+		this(q, context, nonGreedyIUs, considerMetaRequirements);
+		this.strategy = strategy;
+	}
+
+	public SolverStrategy getStrategy() {
+		return strategy;
+	}
+
 	protected boolean isInstalled(IInstallableUnit iu) {
 		return !lastState.query(QueryUtil.createIUQuery(iu), null).isEmpty();
 	}
@@ -166,18 +199,17 @@ public class Projector {
 		numberOfInstalledIUs = sizeOf(installedIUs);
 		lastState = installedIUs;
 		this.entryPoint = entryPointIU;
+		long start = System.currentTimeMillis();
 		try {
-			long start = 0;
-			if (DEBUG) {
-				start = System.currentTimeMillis();
+			if (DEBUG)
 				Tracing.debug("Start projection: " + start); //$NON-NLS-1$
-			}
 			IPBSolver solver;
 			if (DEBUG_ENCODING) {
 				solver = new UserFriendlyPBStringSolver<Object>();
 			} else {
-				solver = SolverFactory.newEclipseP2();
+				solver = strategy.createSolver();
 			}
+			this.solver = solver;
 			int timeout = 1000;
 			String timeoutString = null;
 			try {
@@ -231,6 +263,8 @@ public class Projector {
 			result.add(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, e.getMessage(), e));
 		} catch (ContradictionException e) {
 			result.add(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, Messages.Planner_Unsatisfiable_problem));
+		} finally {
+			encodingTime = System.currentTimeMillis() - start;
 		}
 	}
 
@@ -239,7 +273,7 @@ public class Projector {
 			AbstractVariable var = getNonGreedyVariable(iu);
 			List<Object> providers = nonGreedyProvider.get(var);
 			if (providers == null || providers.size() == 0) {
-				dependencyHelper.setFalse(var, new Explanation.MissingGreedyIU(iu));
+				setFalse(var, new Explanation.MissingGreedyIU(iu));
 			} else {
 				createImplication(var, providers, Explanation.OPTIONAL_REQUIREMENT);//FIXME
 			}
@@ -384,7 +418,7 @@ public class Projector {
 		if (DEBUG) {
 			Tracing.debug(iu + "=0"); //$NON-NLS-1$
 		}
-		dependencyHelper.setFalse(iu, new Explanation.MissingIU(iu, req, iu == this.entryPoint));
+		setFalse(iu, new Explanation.MissingIU(iu, req, iu == this.entryPoint));
 	}
 
 	// Check whether the requirement is applicable
@@ -444,7 +478,7 @@ public class Projector {
 		if (req.getMin() > 0) {
 			if (matches.isEmpty()) {
 				if (iu == entryPoint && emptyBecauseFiltered) {
-					dependencyHelper.setFalse(iu, new NotInstallableRoot(req));
+					setFalse(iu, new NotInstallableRoot(req));
 				} else {
 					missingRequirement(iu, req);
 				}
@@ -538,13 +572,17 @@ public class Projector {
 			return;
 		}
 
+		encodedIUs++;
 		IQueryResult<IInstallableUnit> applicablePatches = getApplicablePatches(iu);
 		expandLifeCycle(iu, isRootIU);
 		//No patches apply, normal code path
 		if (applicablePatches.isEmpty()) {
-			expandRequirements(getRequiredCapabilities(iu), iu, isRootIU);
+			Collection<IRequirement> requirements = getRequiredCapabilities(iu);
+			encodedRequirements += requirements.size();
+			expandRequirements(requirements, iu, isRootIU);
 		} else {
 			//Patches are applicable to the IU
+			encodedPatches += applicablePatches.toUnmodifiableSet().size();
 			expandRequirementsWithPatches(iu, applicablePatches, isRootIU);
 		}
 	}
@@ -576,6 +614,7 @@ public class Projector {
 	private void expandRequirementsWithPatches(IInstallableUnit iu, IQueryResult<IInstallableUnit> applicablePatches, boolean isRootIu) throws ContradictionException {
 		//Unmodified dependencies
 		Collection<IRequirement> iuRequirements = getRequiredCapabilities(iu);
+		encodedRequirements += iuRequirements.size();
 		Map<IRequirement, List<IInstallableUnitPatch>> unchangedRequirements = new HashMap<IRequirement, List<IInstallableUnitPatch>>(iuRequirements.size());
 		Map<IRequirement, Pending> nonPatchedRequirements = new HashMap<IRequirement, Pending>(iuRequirements.size());
 		for (Iterator<IInstallableUnit> iterator = applicablePatches.iterator(); iterator.hasNext();) {
@@ -963,11 +1002,22 @@ public class Projector {
 		createImplication(iu, optionalRequirements, Explanation.OPTIONAL_REQUIREMENT);
 	}
 
+	private void setFalse(Object var, Explanation name) throws ContradictionException {
+		dependencyHelper.setFalse(var, name);
+		isolatedExplanations.add(name);
+	}
+
+	private void rememberRoot(Explanation name) {
+		if (name instanceof Explanation.IUToInstall)
+			rootExplanations.add(name);
+	}
+
 	//This will create as many implication as there is element in the right argument
 	private void createNegationImplication(Object left, List<?> right, Explanation name) throws ContradictionException {
 		if (DEBUG) {
 			Tracing.debug(name + ": " + left + "->" + right); //$NON-NLS-1$ //$NON-NLS-2$
 		}
+		rememberRoot(name);
 		for (Object r : right)
 			dependencyHelper.implication(new Object[] {left}).impliesNot(r).named(name);
 	}
@@ -976,6 +1026,7 @@ public class Projector {
 		if (DEBUG) {
 			Tracing.debug(name + ": " + left + "->" + right); //$NON-NLS-1$ //$NON-NLS-2$
 		}
+		rememberRoot(name);
 		dependencyHelper.implication(new Object[] {left}).implies(right.toArray()).named(name);
 	}
 
@@ -983,6 +1034,7 @@ public class Projector {
 		if (DEBUG) {
 			Tracing.debug(name + ": " + Arrays.asList(left) + "->" + right); //$NON-NLS-1$ //$NON-NLS-2$
 		}
+		rememberRoot(name);
 		dependencyHelper.implication(left).implies(right.toArray()).named(name);
 	}
 
@@ -1111,15 +1163,66 @@ public class Projector {
 				result.merge(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, SimplePlanner.UNSATISFIABLE, Messages.Planner_Unsatisfiable_problem, null));
 			}
 		} catch (TimeoutException e) {
+			timedOut = true;
 			result.merge(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, Messages.Planner_Timeout));
 		} catch (Exception e) {
 			result.merge(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, Messages.Planner_Unexpected_problem, e));
+		} finally {
+			solvingTime = System.currentTimeMillis() - start;
+			recordSolverStatistics();
 		}
 		if (DEBUG)
 			System.out.println();
 		return result;
 	}
 
+	private void recordSolverStatistics() {
+		IPBSolver current = solver;
+		if (current == null)
+			return;
+		solverConstraints = current.nConstraints();
+		solverVariables = current.nVars();
+		Map<String, Number> stats = current.getStat();
+		solverDecisions = getStat(stats, "decisions"); //$NON-NLS-1$
+		solverConflicts = getStat(stats, "conflicts"); //$NON-NLS-1$
+		// the first start of the search is counted as well
+		long starts = getStat(stats, "starts"); //$NON-NLS-1$
+		solverRestarts = starts > 0 ? starts - 1 : starts;
+	}
+
+	private static long getStat(Map<String, Number> stats, String key) {
+		Number value = stats == null ? null : stats.get(key);
+		return value == null ? -1 : value.longValue();
+	}
+
+	/**
+	 * Record the statistics of the encoding, of the last invocation of the solver and of
+	 * the last explanation in the given report.
+	 */
+	public void fillReport(PlanningReport report) {
+		report.setEncoding(strategy.getName(), encodedIUs, encodedRequirements, encodedPatches, nonGreedyVariables.size(), encodingTime);
+		report.setSolving(solverConstraints, solverVariables, solverDecisions, solverConflicts, solverRestarts, solvingTime);
+		if (explanationTime >= 0)
+			report.setExplanationTime(explanationTime);
+	}
+
+	/**
+	 * Return whether or not the last invocation of the solver ran out of time.
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * Ask the solver to give up as soon as possible. This can be called from any thread,
+	 * for example when another strategy has already found the answer.
+	 */
+	public void stopSolver() {
+		IPBSolver current = solver;
+		if (current != null)
+			current.expireTimeout();
+	}
+
 	private void backToIU() {
 		solution = new ArrayList<IInstallableUnit>();
 		IVec<Object> sat4jSolution = dependencyHelper.getSolution();
@@ -1150,12 +1253,44 @@ public class Projector {
 		return solution;
 	}
 
+	/**
+	 * Return the time in milliseconds after which the computation of an explanation is
+	 * stopped, or 0 if the computation may take as long as it needs.
+	 */
+	static long getExplanationTimeout() {
+		String timeoutString = null;
+		try {
+			timeoutString = DirectorActivator.context.getProperty("eclipse.p2.projector.explanation.timeout"); //$NON-NLS-1$
+			if (timeoutString != null)
+				return Math.max(0, Long.parseLong(timeoutString));
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, number format, etc)
+			// print out to syserr and fall through
+			System.err.println("Ignoring user-specified 'eclipse.p2.projector.explanation.timeout' value of: " + timeoutString); //$NON-NLS-1$
+			e.printStackTrace();
+		}
+		return 0;
+	}
+
+	/**
+	 * Return whether or not the last explanation returned by {@link #getExplanation(IProgressMonitor)}
+	 * was computed completely. When the computation runs out of time, the solver is stopped and
+	 * the explanation returned is the partial conflict found so far: the roots to install and
+	 * the IUs already known to be not installable, which is neither complete nor minimal.
+	 */
+	public boolean isExplanationComplete() {
+		return explanationComplete;
+	}
+
 	public Set<Explanation> getExplanation(IProgressMonitor monitor) {
 		ExplanationJob job = new ExplanationJob();
 		job.schedule();
 		monitor.setTaskName(Messages.Planner_NoSolution);
 		IProgressMonitor pm = new InfiniteProgress(monitor);
 		pm.beginTask(Messages.Planner_NoSolution, 1000);
+		long timeout = getExplanationTimeout();
+		long start = System.currentTimeMillis();
+		explanationComplete = true;
 		try {
 			synchronized (job) {
 				while (job.getExplanationResult() == null && job.getState() != Job.NONE) {
@@ -1163,6 +1298,13 @@ public class Projector {
 						job.cancel();
 						throw new OperationCanceledException();
 					}
+					if (explanationComplete && timeout > 0 && System.currentTimeMillis() - start > timeout) {
+						// out of time, stop the solver
+						if (DEBUG)
+							Tracing.debug("Explanation timeout reached after: " + timeout); //$NON-NLS-1$
+						explanationComplete = false;
+						dependencyHelper.stopExplanation();
+					}
 					pm.worked(1);
 					try {
 						job.wait(100);
@@ -1173,12 +1315,30 @@ public class Projector {
 				}
 			}
 		} finally {
+			explanationTime = System.currentTimeMillis() - start;
 			monitor.done();
 		}
-		return job.getExplanationResult();
+		Set<Explanation> explanation = job.getExplanationResult();
+		if (explanationComplete || !explanation.isEmpty())
+			return explanation;
+		// the solver was stopped before it isolated the conflict, return what is known so far
+		Set<Explanation> partial = new LinkedHashSet<Explanation>(rootExplanations);
+		partial.addAll(isolatedExplanations);
+		return partial;
+	}
+
+	/**
+	 * Use a solution which was found before, for example by a previous run of the planner,
+	 * instead of invoking the solver.
+	 */
+	void setSolution(Collection<IInstallableUnit> knownSolution, Map<IInstallableUnitFragment, List<IInstallableUnit>> fragmentAssociation) {
+		solution = knownSolution;
+		resolvedFragments = fragmentAssociation;
 	}
 
 	public Map<IInstallableUnitFragment, List<IInstallableUnit>> getFragmentAssociation() {
+		if (resolvedFragments != null)
+			return resolvedFragments;
 		Map<IInstallableUnitFragment, List<IInstallableUnit>> resolvedFragments = new HashMap<IInstallableUnitFragment, List<IInstallableUnit>>(fragments.size());
 		for (Entry<IInstallableUnitFragment, Set<IInstallableUnit>> fragment : fragments.entrySet()) {
 			if (!dependencyHelper.getBooleanValueFor(fragment.getKey()))
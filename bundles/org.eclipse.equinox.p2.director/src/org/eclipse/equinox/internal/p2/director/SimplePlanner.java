@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others. All rights reserved. This
+ * Copyright (c) 2007, 2011 IBM Corporation and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -48,6 +48,9 @@ public class SimplePlanner implements IPlanner {
 	private final IProvisioningAgent agent;
 	private final IProfileRegistry profileRegistry;
 	private final IEngine engine;
+	private final ExplanationCache explanationCache = new ExplanationCache();
+	private final SolverStatistics solverStatistics = new SolverStatistics();
+	private final SolutionCache solutionCache;
 
 	private IProvisioningPlan generateProvisioningPlan(Collection<IInstallableUnit> fromState, Collection<IInstallableUnit> toState, ProfileChangeRequest changeRequest, IProvisioningPlan installerPlan, ProvisioningContext context) {
 		IProvisioningPlan plan = engine.createPlan(changeRequest.getProfile(), context);
@@ -286,6 +289,14 @@ public class SimplePlanner implements IPlanner {
 		this.profileRegistry = (IProfileRegistry) agent.getService(IProfileRegistry.SERVICE_NAME);
 		Assert.isNotNull(engine);
 		Assert.isNotNull(profileRegistry);
+		this.solutionCache = SolutionCache.create(agent);
+	}
+
+	/**
+	 * Return the timing statistics of the solver strategies used by this planner.
+	 */
+	public SolverStatistics getSolverStatistics() {
+		return solverStatistics;
 	}
 
 	private boolean satisfyMetaRequirements(Map<String, String> props) {
@@ -303,6 +314,11 @@ public class SimplePlanner implements IPlanner {
 	// Return the set of IUs representing the complete future state of the profile to satisfy the request or return a 
 	// ProvisioningPlan when the request can not be satisfied
 	private Object getSolutionFor(ProfileChangeRequest profileChangeRequest, ProvisioningContext context, IProgressMonitor monitor) {
+		return getSolutionFor(profileChangeRequest, context, null, monitor);
+	}
+
+	// Same as above, recording how the solution was found in the given report if it is not null
+	private Object getSolutionFor(ProfileChangeRequest profileChangeRequest, ProvisioningContext context, PlanningReport report, IProgressMonitor monitor) {
 		SubMonitor sub = SubMonitor.convert(monitor, ExpandWork);
 		sub.setTaskName(Messages.Director_Task_Resolving_Dependencies);
 		try {
@@ -322,8 +338,11 @@ public class SimplePlanner implements IPlanner {
 
 			IInstallableUnit[] availableIUs = gatherAvailableInstallableUnits(extraIUs.toArray(new IInstallableUnit[extraIUs.size()]), context, sub.newChild(ExpandWork / 4));
 
+			long sliceStart = System.currentTimeMillis();
 			Slicer slicer = new Slicer(new QueryableArray(availableIUs), newSelectionContext, satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
 			IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {(IInstallableUnit) updatedPlan[0]}, sub.newChild(ExpandWork / 4));
+			if (report != null && slice instanceof QueryableArray)
+				report.setSlice(((QueryableArray) slice).size(), System.currentTimeMillis() - sliceStart);
 			if (slice == null) {
 				IProvisioningPlan plan = engine.createPlan(profile, context);
 				plan.setStatus(slicer.getStatus());
@@ -332,9 +351,28 @@ public class SimplePlanner implements IPlanner {
 			@SuppressWarnings("unchecked")
 			final IQueryable<IInstallableUnit>[] queryables = new IQueryable[] {slice, new QueryableArray(profileChangeRequest.getAdditions().toArray(new IInstallableUnit[profileChangeRequest.getAdditions().size()]))};
 			slice = new CompoundQueryable<IInstallableUnit>(queryables);
-			Projector projector = new Projector(slice, newSelectionContext, slicer.getNonGreedyIUs(), satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
-			projector.encode((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], profile, profileChangeRequest.getAdditions(), sub.newChild(ExpandWork / 4));
-			IStatus s = projector.invokeSolver(sub.newChild(ExpandWork / 4));
+			// only the solution of the caller's request is cached, not the internal resolutions
+			// of the previous state or of the installer agent, which have no report
+			SolutionCache cache = report == null ? null : solutionCache;
+			String solutionFingerprint = null;
+			if (cache != null) {
+				solutionFingerprint = ProblemFingerprint.compute((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], slice, newSelectionContext, satisfyMetaRequirements(profileChangeRequest.getProfileProperties()), profile, profileChangeRequest.getAdditions());
+				Projector cached = cache.get(solutionFingerprint, (IInstallableUnit) updatedPlan[0], slice, newSelectionContext, satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
+				if (cached != null) {
+					if (Tracing.DEBUG_PLANNER_PROJECTOR)
+						Tracing.debug("Reusing solution of problem: " + solutionFingerprint); //$NON-NLS-1$
+					if (report != null)
+						report.setReusedSolution(true);
+					return cached;
+				}
+			}
+			SolverPortfolio portfolio = new SolverPortfolio(SolverStrategy.getConfiguredStrategies(), solverStatistics);
+			IStatus s = portfolio.solve(slice, newSelectionContext, slicer.getNonGreedyIUs(), satisfyMetaRequirements(profileChangeRequest.getProfileProperties()), (IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], profile, profileChangeRequest.getAdditions(), sub.newChild(ExpandWork / 2));
+			Projector projector = portfolio.getProjector();
+			if (report != null && projector != null)
+				projector.fillReport(report);
+			if (Tracing.DEBUG_PLANNER_PROJECTOR)
+				Tracing.debug("Solver statistics:\n" + solverStatistics); //$NON-NLS-1$
 			if (s.getSeverity() == IStatus.CANCEL) {
 				IProvisioningPlan plan = engine.createPlan(profile, context);
 				plan.setStatus(s);
@@ -348,14 +386,32 @@ public class SimplePlanner implements IPlanner {
 					return plan;
 				}
 
-				//Extract the explanation
-				Set<Explanation> explanation = projector.getExplanation(sub.newChild(ExpandWork / 4));
+				//Extract the explanation, reusing the one of an identical problem if we have already computed it
+				String fingerprint = ProblemFingerprint.compute((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], slice, newSelectionContext, satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
+				Set<Explanation> explanation = explanationCache.get(fingerprint);
+				boolean explanationComplete = true;
+				if (explanation == null) {
+					explanation = projector.getExplanation(sub.newChild(ExpandWork / 4));
+					explanationComplete = projector.isExplanationComplete();
+					if (explanationComplete)
+						explanationCache.put(fingerprint, explanation);
+					if (report != null)
+						projector.fillReport(report);
+				} else {
+					if (Tracing.DEBUG_PLANNER_PROJECTOR)
+						Tracing.debug("Reusing explanation of problem: " + fingerprint); //$NON-NLS-1$
+					if (report != null)
+						report.setExplanationTime(0);
+				}
 				IStatus explanationStatus = convertExplanationToStatus(explanation);
+				if (!explanationComplete)
+					// the solver was stopped before it found the cause, mark the partial explanation as such
+					explanationStatus = new MultiStatus(DirectorActivator.PI_DIRECTOR, 1, new IStatus[] {explanationStatus}, NLS.bind(Messages.Planner_Explanation_Timeout, Long.toString(Projector.getExplanationTimeout())), null);
 
 				Map<IInstallableUnit, RequestStatus>[] changes = buildDetailedErrors(profileChangeRequest);
 				Map<IInstallableUnit, RequestStatus> requestChanges = (changes == null) ? null : changes[0];
 				Map<IInstallableUnit, RequestStatus> requestSideEffects = (changes == null) ? null : changes[1];
-				PlannerStatus plannerStatus = new PlannerStatus(explanationStatus, new RequestStatus(null, RequestStatus.REMOVED, IStatus.ERROR, explanation), requestChanges, requestSideEffects, null);
+				PlannerStatus plannerStatus = new PlannerStatus(explanationStatus, new RequestStatus(null, RequestStatus.REMOVED, IStatus.ERROR, explanation), requestChanges, requestSideEffects, null, report);
 
 				IProvisioningPlan plan = engine.createPlan(profile, context);
 				plan.setStatus(plannerStatus);
@@ -365,6 +421,8 @@ public class SimplePlanner implements IPlanner {
 			if (Tracing.DEBUG && s.getSeverity() != IStatus.OK)
 				LogHelper.log(s);
 			s = Status.OK_STATUS;
+			if (cache != null)
+				cache.put(solutionFingerprint, projector);
 
 			return projector;
 		} finally {
@@ -376,12 +434,18 @@ public class SimplePlanner implements IPlanner {
 		ProfileChangeRequest pcr = (ProfileChangeRequest) request;
 		SubMonitor sub = SubMonitor.convert(monitor, ExpandWork);
 		sub.setTaskName(Messages.Director_Task_Resolving_Dependencies);
+		PlanningReport report = new PlanningReport();
 		try {
 			//Get the solution for the initial request
-			Object resolutionResult = getSolutionFor(pcr, context, sub.newChild(ExpandWork / 2));
+			Object resolutionResult = getSolutionFor(pcr, context, report, sub.newChild(ExpandWork / 2));
+			if (Tracing.DEBUG_PLANNER_PROJECTOR)
+				Tracing.debug("Planning report: " + report); //$NON-NLS-1$
 			// a return value of a plan indicates failure when resolving so return.
-			if (resolutionResult instanceof IProvisioningPlan)
-				return (IProvisioningPlan) resolutionResult;
+			if (resolutionResult instanceof IProvisioningPlan) {
+				IProvisioningPlan plan = (IProvisioningPlan) resolutionResult;
+				attachPlanningReport(plan, report);
+				return plan;
+			}
 
 			Collection<IInstallableUnit> newState = ((Projector) resolutionResult).extractSolution();
 			Collection<IInstallableUnit> fullState = new ArrayList<IInstallableUnit>();
@@ -391,16 +455,28 @@ public class SimplePlanner implements IPlanner {
 			IProvisioningPlan temporaryPlan = generatePlan((Projector) resolutionResult, newState, pcr, context);
 
 			//Create a plan for installing necessary pieces to complete the installation (e.g touchpoint actions)
-			return createInstallerPlan(pcr.getProfile(), pcr, fullState, newState, temporaryPlan, context, sub.newChild(ExpandWork / 2));
+			IProvisioningPlan plan = createInstallerPlan(pcr.getProfile(), pcr, fullState, newState, temporaryPlan, context, sub.newChild(ExpandWork / 2));
+			attachPlanningReport(plan, report);
+			return plan;
 		} catch (OperationCanceledException e) {
 			IProvisioningPlan plan = engine.createPlan(pcr.getProfile(), context);
 			plan.setStatus(Status.CANCEL_STATUS);
+			attachPlanningReport(plan, report);
 			return plan;
 		} finally {
 			sub.done();
 		}
 	}
 
+	// Attach the report to the status of the plan, keeping the details of a planner status
+	private void attachPlanningReport(IProvisioningPlan plan, PlanningReport report) {
+		IStatus status = plan.getStatus();
+		if (!(status instanceof PlannerStatus))
+			plan.setStatus(new PlannerStatus(status, null, null, null, null, report));
+		else if (((PlannerStatus) status).getPlanningReport() != report)
+			plan.setStatus(new PlannerStatus((PlannerStatus) status, report));
+	}
+
 	//	private IProvisioningPlan generateAbsoluteProvisioningPlan(ProfileChangeRequest profileChangeRequest, ProvisioningContext context, IProgressMonitor monitor) {
 	//		Set<IInstallableUnit> toState = profileChangeRequest.getProfile().query(QueryUtil.createIUAnyQuery(), null).toSet();
 	//		HashSet<IInstallableUnit> fromState = new HashSet<IInstallableUnit>(toState);
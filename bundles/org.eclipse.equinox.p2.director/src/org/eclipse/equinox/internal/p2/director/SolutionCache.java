@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ * 	IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.*;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.p2.core.IAgentLocation;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+import org.eclipse.equinox.p2.query.*;
+
+/**
+ * A persistent cache of the solutions found by the planner, keyed by the
+ * {@link ProblemFingerprint} of the problem. Each solution is stored in its own file
+ * under the data area of the director, so solutions can be shared between agents
+ * resolving the same problem by copying the files.
+ * <p>
+ * A cached solution is only reused when all of its installable units are part of the
+ * current slice and when it still satisfies their requirements. The cache keeps at most
+ * {@link #MAX_ENTRIES} solutions, and drops the least recently used ones.
+ */
+public class SolutionCache {
+	private static final String PROP_SOLUTION_CACHE = "eclipse.p2.planner.solution.cache"; //$NON-NLS-1$
+	private static final String CACHE_FOLDER = "solutions"; //$NON-NLS-1$
+	private static final String FILE_EXTENSION = ".solution"; //$NON-NLS-1$
+	private static final String PREFIX_SOLUTION = "solution."; //$NON-NLS-1$
+	private static final String PREFIX_FRAGMENT = "fragment."; //$NON-NLS-1$
+	private static final String HOST = ".host."; //$NON-NLS-1$
+	/**
+	 * The maximum number of solutions kept in the cache.
+	 */
+	public static final int MAX_ENTRIES = 64;
+
+	private final File directory;
+
+	public SolutionCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Return the solution cache of the given agent, or <code>null</code> if the
+	 * cache is not enabled or the agent has no location.
+	 */
+	public static SolutionCache create(IProvisioningAgent agent) {
+		try {
+			if (!Boolean.valueOf(DirectorActivator.context.getProperty(PROP_SOLUTION_CACHE)).booleanValue())
+				return null;
+		} catch (Exception e) {
+			// intentionally catch all errors (npe when the bundle is not started, etc)
+			return null;
+		}
+		IAgentLocation location = (IAgentLocation) agent.getService(IAgentLocation.SERVICE_NAME);
+		if (location == null)
+			return null;
+		File dataArea = URIUtil.toFile(location.getDataArea(DirectorActivator.PI_DIRECTOR));
+		if (dataArea == null)
+			return null;
+		return new SolutionCache(new File(dataArea, CACHE_FOLDER));
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Return a projector holding the cached solution of the problem with the given fingerprint,
+	 * or <code>null</code> if there is no such solution or if it is no longer valid.
+	 */
+	public Projector get(String fingerprint, IInstallableUnit entryPoint, IQueryable<IInstallableUnit> slice, Map<String, String> selectionContext, boolean considerMetaRequirements) {
+		File file = getFile(fingerprint);
+		if (!file.exists())
+			return null;
+		Map<String, String> values;
+		try {
+			InputStream input = new BufferedInputStream(new FileInputStream(file));
+			try {
+				values = CollectionUtils.loadProperties(input);
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, DirectorActivator.PI_DIRECTOR, "Unable to read cached solution: " + file, e)); //$NON-NLS-1$
+			return null;
+		}
+		// the modification time of a solution tells when it was last used
+		file.setLastModified(System.currentTimeMillis());
+
+		Map<String, IInstallableUnit> available = new HashMap<String, IInstallableUnit>();
+		for (Iterator<IInstallableUnit> iter = slice.query(QueryUtil.createIUAnyQuery(), null).iterator(); iter.hasNext();) {
+			IInstallableUnit iu = iter.next();
+			available.put(toString(iu), iu);
+		}
+
+		List<IInstallableUnit> solution = new ArrayList<IInstallableUnit>();
+		for (int i = 0;; i++) {
+			String key = values.get(PREFIX_SOLUTION + i);
+			if (key == null)
+				break;
+			IInstallableUnit iu = available.get(key);
+			if (iu == null)
+				return null;
+			solution.add(iu);
+		}
+
+		Map<IInstallableUnitFragment, List<IInstallableUnit>> fragments = new HashMap<IInstallableUnitFragment, List<IInstallableUnit>>();
+		for (int i = 0;; i++) {
+			String key = values.get(PREFIX_FRAGMENT + i);
+			if (key == null)
+				break;
+			IInstallableUnit fragment = available.get(key);
+			if (!(fragment instanceof IInstallableUnitFragment))
+				return null;
+			List<IInstallableUnit> hosts = new ArrayList<IInstallableUnit>();
+			for (int j = 0;; j++) {
+				String hostKey = values.get(PREFIX_FRAGMENT + i + HOST + j);
+				if (hostKey == null)
+					break;
+				IInstallableUnit host = available.get(hostKey);
+				if (host == null)
+					return null;
+				hosts.add(host);
+			}
+			fragments.put((IInstallableUnitFragment) fragment, hosts);
+		}
+
+		if (!isValid(entryPoint, solution, InstallableUnit.contextIU(selectionContext), considerMetaRequirements))
+			return null;
+		Projector projector = new Projector(slice, selectionContext, CollectionUtils.<IInstallableUnit> emptySet(), considerMetaRequirements);
+		projector.setSolution(solution, fragments);
+		return projector;
+	}
+
+	/**
+	 * Remember the solution found by the given projector for the problem with the given fingerprint.
+	 */
+	public void put(String fingerprint, Projector projector) {
+		Collection<IInstallableUnit> solution = projector.extractSolution();
+		Map<String, String> values = new HashMap<String, String>();
+		int i = 0;
+		for (IInstallableUnit iu : solution) {
+			// patches change the requirements of other units, which the validation does not account for
+			if (iu instanceof IInstallableUnitPatch)
+				return;
+			values.put(PREFIX_SOLUTION + i++, toString(iu));
+		}
+		i = 0;
+		for (Map.Entry<IInstallableUnitFragment, List<IInstallableUnit>> entry : projector.getFragmentAssociation().entrySet()) {
+			values.put(PREFIX_FRAGMENT + i, toString(entry.getKey()));
+			int j = 0;
+			for (IInstallableUnit host : entry.getValue())
+				values.put(PREFIX_FRAGMENT + i + HOST + j++, toString(host));
+			i++;
+		}
+
+		directory.mkdirs();
+		File file = getFile(fingerprint);
+		File temp = null;
+		try {
+			// another process may write the same solution at the same time
+			temp = File.createTempFile(fingerprint, ".tmp", directory); //$NON-NLS-1$
+			OutputStream output = new BufferedOutputStream(new FileOutputStream(temp));
+			try {
+				CollectionUtils.storeProperties(values, output, "Planner solution"); //$NON-NLS-1$
+			} finally {
+				output.close();
+			}
+			file.delete();
+			if (!temp.renameTo(file))
+				temp.delete();
+		} catch (IOException e) {
+			if (temp != null)
+				temp.delete();
+			LogHelper.log(new Status(IStatus.WARNING, DirectorActivator.PI_DIRECTOR, "Unable to write cached solution: " + file, e)); //$NON-NLS-1$
+		}
+		evict();
+	}
+
+	/*
+	 * Delete the least recently used solutions while the cache holds more than MAX_ENTRIES.
+	 */
+	private void evict() {
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File pathname) {
+				return pathname.getName().endsWith(FILE_EXTENSION) && pathname.isFile();
+			}
+		});
+		if (files == null || files.length <= MAX_ENTRIES)
+			return;
+		final Map<File, Long> lastUsed = new HashMap<File, Long>(files.length);
+		for (int i = 0; i < files.length; i++)
+			lastUsed.put(files[i], new Long(files[i].lastModified()));
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File file1, File file2) {
+				return lastUsed.get(file1).compareTo(lastUsed.get(file2));
+			}
+		});
+		for (int i = 0; i < files.length - MAX_ENTRIES; i++)
+			files[i].delete();
+	}
+
+	/**
+	 * Check that every applicable requirement of the entry point and of the units of the
+	 * solution is satisfied by the solution, and that no unit of the solution is excluded
+	 * by another one.
+	 */
+	private boolean isValid(IInstallableUnit entryPoint, List<IInstallableUnit> solution, IInstallableUnit context, boolean considerMetaRequirements) {
+		List<IInstallableUnit> units = new ArrayList<IInstallableUnit>(solution.size() + 1);
+		units.addAll(solution);
+		units.add(entryPoint);
+		QueryableArray queryable = new QueryableArray(units.toArray(new IInstallableUnit[units.size()]));
+		for (IInstallableUnit iu : units) {
+			if (!isValid(iu.getRequirements(), queryable, context))
+				return false;
+			if (considerMetaRequirements && !isValid(iu.getMetaRequirements(), queryable, context))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean isValid(Collection<IRequirement> requirements, IQueryable<IInstallableUnit> queryable, IInstallableUnit context) {
+		for (IRequirement req : requirements) {
+			IMatchExpression<IInstallableUnit> filter = req.getFilter();
+			if (filter != null && !filter.isMatch(context))
+				continue;
+			if (req.getMin() == 0 && req.getMax() > 0)
+				continue;
+			boolean found = !queryable.query(QueryUtil.createLimitQuery(QueryUtil.createMatchQuery(req.getMatches()), 1), null).isEmpty();
+			if (found != (req.getMax() > 0))
+				return false;
+		}
+		return true;
+	}
+
+	private File getFile(String fingerprint) {
+		return new File(directory, fingerprint + FILE_EXTENSION);
+	}
+
+	private static String toString(IInstallableUnit iu) {
+		return iu.getId() + ' ' + iu.getVersion();
+	}
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ * 	IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.query.IQueryable;
+
+/**
+ * Solves a planning problem with one or more {@link SolverStrategy solver strategies}.
+ * When more than one strategy is given, each of them encodes and solves the problem in
+ * its own job and the answer of the first one to finish without running out of time is
+ * used. The other jobs are then stopped. When several strategies finish at about the same
+ * time, the answer of the one given first is used. While the job manager is suspended, the problem
+ * is solved in the calling thread with the first strategy.
+ */
+public class SolverPortfolio {
+	private static final long POLL_INTERVAL = 100;
+
+	private final SolverStrategy[] strategies;
+	private final SolverStatistics statistics;
+	private final Object lock = new Object();
+	private final List<SolverJob> finished = new ArrayList<SolverJob>();
+	private Projector projector;
+
+	/**
+	 * Job encoding and solving the problem with one strategy.
+	 */
+	class SolverJob extends Job {
+		final Projector jobProjector;
+		private final IInstallableUnit entryPoint;
+		private final IInstallableUnit[] alreadyExistingRoots;
+		private final IQueryable<IInstallableUnit> installedIUs;
+		private final Collection<IInstallableUnit> newRoots;
+		IStatus result;
+
+		SolverJob(Projector projector, IInstallableUnit entryPoint, IInstallableUnit[] alreadyExistingRoots, IQueryable<IInstallableUnit> installedIUs, Collection<IInstallableUnit> newRoots) {
+			super(Messages.Director_Task_Resolving_Dependencies);
+			this.jobProjector = projector;
+			this.entryPoint = entryPoint;
+			this.alreadyExistingRoots = alreadyExistingRoots;
+			this.installedIUs = installedIUs;
+			this.newRoots = newRoots;
+			setSystem(true);
+		}
+
+		public boolean belongsTo(Object family) {
+			return family == SolverPortfolio.this;
+		}
+
+		protected void canceling() {
+			super.canceling();
+			jobProjector.stopSolver();
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			IStatus status = null;
+			try {
+				status = SolverPortfolio.this.run(jobProjector, entryPoint, alreadyExistingRoots, installedIUs, newRoots, monitor);
+			} catch (OperationCanceledException e) {
+				status = Status.CANCEL_STATUS;
+			} catch (RuntimeException e) {
+				status = new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, Messages.Planner_Unexpected_problem, e);
+			} finally {
+				synchronized (lock) {
+					result = status == null ? Status.CANCEL_STATUS : status;
+					finished.add(this);
+					lock.notifyAll();
+				}
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	public SolverPortfolio(SolverStrategy[] strategies, SolverStatistics statistics) {
+		if (strategies.length == 0)
+			throw new IllegalArgumentException();
+		this.strategies = strategies;
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Encode and solve the problem. The projector which provided the answer is available
+	 * from {@link #getProjector()} afterwards.
+	 */
+	public IStatus solve(IQueryable<IInstallableUnit> slice, Map<String, String> selectionContext, Set<IInstallableUnit> nonGreedyIUs, boolean considerMetaRequirements, IInstallableUnit entryPoint, IInstallableUnit[] alreadyExistingRoots, IQueryable<IInstallableUnit> installedIUs, Collection<IInstallableUnit> newRoots, IProgressMonitor monitor) {
+		// jobs never run while the job manager is suspended, e.g. during the reconciliation at startup
+		if (strategies.length == 1 || Job.getJobManager().isSuspended()) {
+			projector = new Projector(slice, selectionContext, nonGreedyIUs, considerMetaRequirements, strategies[0]);
+			IStatus status = run(projector, entryPoint, alreadyExistingRoots, installedIUs, newRoots, monitor);
+			statistics.recordWin(strategies[0].getName());
+			return status;
+		}
+
+		SubMonitor sub = SubMonitor.convert(monitor, 1);
+		List<SolverJob> jobs = new ArrayList<SolverJob>(strategies.length);
+		for (int i = 0; i < strategies.length; i++) {
+			Projector candidate = new Projector(slice, selectionContext, nonGreedyIUs, considerMetaRequirements, strategies[i]);
+			jobs.add(new SolverJob(candidate, entryPoint, alreadyExistingRoots, installedIUs, newRoots));
+		}
+		for (SolverJob job : jobs)
+			job.schedule();
+
+		SolverJob winner = null;
+		try {
+			synchronized (lock) {
+				int checked = 0;
+				while (winner == null) {
+					// strategies may find different optimal solutions, so among the ones which
+					// finished since the last poll the earliest strategy is preferred
+					for (; checked < finished.size(); checked++) {
+						SolverJob job = finished.get(checked);
+						if (job.jobProjector.isTimedOut() || job.result.getSeverity() == IStatus.CANCEL)
+							continue;
+						if (winner == null || jobs.indexOf(job) < jobs.indexOf(winner))
+							winner = job;
+					}
+					if (winner != null)
+						break;
+					if (finished.size() == jobs.size()) {
+						// every strategy ran out of time, report the first one
+						winner = jobs.get(0);
+						break;
+					}
+					if (sub.isCanceled())
+						return Status.CANCEL_STATUS;
+					try {
+						lock.wait(POLL_INTERVAL);
+					} catch (InterruptedException e) {
+						// ignore
+					}
+				}
+			}
+		} finally {
+			for (SolverJob job : jobs) {
+				if (job != winner)
+					job.cancel();
+			}
+			sub.done();
+		}
+		if (Projector.DEBUG)
+			Tracing.debug("Solver strategy used: " + winner.jobProjector.getStrategy()); //$NON-NLS-1$
+		statistics.recordWin(winner.jobProjector.getStrategy().getName());
+		projector = winner.jobProjector;
+		return winner.result;
+	}
+
+	/**
+	 * Return the projector which provided the answer of the last call to {@link #solve}.
+	 */
+	public Projector getProjector() {
+		return projector;
+	}
+
+	IStatus run(Projector candidate, IInstallableUnit entryPoint, IInstallableUnit[] alreadyExistingRoots, IQueryable<IInstallableUnit> installedIUs, Collection<IInstallableUnit> newRoots, IProgressMonitor monitor) {
+		SubMonitor sub = SubMonitor.convert(monitor, 2);
+		long start = System.currentTimeMillis();
+		candidate.encode(entryPoint, alreadyExistingRoots, installedIUs, newRoots, sub.newChild(1));
+		IStatus status = candidate.invokeSolver(sub.newChild(1));
+		// a strategy stopped because another one won is not accounted for
+		if (status.getSeverity() != IStatus.CANCEL && !sub.isCanceled()) {
+			long time = System.currentTimeMillis() - start;
+			statistics.recordRun(candidate.getStrategy().getName(), time, candidate.isTimedOut());
+			if (Projector.DEBUG)
+				Tracing.debug("Solver strategy " + candidate.getStrategy() + " finished in: " + time); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return status;
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ * 	IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Accumulates, for every {@link SolverStrategy}, how often it was run, how often it
+ * provided the answer, how often it timed out and how much time it spent. This is
+ * meant to help choosing the strategies of a {@link SolverPortfolio}.
+ */
+public class SolverStatistics {
+	private static class Entry {
+		int runs;
+		int wins;
+		int timeouts;
+		long totalTime;
+		long maxTime;
+
+		public String toString() {
+			return "runs: " + runs + ", wins: " + wins + ", timeouts: " + timeouts + ", total time: " + totalTime + ", max time: " + maxTime; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		}
+	}
+
+	private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+	private Entry getEntry(String strategy) {
+		Entry entry = entries.get(strategy);
+		if (entry == null) {
+			entry = new Entry();
+			entries.put(strategy, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Record that the given strategy ran to completion in the given time (in milliseconds).
+	 */
+	public synchronized void recordRun(String strategy, long time, boolean timedOut) {
+		Entry entry = getEntry(strategy);
+		entry.runs++;
+		if (timedOut)
+			entry.timeouts++;
+		entry.totalTime += time;
+		entry.maxTime = Math.max(entry.maxTime, time);
+	}
+
+	/**
+	 * Record that the answer of the given strategy was used.
+	 */
+	public synchronized void recordWin(String strategy) {
+		getEntry(strategy).wins++;
+	}
+
+	public synchronized int getRuns(String strategy) {
+		Entry entry = entries.get(strategy);
+		return entry == null ? 0 : entry.runs;
+	}
+
+	public synchronized int getWins(String strategy) {
+		Entry entry = entries.get(strategy);
+		return entry == null ? 0 : entry.wins;
+	}
+
+	public synchronized int getTimeouts(String strategy) {
+		Entry entry = entries.get(strategy);
+		return entry == null ? 0 : entry.timeouts;
+	}
+
+	/**
+	 * Return the total time, in milliseconds, spent encoding and solving with the given strategy.
+	 */
+	public synchronized long getTotalTime(String strategy) {
+		Entry entry = entries.get(strategy);
+		return entry == null ? 0 : entry.totalTime;
+	}
+
+	public synchronized void reset() {
+		entries.clear();
+	}
+
+	public synchronized String toString() {
+		StringBuffer result = new StringBuffer();
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (result.length() > 0)
+				result.append('\n');
+			result.append(entry.getKey()).append(" - ").append(entry.getValue()); //$NON-NLS-1$
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ * 	IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.*;
+import org.sat4j.pb.IPBSolver;
+import org.sat4j.pb.SolverFactory;
+
+/**
+ * A named configuration of the SAT4J solver used by the {@link Projector}. Several
+ * strategies can be raced against each other by a {@link SolverPortfolio}.
+ */
+public abstract class SolverStrategy {
+	/**
+	 * The configuration tuned for p2, used when nothing else is specified.
+	 */
+	public static final SolverStrategy ECLIPSE_P2 = new SolverStrategy("eclipsep2") { //$NON-NLS-1$
+		public IPBSolver createSolver() {
+			return SolverFactory.newEclipseP2();
+		}
+	};
+
+	/**
+	 * The default pseudo boolean configuration of SAT4J, which uses different restarts
+	 * and learning heuristics than the p2 one.
+	 */
+	public static final SolverStrategy DEFAULT = new SolverStrategy("default") { //$NON-NLS-1$
+		public IPBSolver createSolver() {
+			return SolverFactory.newDefault();
+		}
+	};
+
+	/**
+	 * A configuration without learning, which is often faster on small problems.
+	 */
+	public static final SolverStrategy LIGHT = new SolverStrategy("light") { //$NON-NLS-1$
+		public IPBSolver createSolver() {
+			return SolverFactory.newLight();
+		}
+	};
+
+	private static final SolverStrategy[] ALL = new SolverStrategy[] {ECLIPSE_P2, DEFAULT, LIGHT};
+	private static final String PROP_PORTFOLIO = "eclipse.p2.projector.portfolio"; //$NON-NLS-1$
+
+	private final String name;
+
+	protected SolverStrategy(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Create a new solver configured according to this strategy.
+	 */
+	public abstract IPBSolver createSolver();
+
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Return the strategy with the given name, or <code>null</code> if there is none.
+	 */
+	public static SolverStrategy getStrategy(String name) {
+		for (int i = 0; i < ALL.length; i++)
+			if (ALL[i].getName().equals(name))
+				return ALL[i];
+		return null;
+	}
+
+	/**
+	 * Parse a comma separated list of strategy names. Unknown names are ignored.
+	 */
+	public static SolverStrategy[] parse(String names) {
+		List<SolverStrategy> result = new ArrayList<SolverStrategy>();
+		StringTokenizer tokenizer = new StringTokenizer(names, ","); //$NON-NLS-1$
+		while (tokenizer.hasMoreTokens()) {
+			String name = tokenizer.nextToken().trim();
+			SolverStrategy strategy = getStrategy(name);
+			if (strategy == null)
+				System.err.println("Ignoring unknown solver strategy: " + name); //$NON-NLS-1$
+			else if (!result.contains(strategy))
+				result.add(strategy);
+		}
+		return result.toArray(new SolverStrategy[result.size()]);
+	}
+
+	/**
+	 * Return the strategies specified by the user in the <code>eclipse.p2.projector.portfolio</code>
+	 * property, or only {@link #ECLIPSE_P2} if the property is not set.
+	 * <p>
+	 * When several strategies are given, the solution of the strategy which finishes first is
+	 * used. Strategies may choose different solutions among equally optimal ones, so the plan
+	 * computed for the same request can then differ from one run to the next. The strategies
+	 * are listed by preference, which only breaks ties between strategies finishing together.
+	 */
+	public static SolverStrategy[] getConfiguredStrategies() {
+		String portfolio = null;
+		try {
+			portfolio = DirectorActivator.context.getProperty(PROP_PORTFOLIO);
+		} catch (Exception e) {
+			// intentionally catch all errors (npe when the bundle is not started, etc)
+			// and fall through to the default
+		}
+		if (portfolio != null) {
+			SolverStrategy[] result = parse(portfolio);
+			if (result.length > 0)
+				return result;
+			System.err.println("Ignoring user-specified '" + PROP_PORTFOLIO + "' value of: " + portfolio); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return new SolverStrategy[] {ECLIPSE_P2};
+	}
+}
@@ -23,6 +23,7 @@ public class PlannerStatus implements IStatus {
 	private final Map<IInstallableUnit, RequestStatus> requestChanges;
 	private final Map<IInstallableUnit, RequestStatus> requestSideEffects;
 	private final IQueryable<IInstallableUnit> plannedState;
+	private final PlanningReport planningReport;
 
 	private static final IQueryable<IInstallableUnit> EMPTY_IU_QUERYABLE = new IQueryable<IInstallableUnit>() {
 		public IQueryResult<IInstallableUnit> query(IQuery<IInstallableUnit> query, IProgressMonitor monitor) {
@@ -31,11 +32,24 @@ public class PlannerStatus implements IStatus {
 	};
 
 	public PlannerStatus(IStatus status, RequestStatus globalRequestStatus, Map<IInstallableUnit, RequestStatus> requestChanges, Map<IInstallableUnit, RequestStatus> requestSideEffects, IQueryable<IInstallableUnit> plannedState) {
+		this(status, globalRequestStatus, requestChanges, requestSideEffects, plannedState, null);
+	}
+
+	public PlannerStatus(IStatus status, RequestStatus globalRequestStatus, Map<IInstallableUnit, RequestStatus> requestChanges, Map<IInstallableUnit, RequestStatus> requestSideEffects, IQueryable<IInstallableUnit> plannedState, PlanningReport planningReport) {
 		this.status = status;
 		this.globalRequestStatus = globalRequestStatus;
 		this.requestChanges = requestChanges;
 		this.requestSideEffects = requestSideEffects;
 		this.plannedState = (plannedState == null) ? EMPTY_IU_QUERYABLE : plannedState;
+		this.planningReport = planningReport;
+	}
+
+	/**
+	 * Creates a planner status with the details of the given planner status and the given
+	 * planning report.
+	 */
+	public PlannerStatus(PlannerStatus status, PlanningReport planningReport) {
+		this(status.status, status.globalRequestStatus, status.requestChanges, status.requestSideEffects, status.plannedState, planningReport);
 	}
 
 	/**
@@ -87,6 +101,16 @@ public class PlannerStatus implements IStatus {
 		return plannedState;
 	}
 
+	/**
+	 * Returns a report on the work done by the planner to resolve the request, such as the
+	 * size of the problem and the time spent solving it.
+	 * 
+	 * @return The planning report, or <code>null</code> if none is available
+	 */
+	public PlanningReport getPlanningReport() {
+		return planningReport;
+	}
+
 	// Remaining Methods Delegate to wrapped Status 
 	public IStatus[] getChildren() {
 		return status.getChildren();
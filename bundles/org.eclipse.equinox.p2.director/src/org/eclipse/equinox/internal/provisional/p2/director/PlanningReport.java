@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.provisional.p2.director;
+
+/**
+ * Describes how the planner resolved a profile change request: the size of the slice
+ * and the time spent computing it, the size of the problem given to the solver, the
+ * work done by the solver, and the time spent explaining a failure. Times are in
+ * milliseconds. Values which were not measured, for example because the solution of
+ * an identical problem was reused, are -1.
+ */
+public class PlanningReport {
+	private int sliceSize = -1;
+	private long sliceTime = -1;
+
+	private String strategy;
+	private int encodedIUs = -1;
+	private int encodedRequirements = -1;
+	private int encodedPatches = -1;
+	private int nonGreedyVariables = -1;
+	private long encodingTime = -1;
+
+	private int constraints = -1;
+	private int variables = -1;
+	private long decisions = -1;
+	private long conflicts = -1;
+	private long restarts = -1;
+	private long solvingTime = -1;
+
+	private boolean reusedSolution = false;
+	private long explanationTime = -1;
+
+	/**
+	 * Return the number of installable units in the slice.
+	 */
+	public int getSliceSize() {
+		return sliceSize;
+	}
+
+	public long getSliceTime() {
+		return sliceTime;
+	}
+
+	public void setSlice(int size, long time) {
+		this.sliceSize = size;
+		this.sliceTime = time;
+	}
+
+	/**
+	 * Return the name of the solver strategy which provided the answer.
+	 */
+	public String getStrategy() {
+		return strategy;
+	}
+
+	public int getEncodedIUs() {
+		return encodedIUs;
+	}
+
+	public int getEncodedRequirements() {
+		return encodedRequirements;
+	}
+
+	public int getEncodedPatches() {
+		return encodedPatches;
+	}
+
+	public int getNonGreedyVariables() {
+		return nonGreedyVariables;
+	}
+
+	public long getEncodingTime() {
+		return encodingTime;
+	}
+
+	public void setEncoding(String solverStrategy, int ius, int requirements, int patches, int nonGreedy, long time) {
+		this.strategy = solverStrategy;
+		this.encodedIUs = ius;
+		this.encodedRequirements = requirements;
+		this.encodedPatches = patches;
+		this.nonGreedyVariables = nonGreedy;
+		this.encodingTime = time;
+	}
+
+	/**
+	 * Return the number of constraints of the problem given to the solver.
+	 */
+	public int getConstraints() {
+		return constraints;
+	}
+
+	/**
+	 * Return the number of variables of the problem given to the solver.
+	 */
+	public int getVariables() {
+		return variables;
+	}
+
+	public long getDecisions() {
+		return decisions;
+	}
+
+	public long getConflicts() {
+		return conflicts;
+	}
+
+	public long getRestarts() {
+		return restarts;
+	}
+
+	public long getSolvingTime() {
+		return solvingTime;
+	}
+
+	public void setSolving(int nConstraints, int nVariables, long nDecisions, long nConflicts, long nRestarts, long time) {
+		this.constraints = nConstraints;
+		this.variables = nVariables;
+		this.decisions = nDecisions;
+		this.conflicts = nConflicts;
+		this.restarts = nRestarts;
+		this.solvingTime = time;
+	}
+
+	/**
+	 * Return whether the solution of an identical problem was reused instead of
+	 * encoding and solving the problem.
+	 */
+	public boolean isReusedSolution() {
+		return reusedSolution;
+	}
+
+	public void setReusedSolution(boolean reused) {
+		this.reusedSolution = reused;
+	}
+
+	/**
+	 * Return the time spent explaining why the problem has no solution, 0 if the
+	 * explanation of an identical problem was reused, or -1 if no explanation was needed.
+	 */
+	public long getExplanationTime() {
+		return explanationTime;
+	}
+
+	public void setExplanationTime(long time) {
+		this.explanationTime = time;
+	}
+
+	public String toString() {
+		StringBuffer result = new StringBuffer();
+		result.append("slice: ").append(sliceSize).append(" IUs in ").append(sliceTime).append(" ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		if (reusedSolution) {
+			result.append(", reused solution"); //$NON-NLS-1$
+		} else {
+			result.append(", strategy: ").append(strategy); //$NON-NLS-1$
+			result.append(", encoding: ").append(encodedIUs).append(" IUs, ").append(encodedRequirements).append(" requirements, ").append(encodedPatches).append(" patches, ").append(nonGreedyVariables).append(" non greedy variables in ").append(encodingTime).append(" ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+			result.append(", solving: ").append(constraints).append(" constraints, ").append(variables).append(" variables, ").append(decisions).append(" decisions, ").append(conflicts).append(" conflicts, ").append(restarts).append(" restarts in ").append(solvingTime).append(" ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+		}
+		if (explanationTime >= 0)
+			result.append(", explanation: ").append(explanationTime).append(" ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		return result.toString();
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 aQute and others.
+ *  Copyright (c) 2007, 2011 aQute and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -54,6 +54,9 @@ public class DirectoryWatcher {
 	public final static String POLL = "eclipse.p2.directory.watcher.poll"; //$NON-NLS-1$
 	public final static String DIR = "eclipse.p2.directory.watcher.dir"; //$NON-NLS-1$
 	private static final long DEFAULT_POLL_FREQUENCY = 2000;
+	// file systems may only record last modified times with a granularity of a couple of
+	// seconds so don't trust listings or files which are newer than this
+	private static final long TIMESTAMP_GRANULARITY = 2000;
 
 	public static void log(String string, Throwable e) {
 		System.err.println(string + ": " + e); //$NON-NLS-1$
@@ -68,10 +71,52 @@ public class DirectoryWatcher {
 	private Set<File> pendingDeletions;
 	private WatcherThread watcher;
 
+	// cached directory listings, used to avoid listing the contents of directories which haven't changed
+	private final Map<File, DirectoryListing> listings = new HashMap<File, DirectoryListing>();
+	// the last modified time, length and poll count of files whose changes have not been reported to the listeners yet
+	private final Map<File, long[]> unsettledFiles = new HashMap<File, long[]>();
+	// files whose changes are reported during the current poll
+	private final Set<File> settledFiles = new HashSet<File>();
+	private boolean coalesceChanges = false;
+	// the times at which the current and the previous polls started
+	private long scanTime = 0;
+	private long lastScanTime = 0;
+
+	// statistics
+	private long pollCount;
+	private long directoryListCount;
+	private long cachedListingCount;
+	private long eventCount;
+	private long deferredEventCount;
+
+	/*
+	 * The contents of a directory along with the last modified time of the directory
+	 * at the time the contents were read.
+	 */
+	private static class DirectoryListing {
+		final long lastModified;
+		final long timestamp;
+		final File[] files;
+
+		DirectoryListing(long lastModified, long timestamp, File[] files) {
+			this.lastModified = lastModified;
+			this.timestamp = timestamp;
+			this.files = files;
+		}
+	}
+
 	public DirectoryWatcher(Map<String, String> properties, BundleContext context) {
 		String dir = properties.get(DIR);
 		if (dir == null)
 			dir = "./load"; //$NON-NLS-1$
+		String pollFrequency = properties.get(POLL);
+		if (pollFrequency != null) {
+			try {
+				poll = Long.parseLong(pollFrequency);
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
 
 		File targetDirectory = new File(dir);
 		targetDirectory.mkdirs();
@@ -100,19 +145,28 @@ public class DirectoryWatcher {
 	}
 
 	public void start() {
-		start(DEFAULT_POLL_FREQUENCY);
+		start(poll > 0 ? poll : DEFAULT_POLL_FREQUENCY);
 	}
 
 	public synchronized void poll() {
+		pollCount++;
 		startPoll();
 		scanDirectories();
 		stopPoll();
 	}
 
+	/**
+	 * Start polling the directories in the background. While the watcher thread is
+	 * running, additions and changes of files which have been modified since the previous
+	 * poll are only reported once the file has stopped changing between two consecutive polls.
+	 * This coalesces the events for files which are still being written into a single
+	 * notification, while files which were not modified lately are reported right away.
+	 */
 	public synchronized void start(final long pollFrequency) {
 		if (watcher != null)
 			throw new IllegalStateException(Messages.thread_started);
 
+		coalesceChanges = true;
 		watcher = new WatcherThread(pollFrequency);
 		watcher.start();
 	}
@@ -123,6 +177,46 @@ public class DirectoryWatcher {
 
 		watcher.done();
 		watcher = null;
+		coalesceChanges = false;
+		unsettledFiles.clear();
+	}
+
+	/**
+	 * Return the number of times the watched directories have been polled.
+	 */
+	public synchronized long getPollCount() {
+		return pollCount;
+	}
+
+	/**
+	 * Return the number of times the contents of a watched directory had to be
+	 * read from disk, as opposed to being served from the cached listing.
+	 */
+	public synchronized long getDirectoryListCount() {
+		return directoryListCount;
+	}
+
+	/**
+	 * Return the number of times a cached directory listing was reused.
+	 */
+	public synchronized long getCachedListingCount() {
+		return cachedListingCount;
+	}
+
+	/**
+	 * Return the number of added, changed and removed events which have been
+	 * delivered to the listeners.
+	 */
+	public synchronized long getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * Return the number of additions and changes which were held back because the file
+	 * was still changing.
+	 */
+	public synchronized long getDeferredEventCount() {
+		return deferredEventCount;
 	}
 
 	public File[] getDirectories() {
@@ -130,9 +224,13 @@ public class DirectoryWatcher {
 	}
 
 	private void startPoll() {
+		long now = System.currentTimeMillis();
+		lastScanTime = scanTime == 0 ? now : scanTime;
+		scanTime = now;
 		removals = scannedFiles;
 		scannedFiles = new HashSet<File>();
 		pendingDeletions = new HashSet<File>();
+		settledFiles.clear();
 		for (DirectoryChangeListener listener : listeners)
 			listener.startPoll();
 	}
@@ -140,7 +238,7 @@ public class DirectoryWatcher {
 	private void scanDirectories() {
 		for (int index = 0; index < directories.length; index++) {
 			File directory = directories[index];
-			File list[] = directory.listFiles();
+			File list[] = listFiles(directory);
 			if (list == null)
 				continue;
 			for (int i = 0; i < list.length; i++) {
@@ -164,6 +262,27 @@ public class DirectoryWatcher {
 		}
 	}
 
+	/*
+	 * Return the contents of the given directory. The previous listing is returned if the
+	 * directory hasn't been modified since it was read.
+	 */
+	private File[] listFiles(File directory) {
+		long lastModified = directory.lastModified();
+		DirectoryListing listing = listings.get(directory);
+		if (listing != null && lastModified != 0 && listing.lastModified == lastModified && listing.timestamp - lastModified > TIMESTAMP_GRANULARITY) {
+			cachedListingCount++;
+			return listing.files;
+		}
+		long timestamp = System.currentTimeMillis();
+		File[] files = directory.listFiles();
+		directoryListCount++;
+		if (files == null)
+			listings.remove(directory);
+		else
+			listings.put(directory, new DirectoryListing(lastModified, timestamp, files));
+		return files;
+	}
+
 	private void stopPoll() {
 		notifyRemovals();
 		removals = scannedFiles;
@@ -181,10 +300,14 @@ public class DirectoryWatcher {
 	 */
 	private void notifyRemovals() {
 		Set<File> removed = removals;
+		if (coalesceChanges)
+			unsettledFiles.keySet().removeAll(removed);
 		for (DirectoryChangeListener listener : listeners) {
 			for (File file : removed) {
-				if (isInterested(listener, file))
+				if (isInterested(listener, file)) {
+					eventCount++;
 					listener.removed(file);
+				}
 			}
 		}
 	}
@@ -194,18 +317,50 @@ public class DirectoryWatcher {
 			Long oldTimestamp = listener.getSeenFile(file);
 			if (oldTimestamp == null) {
 				// The file is new
-				listener.added(file);
+				if (isSettled(file)) {
+					eventCount++;
+					listener.added(file);
+				}
 			} else {
 				// The file is not new but may have changed
 				long lastModified = file.lastModified();
-				if (oldTimestamp.longValue() != lastModified)
+				if (oldTimestamp.longValue() != lastModified && isSettled(file)) {
+					eventCount++;
 					listener.changed(file);
+				}
 			}
 		} catch (Exception e) {
 			log(NLS.bind(Messages.error_processing, listener), e);
 		}
 	}
 
+	/*
+	 * Return true if the listeners should be told about the addition or change of the given
+	 * file. When coalescing changes, a file which has been modified since the previous poll
+	 * has to look the same as it did during the previous poll, otherwise it is probably still
+	 * being written and the notification is deferred.
+	 */
+	private boolean isSettled(File file) {
+		if (!coalesceChanges || settledFiles.contains(file))
+			return true;
+		long[] previous = unsettledFiles.get(file);
+		// another listener already deferred this file during the current poll
+		if (previous != null && previous[2] == pollCount)
+			return false;
+		long lastModified = file.lastModified();
+		long length = file.length();
+		// the file has not been written since the previous poll
+		boolean unchanged = previous == null ? lastModified != 0 && lastModified + TIMESTAMP_GRANULARITY <= lastScanTime : previous[0] == lastModified && previous[1] == length;
+		if (unchanged) {
+			unsettledFiles.remove(file);
+			settledFiles.add(file);
+			return true;
+		}
+		unsettledFiles.put(file, new long[] {lastModified, length, pollCount});
+		deferredEventCount++;
+		return false;
+	}
+
 	/**
 	 * Try to remove the files that have been marked for deletion.
 	 */
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2010 IBM Corporation and others.
+ *  Copyright (c) 2008, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -10,8 +10,7 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.engine;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
@@ -28,6 +27,7 @@ public class ActionManager implements IRegistryChangeListener {
 	private static final String ATTRIBUTE_NAME = "name"; //$NON-NLS-1$
 	private static final String TOUCHPOINT_TYPE = "touchpointType"; //$NON-NLS-1$
 	private static final String TOUCHPOINT_VERSION = "touchpointVersion"; //$NON-NLS-1$
+	private static final String ATTRIBUTE_CONCURRENT = "concurrent"; //$NON-NLS-1$
 	/**
 	 * Service name constant for the action manager service. This service is used internally
 	 * by the engine implementation and should not be referenced directly by clients.
@@ -36,6 +36,8 @@ public class ActionManager implements IRegistryChangeListener {
 
 	private HashMap<String, IConfigurationElement> actionMap;
 	private TouchpointManager touchpointManager;
+	// the actions created from extensions declaring that they can run concurrently
+	private final Map<ProvisioningAction, Boolean> concurrentActions = Collections.synchronizedMap(new WeakHashMap<ProvisioningAction, Boolean>());
 
 	public ActionManager() {
 		this.touchpointManager = new TouchpointManager();
@@ -75,6 +77,8 @@ public class ActionManager implements IRegistryChangeListener {
 						throw new IllegalArgumentException(NLS.bind(Messages.ActionManager_Required_Touchpoint_Not_Found, touchpointType, actionId));
 					action.setTouchpoint(touchpoint);
 				}
+				if (Boolean.valueOf(actionElement.getAttribute(ATTRIBUTE_CONCURRENT)).booleanValue())
+					concurrentActions.put(action, Boolean.TRUE);
 				return action;
 			} catch (InvalidRegistryObjectException e) {
 				// skip
@@ -85,6 +89,18 @@ public class ActionManager implements IRegistryChangeListener {
 		return null;
 	}
 
+	/**
+	 * Returns whether the given action may be executed at the same time as the actions of
+	 * other operands, as declared by the <code>concurrent</code> attribute of its extension.
+	 * Concurrent actions must only modify the files and the profile properties of their
+	 * own installable unit.
+	 */
+	public boolean isConcurrent(ProvisioningAction action) {
+		if (action instanceof ParameterizedProvisioningAction)
+			action = ((ParameterizedProvisioningAction) action).getAction();
+		return concurrentActions.containsKey(action);
+	}
+
 	private synchronized Map<String, IConfigurationElement> getActionMap() {
 		if (actionMap != null)
 			return actionMap;
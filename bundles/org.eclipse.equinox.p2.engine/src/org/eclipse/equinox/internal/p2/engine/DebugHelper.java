@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -29,6 +29,7 @@ public class DebugHelper {
 	public static final boolean DEBUG_ENGINE_SESSION;
 	public static final boolean DEBUG_CERTIFICATE_CHECKER_UNSIGNED;
 	public static final boolean DEBUG_CERTIFICATE_CHECKER_UNTRUSTED;
+	public static final boolean DEBUG_REPOSITORY_LOADING;
 
 	static {
 		DebugOptions options = (DebugOptions) ServiceHelper.getService(EngineActivator.getContext(), DebugOptions.class.getName());
@@ -38,12 +39,14 @@ public class DebugHelper {
 			DEBUG_ENGINE_SESSION = options.getBooleanOption(EngineActivator.ID + "/enginesession/debug", false); //$NON-NLS-1$
 			DEBUG_CERTIFICATE_CHECKER_UNSIGNED = options.getBooleanOption(EngineActivator.ID + "/certificatechecker/unsigned", false); //$NON-NLS-1$
 			DEBUG_CERTIFICATE_CHECKER_UNTRUSTED = options.getBooleanOption(EngineActivator.ID + "/certificatechecker/untrusted", false); //$NON-NLS-1$
+			DEBUG_REPOSITORY_LOADING = options.getBooleanOption(EngineActivator.ID + "/repositoryloading/debug", false); //$NON-NLS-1$
 		} else {
 			DEBUG_PROFILE_REGISTRY = false;
 			DEBUG_ENGINE = false;
 			DEBUG_ENGINE_SESSION = false;
 			DEBUG_CERTIFICATE_CHECKER_UNSIGNED = false;
 			DEBUG_CERTIFICATE_CHECKER_UNTRUSTED = false;
+			DEBUG_REPOSITORY_LOADING = false;
 		}
 	}
 
@@ -18,8 +18,7 @@ import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.engine.ProvisioningContext;
 import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
 import org.eclipse.equinox.p2.query.*;
-import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
-import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
+import org.eclipse.equinox.p2.repository.artifact.*;
 
 public class DownloadManager {
 	private ProvisioningContext provContext = null;
@@ -108,6 +107,7 @@ public class DownloadManager {
 		for (int i = 0; i < repositories.length && !requestsToProcess.isEmpty() && !monitor.isCanceled(); i++) {
 			IArtifactRequest[] requests = getRequestsForRepository(repositories[i]);
 			IStatus dlStatus = repositories[i].getArtifacts(requests, monitor.newChild(requests.length));
+			recordBytesRead(repositories[i], requests);
 			if (dlStatus.getSeverity() == IStatus.CANCEL)
 				return;
 			filterUnfetched();
@@ -115,6 +115,31 @@ public class DownloadManager {
 		}
 	}
 
+	/*
+	 * Attribute the download sizes of the artifacts fetched from the given repository to
+	 * the metrics of the running phase.
+	 */
+	private void recordBytesRead(IArtifactRepository repository, IArtifactRequest[] requests) {
+		long bytes = 0;
+		for (int i = 0; i < requests.length; i++) {
+			if (requests[i].getResult() == null || !requests[i].getResult().isOK())
+				continue;
+			IArtifactDescriptor[] descriptors = repository.getArtifactDescriptors(requests[i].getArtifactKey());
+			for (int j = 0; j < descriptors.length; j++) {
+				String size = descriptors[j].getProperty(IArtifactDescriptor.DOWNLOAD_SIZE);
+				if (size != null) {
+					try {
+						bytes += Long.parseLong(size);
+						break;
+					} catch (NumberFormatException e) {
+						// try the next descriptor
+					}
+				}
+			}
+		}
+		EngineMetrics.recordBytesRead(bytes);
+	}
+
 	private IArtifactRequest[] getRequestsForRepository(IArtifactRepository repository) {
 		ArrayList<IArtifactRequest> applicable = new ArrayList<IArtifactRequest>();
 		for (IArtifactRequest request : requestsToProcess) {
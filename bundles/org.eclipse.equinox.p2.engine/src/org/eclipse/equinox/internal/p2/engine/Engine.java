@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -22,11 +22,18 @@ import org.eclipse.equinox.p2.engine.*;
 public class Engine implements IEngine {
 
 	private static final String ENGINE = "engine"; //$NON-NLS-1$
+	// the names of the steps of an operation recorded in the engine metrics, besides the phases
+	private static final String STEP_PREPARE = "prepare"; //$NON-NLS-1$
+	private static final String STEP_ROLLBACK = "rollback"; //$NON-NLS-1$
+	private static final String STEP_WRITE_PROFILE = "writeProfile"; //$NON-NLS-1$
+	private static final String STEP_COMMIT = "commit"; //$NON-NLS-1$
 	private IProvisioningAgent agent;
+	private final EngineMetrics metrics = new EngineMetrics();
 
 	public Engine(IProvisioningAgent agent) {
 		this.agent = agent;
 		agent.registerService(ActionManager.SERVICE_NAME, new ActionManager());
+		agent.registerService(EngineMetrics.SERVICE_NAME, metrics);
 	}
 
 	private void checkArguments(IProfile iprofile, PhaseSet phaseSet, Operand[] operands, ProvisioningContext context, IProgressMonitor monitor) {
@@ -70,31 +77,58 @@ public class Engine implements IEngine {
 			if (DebugHelper.DEBUG_ENGINE)
 				DebugHelper.debug(ENGINE, "Beginning engine operation for profile=" + profile.getProfileId() + " [" + profile.getTimestamp() + "]:" + DebugHelper.LINE_SEPARATOR + DebugHelper.formatOperation(phaseSet, operands, context)); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
 
-			EngineSession session = new EngineSession(agent, profile, context);
+			EngineMetrics.Operation operation = metrics.startOperation(profile.getProfileId());
+			EngineSession session = new EngineSession(agent, profile, context, operation);
 
 			MultiStatus result = phaseSet.perform(session, operands, monitor);
 			if (result.isOK() || result.matches(IStatus.INFO | IStatus.WARNING)) {
 				if (DebugHelper.DEBUG_ENGINE)
 					DebugHelper.debug(ENGINE, "Preparing to commit engine operation for profile=" + profile.getProfileId()); //$NON-NLS-1$
-				result.merge(session.prepare(monitor));
+				EngineMetrics.Measurement measurement = operation.startStep(STEP_PREPARE);
+				try {
+					result.merge(session.prepare(monitor));
+				} finally {
+					measurement.stop();
+				}
 			}
 			if (result.matches(IStatus.ERROR | IStatus.CANCEL)) {
 				if (DebugHelper.DEBUG_ENGINE)
 					DebugHelper.debug(ENGINE, "Rolling back engine operation for profile=" + profile.getProfileId() + ". Reason was: " + result.toString()); //$NON-NLS-1$ //$NON-NLS-2$
-				IStatus status = session.rollback(monitor, result.getSeverity());
+				EngineMetrics.Measurement measurement = operation.startStep(STEP_ROLLBACK);
+				IStatus status;
+				try {
+					status = session.rollback(monitor, result.getSeverity());
+				} finally {
+					measurement.stop();
+				}
 				if (status.matches(IStatus.ERROR))
 					LogHelper.log(status);
 				eventBus.publishEvent(new RollbackOperationEvent(profile, phaseSet, operands, this, result));
 			} else {
 				if (DebugHelper.DEBUG_ENGINE)
 					DebugHelper.debug(ENGINE, "Committing engine operation for profile=" + profile.getProfileId()); //$NON-NLS-1$
-				if (profile.isChanged())
-					profileRegistry.updateProfile(profile);
-				IStatus status = session.commit(monitor);
+				if (profile.isChanged()) {
+					EngineMetrics.Measurement measurement = operation.startStep(STEP_WRITE_PROFILE);
+					try {
+						profileRegistry.updateProfile(profile);
+					} finally {
+						measurement.stop();
+					}
+				}
+				EngineMetrics.Measurement measurement = operation.startStep(STEP_COMMIT);
+				IStatus status;
+				try {
+					status = session.commit(monitor);
+				} finally {
+					measurement.stop();
+				}
 				if (status.matches(IStatus.ERROR))
 					LogHelper.log(status);
 				eventBus.publishEvent(new CommitOperationEvent(profile, phaseSet, operands, this));
 			}
+			operation.done(result);
+			if (DebugHelper.DEBUG_ENGINE)
+				DebugHelper.debug(ENGINE, "Metrics of engine operation for profile=" + profile.getProfileId() + ": " + operation.toJSON()); //$NON-NLS-1$ //$NON-NLS-2$
 			//if there is only one child status, return that status instead because it will have more context
 			IStatus[] children = result.getChildren();
 			return children.length == 1 ? children[0] : result;
@@ -0,0 +1,450 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *      IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+
+/**
+ * Metrics of the last operations performed by the engine of an agent. For each
+ * operation, the wall time, the CPU time and the bytes read and written are recorded
+ * for each phase, each class of provisioning action and each step of the engine
+ * around the phases, such as the write of the profile.
+ * <p>
+ * Bytes are reported by the code doing the I/O through {@link #recordBytesRead(long)}
+ * and {@link #recordBytesWritten(long)}, and attributed to the action or the phase
+ * running in the calling thread. CPU times are only available on VMs which support
+ * measuring the CPU time of a thread, and are -1 otherwise.
+ */
+public class EngineMetrics {
+	public static final String SERVICE_NAME = EngineMetrics.class.getName();
+	private static final int MAX_HISTORY = 10;
+
+	// the measurement running in the current thread, to which bytes are attributed
+	private static final ThreadLocal<Measurement> current = new ThreadLocal<Measurement>();
+	private static boolean cpuTimeSupported = true;
+
+	// the metrics of the last operations, the most recent last
+	private final LinkedList<Operation> operations = new LinkedList<Operation>();
+
+	/**
+	 * The accumulated metrics of a phase, an action class or an engine step.
+	 */
+	public static class Entry {
+		final String name;
+		int count;
+		long wallTime;
+		long cpuTime;
+		long bytesRead;
+		long bytesWritten;
+
+		Entry(String name) {
+			this.name = name;
+		}
+
+		Entry(Entry entry) {
+			this(entry.name);
+			count = entry.count;
+			wallTime = entry.wallTime;
+			cpuTime = entry.cpuTime;
+			bytesRead = entry.bytesRead;
+			bytesWritten = entry.bytesWritten;
+		}
+
+		/**
+		 * Return the phase id, the class name of the action or the name of the step.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Return the number of operands performed by a phase, the number of times
+		 * an action was executed, or the number of times a step was performed.
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Return the elapsed time, in milliseconds.
+		 */
+		public long getWallTime() {
+			return wallTime;
+		}
+
+		/**
+		 * Return the CPU time, in milliseconds, or -1 if it could not be measured.
+		 * The CPU time of a phase includes the CPU time of its actions executed by
+		 * other threads.
+		 */
+		public long getCpuTime() {
+			return cpuTime < 0 ? -1 : cpuTime / 1000000;
+		}
+
+		public long getBytesRead() {
+			return bytesRead;
+		}
+
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+
+		void appendJSON(StringBuffer buffer) {
+			buffer.append("{\"name\":"); //$NON-NLS-1$
+			appendString(buffer, name);
+			buffer.append(",\"count\":").append(count); //$NON-NLS-1$
+			buffer.append(",\"wallTime\":").append(wallTime); //$NON-NLS-1$
+			buffer.append(",\"cpuTime\":").append(getCpuTime()); //$NON-NLS-1$
+			buffer.append(",\"bytesRead\":").append(bytesRead); //$NON-NLS-1$
+			buffer.append(",\"bytesWritten\":").append(bytesWritten); //$NON-NLS-1$
+			buffer.append('}');
+		}
+	}
+
+	/**
+	 * The measurement of one execution of a phase, an action or a step.
+	 */
+	public static class Measurement {
+		private final Operation operation;
+		private final Entry entry;
+		private final Measurement parent;
+		private final Thread thread;
+		private final Measurement previous;
+		private final long start;
+		private final long cpuStart;
+		private int count;
+		private long childCpuTime;
+		private long bytesRead;
+		private long bytesWritten;
+
+		Measurement(Operation operation, Entry entry, Measurement parent, int count) {
+			this.operation = operation;
+			this.count = count;
+			this.entry = entry;
+			this.parent = parent;
+			this.thread = Thread.currentThread();
+			this.previous = current.get();
+			this.start = System.currentTimeMillis();
+			this.cpuStart = getCurrentThreadCpuTime();
+			current.set(this);
+		}
+
+		/**
+		 * Count one more operand performed by the measured phase.
+		 */
+		public void countOperand() {
+			synchronized (operation) {
+				count++;
+			}
+		}
+
+		/**
+		 * Stop the measurement, and add it to the metrics of its phase, action or step.
+		 * Must be invoked by the thread which started the measurement.
+		 */
+		public void stop() {
+			long cpuEnd = getCurrentThreadCpuTime();
+			long wallTime = System.currentTimeMillis() - start;
+			current.set(previous);
+			synchronized (operation) {
+				long cpuTime = cpuStart < 0 || cpuEnd < 0 || childCpuTime < 0 ? -1 : cpuEnd - cpuStart + childCpuTime;
+				entry.count += count;
+				entry.wallTime += wallTime;
+				entry.cpuTime = entry.cpuTime < 0 || cpuTime < 0 ? -1 : entry.cpuTime + cpuTime;
+				entry.bytesRead += bytesRead;
+				entry.bytesWritten += bytesWritten;
+				if (parent != null) {
+					parent.bytesRead += bytesRead;
+					parent.bytesWritten += bytesWritten;
+					// the CPU time of the current thread is measured by the parent itself
+					if (parent.thread != thread)
+						parent.childCpuTime = parent.childCpuTime < 0 || cpuTime < 0 ? -1 : parent.childCpuTime + cpuTime;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The metrics of one operation of the engine.
+	 */
+	public static class Operation {
+		private final String profileId;
+		private final long startTime;
+		private long wallTime = -1;
+		private int severity = IStatus.OK;
+		private final Map<String, Entry> phases = new LinkedHashMap<String, Entry>();
+		private final Map<String, Entry> actions = new TreeMap<String, Entry>();
+		private final Map<String, Entry> steps = new LinkedHashMap<String, Entry>();
+
+		public Operation(String profileId) {
+			this.profileId = profileId;
+			this.startTime = System.currentTimeMillis();
+		}
+
+		/**
+		 * Start measuring the phase with the given id in the current thread.
+		 */
+		public Measurement startPhase(String phaseId) {
+			return new Measurement(this, getEntry(phases, phaseId), null, 0);
+		}
+
+		/**
+		 * Start measuring the execution of an action of the given class in the current
+		 * thread, on behalf of the given phase measurement.
+		 */
+		public Measurement startAction(String actionClass, Measurement phase) {
+			return new Measurement(this, getEntry(actions, actionClass), phase, 1);
+		}
+
+		/**
+		 * Start measuring the engine step with the given name in the current thread.
+		 */
+		public Measurement startStep(String name) {
+			return new Measurement(this, getEntry(steps, name), null, 1);
+		}
+
+		private synchronized Entry getEntry(Map<String, Entry> entries, String name) {
+			Entry entry = entries.get(name);
+			if (entry == null) {
+				entry = new Entry(name);
+				entries.put(name, entry);
+			}
+			return entry;
+		}
+
+		synchronized void done(IStatus status) {
+			wallTime = System.currentTimeMillis() - startTime;
+			severity = status.getSeverity();
+		}
+
+		public String getProfileId() {
+			return profileId;
+		}
+
+		public long getStartTime() {
+			return startTime;
+		}
+
+		/**
+		 * Return the elapsed time of the whole operation in milliseconds, or -1 if the
+		 * operation is still being performed.
+		 */
+		public synchronized long getWallTime() {
+			return wallTime;
+		}
+
+		/**
+		 * Return the severity of the result of the operation.
+		 */
+		public synchronized int getSeverity() {
+			return severity;
+		}
+
+		/**
+		 * Return the metrics of the phases, in the order in which they were performed.
+		 */
+		public synchronized List<Entry> getPhases() {
+			return copy(phases);
+		}
+
+		/**
+		 * Return the metrics of the action classes, sorted by class name.
+		 */
+		public synchronized List<Entry> getActions() {
+			return copy(actions);
+		}
+
+		/**
+		 * Return the metrics of the engine steps around the phases, in the order in
+		 * which they were performed.
+		 */
+		public synchronized List<Entry> getSteps() {
+			return copy(steps);
+		}
+
+		private static List<Entry> copy(Map<String, Entry> entries) {
+			List<Entry> result = new ArrayList<Entry>(entries.size());
+			for (Entry entry : entries.values())
+				result.add(new Entry(entry));
+			return result;
+		}
+
+		public synchronized String toJSON() {
+			StringBuffer buffer = new StringBuffer();
+			appendJSON(buffer);
+			return buffer.toString();
+		}
+
+		synchronized void appendJSON(StringBuffer buffer) {
+			buffer.append("{\"profile\":"); //$NON-NLS-1$
+			appendString(buffer, profileId);
+			buffer.append(",\"startTime\":").append(startTime); //$NON-NLS-1$
+			buffer.append(",\"wallTime\":").append(wallTime); //$NON-NLS-1$
+			buffer.append(",\"severity\":").append(severity); //$NON-NLS-1$
+			appendEntries(buffer, "phases", phases); //$NON-NLS-1$
+			appendEntries(buffer, "actions", actions); //$NON-NLS-1$
+			appendEntries(buffer, "steps", steps); //$NON-NLS-1$
+			buffer.append('}');
+		}
+
+		private static void appendEntries(StringBuffer buffer, String name, Map<String, Entry> entries) {
+			buffer.append(",\"").append(name).append("\":["); //$NON-NLS-1$ //$NON-NLS-2$
+			boolean first = true;
+			for (Entry entry : entries.values()) {
+				if (!first)
+					buffer.append(',');
+				first = false;
+				entry.appendJSON(buffer);
+			}
+			buffer.append(']');
+		}
+
+		public String toString() {
+			return toJSON();
+		}
+	}
+
+	/*
+	 * Isolates the use of java.lang.management, which is not available on all VMs.
+	 */
+	private static class ThreadCpuTime {
+		static final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		static long get() {
+			return bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() : -1;
+		}
+	}
+
+	/**
+	 * Return the CPU time of the current thread in nanoseconds, or -1 if it cannot be measured.
+	 */
+	static long getCurrentThreadCpuTime() {
+		if (!cpuTimeSupported)
+			return -1;
+		try {
+			return ThreadCpuTime.get();
+		} catch (Throwable t) {
+			// NoClassDefFoundError on VMs without java.lang.management, UnsupportedOperationException
+			cpuTimeSupported = false;
+			return -1;
+		}
+	}
+
+	/**
+	 * Attribute the given number of bytes read to the action or phase measured in the
+	 * current thread. Does nothing if nothing is measured.
+	 */
+	public static void recordBytesRead(long bytes) {
+		Measurement measurement = current.get();
+		if (measurement != null) {
+			synchronized (measurement.operation) {
+				measurement.bytesRead += bytes;
+			}
+		}
+	}
+
+	/**
+	 * Attribute the given number of bytes written to the action or phase measured in the
+	 * current thread. Does nothing if nothing is measured.
+	 */
+	public static void recordBytesWritten(long bytes) {
+		Measurement measurement = current.get();
+		if (measurement != null) {
+			synchronized (measurement.operation) {
+				measurement.bytesWritten += bytes;
+			}
+		}
+	}
+
+	static void appendString(StringBuffer buffer, String value) {
+		if (value == null) {
+			buffer.append("null"); //$NON-NLS-1$
+			return;
+		}
+		buffer.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"' :
+				case '\\' :
+					buffer.append('\\').append(c);
+					break;
+				case '\n' :
+					buffer.append("\\n"); //$NON-NLS-1$
+					break;
+				case '\r' :
+					buffer.append("\\r"); //$NON-NLS-1$
+					break;
+				case '\t' :
+					buffer.append("\\t"); //$NON-NLS-1$
+					break;
+				default :
+					if (c < 0x20) {
+						String hex = Integer.toHexString(c);
+						buffer.append("\\u"); //$NON-NLS-1$
+						for (int j = hex.length(); j < 4; j++)
+							buffer.append('0');
+						buffer.append(hex);
+					} else
+						buffer.append(c);
+			}
+		}
+		buffer.append('"');
+	}
+
+	/**
+	 * Start recording the metrics of a new operation on the given profile.
+	 */
+	public synchronized Operation startOperation(String profileId) {
+		Operation operation = new Operation(profileId);
+		operations.add(operation);
+		if (operations.size() > MAX_HISTORY)
+			operations.removeFirst();
+		return operation;
+	}
+
+	/**
+	 * Return the metrics of the last operation, or <code>null</code> if no operation
+	 * has been performed yet.
+	 */
+	public synchronized Operation getLastOperation() {
+		return operations.isEmpty() ? null : operations.getLast();
+	}
+
+	/**
+	 * Return the metrics of the last operations, the most recent last.
+	 */
+	public synchronized List<Operation> getOperations() {
+		return new ArrayList<Operation>(operations);
+	}
+
+	public synchronized void clear() {
+		operations.clear();
+	}
+
+	/**
+	 * Return the metrics of the last operations as a JSON array, the most recent last.
+	 */
+	public synchronized String toJSON() {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append('[');
+		for (Iterator<Operation> iter = operations.iterator(); iter.hasNext();) {
+			iter.next().appendJSON(buffer);
+			if (iter.hasNext())
+				buffer.append(',');
+		}
+		buffer.append(']');
+		return buffer.toString();
+	}
+}
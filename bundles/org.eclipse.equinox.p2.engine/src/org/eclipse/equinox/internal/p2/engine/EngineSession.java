@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -42,7 +42,9 @@ public class EngineSession {
 	boolean currentPhaseActive;
 
 	private List<ActionsRecord> currentActionRecords;
-	private ActionsRecord currentRecord;
+	// the operands being performed, in the order they were started. There is more than
+	// one when the actions of several operands are executed concurrently.
+	private List<ActionsRecord> currentRecords = new ArrayList<ActionsRecord>();
 
 	private IProfile profile;
 
@@ -54,11 +56,18 @@ public class EngineSession {
 
 	private final IProvisioningAgent agent;
 
+	private final EngineMetrics.Operation metrics;
+
 	public EngineSession(IProvisioningAgent agent, IProfile profile, ProvisioningContext context) {
+		this(agent, profile, context, new EngineMetrics.Operation(profile.getProfileId()));
+	}
+
+	public EngineSession(IProvisioningAgent agent, IProfile profile, ProvisioningContext context, EngineMetrics.Operation metrics) {
 		super();
 		this.agent = agent;
 		this.profile = profile;
 		this.context = context;
+		this.metrics = metrics;
 	}
 
 	public IProfile getProfile() {
@@ -69,6 +78,13 @@ public class EngineSession {
 		return agent;
 	}
 
+	/**
+	 * Return the metrics of the operation performed in this session.
+	 */
+	public EngineMetrics.Operation getMetrics() {
+		return metrics;
+	}
+
 	public ProvisioningContext getProvisioningContext() {
 		return context;
 	}
@@ -165,7 +181,7 @@ public class EngineSession {
 			}
 			currentPhaseActive = false;
 			currentActionRecords = null;
-			currentRecord = null;
+			currentRecords.clear();
 		}
 		currentPhase = null;
 
@@ -291,38 +307,58 @@ public class EngineSession {
 			debugPhaseExit(phase);
 	}
 
-	void recordOperandStart(Operand operand) {
+	synchronized void recordOperandStart(Operand operand) {
+		if (operand == null)
+			throw new IllegalArgumentException(Messages.null_operand);
+
+		if (!currentRecords.isEmpty())
+			throw new IllegalStateException(Messages.operand_started);
+
+		recordConcurrentOperandStart(operand);
+	}
+
+	/**
+	 * Records the start of an operand whose actions are executed at the same time as the
+	 * actions of the other started operands.
+	 */
+	synchronized void recordConcurrentOperandStart(Operand operand) {
 		if (operand == null)
 			throw new IllegalArgumentException(Messages.null_operand);
 
-		if (currentRecord != null)
+		if (getRecord(operand) != null)
 			throw new IllegalStateException(Messages.operand_started);
 
-		currentRecord = new ActionsRecord(operand);
-		currentActionRecords.add(currentRecord);
+		ActionsRecord record = new ActionsRecord(operand);
+		currentRecords.add(record);
+		currentActionRecords.add(record);
 
 		if (DebugHelper.DEBUG_ENGINE_SESSION)
 			debugOperandStart(operand);
 	}
 
-	void recordOperandEnd(Operand operand) {
-		if (currentRecord == null)
+	synchronized void recordOperandEnd(Operand operand) {
+		if (currentRecords.isEmpty())
 			throw new IllegalStateException(Messages.operand_not_started);
 
-		if (currentRecord.operand != operand)
+		ActionsRecord record = getRecord(operand);
+		if (record == null)
 			throw new IllegalArgumentException(Messages.not_current_operand);
 
-		currentRecord = null;
+		currentRecords.remove(record);
 
 		if (DebugHelper.DEBUG_ENGINE_SESSION)
 			debugOperandEnd(operand);
 	}
 
-	void recordActionExecute(ProvisioningAction action, Map<String, Object> parameters) {
+	synchronized void recordActionExecute(Operand operand, ProvisioningAction action, Map<String, Object> parameters) {
 		if (action == null)
 			throw new IllegalArgumentException(Messages.null_action);
 
-		currentRecord.actions.add(action);
+		ActionsRecord record = getRecord(operand);
+		if (record == null)
+			throw new IllegalStateException(Messages.operand_not_started);
+
+		record.actions.add(action);
 
 		Touchpoint touchpoint = action.getTouchpoint();
 		if (touchpoint != null)
@@ -332,6 +368,14 @@ public class EngineSession {
 			debugActionExecute(action, parameters);
 	}
 
+	private ActionsRecord getRecord(Operand operand) {
+		for (ActionsRecord record : currentRecords) {
+			if (record.operand == operand)
+				return record;
+		}
+		return null;
+	}
+
 	public void recordActionUndo(ProvisioningAction action, Map<String, Object> parameters) {
 		if (DebugHelper.DEBUG_ENGINE_SESSION)
 			debugActionUndo(action, parameters);
@@ -342,16 +386,17 @@ public class EngineSession {
 			ParameterizedProvisioningAction parameterizedAction = (ParameterizedProvisioningAction) action;
 			action = parameterizedAction.getAction();
 		}
-		String message = NLS.bind(Messages.session_context, new Object[] {profile.getProfileId(), phase.getClass().getName(), operand.toString(), getCurrentActionId()});
+		String message = NLS.bind(Messages.session_context, new Object[] {profile.getProfileId(), phase.getClass().getName(), operand.toString(), action.getClass().getName()});
 		return message;
 	}
 
-	public String getContextString() {
+	public synchronized String getContextString() {
 		String message = NLS.bind(Messages.session_context, new Object[] {profile.getProfileId(), getCurrentPhaseId(), getCurrentOperandId(), getCurrentActionId()});
 		return message;
 	}
 
 	private Object getCurrentActionId() {
+		ActionsRecord currentRecord = getCurrentRecord();
 		if (currentRecord == null || currentRecord.actions.isEmpty())
 			return EMPTY_STRING;
 
@@ -370,11 +415,18 @@ public class EngineSession {
 	}
 
 	private String getCurrentOperandId() {
+		ActionsRecord currentRecord = getCurrentRecord();
 		if (currentRecord == null)
 			return EMPTY_STRING;
 		return currentRecord.operand.toString();
 	}
 
+	private ActionsRecord getCurrentRecord() {
+		if (currentRecords.isEmpty())
+			return null;
+		return currentRecords.get(currentRecords.size() - 1);
+	}
+
 	private static void debugPhaseEnter(Phase phase) {
 		DebugHelper.debug(ENGINE_SESSION, "Entering phase: " + phase.getClass().getName()); //$NON-NLS-1$
 	}
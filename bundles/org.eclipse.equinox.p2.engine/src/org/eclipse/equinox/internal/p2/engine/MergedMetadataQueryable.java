@@ -0,0 +1,89 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *      IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.util.*;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.TranslationSupport;
+import org.eclipse.equinox.internal.p2.metadata.index.*;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.KeyWithLocale;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.query.QueryUtil;
+
+/**
+ * The union of the installable units of several metadata repositories. Units with the
+ * same id and version are only kept once, preferring complete units over partial ones.
+ * The id and capability indexes are built once over the whole union, so a query only
+ * probes one index instead of one per repository.
+ */
+public class MergedMetadataQueryable extends IndexProvider<IInstallableUnit> {
+	private final List<IInstallableUnit> units;
+	private IIndex<IInstallableUnit> capabilityIndex;
+	private IIndex<IInstallableUnit> idIndex;
+	private TranslationSupport translationSupport;
+
+	public MergedMetadataQueryable(Collection<? extends IQueryable<IInstallableUnit>> queryables, IProgressMonitor monitor) {
+		SubMonitor sub = SubMonitor.convert(monitor, queryables.size());
+		Map<String, IInstallableUnit> merged = new LinkedHashMap<String, IInstallableUnit>();
+		for (IQueryable<IInstallableUnit> queryable : queryables) {
+			for (Iterator<IInstallableUnit> iter = queryable.query(QueryUtil.createIUAnyQuery(), sub.newChild(1)).iterator(); iter.hasNext();) {
+				IInstallableUnit iu = iter.next();
+				String key = iu.getId() + '_' + iu.getVersion();
+				IInstallableUnit current = merged.get(key);
+				if (current == null || (isPartial(current) && !isPartial(iu)))
+					merged.put(key, iu);
+			}
+		}
+		units = new ArrayList<IInstallableUnit>(merged.values());
+	}
+
+	private static boolean isPartial(IInstallableUnit iu) {
+		return Boolean.valueOf(iu.getProperty(IInstallableUnit.PROP_PARTIAL_IU)).booleanValue();
+	}
+
+	public Iterator<IInstallableUnit> everything() {
+		return units.iterator();
+	}
+
+	public int size() {
+		return units.size();
+	}
+
+	public synchronized IIndex<IInstallableUnit> getIndex(String memberName) {
+		if (InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName)) {
+			if (capabilityIndex == null)
+				capabilityIndex = new CapabilityIndex(units.iterator());
+			return capabilityIndex;
+		}
+		if (InstallableUnit.MEMBER_ID.equals(memberName)) {
+			if (idIndex == null)
+				idIndex = new IdIndex(units.iterator());
+			return idIndex;
+		}
+		return null;
+	}
+
+	public synchronized Object getManagedProperty(Object client, String memberName, Object key) {
+		if (!(client instanceof IInstallableUnit))
+			return null;
+		IInstallableUnit iu = (IInstallableUnit) client;
+		if (InstallableUnit.MEMBER_TRANSLATED_PROPERTIES.equals(memberName)) {
+			if (translationSupport == null)
+				translationSupport = new TranslationSupport(this);
+			return key instanceof KeyWithLocale ? translationSupport.getIUProperty(iu, (KeyWithLocale) key) : translationSupport.getIUProperty(iu, key.toString());
+		}
+		return null;
+	}
+}
@@ -67,6 +67,7 @@ public class Messages extends NLS {
 	public static String Phase_Install_Error;
 	public static String Phase_Configure_Error;
 	public static String Phase_Configure_Task;
+	public static String Phase_Executing_Actions;
 	public static String Phase_Install_Task;
 	public static String Phase_Sizing_Error;
 	public static String Phase_Sizing_Warning;
@@ -85,6 +86,9 @@ public class Messages extends NLS {
 	public static String Profile_Null_Profile_Id;
 	public static String Profile_Parent_Not_Found;
 	public static String ProfilePreferences_saving;
+	public static String RepositoryLoader_Loading;
+	public static String RepositoryLoader_Loaded;
+	public static String RepositoryLoader_Unexpected_Error;
 	public static String reg_dir_not_available;
 	public static String rollingback_cancel;
 	public static String rollingback_error;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@ package org.eclipse.equinox.internal.p2.engine;
 
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.engine.ProvisioningContext;
@@ -32,6 +33,169 @@ public abstract class Phase {
 	protected static final String PARM_FORCED = "forced"; //$NON-NLS-1$
 	protected static final String PARM_TOUCHPOINT = "touchpoint"; //$NON-NLS-1$
 
+	/**
+	 * System property specifying the maximum number of operands whose actions are
+	 * executed at the same time. Only the actions declared as concurrent by their
+	 * extension run at the same time as the actions of other operands; all other actions
+	 * are executed one after the other in the order of their operands. The default value
+	 * of 1 executes all actions in the calling thread, as does any value while the job
+	 * manager is suspended.
+	 */
+	public static final String PROP_ACTION_THREADS = "eclipse.p2.engine.action.threads"; //$NON-NLS-1$
+	private static final long POLL_INTERVAL = 100;
+
+	/**
+	 * An operand whose actions are executed by a job.
+	 */
+	private static class ConcurrentOperand {
+		final int index;
+		final Operand operand;
+		final List<ProvisioningAction> actions;
+		final Map<Touchpoint, Map<String, Object>> touchpointParameters = new HashMap<Touchpoint, Map<String, Object>>();
+		final MultiStatus status = new MultiStatus(EngineActivator.ID, IStatus.OK, null, null);
+		Map<String, Object> parameters;
+		Throwable failure;
+		// whether the execution of the actions was stopped because another operand failed
+		boolean interrupted;
+
+		ConcurrentOperand(int index, Operand operand, List<ProvisioningAction> actions) {
+			this.index = index;
+			this.operand = operand;
+			this.actions = actions;
+		}
+	}
+
+	/**
+	 * Executes the actions of a sequence of operands with a bounded number of jobs.
+	 * The actions which are not concurrent wait until the operands before theirs are
+	 * done, so that they are executed in the same order as they would be by a single
+	 * thread.
+	 */
+	private class ConcurrentExecutor {
+		private final EngineSession session;
+		private final int maxThreads;
+		private final Object lock = new Object();
+		private final LinkedList<ConcurrentOperand> queue;
+		private final boolean[] finished;
+		// the number of operands at the beginning of the sequence which are done
+		private int done = 0;
+		private int workers = 0;
+		private boolean stopped = false;
+
+		ConcurrentExecutor(EngineSession session, List<ConcurrentOperand> operands, int maxThreads) {
+			this.session = session;
+			this.maxThreads = maxThreads;
+			this.queue = new LinkedList<ConcurrentOperand>(operands);
+			this.finished = new boolean[operands.size()];
+		}
+
+		void execute(SubMonitor subMonitor) {
+			synchronized (lock) {
+				while (workers < maxThreads && workers < queue.size()) {
+					workers++;
+					new ActionJob().schedule();
+				}
+				int reported = 0;
+				while (true) {
+					for (; reported < done; reported++)
+						subMonitor.worked(1);
+					if (workers == 0)
+						break;
+					if (!stopped && subMonitor.isCanceled()) {
+						stopped = true;
+						queue.clear();
+					}
+					try {
+						lock.wait(POLL_INTERVAL);
+					} catch (InterruptedException e) {
+						// ignore
+					}
+				}
+			}
+			if (subMonitor.isCanceled())
+				throw new OperationCanceledException();
+		}
+
+		/**
+		 * Job executing the actions of queued operands until the queue is empty.
+		 */
+		private class ActionJob extends Job {
+			ActionJob() {
+				super(Messages.Phase_Executing_Actions);
+				setSystem(true);
+			}
+
+			public boolean belongsTo(Object family) {
+				return family == ConcurrentExecutor.this;
+			}
+
+			protected IStatus run(IProgressMonitor monitor) {
+				while (true) {
+					ConcurrentOperand current;
+					synchronized (lock) {
+						if (queue.isEmpty() || stopped) {
+							workers--;
+							lock.notifyAll();
+							return Status.OK_STATUS;
+						}
+						current = queue.removeFirst();
+					}
+					try {
+						executeActions(current);
+					} catch (RuntimeException e) {
+						current.failure = e;
+					} catch (Error e) {
+						current.failure = e;
+					} finally {
+						synchronized (lock) {
+							if (current.failure != null || current.status.matches(IStatus.ERROR | IStatus.CANCEL))
+								stopped = true;
+							finished[current.index] = true;
+							while (done < finished.length && finished[done])
+								done++;
+							lock.notifyAll();
+						}
+					}
+				}
+			}
+		}
+
+		private void executeActions(ConcurrentOperand current) {
+			for (ProvisioningAction action : current.actions) {
+				if (!actionManager.isConcurrent(action) && !awaitTurn(current)) {
+					current.interrupted = true;
+					return;
+				}
+				Map<String, Object> parameters = current.parameters;
+				Touchpoint touchpoint = action.getTouchpoint();
+				if (touchpoint != null)
+					parameters = current.touchpointParameters.get(touchpoint);
+				mergeStatus(current.status, executeAction(session, current.operand, action, parameters));
+				if (current.status.matches(IStatus.ERROR | IStatus.CANCEL))
+					return;
+			}
+		}
+
+		/**
+		 * Wait until the operands before the given one are done. Return <code>false</code>
+		 * if the execution was stopped in the meantime.
+		 */
+		private boolean awaitTurn(ConcurrentOperand current) {
+			synchronized (lock) {
+				// the operands before this one were taken from the queue earlier, so they are
+				// running and will be done eventually
+				while (done < current.index) {
+					try {
+						lock.wait(POLL_INTERVAL);
+					} catch (InterruptedException e) {
+						// ignore
+					}
+				}
+				return !stopped;
+			}
+		}
+	}
+
 	protected final String phaseId;
 	protected final int weight;
 	protected final boolean forced;
@@ -39,6 +203,7 @@ public abstract class Phase {
 	protected int mainPerformWork = 10000;
 	protected int postPerformWork = 1000;
 	private Map<String, Object> operandParameters = null;
+	private EngineMetrics.Measurement measurement = null;
 	private Map<String, Object> phaseParameters = new HashMap<String, Object>();
 	private Map<Touchpoint, Map<String, Object>> touchpointToTouchpointPhaseParameters = new HashMap<Touchpoint, Map<String, Object>>();
 	private Map<Touchpoint, Map<String, Object>> touchpointToTouchpointOperandParameters = new HashMap<Touchpoint, Map<String, Object>>();
@@ -67,6 +232,16 @@ public abstract class Phase {
 	}
 
 	void perform(MultiStatus status, EngineSession session, Operand[] operands, IProgressMonitor monitor) {
+		measurement = session.getMetrics().startPhase(phaseId);
+		try {
+			performPhase(status, session, operands, monitor);
+		} finally {
+			measurement.stop();
+			measurement = null;
+		}
+	}
+
+	private void performPhase(MultiStatus status, EngineSession session, Operand[] operands, IProgressMonitor monitor) {
 		SubMonitor subMonitor = SubMonitor.convert(monitor, prePerformWork + mainPerformWork + postPerformWork);
 		session.recordPhaseEnter(this);
 		prePerform(status, session, subMonitor.newChild(prePerformWork));
@@ -103,16 +278,33 @@ public abstract class Phase {
 	private void mainPerform(MultiStatus status, EngineSession session, Operand[] operands, SubMonitor subMonitor) {
 		IProfile profile = session.getProfile();
 		subMonitor.beginTask(null, operands.length);
+		int maxThreads = getConfiguredThreads();
+		// jobs never run while the job manager is suspended, e.g. during the reconciliation at startup
+		if (maxThreads > 1 && Job.getJobManager().isSuspended())
+			maxThreads = 1;
+		List<ConcurrentOperand> concurrentOperands = new ArrayList<ConcurrentOperand>();
 		for (int i = 0; i < operands.length; i++) {
-			subMonitor.setWorkRemaining(operands.length - i);
+			subMonitor.setWorkRemaining(operands.length - i + concurrentOperands.size());
 			if (subMonitor.isCanceled())
 				throw new OperationCanceledException();
 			Operand operand = operands[i];
 			if (!isApplicable(operand))
 				continue;
 
-			session.recordOperandStart(operand);
 			List<ProvisioningAction> actions = getActions(operand);
+			if (maxThreads > 1 && hasConcurrentAction(actions)) {
+				concurrentOperands.add(new ConcurrentOperand(concurrentOperands.size(), operand, actions));
+				continue;
+			}
+			if (!concurrentOperands.isEmpty()) {
+				mainPerformConcurrently(status, session, concurrentOperands, maxThreads, subMonitor);
+				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+					return;
+				concurrentOperands.clear();
+			}
+
+			session.recordOperandStart(operand);
+			measurement.countOperand();
 			operandParameters = new HashMap<String, Object>(phaseParameters);
 			operandParameters.put(PARM_OPERAND, operand);
 			mergeStatus(status, initializeOperand(profile, operand, operandParameters, subMonitor));
@@ -123,7 +315,7 @@ public abstract class Phase {
 
 			Touchpoint operandTouchpoint = (Touchpoint) operandParameters.get(PARM_TOUCHPOINT);
 			if (operandTouchpoint != null) {
-				mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, subMonitor));
+				mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, operandParameters, touchpointToTouchpointOperandParameters, subMonitor));
 				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
 					return;
 
@@ -137,35 +329,13 @@ public abstract class Phase {
 					Map<String, Object> parameters = operandParameters;
 					Touchpoint touchpoint = action.getTouchpoint();
 					if (touchpoint != null) {
-						mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, subMonitor));
+						mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, operandParameters, touchpointToTouchpointOperandParameters, subMonitor));
 						if (status.matches(IStatus.ERROR | IStatus.CANCEL))
 							return;
 
 						parameters = touchpointToTouchpointOperandParameters.get(touchpoint);
 					}
-					IStatus actionStatus = null;
-					try {
-						session.recordActionExecute(action, parameters);
-						actionStatus = action.execute(parameters);
-					} catch (RuntimeException e) {
-						if (!forced)
-							throw e;
-						// "action.execute" calls user code and might throw an unchecked exception
-						// we catch the error here to gather information on where the problem occurred.
-						actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
-					} catch (LinkageError e) {
-						if (!forced)
-							throw e;
-						// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
-						actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
-					}
-					if (forced && actionStatus != null && actionStatus.matches(IStatus.ERROR)) {
-						MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.ERROR, getProblemMessage(), null);
-						result.add(new Status(IStatus.ERROR, EngineActivator.ID, session.getContextString(this, operand, action), null));
-						LogHelper.log(result);
-						actionStatus = Status.OK_STATUS;
-					}
-					mergeStatus(status, actionStatus);
+					mergeStatus(status, executeAction(session, operand, action, parameters));
 					if (status.matches(IStatus.ERROR | IStatus.CANCEL))
 						return;
 				}
@@ -178,10 +348,131 @@ public abstract class Phase {
 			session.recordOperandEnd(operand);
 			subMonitor.worked(1);
 		}
+		if (!concurrentOperands.isEmpty())
+			mainPerformConcurrently(status, session, concurrentOperands, maxThreads, subMonitor);
 	}
 
-	private IStatus initializeTouchpointParameters(IProfile profile, Operand operand, Touchpoint touchpoint, IProgressMonitor monitor) {
-		if (touchpointToTouchpointOperandParameters.containsKey(touchpoint))
+	/**
+	 * Perform the given operands, executing their actions with several jobs. The operands
+	 * are initialized and completed one after the other in the calling thread.
+	 */
+	private void mainPerformConcurrently(MultiStatus status, EngineSession session, List<ConcurrentOperand> concurrentOperands, int maxThreads, SubMonitor subMonitor) {
+		IProfile profile = session.getProfile();
+		for (ConcurrentOperand current : concurrentOperands) {
+			Operand operand = current.operand;
+			session.recordConcurrentOperandStart(operand);
+			measurement.countOperand();
+			Map<String, Object> parameters = new HashMap<String, Object>(phaseParameters);
+			parameters.put(PARM_OPERAND, operand);
+			mergeStatus(status, initializeOperand(profile, operand, parameters, subMonitor));
+			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+				return;
+
+			Touchpoint operandTouchpoint = (Touchpoint) parameters.get(PARM_TOUCHPOINT);
+			if (operandTouchpoint != null) {
+				mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, parameters, current.touchpointParameters, subMonitor));
+				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+					return;
+
+				parameters = current.touchpointParameters.get(operandTouchpoint);
+			}
+
+			current.parameters = Collections.unmodifiableMap(parameters);
+			for (ProvisioningAction action : current.actions) {
+				Touchpoint touchpoint = action.getTouchpoint();
+				if (touchpoint != null) {
+					mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, current.parameters, current.touchpointParameters, subMonitor));
+					if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+						return;
+				}
+			}
+		}
+
+		new ConcurrentExecutor(session, concurrentOperands, maxThreads).execute(subMonitor);
+
+		// the operands are completed in their order, up to the first one which did not
+		// execute all its actions
+		boolean completing = true;
+		for (ConcurrentOperand current : concurrentOperands) {
+			if (current.failure instanceof RuntimeException)
+				throw (RuntimeException) current.failure;
+			if (current.failure instanceof Error)
+				throw (Error) current.failure;
+			mergeStatus(status, current.status);
+			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+				return;
+			if (current.interrupted)
+				completing = false;
+			if (!completing)
+				continue;
+			mergeStatus(status, touchpointCompleteOperand(profile, current.operand, current.parameters, current.touchpointParameters, subMonitor));
+			mergeStatus(status, completeOperand(profile, current.operand, current.parameters, subMonitor));
+			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+				return;
+			session.recordOperandEnd(current.operand);
+		}
+	}
+
+	private boolean hasConcurrentAction(List<ProvisioningAction> actions) {
+		if (actions == null)
+			return false;
+		for (ProvisioningAction action : actions) {
+			if (actionManager.isConcurrent(action))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Return the maximum number of operands whose actions are executed at the same time,
+	 * as configured by the {@link #PROP_ACTION_THREADS} property.
+	 */
+	static int getConfiguredThreads() {
+		String value = null;
+		try {
+			value = EngineActivator.getContext().getProperty(PROP_ACTION_THREADS);
+			if (value != null)
+				return Math.max(1, Integer.parseInt(value));
+		} catch (NumberFormatException e) {
+			System.err.println("Ignoring user-specified '" + PROP_ACTION_THREADS + "' value of: " + value); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (Exception e) {
+			// intentionally catch all errors (npe when the bundle is not started, etc)
+		}
+		return 1;
+	}
+
+	private IStatus executeAction(EngineSession session, Operand operand, ProvisioningAction action, Map<String, Object> parameters) {
+		IStatus actionStatus = null;
+		ProvisioningAction measured = action instanceof ParameterizedProvisioningAction ? ((ParameterizedProvisioningAction) action).getAction() : action;
+		EngineMetrics.Measurement actionMeasurement = session.getMetrics().startAction(measured.getClass().getName(), measurement);
+		try {
+			session.recordActionExecute(operand, action, parameters);
+			actionStatus = action.execute(parameters);
+		} catch (RuntimeException e) {
+			if (!forced)
+				throw e;
+			// "action.execute" calls user code and might throw an unchecked exception
+			// we catch the error here to gather information on where the problem occurred.
+			actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
+		} catch (LinkageError e) {
+			if (!forced)
+				throw e;
+			// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
+			actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
+		} finally {
+			actionMeasurement.stop();
+		}
+		if (forced && actionStatus != null && actionStatus.matches(IStatus.ERROR)) {
+			MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.ERROR, getProblemMessage(), null);
+			result.add(new Status(IStatus.ERROR, EngineActivator.ID, session.getContextString(this, operand, action), null));
+			LogHelper.log(result);
+			actionStatus = Status.OK_STATUS;
+		}
+		return actionStatus;
+	}
+
+	private IStatus initializeTouchpointParameters(IProfile profile, Operand operand, Touchpoint touchpoint, Map<String, Object> parameters, Map<Touchpoint, Map<String, Object>> touchpointOperandParametersMap, IProgressMonitor monitor) {
+		if (touchpointOperandParametersMap.containsKey(touchpoint))
 			return Status.OK_STATUS;
 
 		Map<String, Object> touchpointPhaseParameters = touchpointToTouchpointPhaseParameters.get(touchpoint);
@@ -194,11 +485,11 @@ public abstract class Phase {
 		}
 
 		Map<String, Object> touchpointOperandParameters = new HashMap<String, Object>(touchpointPhaseParameters);
-		touchpointOperandParameters.putAll(operandParameters);
+		touchpointOperandParameters.putAll(parameters);
 		IStatus status = touchpoint.initializeOperand(profile, touchpointOperandParameters);
 		if (status != null && status.matches(IStatus.ERROR | IStatus.CANCEL))
 			return status;
-		touchpointToTouchpointOperandParameters.put(touchpoint, touchpointOperandParameters);
+		touchpointOperandParametersMap.put(touchpoint, touchpointOperandParameters);
 		return Status.OK_STATUS;
 	}
 
@@ -223,7 +514,7 @@ public abstract class Phase {
 			mergeStatus(status, initializeOperand(profile, operand, operandParameters, new NullProgressMonitor()));
 			Touchpoint operandTouchpoint = (Touchpoint) operandParameters.get(PARM_TOUCHPOINT);
 			if (operandTouchpoint != null) {
-				mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, new NullProgressMonitor()));
+				mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, operandParameters, touchpointToTouchpointOperandParameters, new NullProgressMonitor()));
 				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
 					return;
 
@@ -236,7 +527,7 @@ public abstract class Phase {
 			Map<String, Object> parameters = operandParameters;
 			Touchpoint touchpoint = action.getTouchpoint();
 			if (touchpoint != null) {
-				mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, new NullProgressMonitor()));
+				mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, operandParameters, touchpointToTouchpointOperandParameters, new NullProgressMonitor()));
 				if (status.matches(IStatus.ERROR))
 					return;
 
@@ -296,16 +587,20 @@ public abstract class Phase {
 	}
 
 	IStatus touchpointCompleteOperand(IProfile profile, Operand operand, Map<String, Object> parameters, IProgressMonitor monitor) {
-		if (touchpointToTouchpointOperandParameters.isEmpty())
+		return touchpointCompleteOperand(profile, operand, parameters, touchpointToTouchpointOperandParameters, monitor);
+	}
+
+	private IStatus touchpointCompleteOperand(IProfile profile, Operand operand, Map<String, Object> parameters, Map<Touchpoint, Map<String, Object>> touchpointOperandParametersMap, IProgressMonitor monitor) {
+		if (touchpointOperandParametersMap.isEmpty())
 			return Status.OK_STATUS;
 
 		MultiStatus status = new MultiStatus(EngineActivator.ID, IStatus.OK, null, null);
-		for (Map.Entry<Touchpoint, Map<String, Object>> entry : touchpointToTouchpointOperandParameters.entrySet()) {
+		for (Map.Entry<Touchpoint, Map<String, Object>> entry : touchpointOperandParametersMap.entrySet()) {
 			Touchpoint touchpoint = entry.getKey();
 			Map<String, Object> touchpointParameters = entry.getValue();
 			mergeStatus(status, touchpoint.completeOperand(profile, touchpointParameters));
 		}
-		touchpointToTouchpointOperandParameters.clear();
+		touchpointOperandParametersMap.clear();
 		return status;
 	}
 
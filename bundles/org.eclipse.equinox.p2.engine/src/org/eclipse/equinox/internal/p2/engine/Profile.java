@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others. All rights reserved. This
+ * Copyright (c) 2007, 2011 IBM Corporation and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -65,8 +65,15 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	 */
 	private OrderedProperties storage = new OrderedProperties();
 
+	/*
+	 * The units, the map of their properties and the indexes over the units are shared with the
+	 * snapshots of this profile, until either profile changes them. The properties of a unit are
+	 * never changed, they are replaced.
+	 */
 	private IUMap ius = new IUMap();
-	final Map<IInstallableUnit, OrderedProperties> iuProperties = new HashMap<IInstallableUnit, OrderedProperties>();
+	private boolean iusShared = false;
+	Map<IInstallableUnit, OrderedProperties> iuProperties = new HashMap<IInstallableUnit, OrderedProperties>();
+	private boolean iuPropertiesShared = false;
 	private boolean changed = false;
 
 	private long timestamp;
@@ -235,7 +242,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.engine.IProfile#getInstallableUnitProperty(org.eclipse.equinox.internal.provisional.p2.metadata.IInstallableUnit, java.lang.String)
 	 */
-	public String getInstallableUnitProperty(IInstallableUnit iu, String key) {
+	public synchronized String getInstallableUnitProperty(IInstallableUnit iu, String key) {
 		OrderedProperties properties = iuProperties.get(iu);
 		if (properties == null)
 			return null;
@@ -243,32 +250,60 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		return properties.getProperty(key);
 	}
 
-	public String setInstallableUnitProperty(IInstallableUnit iu, String key, String value) {
+	public synchronized String setInstallableUnitProperty(IInstallableUnit iu, String key, String value) {
 		//		String iuKey = createIUKey(iu);
 		OrderedProperties properties = iuProperties.get(iu);
-		if (properties == null) {
-			properties = new OrderedProperties();
-			iuProperties.put(iu, properties);
-		}
+		properties = properties == null ? new OrderedProperties() : new OrderedProperties(properties);
+		String oldValue = (String) properties.setProperty(key, value);
+		writableIUProperties().put(iu, properties);
 
 		changed = true;
-		return (String) properties.setProperty(key, value);
+		return oldValue;
 	}
 
-	public String removeInstallableUnitProperty(IInstallableUnit iu, String key) {
+	public synchronized String removeInstallableUnitProperty(IInstallableUnit iu, String key) {
 		//		String iuKey = createIUKey(iu);
 		OrderedProperties properties = iuProperties.get(iu);
 		if (properties == null)
 			return null;
 
+		properties = new OrderedProperties(properties);
 		String oldValue = properties.remove(key);
 		if (properties.isEmpty())
-			iuProperties.remove(iu);
+			writableIUProperties().remove(iu);
+		else
+			writableIUProperties().put(iu, properties);
 
 		changed = true;
 		return oldValue;
 	}
 
+	/*
+	 * Return the units of this profile, copied first if they are shared with a snapshot.
+	 */
+	private IUMap writableIUs() {
+		if (iusShared) {
+			ius = ius.clone();
+			iusShared = false;
+			idIndex = null;
+		}
+		// the capability index does not follow the changes of the units
+		capabilityIndex = null;
+		return ius;
+	}
+
+	/*
+	 * Return the properties of the units of this profile, copied first if they are shared
+	 * with a snapshot.
+	 */
+	private Map<IInstallableUnit, OrderedProperties> writableIUProperties() {
+		if (iuPropertiesShared) {
+			iuProperties = new HashMap<IInstallableUnit, OrderedProperties>(iuProperties);
+			iuPropertiesShared = false;
+		}
+		return iuProperties;
+	}
+
 	//	private static String createIUKey(IInstallableUnit iu) {
 	//		return iu.getId() + "_" + iu.getVersion().toString(); //$NON-NLS-1$
 	//	}
@@ -305,25 +340,25 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		changed = true;
 	}
 
-	public void addInstallableUnit(IInstallableUnit iu) {
+	public synchronized void addInstallableUnit(IInstallableUnit iu) {
 		iu = iu.unresolved();
 		if (ius.contains(iu))
 			return;
 
-		ius.add(iu);
+		writableIUs().add(iu);
 		changed = true;
 	}
 
-	public void removeInstallableUnit(IInstallableUnit iu) {
+	public synchronized void removeInstallableUnit(IInstallableUnit iu) {
 		iu = iu.unresolved();
-		ius.remove(iu);
+		writableIUs().remove(iu);
 		changed = true;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.engine.IProfile#getInstallableUnitProperties(org.eclipse.equinox.internal.provisional.p2.metadata.IInstallableUnit)
 	 */
-	public Map<String, String> getInstallableUnitProperties(IInstallableUnit iu) {
+	public synchronized Map<String, String> getInstallableUnitProperties(IInstallableUnit iu) {
 		OrderedProperties properties = iuProperties.get(iu);
 		if (properties == null)
 			properties = new OrderedProperties();
@@ -344,12 +379,88 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		changed = isChanged;
 	}
 
-	public void clearInstallableUnits() {
-		ius.clear();
-		iuProperties.clear();
+	public synchronized void clearInstallableUnits() {
+		ius = new IUMap();
+		iusShared = false;
+		idIndex = null;
+		capabilityIndex = null;
+		iuProperties = new HashMap<IInstallableUnit, OrderedProperties>();
+		iuPropertiesShared = false;
 		changed = true;
 	}
 
+	/**
+	 * Replace the units of this profile and their properties by the ones of the given profile.
+	 * The two profiles share them until either profile changes them.
+	 */
+	public void setInstallableUnits(Profile source) {
+		IUMap sourceIUs;
+		Map<IInstallableUnit, OrderedProperties> sourceProperties;
+		IIndex<IInstallableUnit> sourceIdIndex;
+		IIndex<IInstallableUnit> sourceCapabilityIndex;
+		synchronized (source) {
+			source.iusShared = true;
+			source.iuPropertiesShared = true;
+			sourceIUs = source.ius;
+			sourceProperties = source.iuProperties;
+			sourceIdIndex = source.idIndex;
+			sourceCapabilityIndex = source.capabilityIndex;
+		}
+		synchronized (this) {
+			ius = sourceIUs;
+			iusShared = true;
+			iuProperties = sourceProperties;
+			iuPropertiesShared = true;
+			idIndex = sourceIdIndex;
+			capabilityIndex = sourceCapabilityIndex;
+			changed = true;
+		}
+	}
+
+	/**
+	 * Replace the units of this profile, and their properties, by the equal ones of the given
+	 * profile, so that the two profiles share the memory of what they have in common.
+	 */
+	void shareInstallableUnits(Profile other) {
+		IUMap otherIUs;
+		Map<IInstallableUnit, OrderedProperties> otherProperties;
+		synchronized (other) {
+			other.iusShared = true;
+			other.iuPropertiesShared = true;
+			otherIUs = other.ius;
+			otherProperties = other.iuProperties;
+		}
+		synchronized (this) {
+			if (ius == otherIUs && iuProperties == otherProperties)
+				// the profiles already share their units
+				return;
+			IUMap sharedIUs = new IUMap();
+			Map<IInstallableUnit, OrderedProperties> sharedProperties = new HashMap<IInstallableUnit, OrderedProperties>(iuProperties.size());
+			for (Iterator<IInstallableUnit> iter = ius.iterator(); iter.hasNext();) {
+				IInstallableUnit iu = iter.next();
+				IInstallableUnit otherIU = otherIUs.get(iu.getId(), iu.getVersion());
+				if (otherIU != null && otherIU.equals(iu))
+					iu = otherIU;
+				sharedIUs.add(iu);
+				OrderedProperties properties = iuProperties.get(iu);
+				if (properties == null)
+					continue;
+				OrderedProperties otherIUProperties = otherProperties.get(iu);
+				sharedProperties.put(iu, properties.equals(otherIUProperties) ? otherIUProperties : properties);
+			}
+			ius = sharedIUs;
+			iusShared = false;
+			iuProperties = sharedProperties;
+			iuPropertiesShared = false;
+			idIndex = null;
+			capabilityIndex = null;
+		}
+	}
+
+	/**
+	 * Return a copy of this profile, which shares the units of this profile and their
+	 * properties until either profile changes them.
+	 */
 	public Profile snapshot() {
 		Profile parentSnapshot = null;
 		if (parentProfile != null)
@@ -366,29 +477,30 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 			}
 		}
 
-		for (Iterator<IInstallableUnit> iter = ius.iterator(); iter.hasNext();) {
-			IInstallableUnit iu = iter.next();
-			snapshot.addInstallableUnit(iu);
-			Map<String, String> properties = getInstallableUnitProperties(iu);
-			if (properties != null)
-				snapshot.addInstallableUnitProperties(iu, properties);
-		}
+		snapshot.setInstallableUnits(this);
 		snapshot.setChanged(false);
 		return snapshot;
 	}
 
-	public void addInstallableUnitProperties(IInstallableUnit iu, Map<String, String> properties) {
+	public synchronized void addInstallableUnitProperties(IInstallableUnit iu, Map<String, String> properties) {
+		if (properties.isEmpty())
+			return;
+		OrderedProperties current = iuProperties.get(iu);
+		current = current == null ? new OrderedProperties(properties.size()) : new OrderedProperties(current);
 		for (Entry<String, String> entry : properties.entrySet()) {
-			setInstallableUnitProperty(iu, entry.getKey(), entry.getValue());
+			current.setProperty(entry.getKey(), entry.getValue());
 		}
+		writableIUProperties().put(iu, current);
+		changed = true;
 	}
 
-	public void clearInstallableUnitProperties(IInstallableUnit iu) {
-		iuProperties.remove(iu);
+	public synchronized void clearInstallableUnitProperties(IInstallableUnit iu) {
+		if (iuProperties.containsKey(iu))
+			writableIUProperties().remove(iu);
 		changed = true;
 	}
 
-	public void clearOrphanedInstallableUnitProperties() {
+	public synchronized void clearOrphanedInstallableUnitProperties() {
 		Set<IInstallableUnit> keys = iuProperties.keySet();
 		//		Set orphans = new HashSet();
 		Collection<IInstallableUnit> toRemove = new ArrayList<IInstallableUnit>();
@@ -397,8 +509,11 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 				toRemove.add(iu);
 		}
 
+		if (toRemove.isEmpty())
+			return;
+		Map<IInstallableUnit, OrderedProperties> properties = writableIUProperties();
 		for (IInstallableUnit iu : toRemove) {
-			iuProperties.remove(iu);
+			properties.remove(iu);
 		}
 		//		List iuKeys = new ArrayList();
 		//		for (Iterator it = ius.iterator(); it.hasNext();)
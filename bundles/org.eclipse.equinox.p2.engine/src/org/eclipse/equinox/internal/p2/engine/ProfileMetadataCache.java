@@ -0,0 +1,146 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *      IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.*;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.engine.IProfileRegistry;
+
+/**
+ * Caches the profile states read by the profile metadata repositories of an agent, keyed
+ * by the timestamp of the state. A state is never modified once written, so loading the
+ * repository of a cached state again does not read its profile file again. Reading another
+ * state of a cached profile shares the units both states have in common.
+ * <p>
+ * The profiles of the agent's own profile registry are read from that registry, which
+ * already holds their current state and knows when a new state is committed. For other
+ * registries, the states of a profile are only listed again when its directory changed.
+ */
+class ProfileMetadataCache {
+	static final String SERVICE_NAME = ProfileMetadataCache.class.getName();
+
+	/*
+	 * The cached states of a profile.
+	 */
+	private static class ProfileStates {
+		final Map<Long, SoftReference<Profile>> states = new HashMap<Long, SoftReference<Profile>>();
+		// the modification time of the profile directory when its states were last listed
+		long listed = 0;
+		long latest = -1;
+	}
+
+	private final IProvisioningAgent agent;
+	// the registries of other directories than the one of the agent's registry
+	private final Map<File, SimpleProfileRegistry> registries = new HashMap<File, SimpleProfileRegistry>();
+	// the states of each profile, by profile directory
+	private final Map<File, ProfileStates> profiles = new HashMap<File, ProfileStates>();
+
+	private ProfileMetadataCache(IProvisioningAgent agent) {
+		this.agent = agent;
+	}
+
+	/**
+	 * Return the cache of the given agent.
+	 */
+	static ProfileMetadataCache getCache(IProvisioningAgent agent) {
+		synchronized (ProfileMetadataCache.class) {
+			ProfileMetadataCache cache = (ProfileMetadataCache) agent.getService(SERVICE_NAME);
+			if (cache == null) {
+				cache = new ProfileMetadataCache(agent);
+				agent.registerService(SERVICE_NAME, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Return the timestamp of the latest state of the given profile, or -1 if the
+	 * profile has no state.
+	 */
+	synchronized long getLatestTimestamp(File registryDirectory, String profileId) {
+		SimpleProfileRegistry registry = getRegistry(registryDirectory);
+		if (!registries.containsKey(registryDirectory)) {
+			// the agent's registry knows the current state of the profiles it holds
+			long timestamp = registry.getCurrentTimestamp(profileId);
+			if (timestamp != -1)
+				return timestamp;
+		}
+		File profileDirectory = registry.getProfileFolder(profileId);
+		ProfileStates profileStates = getStates(profileDirectory);
+		long modified = profileDirectory.lastModified();
+		if (modified == 0 || modified != profileStates.listed) {
+			long[] timestamps = registry.listProfileTimestamps(profileId);
+			profileStates.latest = timestamps.length == 0 ? -1 : timestamps[timestamps.length - 1];
+			profileStates.listed = modified;
+		}
+		return profileStates.latest;
+	}
+
+	/**
+	 * Return the state of the given profile with the given timestamp, or <code>null</code>
+	 * if the profile has no such state.
+	 */
+	synchronized Profile getProfile(File registryDirectory, String profileId, long timestamp) {
+		SimpleProfileRegistry registry = getRegistry(registryDirectory);
+		ProfileStates profileStates = getStates(registry.getProfileFolder(profileId));
+		Long key = new Long(timestamp);
+		SoftReference<Profile> reference = profileStates.states.get(key);
+		Profile profile = reference == null ? null : reference.get();
+		if (profile != null)
+			return profile;
+
+		IProfile state = registry.getProfile(profileId, timestamp);
+		if (!(state instanceof Profile))
+			return null;
+		profile = (Profile) state;
+		// share the units of the cached state closest to this one
+		Profile closest = null;
+		for (Iterator<SoftReference<Profile>> iter = profileStates.states.values().iterator(); iter.hasNext();) {
+			Profile other = iter.next().get();
+			if (other == null)
+				iter.remove();
+			else if (closest == null || Math.abs(other.getTimestamp() - timestamp) < Math.abs(closest.getTimestamp() - timestamp))
+				closest = other;
+		}
+		if (closest != null)
+			profile.shareInstallableUnits(closest);
+		profileStates.states.put(key, new SoftReference<Profile>(profile));
+		return profile;
+	}
+
+	private ProfileStates getStates(File profileDirectory) {
+		ProfileStates profileStates = profiles.get(profileDirectory);
+		if (profileStates == null) {
+			profileStates = new ProfileStates();
+			profiles.put(profileDirectory, profileStates);
+		}
+		return profileStates;
+	}
+
+	/*
+	 * Return the agent's own registry if it is stored in the given directory, or else a
+	 * registry reading the given directory.
+	 */
+	private SimpleProfileRegistry getRegistry(File registryDirectory) {
+		SimpleProfileRegistry registry = registries.get(registryDirectory);
+		if (registry != null)
+			return registry;
+		Object service = agent.getService(IProfileRegistry.SERVICE_NAME);
+		if (service instanceof SimpleProfileRegistry && registryDirectory.equals(((SimpleProfileRegistry) service).getRegistryDirectory().getAbsoluteFile()))
+			return (SimpleProfileRegistry) service;
+		registry = new SimpleProfileRegistry(agent, registryDirectory, null, false);
+		registries.put(registryDirectory, registry);
+		return registry;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2009, 2010 IBM Corporation and others.
+ *  Copyright (c) 2009, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -22,6 +22,8 @@ import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+import org.eclipse.equinox.p2.metadata.index.IIndexProvider;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.repository.IRepository;
@@ -30,7 +32,12 @@ import org.eclipse.equinox.p2.repository.metadata.spi.AbstractMetadataRepository
 import org.eclipse.equinox.p2.repository.spi.RepositoryReference;
 import org.eclipse.osgi.util.NLS;
 
-public class ProfileMetadataRepository extends AbstractMetadataRepository {
+/**
+ * A metadata repository of the units of a profile state. A repository located at a profile
+ * directory rather than at a profile file follows the latest state of the profile. The states
+ * are read through the {@link ProfileMetadataCache} of the agent.
+ */
+public class ProfileMetadataRepository extends AbstractMetadataRepository implements IIndexProvider<IInstallableUnit> {
 
 	private static final String DEFAULT_ARTIFACT_REPO_DIRECTORY = "org.eclipse.equinox.p2.core/cache"; //$NON-NLS-1$
 	private static final String ARTIFACTS_XML = "artifacts.xml"; //$NON-NLS-1$
@@ -38,14 +45,21 @@ public class ProfileMetadataRepository extends AbstractMetadataRepository {
 	private static final String DOT_PROFILE = ".profile"; //$NON-NLS-1$
 	public static final String TYPE = "org.eclipse.equinox.p2.engine.repo.metadataRepository"; //$NON-NLS-1$
 	public static final Integer VERSION = new Integer(1);
-	private IProfile profile;
+	private static final long LATEST = -1;
+	private ProfileMetadataCache cache;
+	private File registryDirectory;
+	private String profileId;
+	// the timestamp of the profile state, or LATEST to follow the latest state
+	private long timestamp = LATEST;
+	private volatile Profile profile;
 	private HashSet<IRepositoryReference> repositories = new HashSet<IRepositoryReference>();
 
 	public ProfileMetadataRepository(IProvisioningAgent agent, URI location, IProgressMonitor monitor) throws ProvisionException {
 		super(agent, location.toString(), TYPE, VERSION.toString(), location, null, null, null);
 
 		try {
-			profile = getProfile(agent, location);
+			cache = ProfileMetadataCache.getCache(agent);
+			profile = loadProfile(location);
 		} catch (RuntimeException e) {
 			throw new ProvisionException(new Status(IStatus.ERROR, EngineActivator.ID, ProvisionException.REPOSITORY_FAILED_READ, e.getMessage(), e));
 		}
@@ -163,10 +177,49 @@ public class ProfileMetadataRepository extends AbstractMetadataRepository {
 	}
 
 	public IQueryResult<IInstallableUnit> query(IQuery<IInstallableUnit> query, IProgressMonitor monitor) {
-		return profile.query(query, monitor);
+		return getProfile().query(query, monitor);
 	}
 
-	private static IProfile getProfile(IProvisioningAgent agent, URI location) throws ProvisionException {
+	/* (non-Javadoc)
+	 * @see org.eclipse.equinox.p2.metadata.index.IIndexProvider#getIndex(java.lang.String)
+	 */
+	public IIndex<IInstallableUnit> getIndex(String memberName) {
+		return getProfile().getIndex(memberName);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.equinox.p2.metadata.index.IIndexProvider#everything()
+	 */
+	public Iterator<IInstallableUnit> everything() {
+		return getProfile().everything();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.equinox.p2.metadata.index.IIndexProvider#getManagedProperty(java.lang.Object, java.lang.String, java.lang.Object)
+	 */
+	public Object getManagedProperty(Object client, String memberName, Object key) {
+		return getProfile().getManagedProperty(client, memberName, key);
+	}
+
+	/*
+	 * Return the profile state of this repository, after moving to the latest state of the
+	 * profile if the repository follows it and a new state was committed.
+	 */
+	private Profile getProfile() {
+		Profile current = profile;
+		if (timestamp != LATEST)
+			return current;
+		long latest = cache.getLatestTimestamp(registryDirectory, profileId);
+		if (latest == -1 || latest == current.getTimestamp())
+			return current;
+		Profile latestProfile = cache.getProfile(registryDirectory, profileId, latest);
+		if (latestProfile == null)
+			return current;
+		profile = latestProfile;
+		return latestProfile;
+	}
+
+	private Profile loadProfile(URI location) throws ProvisionException {
 		if (!FILE_SCHEME.equalsIgnoreCase(location.getScheme()))
 			fail(location, ProvisionException.REPOSITORY_NOT_FOUND);
 
@@ -174,11 +227,10 @@ public class ProfileMetadataRepository extends AbstractMetadataRepository {
 		if (!target.exists())
 			fail(location, ProvisionException.REPOSITORY_NOT_FOUND);
 
-		long timestamp = -1;
 		int index = target.getName().lastIndexOf(DOT_PROFILE);
 		if (index == -1)
 			fail(location, ProvisionException.REPOSITORY_NOT_FOUND);
-		String profileId = target.getName().substring(0, index);
+		profileId = target.getName().substring(0, index);
 		if (target.isFile()) {
 			try {
 				timestamp = Long.parseLong(profileId);
@@ -193,19 +245,20 @@ public class ProfileMetadataRepository extends AbstractMetadataRepository {
 		}
 		profileId = SimpleProfileRegistry.unescape(profileId);
 
-		File registryDirectory = target.getParentFile();
+		registryDirectory = target.getAbsoluteFile().getParentFile();
 		if (registryDirectory == null)
 			fail(location, ProvisionException.REPOSITORY_NOT_FOUND);
-		SimpleProfileRegistry profileRegistry = new SimpleProfileRegistry(agent, registryDirectory, null, false);
-		if (timestamp == -1) {
-			long[] timestamps = profileRegistry.listProfileTimestamps(profileId);
-			timestamp = timestamps[timestamps.length - 1];
+		long profileTimestamp = timestamp;
+		if (profileTimestamp == LATEST) {
+			profileTimestamp = cache.getLatestTimestamp(registryDirectory, profileId);
+			if (profileTimestamp == -1)
+				fail(location, ProvisionException.REPOSITORY_NOT_FOUND);
 		}
-		IProfile profile = profileRegistry.getProfile(profileId, timestamp);
-		if (profile == null)
+		Profile result = cache.getProfile(registryDirectory, profileId, profileTimestamp);
+		if (result == null)
 			fail(location, ProvisionException.REPOSITORY_NOT_FOUND);
 
-		return profile;
+		return result;
 	}
 
 	private static void fail(URI location, int code) throws ProvisionException {
@@ -0,0 +1,312 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *      IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.net.URI;
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Loads a set of repositories, and the repositories they refer to, with a bounded
+ * number of jobs. Each location is only loaded once per loader; concurrent loads of
+ * the same location by different loaders are serialized by the repository manager,
+ * so the repository is still only read once.
+ * <p>
+ * The time spent loading each repository is recorded, and printed when the
+ * repository loading debug option is enabled.
+ */
+public abstract class RepositoryLoader<R> {
+	/**
+	 * System property specifying the maximum number of repositories loaded at the
+	 * same time. The default value of 1 loads the repositories one after the other in
+	 * the calling thread, as does any value while the job manager is suspended.
+	 */
+	public static final String PROP_LOAD_THREADS = "eclipse.p2.repository.load.threads"; //$NON-NLS-1$
+	private static final int DEFAULT_LOAD_THREADS = 1;
+	private static final long POLL_INTERVAL = 100;
+
+	/**
+	 * The load of one repository, with times relative to the start of the loader.
+	 */
+	public static class LoadRecord {
+		private final URI location;
+		private final String thread;
+		private final long start;
+		private final long end;
+		private final boolean loaded;
+
+		LoadRecord(URI location, String thread, long start, long end, boolean loaded) {
+			this.location = location;
+			this.thread = thread;
+			this.start = start;
+			this.end = end;
+			this.loaded = loaded;
+		}
+
+		public URI getLocation() {
+			return location;
+		}
+
+		public String getThread() {
+			return thread;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		public long getDuration() {
+			return end - start;
+		}
+
+		public boolean isLoaded() {
+			return loaded;
+		}
+
+		public String toString() {
+			return start + ".." + end + " ms (" + getDuration() + " ms) [" + thread + "] " + location + (loaded ? "" : " (not loaded)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		}
+	}
+
+	/**
+	 * Job loading queued locations until the queue is empty.
+	 */
+	private class LoadJob extends Job {
+		LoadJob() {
+			super(Messages.RepositoryLoader_Loading);
+			setSystem(true);
+		}
+
+		public boolean belongsTo(Object family) {
+			return family == RepositoryLoader.this;
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			while (true) {
+				URI location;
+				synchronized (lock) {
+					if (queue.isEmpty() || canceled || monitor.isCanceled()) {
+						workers--;
+						lock.notifyAll();
+						return Status.OK_STATUS;
+					}
+					location = queue.removeFirst();
+					running++;
+				}
+				load(location, monitor);
+			}
+		}
+	}
+
+	private final int maxThreads;
+
+	private final Object lock = new Object();
+	// serializes the calls to getReferences, which are made without holding the lock
+	private final Object referencesLock = new Object();
+	private final LinkedList<URI> queue = new LinkedList<URI>();
+	// the locations seen so far, in the order they were found
+	private final Set<String> seen = new LinkedHashSet<String>();
+	private final Map<String, R> repositories = new HashMap<String, R>();
+	private final List<LoadRecord> timeline = new ArrayList<LoadRecord>();
+	private int workers = 0;
+	private int running = 0;
+	private boolean canceled = false;
+	// whether jobs load the repositories, decided when the load starts
+	private boolean parallel = false;
+	private long startTime;
+
+	public RepositoryLoader() {
+		this(getConfiguredThreads());
+	}
+
+	public RepositoryLoader(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Return the maximum number of repositories to load at the same time, as configured
+	 * by the {@link #PROP_LOAD_THREADS} property.
+	 */
+	public static int getConfiguredThreads() {
+		String value = null;
+		try {
+			value = EngineActivator.getContext().getProperty(PROP_LOAD_THREADS);
+			if (value != null)
+				return Math.max(1, Integer.parseInt(value));
+		} catch (NumberFormatException e) {
+			System.err.println("Ignoring user-specified '" + PROP_LOAD_THREADS + "' value of: " + value); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (Exception e) {
+			// intentionally catch all errors (npe when the bundle is not started, etc)
+		}
+		return DEFAULT_LOAD_THREADS;
+	}
+
+	/**
+	 * Load the repository at the given location. Invoked by several threads at the same
+	 * time when more than one thread is allowed.
+	 */
+	protected abstract R loadRepository(URI location, IProgressMonitor monitor) throws ProvisionException;
+
+	/**
+	 * Return the locations of the repositories referenced by the given repository which
+	 * should be loaded as well. Invoked once for each loaded repository, never by two
+	 * threads at the same time. The loader does not hold its own lock during the call,
+	 * so the loads of other repositories and the progress reporting go on meanwhile.
+	 * This implementation does not follow any reference.
+	 */
+	protected Collection<URI> getReferences(R repository) {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Load the repositories at the given locations and the repositories they refer to.
+	 * Repositories which cannot be loaded are skipped.
+	 *
+	 * @return the loaded repositories, in the order in which their locations were found
+	 */
+	public List<R> load(URI[] locations, IProgressMonitor monitor) {
+		SubMonitor sub = SubMonitor.convert(monitor, Messages.RepositoryLoader_Loading, locations.length * 100);
+		synchronized (lock) {
+			startTime = System.currentTimeMillis();
+			// jobs would never run while the job manager is suspended, e.g. during startup
+			parallel = maxThreads > 1 && !Job.getJobManager().isSuspended();
+			enqueue(Arrays.asList(locations));
+		}
+		try {
+			if (parallel)
+				loadInParallel(sub);
+			else
+				loadSerially(sub);
+		} finally {
+			sub.done();
+		}
+
+		synchronized (lock) {
+			if (DebugHelper.DEBUG_REPOSITORY_LOADING)
+				DebugHelper.debug("RepositoryLoader", "Loaded " + repositories.size() + " of " + timeline.size() + " repositories in " + (System.currentTimeMillis() - startTime) + " ms" + DebugHelper.LINE_SEPARATOR + DebugHelper.formatArray(timeline, true, true)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+			List<R> result = new ArrayList<R>(repositories.size());
+			for (String key : seen) {
+				R repository = repositories.get(key);
+				if (repository != null)
+					result.add(repository);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Return the load records of the repositories, in the order in which their loads finished.
+	 */
+	public List<LoadRecord> getTimeline() {
+		synchronized (lock) {
+			return new ArrayList<LoadRecord>(timeline);
+		}
+	}
+
+	private void loadSerially(SubMonitor sub) {
+		while (true) {
+			URI location;
+			synchronized (lock) {
+				if (queue.isEmpty())
+					return;
+				if (sub.isCanceled())
+					throw new OperationCanceledException();
+				sub.setWorkRemaining(queue.size() * 100);
+				location = queue.removeFirst();
+				running++;
+			}
+			load(location, sub.newChild(100));
+		}
+	}
+
+	private void loadInParallel(SubMonitor sub) {
+		int reported = 0;
+		synchronized (lock) {
+			while (true) {
+				for (; reported < timeline.size(); reported++) {
+					LoadRecord record = timeline.get(reported);
+					sub.setWorkRemaining((queue.size() + running + 1) * 100);
+					sub.subTask(NLS.bind(Messages.RepositoryLoader_Loaded, record.getLocation(), Long.toString(record.getDuration())));
+					sub.worked(100);
+				}
+				if (queue.isEmpty() && running == 0)
+					return;
+				if (sub.isCanceled()) {
+					canceled = true;
+					queue.clear();
+					Job.getJobManager().cancel(this);
+					throw new OperationCanceledException();
+				}
+				try {
+					lock.wait(POLL_INTERVAL);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queue the locations which have not been seen yet, and start more jobs if needed.
+	 * Must be called while holding the lock.
+	 */
+	private void enqueue(Collection<URI> locations) {
+		for (URI location : locations) {
+			if (seen.add(location.toString()))
+				queue.add(location);
+		}
+		if (!parallel)
+			return;
+		// the jobs which are not loading a repository at the moment will take a queued location
+		while (workers < maxThreads && workers - running < queue.size()) {
+			workers++;
+			new LoadJob().schedule();
+		}
+	}
+
+	void load(URI location, IProgressMonitor monitor) {
+		long start = System.currentTimeMillis();
+		R repository = null;
+		Collection<URI> references = Collections.emptyList();
+		try {
+			repository = loadRepository(location, monitor);
+			if (repository != null) {
+				synchronized (referencesLock) {
+					references = getReferences(repository);
+				}
+			}
+		} catch (ProvisionException e) {
+			// skip unreadable repositories
+		} catch (OperationCanceledException e) {
+			// the loader has been canceled
+		} catch (RuntimeException e) {
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.RepositoryLoader_Unexpected_Error, location), e));
+		} finally {
+			synchronized (lock) {
+				timeline.add(new LoadRecord(location, Thread.currentThread().getName(), start - startTime, System.currentTimeMillis() - startTime, repository != null));
+				if (repository != null && !canceled) {
+					repositories.put(location.toString(), repository);
+					enqueue(references);
+				}
+				running--;
+				lock.notifyAll();
+			}
+		}
+	}
+}
@@ -25,7 +25,6 @@ import org.eclipse.equinox.p2.core.*;
 import org.eclipse.equinox.p2.core.spi.IAgentService;
 import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.metadata.*;
-import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.osgi.service.datalocation.Location;
 import org.eclipse.osgi.util.NLS;
@@ -198,7 +197,13 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		} catch (IOException e) {
 			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
 		}
-		return parser.getProfileMap().get(id);
+		Profile profile = parser.getProfileMap().get(id);
+		// an older state of a profile mostly has the same units as the current state
+		Map<String, Profile> profileMap = profiles == null ? null : profiles.get();
+		Profile current = profileMap == null ? null : profileMap.get(id);
+		if (profile != null && current != null)
+			profile.shareInstallableUnits(current);
+		return profile;
 	}
 
 	public synchronized long[] listProfileTimestamps(String id) {
@@ -295,19 +300,11 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		lock.checkLocked();
 
 		current.clearLocalProperties();
-		current.clearInstallableUnits();
-
 		current.addProperties(profile.getLocalProperties());
-		IQueryResult<IInstallableUnit> queryResult = profile.query(QueryUtil.createIUAnyQuery(), null);
-		for (Iterator<IInstallableUnit> queryResultIt = queryResult.iterator(); queryResultIt.hasNext();) {
-			IInstallableUnit iu = queryResultIt.next();
-			current.addInstallableUnit(iu);
-			Map<String, String> iuProperties = profile.getInstallableUnitProperties(iu);
-			if (iuProperties != null)
-				current.addInstallableUnitProperties(iu, iuProperties);
-		}
-		saveProfile(current);
+		// the current profile shares the units of the given profile, rather than copying them
 		profile.clearOrphanedInstallableUnitProperties();
+		current.setInstallableUnits(profile);
+		saveProfile(current);
 		profile.setTimestamp(current.getTimestamp());
 		broadcastChangeEvent(id, IProfileEvent.CHANGED);
 	}
@@ -684,11 +681,8 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 					IInstallableUnit iu = ius[i];
 					profile.addInstallableUnit(iu);
 					Map<String, String> iuProperties = profileHandler.getIUProperties(iu);
-					if (iuProperties != null) {
-						for (Entry<String, String> entry : iuProperties.entrySet()) {
-							profile.setInstallableUnitProperty(iu, entry.getKey(), entry.getValue());
-						}
-					}
+					if (iuProperties != null)
+						profile.addInstallableUnitProperties(iu, iuProperties);
 				}
 			}
 			profile.setChanged(false);
@@ -905,10 +899,27 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	/*
 	 * Return the folder on disk associated with the profile with the given identifier.
 	 */
-	private File getProfileFolder(String id) {
+	File getProfileFolder(String id) {
 		return new File(store, escape(id) + PROFILE_EXT);
 	}
 
+	/*
+	 * Return the directory the profiles of this registry are stored in.
+	 */
+	File getRegistryDirectory() {
+		return store;
+	}
+
+	/*
+	 * Return the timestamp of the current state of the given profile if the registry holds
+	 * it in memory, or -1 if the profile would have to be read.
+	 */
+	synchronized long getCurrentTimestamp(String id) {
+		Map<String, Profile> profileMap = profiles == null ? null : profiles.get();
+		Profile current = profileMap == null ? null : profileMap.get(id);
+		return current == null ? -1 : current.getTimestamp();
+	}
+
 	/*
 	 * Read and return the state properties for the profile with the given id.
 	 * If one does not exist, then return an empty Properties file.
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -77,7 +77,8 @@ public class Collect extends InstallableUnitPhase {
 	}
 
 	protected IStatus initializePhase(IProgressMonitor monitor, IProfile profile, Map<String, Object> parameters) {
-		parameters.put(PARM_ARTIFACT_REQUESTS, new ArrayList<IArtifactRequest[]>());
+		// the collect actions may be executed concurrently
+		parameters.put(PARM_ARTIFACT_REQUESTS, Collections.synchronizedList(new ArrayList<IArtifactRequest[]>()));
 		return null;
 	}
 
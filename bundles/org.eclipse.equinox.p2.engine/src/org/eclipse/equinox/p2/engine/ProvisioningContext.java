@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2010 IBM Corporation and others.
+ *  Copyright (c) 2008, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -16,6 +16,8 @@ import java.net.URI;
 import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.engine.DebugHelper;
+import org.eclipse.equinox.internal.p2.engine.MergedMetadataQueryable;
+import org.eclipse.equinox.internal.p2.engine.RepositoryLoader;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
@@ -39,6 +41,9 @@ public class ProvisioningContext {
 	private URI[] metadataRepositories; //metadata repositories to consult
 	private final Map<String, String> properties = new HashMap<String, String>();
 	private Map<String, URI> referencedArtifactRepositories = null;
+	// the union of the metadata repositories with a timestamp, and the timestamps it was built from
+	private MergedMetadataQueryable mergedMetadata = null;
+	private Map<IMetadataRepository, String> mergedMetadataTimestamps = null;
 
 	private static final String FILE_PROTOCOL = "file"; //$NON-NLS-1$
 
@@ -151,93 +156,74 @@ public class ProvisioningContext {
 		URI[] repositories = artifactRepositories == null ? repoManager.getKnownRepositories(IRepositoryManager.REPOSITORIES_ALL) : artifactRepositories;
 		Arrays.sort(repositories, LOCAL_FIRST_COMPARATOR);
 
-		List<IArtifactRepository> repos = new ArrayList<IArtifactRepository>();
 		SubMonitor sub = SubMonitor.convert(monitor, (repositories.length + 1) * 100);
-		for (int i = 0; i < repositories.length; i++) {
-			if (sub.isCanceled())
-				throw new OperationCanceledException();
-			try {
-				repos.add(repoManager.loadRepository(repositories[i], sub.newChild(100)));
-			} catch (ProvisionException e) {
-				//skip unreadable repositories
-			}
-			// Remove this URI from the list of extra references if it is there.
-			if (referencedArtifactRepositories != null)
+		List<IArtifactRepository> repos = createArtifactLoader(repoManager).load(repositories, sub.newChild(repositories.length * 100));
+		// Remove the loaded URIs from the list of extra references if they are there.
+		if (referencedArtifactRepositories != null) {
+			for (int i = 0; i < repositories.length; i++)
 				referencedArtifactRepositories.remove(repositories[i]);
 		}
 		// Are there any extra artifact repository references to consider?
 		if (referencedArtifactRepositories != null && referencedArtifactRepositories.size() > 0 && shouldFollowArtifactReferences()) {
-			SubMonitor innerSub = SubMonitor.convert(sub.newChild(100), referencedArtifactRepositories.size() * 100);
-			for (URI referencedURI : referencedArtifactRepositories.values()) {
-				try {
-					repos.add(repoManager.loadRepository(referencedURI, innerSub.newChild(100)));
-				} catch (ProvisionException e) {
-					// skip unreadable repositories
-				}
-			}
+			URI[] referenced = referencedArtifactRepositories.values().toArray(new URI[referencedArtifactRepositories.size()]);
+			repos.addAll(createArtifactLoader(repoManager).load(referenced, sub.newChild(100)));
 		}
 		return repos;
 	}
 
+	private static RepositoryLoader<IArtifactRepository> createArtifactLoader(final IArtifactRepositoryManager repoManager) {
+		return new RepositoryLoader<IArtifactRepository>() {
+			protected IArtifactRepository loadRepository(URI location, IProgressMonitor monitor) throws ProvisionException {
+				return repoManager.loadRepository(location, monitor);
+			}
+		};
+	}
+
 	private Set<IMetadataRepository> getLoadedMetadataRepositories(IProgressMonitor monitor) {
-		IMetadataRepositoryManager repoManager = (IMetadataRepositoryManager) agent.getService(IMetadataRepositoryManager.SERVICE_NAME);
+		final IMetadataRepositoryManager repoManager = (IMetadataRepositoryManager) agent.getService(IMetadataRepositoryManager.SERVICE_NAME);
 		URI[] repositories = metadataRepositories == null ? repoManager.getKnownRepositories(IRepositoryManager.REPOSITORIES_ALL) : metadataRepositories;
 
-		HashMap<String, IMetadataRepository> repos = new HashMap<String, IMetadataRepository>();
-		SubMonitor sub = SubMonitor.convert(monitor, repositories.length * 100);
-
 		// Clear out the list of remembered artifact repositories
 		referencedArtifactRepositories = new HashMap<String, URI>();
-		for (int i = 0; i < repositories.length; i++) {
-			if (sub.isCanceled())
-				throw new OperationCanceledException();
-			loadMetadataRepository(repoManager, repositories[i], repos, shouldFollowReferences(), sub.newChild(100));
-		}
-		Set<IMetadataRepository> set = new HashSet<IMetadataRepository>();
-		set.addAll(repos.values());
-		return set;
+		final boolean followMetadataRepoReferences = shouldFollowReferences();
+		final IArtifactRepositoryManager artifactManager = (IArtifactRepositoryManager) agent.getService(IArtifactRepositoryManager.SERVICE_NAME);
+		// The loader takes care of circular references by loading each location only once.
+		RepositoryLoader<IMetadataRepository> loader = new RepositoryLoader<IMetadataRepository>() {
+			protected IMetadataRepository loadRepository(URI location, IProgressMonitor mon) throws ProvisionException {
+				return repoManager.loadRepository(location, mon);
+			}
+
+			protected Collection<URI> getReferences(IMetadataRepository repository) {
+				return getReferencedMetadataRepositories(repository, repoManager, artifactManager, followMetadataRepoReferences);
+			}
+		};
+		return new HashSet<IMetadataRepository>(loader.load(repositories, monitor));
 	}
 
-	private void loadMetadataRepository(IMetadataRepositoryManager manager, URI location, HashMap<String, IMetadataRepository> repos, boolean followMetadataRepoReferences, IProgressMonitor monitor) {
-		// if we've already processed this repo, don't do it again.  This keeps us from getting
-		// caught up in circular references.
-		if (repos.containsKey(location.toString()))
-			return;
-
-		SubMonitor sub = SubMonitor.convert(monitor, 1000);
-		// First load the repository itself.
-		IMetadataRepository repository;
-		try {
-			repository = manager.loadRepository(location, sub.newChild(500));
-		} catch (ProvisionException e) {
-			// nothing more to do
-			return;
-		}
-		repos.put(location.toString(), repository);
+	/**
+	 * Return the metadata repositories referenced by the given repository which should be
+	 * loaded as well, and remember the artifact repositories it refers to.
+	 */
+	Collection<URI> getReferencedMetadataRepositories(IMetadataRepository repository, IMetadataRepositoryManager manager, IArtifactRepositoryManager artifactManager, boolean followMetadataRepoReferences) {
 		Collection<IRepositoryReference> references = repository.getReferences();
+		List<URI> result = new ArrayList<URI>();
 		// We always load artifact repositories referenced by this repository.  We might load
 		// metadata repositories
-		if (references.size() > 0) {
-			IArtifactRepositoryManager artifactManager = (IArtifactRepositoryManager) agent.getService(IArtifactRepositoryManager.SERVICE_NAME);
-			SubMonitor repoSubMon = SubMonitor.convert(sub.newChild(500), 100 * references.size());
-			for (IRepositoryReference ref : references) {
-				try {
-					if (ref.getType() == IRepository.TYPE_METADATA && followMetadataRepoReferences && isEnabled(manager, ref)) {
-						loadMetadataRepository(manager, ref.getLocation(), repos, followMetadataRepoReferences, repoSubMon.newChild(100));
-					} else if (ref.getType() == IRepository.TYPE_ARTIFACT) {
-						// We want to remember all enabled artifact repository locations.
-						if (isEnabled(artifactManager, ref))
-							referencedArtifactRepositories.put(ref.getLocation().toString(), ref.getLocation());
-					}
-				} catch (IllegalArgumentException e) {
-					// see https://bugs.eclipse.org/bugs/show_bug.cgi?id=311338
-					// ignore invalid location and keep going
+		for (IRepositoryReference ref : references) {
+			try {
+				if (ref.getType() == IRepository.TYPE_METADATA && followMetadataRepoReferences && isEnabled(manager, ref)) {
+					result.add(ref.getLocation());
+				} else if (ref.getType() == IRepository.TYPE_ARTIFACT) {
+					// We want to remember all enabled artifact repository locations.
+					if (isEnabled(artifactManager, ref))
+						referencedArtifactRepositories.put(ref.getLocation().toString(), ref.getLocation());
 				}
+			} catch (IllegalArgumentException e) {
+				// see https://bugs.eclipse.org/bugs/show_bug.cgi?id=311338
+				// ignore invalid location and keep going
 			}
-		} else {
-			sub.done();
 		}
-
+		return result;
 	}
 
 	// If the manager knows about the repo, consider its enablement state in the manager.
@@ -272,7 +258,57 @@ public class ProvisioningContext {
 	 * @see #FOLLOW_REPOSITORY_REFERENCES
 	 */
 	public IQueryable<IInstallableUnit> getMetadata(IProgressMonitor monitor) {
-		return QueryUtil.compoundQueryable(getLoadedMetadataRepositories(monitor));
+		SubMonitor sub = SubMonitor.convert(monitor, 2);
+		Set<IMetadataRepository> repositories = getLoadedMetadataRepositories(sub.newChild(1));
+		// the union of the repositories is only reused while their timestamps are the same, the
+		// others are always queried directly
+		Map<IMetadataRepository, String> timestamps = new IdentityHashMap<IMetadataRepository, String>();
+		List<IQueryable<IInstallableUnit>> queryables = new ArrayList<IQueryable<IInstallableUnit>>();
+		for (IMetadataRepository repository : repositories) {
+			String timestamp = getTimestamp(repository);
+			if (timestamp != null)
+				timestamps.put(repository, timestamp);
+			else
+				queryables.add(repository);
+		}
+		if (timestamps.isEmpty()) {
+			sub.done();
+			return QueryUtil.compoundQueryable(queryables);
+		}
+		synchronized (this) {
+			if (mergedMetadata == null || !isSameRepositories(timestamps, mergedMetadataTimestamps)) {
+				mergedMetadata = new MergedMetadataQueryable(timestamps.keySet(), sub.newChild(1));
+				mergedMetadataTimestamps = timestamps;
+			}
+			sub.done();
+			if (queryables.isEmpty())
+				return mergedMetadata;
+			queryables.add(0, mergedMetadata);
+			return QueryUtil.compoundQueryable(queryables);
+		}
+	}
+
+	/*
+	 * Returns the timestamp of the given repository, or null if the repository does not tell
+	 * when it changed. A composite repository has no timestamp, as its children change without
+	 * changing the composite.
+	 */
+	private static String getTimestamp(IMetadataRepository repository) {
+		if (repository instanceof ICompositeRepository<?>)
+			return null;
+		return repository.getProperties().get(IRepository.PROP_TIMESTAMP);
+	}
+
+	private static boolean isSameRepositories(Map<IMetadataRepository, String> timestamps, Map<IMetadataRepository, String> previous) {
+		if (timestamps.size() != previous.size())
+			return false;
+		for (Map.Entry<IMetadataRepository, String> entry : timestamps.entrySet()) {
+			if (!previous.containsKey(entry.getKey()))
+				return false;
+			if (!entry.getValue().equals(previous.get(entry.getKey())))
+				return false;
+		}
+		return true;
 	}
 
 	/**
@@ -333,6 +369,10 @@ public class ProvisioningContext {
 	*/
 	public void setMetadataRepositories(URI[] metadataRepositories) {
 		this.metadataRepositories = metadataRepositories;
+		synchronized (this) {
+			mergedMetadata = null;
+			mergedMetadataTimestamps = null;
+		}
 	}
 
 	/**
@@ -229,6 +229,13 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		return units.iterator();
 	}
 
+	/**
+	 * Return the number of units in the repository.
+	 */
+	public synchronized int size() {
+		return units.size();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.p2.repository.metadata.spi.AbstractMetadataRepository#removeAll()
 	 */
@@ -265,6 +272,23 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		return changed;
 	}
 
+	/**
+	 * Return the timestamp to record when saving. Clients use the timestamp to find out whether
+	 * the repository has changed, so it must differ from the previous one even when the repository
+	 * is saved twice within the same millisecond.
+	 */
+	private long nextTimestamp() {
+		long now = System.currentTimeMillis();
+		try {
+			String previous = getProperty(IRepository.PROP_TIMESTAMP);
+			if (previous != null)
+				return Math.max(now, Long.parseLong(previous) + 1);
+		} catch (NumberFormatException e) {
+			// use the current time
+		}
+		return now;
+	}
+
 	// caller should be synchronized
 	/**
 	 * Marking protected so we can test.  This is internal, so it shouldn't matter, but I'll
@@ -303,7 +327,7 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 				jOutput.putNextEntry(jarEntry);
 				output = jOutput;
 			}
-			super.setProperty(IRepository.PROP_TIMESTAMP, Long.toString(System.currentTimeMillis()), new NullProgressMonitor());
+			super.setProperty(IRepository.PROP_TIMESTAMP, Long.toString(nextTimestamp()), new NullProgressMonitor());
 			new MetadataRepositoryIO(getProvisioningAgent()).write(this, output);
 		} catch (IOException e) {
 			LogHelper.log(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_WRITE, "Error saving metadata repository: " + getLocation(), e)); //$NON-NLS-1$
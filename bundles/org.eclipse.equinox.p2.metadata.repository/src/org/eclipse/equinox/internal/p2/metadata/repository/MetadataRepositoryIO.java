@@ -23,6 +23,8 @@ import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
 import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataParser;
 import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataWriter;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.ParallelUnitsParser;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.UnitSplitter;
 import org.eclipse.equinox.internal.p2.persistence.XMLWriter;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
@@ -191,6 +193,8 @@ public class MetadataRepositoryIO {
 	private class Parser extends MetadataParser implements XMLConstants {
 
 		private IMetadataRepository theRepository = null;
+		// the units of the document parsed by the parallel parser, if any
+		IInstallableUnit[] parsedUnits = null;
 
 		public Parser(BundleContext context, String bundleId) {
 			super(context, bundleId);
@@ -198,8 +202,51 @@ public class MetadataRepositoryIO {
 
 		public synchronized void parse(InputStream stream, IProgressMonitor monitor) throws IOException {
 			this.status = null;
+			this.parsedUnits = null;
 			setProgressMonitor(monitor);
 			monitor.beginTask(Messages.repo_loading, IProgressMonitor.UNKNOWN);
+			try {
+				int threads = ParallelUnitsParser.getParserThreads(context);
+				if (threads > 1)
+					parseInParallel(stream, threads, monitor);
+				else
+					parseDocument(stream);
+			} finally {
+				monitor.done();
+				stream.close();
+			}
+		}
+
+		/*
+		 * Parse the units of the document with several threads, while the document is
+		 * read, and then the rest of the document.
+		 */
+		private void parseInParallel(InputStream stream, int threads, IProgressMonitor monitor) throws IOException {
+			UnitSplitter splitter = new UnitSplitter(stream);
+			if (!splitter.findUnits()) {
+				parseDocument(splitter.getRemainder());
+				return;
+			}
+			ParallelUnitsParser unitsParser = new ParallelUnitsParser(context, bundleId, errorContext, threads, monitor);
+			try {
+				byte[] chunk;
+				while ((chunk = splitter.nextChunk()) != null)
+					unitsParser.add(chunk, splitter.getChunkLine());
+				parsedUnits = unitsParser.getUnits();
+			} finally {
+				unitsParser.close();
+			}
+			IStatus[] unitsStatus = unitsParser.getStatus();
+			for (int i = 0; i < unitsStatus.length; i++) {
+				if (status == null)
+					status = new MultiStatus(bundleId, IStatus.OK, unitsStatus[i].getChildren(), getErrorMessage(), null);
+				else
+					status.addAll(unitsStatus[i]);
+			}
+			parseDocument(splitter.getSkeleton());
+		}
+
+		private void parseDocument(InputStream stream) throws IOException {
 			try {
 				// TODO: currently not caching the parser since we make no assumptions
 				//		 or restrictions on concurrent parsing
@@ -215,9 +262,6 @@ public class MetadataRepositoryIO {
 					throw new IOException(e.getMessage());
 			} catch (ParserConfigurationException e) {
 				throw new IOException(e.getMessage());
-			} finally {
-				monitor.done();
-				stream.close();
 			}
 		}
 
@@ -289,6 +333,8 @@ public class MetadataRepositoryIO {
 				} else if (INSTALLABLE_UNITS_ELEMENT.equals(name)) {
 					if (unitsHandler == null) {
 						unitsHandler = new InstallableUnitsHandler(this, attributes);
+						if (parsedUnits != null)
+							unitsHandler.setParsedUnits(parsedUnits);
 					} else {
 						duplicateElement(this, name, attributes);
 					}
@@ -12,6 +12,7 @@
 package org.eclipse.equinox.internal.p2.metadata.repository;
 
 import java.net.URI;
+import java.util.Iterator;
 import java.util.Map;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.repository.helpers.AbstractRepositoryManager;
@@ -19,6 +20,8 @@ import org.eclipse.equinox.internal.p2.repository.helpers.LocationProperties;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.ICompositeRepository;
 import org.eclipse.equinox.p2.repository.IRepository;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
@@ -28,6 +31,8 @@ import org.eclipse.equinox.p2.repository.metadata.spi.MetadataRepositoryFactory;
  * Default implementation of {@link IMetadataRepositoryManager}.
  */
 public class MetadataRepositoryManager extends AbstractRepositoryManager<IInstallableUnit> implements IMetadataRepositoryManager {
+	// rough estimate of the memory used by an installable unit, in bytes
+	private static final long ESTIMATED_IU_SIZE = 2048;
 
 	public MetadataRepositoryManager(IProvisioningAgent agent) {
 		super(agent);
@@ -57,6 +62,24 @@ public class MetadataRepositoryManager extends AbstractRepositoryManager<IInstal
 		return factory.load(location, flags, monitor);
 	}
 
+	protected long estimateSize(IRepository<IInstallableUnit> repository) {
+		int size;
+		if (repository instanceof ICompositeRepository<?>)
+			// the children are loaded through the manager and cached on their own
+			size = 0;
+		else if (repository instanceof LocalMetadataRepository)
+			size = ((LocalMetadataRepository) repository).size();
+		else if (repository instanceof URLMetadataRepository)
+			size = ((URLMetadataRepository) repository).size();
+		else {
+			// count the units without collecting them
+			size = 0;
+			for (Iterator<IInstallableUnit> iter = repository.query(QueryUtil.createIUAnyQuery(), null).iterator(); iter.hasNext(); iter.next())
+				size++;
+		}
+		return (long) size * ESTIMATED_IU_SIZE;
+	}
+
 	protected String getBundleId() {
 		return Activator.ID;
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -130,4 +130,11 @@ public class URLMetadataRepository extends AbstractMetadataRepository implements
 	public Iterator<IInstallableUnit> everything() {
 		return units.iterator();
 	}
+
+	/**
+	 * Return the number of units in the repository.
+	 */
+	public int size() {
+		return units.size();
+	}
 }
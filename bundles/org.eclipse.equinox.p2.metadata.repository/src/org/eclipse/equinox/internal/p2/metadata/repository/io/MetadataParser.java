@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -32,6 +32,7 @@ import org.xml.sax.ContentHandler;
 
 public abstract class MetadataParser extends XMLParser implements XMLConstants {
 	static final ILicense[] NO_LICENSES = new ILicense[0];
+	static final IInstallableUnit[] NO_UNITS = new IInstallableUnit[0];
 
 	public MetadataParser(BundleContext context, String bundleId) {
 		super(context, bundleId);
@@ -92,16 +93,27 @@ public abstract class MetadataParser extends XMLParser implements XMLConstants {
 
 	protected class InstallableUnitsHandler extends AbstractMetadataHandler {
 		private ArrayList<InstallableUnitDescription> units;
+		// the units of the element which were parsed separately
+		private IInstallableUnit[] parsedUnits = NO_UNITS;
 
 		public InstallableUnitsHandler(AbstractHandler parentHandler, Attributes attributes) {
 			super(parentHandler, INSTALLABLE_UNITS_ELEMENT);
 			units = new ArrayList<InstallableUnitDescription>(getOptionalSize(attributes, 4));
 		}
 
+		/**
+		 * Set the units of the element which were parsed separately, they precede
+		 * the units parsed by this handler.
+		 */
+		public void setParsedUnits(IInstallableUnit[] parsedUnits) {
+			this.parsedUnits = parsedUnits;
+		}
+
 		public IInstallableUnit[] getUnits() {
 			int size = units.size();
-			IInstallableUnit[] result = new IInstallableUnit[size];
-			int i = 0;
+			IInstallableUnit[] result = new IInstallableUnit[parsedUnits.length + size];
+			System.arraycopy(parsedUnits, 0, result, 0, parsedUnits.length);
+			int i = parsedUnits.length;
 			for (InstallableUnitDescription desc : units)
 				result[i++] = MetadataFactory.createInstallableUnit(desc);
 			return result;
@@ -0,0 +1,347 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository.io;
+
+import java.io.*;
+import java.util.*;
+import javax.xml.parsers.ParserConfigurationException;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.metadata.repository.Messages;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.MetadataFactory;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.osgi.framework.BundleContext;
+import org.xml.sax.*;
+
+/**
+ * Parses the chunks of units returned by a {@link UnitSplitter} with several threads,
+ * while the splitter reads the next chunks. Each thread has its own parser, and the
+ * units of all chunks are returned in the order of the document.
+ */
+public class ParallelUnitsParser {
+	/**
+	 * The maximum number of threads parsing the units of a metadata repository. A value
+	 * of 1 parses the units in the thread loading the repository.
+	 */
+	public static final String PROP_PARSER_THREADS = "eclipse.p2.metadata.parser.threads"; //$NON-NLS-1$
+	private static final int MAX_DEFAULT_THREADS = 4;
+	private static final long POLL_INTERVAL = 100;
+
+	private static final byte[] HEADER = toBytes("<?xml version='1.0' encoding='UTF-8'?><" + XMLConstants.INSTALLABLE_UNITS_ELEMENT + '>'); //$NON-NLS-1$
+	private static final byte[] FOOTER = toBytes("</" + XMLConstants.INSTALLABLE_UNITS_ELEMENT + '>'); //$NON-NLS-1$
+
+	/*
+	 * A chunk of the document, with the line of the document on which it starts.
+	 */
+	private static class Chunk {
+		final int index;
+		final byte[] bytes;
+		final int line;
+
+		Chunk(int index, byte[] bytes, int line) {
+			this.index = index;
+			this.bytes = bytes;
+			this.line = line;
+		}
+	}
+
+	private final BundleContext context;
+	private final String bundleId;
+	private final String errorContext;
+	private final int maxThreads;
+	private final IProgressMonitor monitor;
+
+	private final Object lock = new Object();
+	private final LinkedList<Chunk> queue = new LinkedList<Chunk>();
+	// the units and the parse status of each chunk, by index
+	private final List<IInstallableUnit[]> units = new ArrayList<IInstallableUnit[]>();
+	private final List<IStatus> statuses = new ArrayList<IStatus>();
+	private int running = 0;
+	// the number of running threads waiting for a chunk
+	private int idle = 0;
+	private boolean closed = false;
+	private Throwable failure;
+
+	public ParallelUnitsParser(BundleContext context, String bundleId, String errorContext, int maxThreads, IProgressMonitor monitor) {
+		this.context = context;
+		this.bundleId = bundleId;
+		this.errorContext = errorContext;
+		this.maxThreads = maxThreads;
+		this.monitor = monitor;
+	}
+
+	private static byte[] toBytes(String markup) {
+		try {
+			return markup.getBytes("UTF-8"); //$NON-NLS-1$
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Return the maximum number of threads parsing the units of a metadata repository, as
+	 * configured by the PROP_PARSER_THREADS property.
+	 */
+	public static int getParserThreads(BundleContext context) {
+		String value = context == null ? System.getProperty(PROP_PARSER_THREADS) : context.getProperty(PROP_PARSER_THREADS);
+		if (value != null) {
+			try {
+				return Math.max(1, Integer.parseInt(value));
+			} catch (NumberFormatException e) {
+				System.err.println("Ignoring user-specified '" + PROP_PARSER_THREADS + "' value of: " + value); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return Math.min(MAX_DEFAULT_THREADS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Queue the given chunk, which starts on the given line of the document, for parsing.
+	 * Waits while enough chunks are already queued.
+	 */
+	public void add(byte[] chunk, int line) throws IOException {
+		synchronized (lock) {
+			while (failure == null && queue.size() >= 2 * maxThreads) {
+				if (monitor.isCanceled())
+					throw new OperationCanceledException();
+				waitForThreads();
+			}
+			checkFailure();
+			queue.add(new Chunk(units.size(), chunk, line));
+			units.add(null);
+			statuses.add(null);
+			if (idle == 0 && running < maxThreads)
+				startThread();
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Wait until all queued chunks are parsed, and return the units of all chunks.
+	 */
+	public IInstallableUnit[] getUnits() throws IOException {
+		int size = 0;
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+			while (running > 0) {
+				if (monitor.isCanceled())
+					throw new OperationCanceledException();
+				waitForThreads();
+			}
+			checkFailure();
+			for (IInstallableUnit[] chunkUnits : units)
+				size += chunkUnits.length;
+		}
+		IInstallableUnit[] result = new IInstallableUnit[size];
+		int i = 0;
+		for (IInstallableUnit[] chunkUnits : units) {
+			System.arraycopy(chunkUnits, 0, result, i, chunkUnits.length);
+			i += chunkUnits.length;
+		}
+		return result;
+	}
+
+	/**
+	 * Return the problems found while parsing the chunks, in the order of the document.
+	 */
+	public IStatus[] getStatus() {
+		List<IStatus> result = new ArrayList<IStatus>();
+		synchronized (lock) {
+			for (IStatus status : statuses) {
+				if (status != null && !status.isOK())
+					result.add(status);
+			}
+		}
+		return result.toArray(new IStatus[result.size()]);
+	}
+
+	/**
+	 * Discard the chunks which are not parsed yet, and wait for the parsing threads to stop.
+	 */
+	public void close() {
+		synchronized (lock) {
+			closed = true;
+			queue.clear();
+			lock.notifyAll();
+			while (running > 0)
+				waitForThreads();
+		}
+	}
+
+	private void waitForThreads() {
+		try {
+			lock.wait(POLL_INTERVAL);
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure instanceof IOException)
+			throw (IOException) failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+	}
+
+	private void startThread() {
+		running++;
+		Thread thread = new Thread("p2 metadata parser " + running) { //$NON-NLS-1$
+			public void run() {
+				try {
+					UnitsParser parser = new UnitsParser();
+					Chunk chunk;
+					while ((chunk = next()) != null) {
+						IInstallableUnit[] chunkUnits = parser.parse(chunk);
+						synchronized (lock) {
+							units.set(chunk.index, chunkUnits);
+							statuses.set(chunk.index, parser.getStatus());
+						}
+					}
+				} catch (Throwable t) {
+					synchronized (lock) {
+						if (failure == null)
+							failure = t;
+						queue.clear();
+					}
+				} finally {
+					synchronized (lock) {
+						running--;
+						lock.notifyAll();
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/*
+	 * Return the next chunk to parse, or null once all chunks are parsed.
+	 */
+	Chunk next() {
+		synchronized (lock) {
+			while (queue.isEmpty()) {
+				if (closed || failure != null)
+					return null;
+				idle++;
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					// ignore
+				} finally {
+					idle--;
+				}
+			}
+			return queue.removeFirst();
+		}
+	}
+
+	/*
+	 * Parses a chunk of units, as the content of a units element.
+	 */
+	private class UnitsParser extends MetadataParser {
+
+		UnitsParser() {
+			super(ParallelUnitsParser.this.context, bundleId);
+			setErrorContext(errorContext);
+			setProgressMonitor(monitor);
+		}
+
+		IInstallableUnit[] parse(Chunk chunk) throws IOException {
+			this.status = null;
+			try {
+				if (xmlReader == null)
+					getParser();
+				UnitsHandler unitsHandler = new UnitsHandler();
+				xmlReader.setContentHandler(new ChunkDocHandler(unitsHandler, chunk.line));
+				InputStream header = new ByteArrayInputStream(HEADER);
+				InputStream footer = new ByteArrayInputStream(FOOTER);
+				xmlReader.parse(new InputSource(new SequenceInputStream(header, new SequenceInputStream(new ByteArrayInputStream(chunk.bytes), footer))));
+				return unitsHandler.getUnits();
+			} catch (SAXException e) {
+				if (e.getException() instanceof OperationCanceledException)
+					throw (OperationCanceledException) e.getException();
+				throw new IOException(e.getMessage());
+			} catch (ParserConfigurationException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+
+		protected Object getRootObject() {
+			return null;
+		}
+
+		protected String getErrorMessage() {
+			return Messages.io_parseError;
+		}
+
+		/*
+		 * Reports the lines of the document, rather than the lines of the chunk.
+		 */
+		private final class ChunkDocHandler extends DocHandler {
+			private final int lineOffset;
+
+			ChunkDocHandler(RootHandler rootHandler, int line) {
+				super(INSTALLABLE_UNITS_ELEMENT, rootHandler);
+				this.lineOffset = line - 1;
+			}
+
+			public void setDocumentLocator(final Locator docLocator) {
+				locator = new Locator() {
+					public String getPublicId() {
+						return docLocator.getPublicId();
+					}
+
+					public String getSystemId() {
+						return docLocator.getSystemId();
+					}
+
+					public int getLineNumber() {
+						int line = docLocator.getLineNumber();
+						return line > 0 ? line + lineOffset : line;
+					}
+
+					public int getColumnNumber() {
+						return docLocator.getColumnNumber();
+					}
+				};
+			}
+		}
+
+		private final class UnitsHandler extends RootHandler {
+			private final List<InstallableUnitDescription> descriptions = new ArrayList<InstallableUnitDescription>(UnitSplitter.CHUNK_UNITS);
+
+			protected void handleRootAttributes(Attributes attributes) {
+				// the attributes of the units element are parsed with the rest of the document
+			}
+
+			public void startElement(String name, Attributes attributes) {
+				checkCancel();
+				if (name.equals(INSTALLABLE_UNIT_ELEMENT)) {
+					new InstallableUnitHandler(this, attributes, descriptions);
+				} else {
+					invalidElement(name, attributes);
+				}
+			}
+
+			IInstallableUnit[] getUnits() {
+				IInstallableUnit[] result = new IInstallableUnit[descriptions.size()];
+				int i = 0;
+				for (InstallableUnitDescription desc : descriptions)
+					result[i++] = MetadataFactory.createInstallableUnit(desc);
+				return result;
+			}
+		}
+	}
+}
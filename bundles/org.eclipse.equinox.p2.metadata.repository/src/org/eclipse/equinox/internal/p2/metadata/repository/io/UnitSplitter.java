@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository.io;
+
+import java.io.*;
+
+/**
+ * Splits the UTF-8 encoded XML of a metadata repository, as it is read, into the
+ * document without its installable units, and chunks of consecutive <code>unit</code>
+ * elements which can be parsed independently of each other.
+ * <p>
+ * The splitter only recognizes the markup of the document, it does not check that the
+ * document is well-formed. A document which cannot be split, for example because it
+ * is not encoded in UTF-8, declares a document type, or has no <code>units</code>
+ * element in its <code>repository</code> root element, is returned unchanged by
+ * {@link #getRemainder()}.
+ */
+public class UnitSplitter implements XMLConstants {
+	/**
+	 * The number of units in each chunk.
+	 */
+	public static final int CHUNK_UNITS = 500;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final int EOF = -1;
+	private static final int START = 1; // a start tag
+	private static final int END = 2; // an end tag
+	private static final int EMPTY = 3; // an empty element tag
+	private static final int OTHER = 4; // a comment, a CDATA section or a processing instruction
+	private static final int UNSUPPORTED = 5; // a document type, or an XML declaration of another encoding
+
+	private static final byte[] REPOSITORY = toBytes("repository"); //$NON-NLS-1$
+	private static final byte[] UNITS = toBytes(INSTALLABLE_UNITS_ELEMENT);
+
+	private final InputStream input;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+
+	// the bytes read since the last cut
+	private byte[] data = new byte[BUFFER_SIZE];
+	private int count = 0;
+	// the line of the first byte in data
+	private int dataLine = 1;
+	// the line of the first byte of the last chunk
+	private int chunkLine = 1;
+
+	// the offset in data of the last markup, and of the name of the last tag
+	private int markupStart;
+	private int nameStart;
+	private int nameEnd;
+
+	private byte[] prefix;
+	private boolean splitting = false;
+
+	public UnitSplitter(InputStream input) {
+		this.input = input;
+	}
+
+	private static byte[] toBytes(String name) {
+		byte[] result = new byte[name.length()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = (byte) name.charAt(i);
+		return result;
+	}
+
+	/**
+	 * Read the document up to the start of its <code>units</code> element.
+	 *
+	 * @return whether the units of the document can be read with {@link #nextChunk()},
+	 * or the document cannot be split and has to be parsed from {@link #getRemainder()}
+	 */
+	public boolean findUnits() throws IOException {
+		int first = read();
+		// a byte order mark or a zero byte means another encoding than UTF-8
+		if (first == -1 || first == 0xFE || first == 0xFF || first == 0)
+			return false;
+		position--;
+		count--;
+		int depth = 0;
+		boolean repositoryRoot = false;
+		while (true) {
+			switch (next()) {
+				case EOF :
+				case UNSUPPORTED :
+					return false;
+				case START :
+					depth++;
+					if (depth == 1)
+						repositoryRoot = nameEquals(REPOSITORY);
+					else if (depth == 2 && repositoryRoot && nameEquals(UNITS)) {
+						prefix = cut(count);
+						splitting = true;
+						return true;
+					}
+					break;
+				case END :
+					depth--;
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Return the next chunk of units, or <code>null</code> once all units were read.
+	 * A chunk is a sequence of complete elements, and of the text between them.
+	 */
+	public byte[] nextChunk() throws IOException {
+		if (!splitting)
+			return null;
+		int depth = 0;
+		int units = 0;
+		while (true) {
+			switch (next()) {
+				case EOF :
+					// the document is truncated, parsing the rest of the document reports it
+					splitting = false;
+					return units > 0 ? cut(count) : null;
+				case START :
+					depth++;
+					break;
+				case EMPTY :
+					if (depth == 0)
+						units++;
+					break;
+				case END :
+					if (depth == 0) {
+						// the end of the units element
+						splitting = false;
+						byte[] chunk = cut(markupStart);
+						return units > 0 ? chunk : null;
+					}
+					depth--;
+					if (depth == 0 && ++units >= CHUNK_UNITS)
+						return cut(count);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Return the line of the document on which the last chunk starts.
+	 */
+	public int getChunkLine() {
+		return chunkLine;
+	}
+
+	/**
+	 * Return the document without the content of its <code>units</code> element, once all
+	 * chunks were read.
+	 */
+	public InputStream getSkeleton() throws IOException {
+		while (read() != -1) {
+			// read the end of the document
+		}
+		return new SequenceInputStream(new ByteArrayInputStream(prefix), new ByteArrayInputStream(data, 0, count));
+	}
+
+	/**
+	 * Return the document, when it cannot be split.
+	 */
+	public InputStream getRemainder() {
+		InputStream read = new SequenceInputStream(new ByteArrayInputStream(data, 0, count), new ByteArrayInputStream(buffer, position, limit - position));
+		return new SequenceInputStream(read, input);
+	}
+
+	private int read() throws IOException {
+		if (position == limit) {
+			limit = input.read(buffer, 0, buffer.length);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		byte b = buffer[position++];
+		if (count == data.length) {
+			byte[] larger = new byte[data.length * 2];
+			System.arraycopy(data, 0, larger, 0, count);
+			data = larger;
+		}
+		data[count++] = b;
+		return b & 0xFF;
+	}
+
+	/*
+	 * Remove and return the given number of bytes from the start of data.
+	 */
+	private byte[] cut(int length) {
+		byte[] result = new byte[length];
+		System.arraycopy(data, 0, result, 0, length);
+		System.arraycopy(data, length, data, 0, count - length);
+		count -= length;
+		chunkLine = dataLine;
+		for (int i = 0; i < length; i++) {
+			if (result[i] == '\n')
+				dataLine++;
+		}
+		return result;
+	}
+
+	private boolean nameEquals(byte[] name) {
+		if (nameEnd - nameStart != name.length)
+			return false;
+		for (int i = 0; i < name.length; i++) {
+			if (data[nameStart + i] != name[i])
+				return false;
+		}
+		return true;
+	}
+
+	private boolean endsWith(String suffix) {
+		int length = suffix.length();
+		if (count - markupStart < length + 1)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (data[count - length + i] != suffix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isNameEnd(int c) {
+		return c == '>' || c == '/' || c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+
+	/*
+	 * Read the next markup of the document, and return its kind.
+	 */
+	private int next() throws IOException {
+		int c;
+		while ((c = read()) != '<') {
+			if (c == -1)
+				return EOF;
+		}
+		markupStart = count - 1;
+		c = read();
+		switch (c) {
+			case -1 :
+				return EOF;
+			case '?' :
+				return skipProcessingInstruction();
+			case '!' :
+				c = read();
+				if (c == '-') {
+					if (!skipTo("-->")) //$NON-NLS-1$
+						return EOF;
+					return OTHER;
+				}
+				if (c == '[') {
+					if (!skipTo("]]>")) //$NON-NLS-1$
+						return EOF;
+					return OTHER;
+				}
+				return UNSUPPORTED;
+			case '/' :
+				nameStart = count;
+				while (!isNameEnd(c = read())) {
+					if (c == -1)
+						return EOF;
+				}
+				nameEnd = count - 1;
+				while (c != '>') {
+					if ((c = read()) == -1)
+						return EOF;
+				}
+				return END;
+			default :
+				nameStart = count - 1;
+				while (!isNameEnd(c = read())) {
+					if (c == -1)
+						return EOF;
+				}
+				nameEnd = count - 1;
+				int previous = 0;
+				while (c != '>') {
+					previous = c;
+					if (c == '"' || c == '\'') {
+						int quote = c;
+						while ((c = read()) != quote) {
+							if (c == -1)
+								return EOF;
+						}
+					}
+					if ((c = read()) == -1)
+						return EOF;
+				}
+				return previous == '/' ? EMPTY : START;
+		}
+	}
+
+	private boolean skipTo(String end) throws IOException {
+		while (!endsWith(end)) {
+			if (read() == -1)
+				return false;
+		}
+		return true;
+	}
+
+	private int skipProcessingInstruction() throws IOException {
+		if (!skipTo("?>")) //$NON-NLS-1$
+			return EOF;
+		if (splitting)
+			return OTHER;
+		String instruction = new String(data, markupStart, count - markupStart, "ISO-8859-1"); //$NON-NLS-1$
+		if (!instruction.startsWith("<?xml ")) //$NON-NLS-1$
+			return OTHER;
+		int index = instruction.indexOf("encoding"); //$NON-NLS-1$
+		if (index == -1)
+			return OTHER;
+		int quote = instruction.indexOf('\'', index);
+		int doubleQuote = instruction.indexOf('"', index);
+		if (quote == -1 || (doubleQuote != -1 && doubleQuote < quote))
+			quote = doubleQuote;
+		int end = quote == -1 ? -1 : instruction.indexOf(instruction.charAt(quote), quote + 1);
+		if (end == -1)
+			return UNSUPPORTED;
+		String encoding = instruction.substring(quote + 1, end);
+		return "UTF-8".equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding) ? OTHER : UNSUPPORTED; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
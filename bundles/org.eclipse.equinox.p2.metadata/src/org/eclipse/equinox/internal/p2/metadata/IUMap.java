@@ -17,10 +17,13 @@ import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.p2.core.IPool;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.VersionRange;
 import org.eclipse.equinox.p2.query.*;
 
 /**
- * A map that stores {@link IInstallableUnit} instances in a way that is efficient to query
+ * A map that stores {@link IInstallableUnit} instances in a way that is efficient to query.
+ * The units that have the same id are kept sorted by version, so that a unit is found,
+ * added or removed with a binary search.
  */
 public class IUMap implements Cloneable {
 	/**
@@ -84,16 +87,20 @@ public class IUMap implements Cloneable {
 	}
 
 	/**
-	 * Map<String,Object> mapping IU id to either arrays of iu's or a single iu with that id.
+	 * Map<String,Object> mapping IU id to either arrays of iu's sorted by version or a single iu with that id.
 	 */
 	final Map<String, Object> units = new HashMap<String, Object>();
 
+	// the number of units in the map
+	private int size = 0;
+
 	public IUMap() {
 		//
 	}
 
 	private IUMap(IUMap cloneSource) {
 		units.putAll(cloneSource.units);
+		size = cloneSource.size;
 	}
 
 	public void add(IInstallableUnit unit) {
@@ -101,29 +108,90 @@ public class IUMap implements Cloneable {
 		Object matching = units.get(key);
 		if (matching == null) {
 			units.put(key, unit);
+			size++;
 			return;
 		}
 
 		// We already had something at this key position. It must be
 		// preserved.
 		if (matching.getClass().isArray()) {
-			// Entry is an array. Add unique
+			// Entry is a sorted array. Add unique
 			IInstallableUnit[] iuArr = (IInstallableUnit[]) matching;
-			int idx = iuArr.length;
-			while (--idx >= 0)
-				if (iuArr[idx].equals(unit))
-					// This unit has already been added
-					return;
+			int idx = indexOf(iuArr, unit);
+			if (idx >= 0)
+				// This unit has already been added
+				return;
 
+			// The array may be shared with a clone, so it is copied
+			idx = -(idx + 1);
 			IInstallableUnit[] iuArrPlus = new IInstallableUnit[iuArr.length + 1];
-			System.arraycopy(iuArr, 0, iuArrPlus, 0, iuArr.length);
-			iuArrPlus[iuArr.length] = unit;
-			units.put(unit.getId(), iuArrPlus);
+			System.arraycopy(iuArr, 0, iuArrPlus, 0, idx);
+			iuArrPlus[idx] = unit;
+			System.arraycopy(iuArr, idx, iuArrPlus, idx + 1, iuArr.length - idx);
+			units.put(key, iuArrPlus);
+			size++;
 		} else {
 			IInstallableUnit old = (IInstallableUnit) matching;
-			if (!old.equals(unit))
-				units.put(key, new IInstallableUnit[] {old, unit});
+			if (!old.equals(unit)) {
+				units.put(key, compare(old, unit.getVersion()) <= 0 ? new IInstallableUnit[] {old, unit} : new IInstallableUnit[] {unit, old});
+				size++;
+			}
+		}
+	}
+
+	private static int compare(IInstallableUnit unit, Version version) {
+		Version unitVersion = unit.getVersion();
+		if (unitVersion == null)
+			return version == null ? 0 : -1;
+		return version == null ? 1 : unitVersion.compareTo(version);
+	}
+
+	/*
+	 * Returns the index of the given unit in the array of units sorted by version, or
+	 * <code>-(insertion point) - 1</code> if the array does not contain it.
+	 */
+	private static int indexOf(IInstallableUnit[] array, IInstallableUnit unit) {
+		Version version = unit.getVersion();
+		int low = 0;
+		int high = array.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(array[mid], version);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else {
+				// Versions that compare as equal are not necessarily equal
+				for (int idx = mid; idx >= 0 && compare(array[idx], version) == 0; idx--)
+					if (array[idx].equals(unit))
+						return idx;
+				int idx = mid + 1;
+				for (; idx < array.length && compare(array[idx], version) == 0; idx++)
+					if (array[idx].equals(unit))
+						return idx;
+				return -(idx + 1);
+			}
+		}
+		return -(low + 1);
+	}
+
+	/*
+	 * Returns the index of the first unit of the sorted array whose version is greater
+	 * than (or equal to, if <code>inclusive</code>) the given version.
+	 */
+	private static int lowerBound(IInstallableUnit[] array, Version version, boolean inclusive) {
+		int low = 0;
+		int high = array.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(array[mid], version);
+			if (cmp < 0 || (cmp == 0 && !inclusive))
+				low = mid + 1;
+			else
+				high = mid;
 		}
+		return low;
 	}
 
 	public void addAll(IInstallableUnit[] toAdd) {
@@ -139,6 +207,14 @@ public class IUMap implements Cloneable {
 
 	public void clear() {
 		units.clear();
+		size = 0;
+	}
+
+	/**
+	 * Return the number of units in the map.
+	 */
+	public int size() {
+		return size;
 	}
 
 	@Override
@@ -157,7 +233,7 @@ public class IUMap implements Cloneable {
 	/**
 	 * Returns a collection of units that has the given <code>id</code>.
 	 * @param id The id of the desired units. Must not be <code>null</code>.
-	 * @return The units corresponding to the given <code>id</code>.
+	 * @return The units corresponding to the given <code>id</code>, sorted by version.
 	 */
 	public Collection<IInstallableUnit> getUnits(String id) {
 		Object bucket = units.get(id);
@@ -166,6 +242,79 @@ public class IUMap implements Cloneable {
 		return bucket.getClass().isArray() ? CollectionUtils.unmodifiableList((IInstallableUnit[]) bucket) : Collections.<IInstallableUnit> singletonList((IInstallableUnit) bucket);
 	}
 
+	/**
+	 * Returns a collection of units that has the given <code>id</code> and a version in
+	 * the given <code>range</code>.
+	 * @param id The id of the desired units. Must not be <code>null</code>.
+	 * @param range The range of the desired versions, or <code>null</code> for all versions.
+	 * @return The units corresponding to the given <code>id</code> and <code>range</code>, sorted by version.
+	 */
+	public Collection<IInstallableUnit> getUnits(String id, VersionRange range) {
+		Object bucket = units.get(id);
+		if (bucket == null || range == null)
+			return getUnits(id);
+		if (!bucket.getClass().isArray()) {
+			IInstallableUnit unit = (IInstallableUnit) bucket;
+			return range.isIncluded(unit.getVersion()) ? Collections.<IInstallableUnit> singletonList(unit) : CollectionUtils.<IInstallableUnit> emptyList();
+		}
+		IInstallableUnit[] array = (IInstallableUnit[]) bucket;
+		if (range.getMinimum() == range.getMaximum()) {
+			// A range of a single version only includes units with an equal version
+			IInstallableUnit unit = find(array, range.getMinimum());
+			return unit == null ? CollectionUtils.<IInstallableUnit> emptyList() : Collections.<IInstallableUnit> singletonList(unit);
+		}
+		int from = lowerBound(array, range.getMinimum(), range.getIncludeMinimum());
+		int to = lowerBound(array, range.getMaximum(), !range.getIncludeMaximum());
+		if (from >= to)
+			return CollectionUtils.emptyList();
+		return CollectionUtils.unmodifiableList(array).subList(from, to);
+	}
+
+	/**
+	 * Returns the unit that has the given <code>id</code> and the greatest version.
+	 * @param id The id of the desired unit. Must not be <code>null</code>.
+	 * @return The latest unit corresponding to the given <code>id</code>, or <code>null</code>.
+	 */
+	public IInstallableUnit getLatest(String id) {
+		Object bucket = units.get(id);
+		if (bucket == null || !bucket.getClass().isArray())
+			return (IInstallableUnit) bucket;
+		IInstallableUnit[] array = (IInstallableUnit[]) bucket;
+		return array[array.length - 1];
+	}
+
+	/**
+	 * Returns an iterator over the units that have the given <code>id</code>, from the
+	 * greatest to the smallest version. This order lets a query for the latest units skip
+	 * the older units once it matched one.
+	 * @param id The id of the desired units. Must not be <code>null</code>.
+	 */
+	public Iterator<IInstallableUnit> getUnitsLatestFirst(String id) {
+		Object bucket = units.get(id);
+		if (bucket == null)
+			return CollectionUtils.<IInstallableUnit> emptyList().iterator();
+		if (!bucket.getClass().isArray())
+			return Collections.<IInstallableUnit> singletonList((IInstallableUnit) bucket).iterator();
+		final IInstallableUnit[] array = (IInstallableUnit[]) bucket;
+		return new Iterator<IInstallableUnit>() {
+			private int idx = array.length;
+
+			public boolean hasNext() {
+				return idx > 0;
+			}
+
+			public IInstallableUnit next() {
+				if (idx == 0)
+					throw new NoSuchElementException();
+				return array[--idx];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
 	public IQueryResult<IInstallableUnit> get(String id) {
 		return internalGet(id, null);
 	}
@@ -179,7 +328,22 @@ public class IUMap implements Cloneable {
 		Collection<IInstallableUnit> idUnits = getUnits(id);
 		if (idUnits.isEmpty())
 			return Collector.emptyCollector();
-		return version == null ? new CollectionResult<IInstallableUnit>(idUnits) : QueryUtil.createIUQuery(id, version).perform(idUnits.iterator());
+		if (version == null || version.equals(Version.emptyVersion))
+			// Like the IU query, an empty version matches all versions
+			return new CollectionResult<IInstallableUnit>(idUnits);
+		Object bucket = units.get(id);
+		IInstallableUnit unit = bucket.getClass().isArray() ? find((IInstallableUnit[]) bucket, version) : (version.equals(((IInstallableUnit) bucket).getVersion()) ? (IInstallableUnit) bucket : null);
+		return unit == null ? Collector.<IInstallableUnit> emptyCollector() : new CollectionResult<IInstallableUnit>(Collections.singletonList(unit));
+	}
+
+	/*
+	 * Returns the unit of the sorted array which has the given version, or null.
+	 */
+	private static IInstallableUnit find(IInstallableUnit[] array, Version version) {
+		for (int idx = lowerBound(array, version, true); idx < array.length && compare(array[idx], version) == 0; idx++)
+			if (version.equals(array[idx].getVersion()))
+				return array[idx];
+		return null;
 	}
 
 	public IInstallableUnit get(String id, Version version) {
@@ -194,32 +358,32 @@ public class IUMap implements Cloneable {
 			return;
 
 		if (matching instanceof IInstallableUnit) {
-			if (matching.equals(unit))
+			if (matching.equals(unit)) {
 				units.remove(key);
+				size--;
+			}
 			return;
 		}
 
 		IInstallableUnit[] array = (IInstallableUnit[]) matching;
-		int idx = array.length;
-		while (--idx >= 0) {
-			if (unit.equals(array[idx])) {
-				if (array.length == 2) {
-					// We no longer need this array. Replace it with the
-					// entry that we keep.
-					units.put(key, idx == 0 ? array[1] : array[0]);
-					break;
-				}
-
-				// Shrink the array
-				IInstallableUnit[] newArray = new IInstallableUnit[array.length - 1];
-				if (idx > 0)
-					System.arraycopy(array, 0, newArray, 0, idx);
-				if (idx + 1 < array.length)
-					System.arraycopy(array, idx + 1, newArray, idx, array.length - (idx + 1));
-				units.put(key, newArray);
-				break;
-			}
+		int idx = indexOf(array, unit);
+		if (idx < 0)
+			return;
+		size--;
+		if (array.length == 2) {
+			// We no longer need this array. Replace it with the
+			// entry that we keep.
+			units.put(key, idx == 0 ? array[1] : array[0]);
+			return;
 		}
+
+		// Shrink the array
+		IInstallableUnit[] newArray = new IInstallableUnit[array.length - 1];
+		if (idx > 0)
+			System.arraycopy(array, 0, newArray, 0, idx);
+		if (idx + 1 < array.length)
+			System.arraycopy(array, idx + 1, newArray, idx, array.length - (idx + 1));
+		units.put(key, newArray);
 	}
 
 	public void removeAll(Collection<IInstallableUnit> toRemove) {
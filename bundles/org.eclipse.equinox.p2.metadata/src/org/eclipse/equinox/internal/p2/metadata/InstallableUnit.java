@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -59,7 +59,6 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 	private String id;
 
 	private OrderedProperties properties;
-	private OrderedProperties localizedProperties;
 	IProvidedCapability[] providedCapabilities = NO_PROVIDES;
 	private IRequirement[] requires = NO_REQUIRES;
 	private IRequirement[] metaRequires = NO_REQUIRES;
@@ -148,16 +147,6 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 		return OrderedProperties.unmodifiableProperties(properties());
 	}
 
-	/*
-	 * Helper method to cache localized properties
-	 */
-	public String getLocalizedProperty(String key) {
-		String result = null;
-		if (localizedProperties != null)
-			result = localizedProperties.getProperty(key);
-		return result;
-	}
-
 	public String getProperty(String key) {
 		return properties().getProperty(key);
 	}
@@ -249,15 +238,6 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 		}
 	}
 
-	/*
-	 * Helper method to cache localized properties
-	 */
-	public String setLocalizedProperty(String key, String value) {
-		if (localizedProperties == null)
-			localizedProperties = new OrderedProperties();
-		return localizedProperties.put(key, value);
-	}
-
 	public String setProperty(String key, String value) {
 		if (value == null)
 			return (properties != null ? (String) properties.remove(key) : null);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 IBM Corporation and others.
+ * Copyright (c) 2008, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -16,6 +16,7 @@ import java.lang.ref.SoftReference;
 import java.util.*;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.expression.*;
@@ -39,11 +40,10 @@ public class TranslationSupport {
 	private IQueryable<IInstallableUnit> fragmentSource;
 
 	private static IExpression capabilityMatch = ExpressionUtil.parse("providedCapabilities.exists(x | x.namespace == $0 && $1.exists(n | x.name == n))"); //$NON-NLS-1$
-	private static IExpression haveHostMatch = ExpressionUtil.parse("host.exists(h | $0 ~= h)"); //$NON-NLS-1$
 
-	// Cache the IU fragments that provide localizations for a given locale.
-	// Map<String,SoftReference<IQueryResult>>: locale => soft reference to a queryResult
-	private final Map<String, SoftReference<IQueryResult<IInstallableUnit>>> localeCollectorCache = new HashMap<String, SoftReference<IQueryResult<IInstallableUnit>>>(2);
+	// Cache the translations of the IU fragments that provide localizations for a given locale.
+	// Map<String,SoftReference<TranslationTable>>: locale => soft reference to a translation table
+	private final Map<String, SoftReference<TranslationTable>> localeCollectorCache = new HashMap<String, SoftReference<TranslationTable>>(2);
 
 	private LocaleProvider localeProvider;
 	private boolean loggedMissingSource = false;;
@@ -92,18 +92,6 @@ public class TranslationSupport {
 		return result;
 	}
 
-	/**
-	 * Cache the translated property value to optimize future retrieval of the same value.
-	 * Currently we just cache on the installable unit object in memory. In future
-	 * we should push support for localized property retrieval into IInstallableUnit
-	 * so we aren't required to reach around the API here.
-	 */
-	private String cacheResult(IInstallableUnit iu, String localizedKey, String localizedValue) {
-		if (iu instanceof InstallableUnit)
-			((InstallableUnit) iu).setLocalizedProperty(localizedKey, localizedValue);
-		return localizedValue;
-	}
-
 	/**
 	 * Return the copyright for the specified IInstallableUnit, 
 	 * localized for the receiver's locale.
@@ -224,72 +212,54 @@ public class TranslationSupport {
 	}
 
 	/**
-	 * Collects the installable unit fragments that contain locale data for the given locales.
+	 * Returns the translations of the installable unit fragments that contain locale data
+	 * for the given locale. The table is built by a single query of the translation source
+	 * the first time the locale is used.
 	 */
-	private synchronized IQueryResult<IInstallableUnit> getLocalizationFragments(List<String> localeVariants, String locale) {
+	private synchronized TranslationTable getTranslationTable(String locale) {
+		SoftReference<TranslationTable> tableReference = localeCollectorCache.get(locale);
+		if (tableReference != null) {
+			TranslationTable cached = tableReference.get();
+			if (cached != null)
+				return cached;
+		}
+
+		List<String> localeVariants = buildLocaleVariants(locale);
+		Iterator<IInstallableUnit> fragments;
 		if (fragmentSource == null) {
 			if (!loggedMissingSource) {
 				loggedMissingSource = true;
 				LogHelper.log(new Status(IStatus.INFO, MetadataActivator.PI_METADATA, "No translation source unavailable. Default language will be used.")); //$NON-NLS-1$
 			}
-			return Collector.emptyCollector();
-		}
-
-		SoftReference<IQueryResult<IInstallableUnit>> queryResultReference = localeCollectorCache.get(locale);
-		if (queryResultReference != null) {
-			IQueryResult<IInstallableUnit> cached = queryResultReference.get();
-			if (cached != null)
-				return cached;
+			fragments = CollectionUtils.<IInstallableUnit> emptyList().iterator();
+		} else {
+			IQuery<IInstallableUnit> iuQuery = QueryUtil.<IInstallableUnit> createMatchQuery(IInstallableUnitFragment.class, capabilityMatch, NAMESPACE_IU_LOCALIZATION, localeVariants);
+			fragments = fragmentSource.query(iuQuery, null).iterator();
 		}
-
-		IQuery<IInstallableUnit> iuQuery = QueryUtil.<IInstallableUnit> createMatchQuery(IInstallableUnitFragment.class, capabilityMatch, NAMESPACE_IU_LOCALIZATION, localeVariants);
-		IQueryResult<IInstallableUnit> collected = fragmentSource.query(iuQuery, null);
-		localeCollectorCache.put(locale, new SoftReference<IQueryResult<IInstallableUnit>>(collected));
-		return collected;
+		TranslationTable table = new TranslationTable(fragments, localeVariants);
+		localeCollectorCache.put(locale, new SoftReference<TranslationTable>(table));
+		return table;
 	}
 
 	private String getLocalizedIUProperty(IInstallableUnit iu, String actualKey, String locale) {
-		String localizedKey = makeLocalizedKey(actualKey, locale);
-		String localizedValue = null;
-
-		//first check for a cached localized value
-		if (iu instanceof InstallableUnit)
-			localizedValue = ((InstallableUnit) iu).getLocalizedProperty(localizedKey);
-		//next check if the localized value is stored in the same IU (common case)
-		if (localizedValue == null)
-			localizedValue = iu.getProperty(localizedKey);
+		//first check if the localized value is stored in the same IU (common case)
+		String localizedValue = iu.getProperty(makeLocalizedKey(actualKey, locale));
 		if (localizedValue != null)
 			return localizedValue;
 
-		final List<String> locales = buildLocaleVariants(locale);
-		final IInstallableUnit theUnit = iu;
-
-		IQueryResult<IInstallableUnit> localizationFragments = getLocalizationFragments(locales, locale);
-
-		IExpressionFactory factory = ExpressionUtil.getFactory();
-		IQuery<IInstallableUnit> iuQuery = QueryUtil.<IInstallableUnit> createMatchQuery(IInstallableUnitFragment.class, factory.matchExpression(haveHostMatch, theUnit));
-		IQueryResult<IInstallableUnit> collected = iuQuery.perform(localizationFragments.iterator());
-		if (!collected.isEmpty()) {
-			String translation = null;
-			for (Iterator<IInstallableUnit> iter = collected.iterator(); iter.hasNext() && translation == null;) {
-				IInstallableUnit localizationIU = iter.next();
-				for (Iterator<String> jter = locales.iterator(); jter.hasNext();) {
-					String localeKey = makeLocalizedKey(actualKey, jter.next());
-					translation = localizationIU.getProperty(localeKey);
-					if (translation != null)
-						return cacheResult(iu, localizedKey, translation);
-				}
-			}
-		}
+		TranslationTable table = getTranslationTable(locale);
+		String translation = table.getTranslation(iu, actualKey);
+		if (translation != null)
+			return translation;
 
-		for (String nextLocale : locales) {
+		for (String nextLocale : table.getLocaleVariants()) {
 			String localeKey = makeLocalizedKey(actualKey, nextLocale);
 			String nextValue = iu.getProperty(localeKey);
 			if (nextValue != null)
-				return cacheResult(iu, localizedKey, nextValue);
+				return nextValue;
 		}
 
-		return cacheResult(iu, localizedKey, actualKey);
+		return actualKey;
 	}
 
 	private String makeLocalizedKey(String actualKey, String localeImage) {
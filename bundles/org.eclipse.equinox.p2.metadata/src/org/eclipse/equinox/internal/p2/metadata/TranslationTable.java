@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata;
+
+import java.util.*;
+import java.util.Map.Entry;
+import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
+import org.eclipse.equinox.p2.metadata.*;
+
+/**
+ * The translations for one locale provided by a set of localization fragments. The table
+ * is built by a single scan of the fragments, and indexes their translations by the id of
+ * their hosts, so that translating a property of a unit only looks at the fragments of
+ * that unit. The keys and values of the translations are shared through a string pool.
+ */
+class TranslationTable {
+	private static final Translations[] NO_TRANSLATIONS = new Translations[0];
+
+	/*
+	 * The translations of a fragment, by key, and the hosts they apply to.
+	 */
+	private static class Translations {
+		final IRequirement[] hosts;
+		final Map<String, String> values;
+
+		Translations(IRequirement[] hosts, Map<String, String> values) {
+			this.hosts = hosts;
+			this.values = values;
+		}
+
+		boolean isHost(IInstallableUnit iu) {
+			for (int i = 0; i < hosts.length; i++) {
+				if (hosts[i].isMatch(iu))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	private final List<String> localeVariants;
+	// the translations of fragments whose hosts all name a unit id, by host id
+	private final Map<String, Translations[]> hostTranslations = new HashMap<String, Translations[]>();
+	// the translations of the other fragments
+	private Translations[] otherTranslations = NO_TRANSLATIONS;
+
+	/**
+	 * Create the table of the translations the given fragments provide for the given locale
+	 * variants, ordered from the most specific to the most general variant.
+	 */
+	TranslationTable(Iterator<IInstallableUnit> fragments, List<String> localeVariants) {
+		this.localeVariants = localeVariants;
+		String[] prefixes = new String[localeVariants.size()];
+		for (int i = 0; i < prefixes.length; i++)
+			prefixes[i] = localeVariants.get(i) + '.';
+
+		Map<String, String> pool = new HashMap<String, String>();
+		Map<String, List<Translations>> byHost = new HashMap<String, List<Translations>>();
+		List<Translations> others = new ArrayList<Translations>();
+		while (fragments.hasNext()) {
+			IInstallableUnit iu = fragments.next();
+			if (!(iu instanceof IInstallableUnitFragment))
+				continue;
+			Map<String, String> values = getTranslations(iu.getProperties(), prefixes, pool);
+			if (values.isEmpty())
+				continue;
+			Collection<IRequirement> hosts = ((IInstallableUnitFragment) iu).getHost();
+			Translations translations = new Translations(hosts.toArray(new IRequirement[hosts.size()]), values);
+			Set<String> hostIds = new HashSet<String>();
+			for (IRequirement host : hosts) {
+				if (host instanceof IRequiredCapability && IInstallableUnit.NAMESPACE_IU_ID.equals(((IRequiredCapability) host).getNamespace())) {
+					hostIds.add(((IRequiredCapability) host).getName());
+				} else {
+					hostIds = null;
+					break;
+				}
+			}
+			if (hostIds == null) {
+				others.add(translations);
+				continue;
+			}
+			for (String hostId : hostIds) {
+				List<Translations> list = byHost.get(hostId);
+				if (list == null) {
+					list = new ArrayList<Translations>(1);
+					byHost.put(hostId, list);
+				}
+				list.add(translations);
+			}
+		}
+		for (Entry<String, List<Translations>> entry : byHost.entrySet()) {
+			List<Translations> list = entry.getValue();
+			hostTranslations.put(entry.getKey(), list.toArray(new Translations[list.size()]));
+		}
+		if (!others.isEmpty())
+			otherTranslations = others.toArray(new Translations[others.size()]);
+	}
+
+	/*
+	 * Return the translations of the given fragment properties, by key, preferring the
+	 * translations of the most specific locale variant.
+	 */
+	private static Map<String, String> getTranslations(Map<String, String> properties, String[] prefixes, Map<String, String> pool) {
+		Map<String, String> result = null;
+		for (int i = 0; i < prefixes.length; i++) {
+			for (Entry<String, String> property : properties.entrySet()) {
+				String key = property.getKey();
+				if (!key.startsWith(prefixes[i]))
+					continue;
+				key = key.substring(prefixes[i].length());
+				if (result == null)
+					result = new HashMap<String, String>();
+				else if (result.containsKey(key))
+					continue;
+				result.put(intern(pool, key), intern(pool, property.getValue()));
+			}
+		}
+		if (result == null)
+			return CollectionUtils.emptyMap();
+		return result;
+	}
+
+	private static String intern(Map<String, String> pool, String value) {
+		String pooled = pool.get(value);
+		if (pooled != null)
+			return pooled;
+		pool.put(value, value);
+		return value;
+	}
+
+	/**
+	 * Return the locale variants of the table, from the most specific to the most general.
+	 */
+	List<String> getLocaleVariants() {
+		return localeVariants;
+	}
+
+	/**
+	 * Return the translation of the given key for the given unit, or <code>null</code> if
+	 * no fragment of the unit translates the key.
+	 */
+	String getTranslation(IInstallableUnit iu, String key) {
+		String result = getTranslation(hostTranslations.get(iu.getId()), iu, key);
+		if (result == null)
+			result = getTranslation(otherTranslations, iu, key);
+		return result;
+	}
+
+	private static String getTranslation(Translations[] candidates, IInstallableUnit iu, String key) {
+		if (candidates == null)
+			return null;
+		for (int i = 0; i < candidates.length; i++) {
+			String value = candidates[i].values.get(key);
+			if (value != null && candidates[i].isHost(iu))
+				return value;
+		}
+		return null;
+	}
+}
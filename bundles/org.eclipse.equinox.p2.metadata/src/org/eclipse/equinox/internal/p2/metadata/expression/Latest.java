@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 Cloudsmith Inc. and others.
+ * Copyright (c) 2009, 2011 Cloudsmith Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -29,9 +29,9 @@ final class Latest extends UnaryCollectionFilter {
 		HashMap<String, IVersionedId> greatestIUVersion;
 		if (operand instanceof Select) {
 			// Inline element evaluation here so that we don't build a map that is
-			// larger then it has to be
+			// larger then it has to be. The elements come from an index when possible.
 			Select select = (Select) operand;
-			Iterator<?> iterator = select.operand.evaluateAsIterator(context);
+			Iterator<?> iterator = select.getInnerIterator(context);
 			if (!iterator.hasNext())
 				return Collections.EMPTY_SET.iterator();
 
@@ -44,17 +44,19 @@ final class Latest extends UnaryCollectionFilter {
 				if (!(next instanceof IVersionedId))
 					continue;
 
+				// No need to evaluate the lambda for a version that cannot be the latest. An
+				// index iterates over the latest versions first, so that most are skipped.
+				IVersionedId versionedID = (IVersionedId) next;
+				String id = versionedID.getId();
+				IVersionedId prev = greatestIUVersion.get(id);
+				if (prev != null && prev.getVersion().compareTo(versionedID.getVersion()) >= 0)
+					continue;
+
 				variable.setValue(context, next);
 				if (lambda.evaluate(context) != Boolean.TRUE)
 					continue;
 
-				IVersionedId versionedID = (IVersionedId) next;
-				String id = versionedID.getId();
-				IVersionedId prev = greatestIUVersion.put(id, versionedID);
-				if (prev == null)
-					continue;
-				if (prev.getVersion().compareTo(versionedID.getVersion()) > 0)
-					greatestIUVersion.put(id, prev);
+				greatestIUVersion.put(id, versionedID);
 			}
 		} else {
 			Iterator<?> iterator = operand.evaluateAsIterator(context);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010 Cloudsmith Inc. and others.
+ * Copyright (c) 2010, 2011 Cloudsmith Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -41,6 +41,7 @@ public class IdIndex extends Index<IInstallableUnit> {
 				collector.addAll(iuMap.getUnits((String) key));
 			return collector.iterator();
 		}
-		return iuMap.getUnits((String) queriedKeys).iterator();
+		// The latest version first, so that a latest query can skip the older ones
+		return iuMap.getUnitsLatestFirst((String) queriedKeys);
 	}
 }
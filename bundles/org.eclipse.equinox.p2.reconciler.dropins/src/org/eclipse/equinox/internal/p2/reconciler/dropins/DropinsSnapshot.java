@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ * IBM Corporation - initial implementation and ideas
+ ******************************************************************************/
+package org.eclipse.equinox.internal.p2.reconciler.dropins;
+
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
+import org.eclipse.equinox.internal.provisional.p2.directorywatcher.RepositoryListener;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+
+/**
+ * A persistent record of what the watched repositories contributed the last time
+ * a profile was synchronized. For every installable unit we remember the file it was
+ * generated from and the last modified time of that file, which allows the reconciler
+ * to compute the units that were added, removed or changed since then without having
+ * to build a full profile change request.
+ */
+public class DropinsSnapshot {
+	private static final String PROFILE_TIMESTAMP = "PROFILE"; //$NON-NLS-1$
+	private static final String PREFIX_IU = "iu."; //$NON-NLS-1$
+	private static final String PREFIX_REPOSITORY = "repository."; //$NON-NLS-1$
+	private static final String PIPE = "|"; //$NON-NLS-1$
+
+	private final String profileTimestamp;
+	private final Set<String> repositories;
+	// maps "id_version" to "file name|last modified"
+	private final Map<String, String> units;
+
+	/**
+	 * The difference between two snapshots. All the collections contain keys of the
+	 * form <code>id_version</code>.
+	 */
+	public static class Delta {
+		final Set<String> added = new HashSet<String>();
+		final Set<String> removed = new HashSet<String>();
+		final Set<String> changed = new HashSet<String>();
+		boolean repositoriesChanged = false;
+
+		public Set<String> getAdded() {
+			return added;
+		}
+
+		public Set<String> getRemoved() {
+			return removed;
+		}
+
+		public Set<String> getChanged() {
+			return changed;
+		}
+
+		public boolean isEmpty() {
+			return !repositoriesChanged && added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+		}
+
+		public String toString() {
+			return "added: " + added + ", removed: " + removed + ", changed: " + changed + ", repositories changed: " + repositoriesChanged; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		}
+	}
+
+	private DropinsSnapshot(String profileTimestamp, Set<String> repositories, Map<String, String> units) {
+		this.profileTimestamp = profileTimestamp;
+		this.repositories = repositories;
+		this.units = units;
+	}
+
+	/**
+	 * Create a snapshot of the given installable units, as contributed by the repositories
+	 * at the given locations, for a profile with the given timestamp.
+	 */
+	public static DropinsSnapshot create(long profileTimestamp, Collection<String> repositoryLocations, Iterator<IInstallableUnit> ius) {
+		Map<String, String> units = new HashMap<String, String>();
+		while (ius.hasNext()) {
+			IInstallableUnit iu = ius.next();
+			units.put(getKey(iu), getValue(iu));
+		}
+		return new DropinsSnapshot(Long.toString(profileTimestamp), new HashSet<String>(repositoryLocations), units);
+	}
+
+	/**
+	 * Read the snapshot from the given file. Return <code>null</code> if the file does not
+	 * exist or cannot be read.
+	 */
+	public static DropinsSnapshot read(File file) {
+		if (!file.exists())
+			return null;
+		Map<String, String> values;
+		try {
+			InputStream input = new BufferedInputStream(new FileInputStream(file));
+			try {
+				values = CollectionUtils.loadProperties(input);
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			Activator.trace("Exception loading snapshot file: " + e.getMessage()); //$NON-NLS-1$
+			return null;
+		}
+		String timestamp = values.get(PROFILE_TIMESTAMP);
+		if (timestamp == null)
+			return null;
+		Set<String> repositories = new HashSet<String>();
+		Map<String, String> units = new HashMap<String, String>();
+		for (Entry<String, String> entry : values.entrySet()) {
+			String key = entry.getKey();
+			if (key.startsWith(PREFIX_IU))
+				units.put(key.substring(PREFIX_IU.length()), entry.getValue());
+			else if (key.startsWith(PREFIX_REPOSITORY))
+				repositories.add(entry.getValue());
+		}
+		return new DropinsSnapshot(timestamp, repositories, units);
+	}
+
+	/**
+	 * Persist this snapshot to the given file.
+	 */
+	public void write(File file, String comment) throws IOException {
+		Map<String, String> values = new HashMap<String, String>(units.size() + repositories.size() + 1);
+		values.put(PROFILE_TIMESTAMP, profileTimestamp);
+		int i = 0;
+		for (String location : repositories)
+			values.put(PREFIX_REPOSITORY + i++, location);
+		for (Entry<String, String> entry : units.entrySet())
+			values.put(PREFIX_IU + entry.getKey(), entry.getValue());
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			CollectionUtils.storeProperties(values, output, comment);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Return whether or not the profile has changed between the given snapshot and this one.
+	 */
+	public boolean isSameProfile(DropinsSnapshot previous) {
+		return previous != null && profileTimestamp.equals(previous.profileTimestamp);
+	}
+
+	/**
+	 * Compute the changes from the given (older) snapshot to this one. If there is no previous
+	 * snapshot then everything is considered to be added.
+	 */
+	public Delta computeDelta(DropinsSnapshot previous) {
+		Delta result = new Delta();
+		if (previous == null) {
+			result.repositoriesChanged = true;
+			result.added.addAll(units.keySet());
+			return result;
+		}
+		result.repositoriesChanged = !repositories.equals(previous.repositories);
+		for (Entry<String, String> entry : units.entrySet()) {
+			String old = previous.units.get(entry.getKey());
+			if (old == null)
+				result.added.add(entry.getKey());
+			else if (!old.equals(entry.getValue()))
+				result.changed.add(entry.getKey());
+		}
+		for (String key : previous.units.keySet()) {
+			if (!units.containsKey(key))
+				result.removed.add(key);
+		}
+		return result;
+	}
+
+	private static String getKey(IInstallableUnit iu) {
+		return iu.getId() + '_' + iu.getVersion();
+	}
+
+	private static String getValue(IInstallableUnit iu) {
+		String fileName = iu.getProperty(RepositoryListener.FILE_NAME);
+		String lastModified = iu.getProperty(RepositoryListener.FILE_LAST_MODIFIED);
+		return (fileName == null ? "" : fileName) + PIPE + (lastModified == null ? "" : lastModified); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
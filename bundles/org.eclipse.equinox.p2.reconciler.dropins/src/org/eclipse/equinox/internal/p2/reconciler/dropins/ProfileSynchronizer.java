@@ -43,6 +43,7 @@ import org.osgi.framework.ServiceReference;
 public class ProfileSynchronizer {
 	private static final String RECONCILER_APPLICATION_ID = "org.eclipse.equinox.p2.reconciler.application"; //$NON-NLS-1$
 	private static final String TIMESTAMPS_FILE_PREFIX = "timestamps"; //$NON-NLS-1$
+	private static final String SNAPSHOT_FILE_PREFIX = "snapshot"; //$NON-NLS-1$
 	private static final String PROFILE_TIMESTAMP = "PROFILE"; //$NON-NLS-1$
 	private static final String NO_TIMESTAMP = "-1"; //$NON-NLS-1$
 	private static final String PROP_FROM_DROPINS = "org.eclipse.equinox.p2.reconciler.dropins"; //$NON-NLS-1$
@@ -100,19 +101,32 @@ public class ProfileSynchronizer {
 		if (isUpToDate())
 			return Status.OK_STATUS;
 
+		// the timestamps are different but that doesn't mean that the content of the repositories
+		// changed. If the profile and the units contributed by the repositories are the same as the last
+		// time we synchronized then there is nothing to do and we can avoid creating a change request.
+		IQueryResult<IInstallableUnit> allIUs = getAllIUsFromRepos();
+		if (isSnapshotUpToDate(allIUs)) {
+			writeTimestamps();
+			return Status.OK_STATUS;
+		}
+
 		ProvisioningContext context = getContext();
 		context.setProperty(EXPLANATION, new Boolean(Tracing.DEBUG_RECONCILER).toString());
 
 		String updatedCacheExtensions = synchronizeCacheExtensions();
 
 		// figure out if we really have anything to install/uninstall.
-		ReconcilerProfileChangeRequest request = createProfileChangeRequest(context);
+		ReconcilerProfileChangeRequest request = createProfileChangeRequest(context, allIUs);
 		if (request == null) {
-			if (updatedCacheExtensions == null)
+			if (updatedCacheExtensions == null) {
+				writeSnapshot(allIUs);
 				return Status.OK_STATUS;
+			}
 			IStatus engineResult = setProperty(CACHE_EXTENSIONS, updatedCacheExtensions, context, null);
-			if (engineResult.getSeverity() != IStatus.ERROR && engineResult.getSeverity() != IStatus.CANCEL)
+			if (engineResult.getSeverity() != IStatus.ERROR && engineResult.getSeverity() != IStatus.CANCEL) {
 				writeTimestamps();
+				writeSnapshot(allIUs);
+			}
 			return engineResult;
 		}
 		if (updatedCacheExtensions != null)
@@ -130,6 +144,7 @@ public class ProfileSynchronizer {
 
 		// write out the new timestamps (for caching) and apply the configuration
 		writeTimestamps();
+		writeSnapshot(allIUs);
 		IStatus applyResult = applyConfiguration(false);
 
 		// Mark the state update as hidden so it does not appear in the Installation History UI list
@@ -380,6 +395,62 @@ public class ProfileSynchronizer {
 		return false;
 	}
 
+	/*
+	 * Return true if the given units are the same as the ones recorded in the snapshot
+	 * from the last synchronization and the profile hasn't changed since then.
+	 */
+	private boolean isSnapshotUpToDate(IQueryResult<IInstallableUnit> allIUs) {
+		if ("true".equals(Activator.getContext().getProperty("osgi.checkConfiguration"))) //$NON-NLS-1$//$NON-NLS-2$
+			return false;
+		if (Boolean.valueOf(profile.getProperty("org.eclipse.equinox.p2.resolve")).booleanValue()) //$NON-NLS-1$
+			return false;
+		DropinsSnapshot previous = DropinsSnapshot.read(getSnapshotFile());
+		if (previous == null) {
+			Activator.trace("Snapshot file does not exist."); //$NON-NLS-1$
+			return false;
+		}
+		DropinsSnapshot current = DropinsSnapshot.create(profile.getTimestamp(), repositoryMap.keySet(), allIUs.iterator());
+		if (!current.isSameProfile(previous)) {
+			Activator.trace("Profile has changed since the last snapshot."); //$NON-NLS-1$
+			return false;
+		}
+		DropinsSnapshot.Delta delta = current.computeDelta(previous);
+		if (!delta.isEmpty()) {
+			Activator.trace("Snapshot delta: " + delta); //$NON-NLS-1$
+			return false;
+		}
+		Activator.trace("Repository content unchanged since the last snapshot."); //$NON-NLS-1$
+		Activator.trace("Skipping reconciliation."); //$NON-NLS-1$
+		return true;
+	}
+
+	/*
+	 * Record the units contributed by our repositories along with the timestamp of the
+	 * profile after the synchronization.
+	 */
+	private void writeSnapshot(IQueryResult<IInstallableUnit> allIUs) {
+		long timestamp = profile.getTimestamp();
+		IProfileRegistry profileRegistry = (IProfileRegistry) agent.getService(IProfileRegistry.SERVICE_NAME);
+		if (profileRegistry != null) {
+			IProfile current = profileRegistry.getProfile(profile.getProfileId());
+			if (current != null)
+				timestamp = current.getTimestamp();
+		}
+		DropinsSnapshot snapshot = DropinsSnapshot.create(timestamp, repositoryMap.keySet(), allIUs.iterator());
+		File file = getSnapshotFile();
+		Activator.trace("Writing snapshot file to : " + file.getAbsolutePath()); //$NON-NLS-1$
+		try {
+			snapshot.write(file, "Snapshot for " + profile.getProfileId()); //$NON-NLS-1$
+		} catch (IOException e) {
+			// the snapshot is only an optimization so delete it rather than keep a stale one
+			file.delete();
+		}
+	}
+
+	private File getSnapshotFile() {
+		return Activator.getContext().getDataFile(SNAPSHOT_FILE_PREFIX + profile.getProfileId().hashCode());
+	}
+
 	/*
 	 * Read the values of the stored timestamps that we use for caching.
 	 */
@@ -533,6 +604,10 @@ public class ProfileSynchronizer {
 	 * as part of equality)
 	 */
 	public ReconcilerProfileChangeRequest createProfileChangeRequest(ProvisioningContext context) {
+		return createProfileChangeRequest(context, getAllIUsFromRepos());
+	}
+
+	private ReconcilerProfileChangeRequest createProfileChangeRequest(ProvisioningContext context, IQueryResult<IInstallableUnit> allIUs) {
 		ReconcilerProfileChangeRequest request = new ReconcilerProfileChangeRequest(profile);
 
 		boolean resolve = Boolean.valueOf(profile.getProperty("org.eclipse.equinox.p2.resolve")).booleanValue(); //$NON-NLS-1$
@@ -548,8 +623,6 @@ public class ProfileSynchronizer {
 		// we use IProfile.available(...) here so that we also gather any shared IUs
 		Map<IInstallableUnit, IInstallableUnit> availableProfileIUs = getAvailableProfileIUs();
 
-		// get all IUs from all our repos 
-		IQueryResult<IInstallableUnit> allIUs = getAllIUsFromRepos();
 		for (Iterator<IInstallableUnit> iter = allIUs.iterator(); iter.hasNext();) {
 			final IInstallableUnit iu = iter.next();
 			IInstallableUnit existing = profileIUs.get(iu);
@@ -85,14 +85,18 @@ public abstract class XMLParser extends DefaultHandler implements XMLConstants {
 		if (factory == null) {
 			throw new SAXException(Messages.XMLParser_No_SAX_Parser);
 		}
-		factory.setNamespaceAware(true);
-		factory.setValidating(false);
-		try {
-			factory.setFeature("http://xml.org/sax/features/string-interning", true); //$NON-NLS-1$
-		} catch (SAXException se) {
-			// some parsers may not support string interning
+		SAXParser theParser;
+		// the factory is shared, and parsers may be created by several threads at the same time
+		synchronized (factory) {
+			factory.setNamespaceAware(true);
+			factory.setValidating(false);
+			try {
+				factory.setFeature("http://xml.org/sax/features/string-interning", true); //$NON-NLS-1$
+			} catch (SAXException se) {
+				// some parsers may not support string interning
+			}
+			theParser = factory.newSAXParser();
 		}
-		SAXParser theParser = factory.newSAXParser();
 		if (theParser == null) {
 			throw new SAXException(Messages.XMLParser_No_SAX_Parser);
 		}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -53,14 +53,41 @@ public class XMLWriter implements XMLConstants {
 		}
 	}
 
+	// The replacement of the ASCII characters in escaped text: null for the characters written
+	// as they are, and the empty string for the characters which are not written at all
+	private static final String[] ESCAPES = new String[128];
+	static {
+		for (char c = 0; c < '\u0020'; c++)
+			ESCAPES[c] = Character.isWhitespace(c) ? " " : ""; //$NON-NLS-1$ //$NON-NLS-2$
+		ESCAPES['<'] = "&lt;"; //$NON-NLS-1$
+		ESCAPES['>'] = "&gt;"; //$NON-NLS-1$
+		ESCAPES['"'] = "&quot;"; //$NON-NLS-1$
+		ESCAPES['\''] = "&apos;"; //$NON-NLS-1$
+		ESCAPES['&'] = "&amp;"; //$NON-NLS-1$
+		ESCAPES['\t'] = "&#x9;"; //$NON-NLS-1$
+		ESCAPES['\n'] = "&#xA;"; //$NON-NLS-1$
+		ESCAPES['\r'] = "&#xD;"; //$NON-NLS-1$
+	}
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// the replacement the UTF-8 encoder of the platform writes for malformed surrogates
+	private static final byte MALFORMED = '?';
+
 	private Stack<String> elements; // XML elements that have not yet been closed
 	private boolean open; // Can attributes be added to the current element?
 	private String indent; // used for each level of indentation
 
-	private PrintWriter pw;
+	// the characters are encoded to UTF-8 directly into a buffer written in large blocks
+	private final OutputStream output;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int count = 0;
+	private final String lineSeparator;
+	// a high surrogate waiting for the low surrogate written next
+	private char highSurrogate = 0;
+	private boolean trouble = false;
 
 	public XMLWriter(OutputStream output, ProcessingInstruction[] piElements) throws UnsupportedEncodingException {
-		this.pw = new PrintWriter(new OutputStreamWriter(output, "UTF8"), false); //$NON-NLS-1$
+		this.output = output;
+		this.lineSeparator = System.getProperty("line.separator"); //$NON-NLS-1$
 		println(ProcessingInstruction.XML_UTF8);
 		this.elements = new Stack<String>();
 		this.open = false;
@@ -115,49 +142,18 @@ public class XMLWriter implements XMLConstants {
 	public static String escape(String txt) {
 		StringBuffer buffer = null;
 		for (int i = 0; i < txt.length(); ++i) {
-			String replace;
 			char c = txt.charAt(i);
-			switch (c) {
-				case '<' :
-					replace = "&lt;"; //$NON-NLS-1$
-					break;
-				case '>' :
-					replace = "&gt;"; //$NON-NLS-1$
-					break;
-				case '"' :
-					replace = "&quot;"; //$NON-NLS-1$
-					break;
-				case '\'' :
-					replace = "&apos;"; //$NON-NLS-1$
-					break;
-				case '&' :
-					replace = "&amp;"; //$NON-NLS-1$
-					break;
-				case '\t' :
-					replace = "&#x9;"; //$NON-NLS-1$
-					break;
-				case '\n' :
-					replace = "&#xA;"; //$NON-NLS-1$
-					break;
-				case '\r' :
-					replace = "&#xD;"; //$NON-NLS-1$
-					break;
-				default :
-					// this is the set of legal xml scharacters in unicode excluding high surrogates since they cannot be represented with a char
-					// see http://www.w3.org/TR/REC-xml/#charsets
-					if ((c >= '\u0020' && c <= '\uD7FF') || (c >= '\uE000' && c <= '\uFFFD')) {
-						if (buffer != null)
-							buffer.append(c);
-						continue;
-					}
-					replace = Character.isWhitespace(c) ? " " : null; //$NON-NLS-1$
+			String replace = escape(c);
+			if (replace == null) {
+				if (buffer != null)
+					buffer.append(c);
+				continue;
 			}
 			if (buffer == null) {
 				buffer = new StringBuffer(txt.length() + 16);
 				buffer.append(txt.substring(0, i));
 			}
-			if (replace != null)
-				buffer.append(replace);
+			buffer.append(replace);
 		}
 
 		if (buffer == null)
@@ -166,6 +162,20 @@ public class XMLWriter implements XMLConstants {
 		return buffer.toString();
 	}
 
+	/*
+	 * Return the replacement of the given character in escaped text, null if the character is
+	 * written as it is, or the empty string if it is not written at all.
+	 */
+	private static String escape(char c) {
+		if (c < ESCAPES.length)
+			return ESCAPES[c];
+		// this is the set of legal xml scharacters in unicode excluding high surrogates since they cannot be represented with a char
+		// see http://www.w3.org/TR/REC-xml/#charsets
+		if (c <= '\uD7FF' || (c >= '\uE000' && c <= '\uFFFD'))
+			return null;
+		return Character.isWhitespace(c) ? " " : ""; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	// write a boolean attribute if it doesn't have the default value
 	public void attribute(String name, boolean value, boolean defaultValue) {
 		if (value != defaultValue) {
@@ -197,7 +207,7 @@ public class XMLWriter implements XMLConstants {
 		print(' ');
 		print(name);
 		print("='"); //$NON-NLS-1$
-		print(escape(value.toString()));
+		printEscaped(value.toString());
 		print('\'');
 	}
 
@@ -216,7 +226,20 @@ public class XMLWriter implements XMLConstants {
 	}
 
 	public void flush() {
-		this.pw.flush();
+		flushBuffer();
+		try {
+			this.output.flush();
+		} catch (IOException e) {
+			this.trouble = true;
+		}
+	}
+
+	/**
+	 * Return whether writing to the output stream failed, like {@link PrintWriter#checkError()}.
+	 */
+	public boolean checkError() {
+		flush();
+		return this.trouble;
 	}
 
 	public void writeProperties(Map<String, String> properties) {
@@ -249,23 +272,46 @@ public class XMLWriter implements XMLConstants {
 	}
 
 	private void println(char c) {
-		this.pw.println(c);
+		print(c);
+		println();
 	}
 
 	private void println(String s) {
-		this.pw.println(s);
+		print(s);
+		println();
 	}
 
 	private void println() {
-		this.pw.println();
+		print(this.lineSeparator);
 	}
 
 	private void print(char c) {
-		this.pw.print(c);
+		if (c < 0x80 && this.highSurrogate == 0) {
+			if (this.count == this.buffer.length)
+				flushBuffer();
+			this.buffer[this.count++] = (byte) c;
+		} else {
+			encode(c);
+		}
 	}
 
 	private void print(String s) {
-		this.pw.print(s);
+		for (int i = 0, length = s.length(); i < length; i++)
+			print(s.charAt(i));
+	}
+
+	/*
+	 * Print the given text, escaped.
+	 */
+	private void printEscaped(String s) {
+		for (int i = 0, length = s.length(); i < length; i++) {
+			char c = s.charAt(i);
+			String replace = escape(c);
+			if (replace == null)
+				print(c);
+			else
+				print(replace);
+		}
 	}
 
 	private void printlnIndented(String s, boolean escape) {
@@ -273,7 +319,11 @@ public class XMLWriter implements XMLConstants {
 			println();
 		} else {
 			indent();
-			println(escape ? escape(s) : s);
+			if (escape)
+				printEscaped(s);
+			else
+				print(s);
+			println();
 		}
 	}
 
@@ -283,6 +333,54 @@ public class XMLWriter implements XMLConstants {
 		}
 	}
 
+	/*
+	 * Encode the given character to UTF-8, the way the UTF-8 encoder of the platform does.
+	 */
+	private void encode(char c) {
+		if (this.count + 4 > this.buffer.length)
+			flushBuffer();
+		byte[] b = this.buffer;
+		if (this.highSurrogate != 0) {
+			char high = this.highSurrogate;
+			this.highSurrogate = 0;
+			if (c >= '\uDC00' && c <= '\uDFFF') {
+				int codePoint = 0x10000 + ((high - '\uD800') << 10) + (c - '\uDC00');
+				b[this.count++] = (byte) (0xF0 | (codePoint >> 18));
+				b[this.count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				b[this.count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				b[this.count++] = (byte) (0x80 | (codePoint & 0x3F));
+				return;
+			}
+			b[this.count++] = MALFORMED;
+		}
+		if (c < 0x80) {
+			b[this.count++] = (byte) c;
+		} else if (c < 0x800) {
+			b[this.count++] = (byte) (0xC0 | (c >> 6));
+			b[this.count++] = (byte) (0x80 | (c & 0x3F));
+		} else if (c >= '\uD800' && c <= '\uDBFF') {
+			this.highSurrogate = c;
+		} else if (c >= '\uDC00' && c <= '\uDFFF') {
+			b[this.count++] = MALFORMED;
+		} else {
+			b[this.count++] = (byte) (0xE0 | (c >> 12));
+			b[this.count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			b[this.count++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	private void flushBuffer() {
+		if (this.count == 0)
+			return;
+		try {
+			this.output.write(this.buffer, 0, this.count);
+		} catch (IOException e) {
+			// like a PrintWriter, report the failure through checkError()
+			this.trouble = true;
+		}
+		this.count = 0;
+	}
+
 	public static class AttributeAfterNestedContentError extends Error {
 		private static final long serialVersionUID = 1L; // not serialized
 	}
@@ -13,7 +13,6 @@
 package org.eclipse.equinox.internal.p2.repository.helpers;
 
 import java.io.*;
-import java.lang.ref.SoftReference;
 import java.net.*;
 import java.util.*;
 import org.eclipse.core.runtime.*;
@@ -45,7 +44,6 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 		public URI location;
 		public String name;
 		public String nickname;
-		public SoftReference<IRepository<R>> repository;
 		public String suffix;
 
 		public RepositoryInfo() {
@@ -70,6 +68,13 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 
 	public static final String NODE_REPOSITORIES = "repositories"; //$NON-NLS-1$
 	private static final String INDEX_FILE = "p2.index"; //$NON-NLS-1$
+	private static final String PROP_CACHE_SIZE = "eclipse.p2.repository.cache.size"; //$NON-NLS-1$
+	private static final long DEFAULT_CACHE_SIZE = 64 * 1024 * 1024;
+	/**
+	 * The estimated size of a repository whose content is not known.
+	 */
+	protected static final long DEFAULT_REPOSITORY_SIZE = 1024 * 1024;
+	private static final long NOT_FOUND_TIMEOUT = 5 * 60 * 1000;
 
 	/**
 	 * Map of String->RepositoryInfo, where String is the repository key
@@ -81,10 +86,16 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 	protected final Object repositoryLock = new Object();
 
 	/**
-	 * Cache List of repositories that are not reachable. Maintain cache
-	 * for short duration because repository may become available at any time.
+	 * The loaded repositories, keyed by getKey(URI).
+	 */
+	private final RepositoryCache<T> cache;
+
+	/**
+	 * Cache of the locations of repositories that are not reachable, with the time at which
+	 * they were found to be unreachable. Maintain cache for short duration because repository
+	 * may become available at any time.
 	 */
-	protected SoftReference<List<URI>> unavailableRepositories;
+	private final Map<URI, Long> unavailableRepositories = new HashMap<URI, Long>();
 
 	/**
 	 * Set used to manage exclusive load locks on repository locations.
@@ -100,6 +111,27 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 		agentLocation = (IAgentLocation) agent.getService(IAgentLocation.SERVICE_NAME);
 		eventBus = (IProvisioningEventBus) agent.getService(IProvisioningEventBus.SERVICE_NAME);
 		eventBus.addListener(this);
+		cache = new RepositoryCache<T>(getCacheBudget());
+	}
+
+	/**
+	 * Return the memory budget, in bytes, of the loaded repositories. It can be specified
+	 * with the <code>eclipse.p2.repository.cache.size</code> property and defaults to a
+	 * quarter of the maximum heap size.
+	 */
+	private static long getCacheBudget() {
+		String value = null;
+		try {
+			value = Activator.getContext().getProperty(PROP_CACHE_SIZE);
+			if (value != null)
+				return Long.parseLong(value);
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, number format, etc)
+			if (value != null)
+				System.err.println("Ignoring user-specified '" + PROP_CACHE_SIZE + "' value of: " + value); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		long maxMemory = Runtime.getRuntime().maxMemory();
+		return maxMemory == Long.MAX_VALUE ? DEFAULT_CACHE_SIZE : maxMemory / 4;
 	}
 
 	/**
@@ -110,17 +142,20 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 	 */
 	protected void addRepository(IRepository<T> repository, boolean signalAdd, String suffix) {
 		boolean added = false;
+		String key = getKey(repository.getLocation());
+		// only estimate the size of repositories which are new to the cache
+		long size = cache.peek(key) == repository ? -1 : estimateSize(repository);
 		synchronized (repositoryLock) {
 			if (repositories == null)
 				restoreRepositories();
-			String key = getKey(repository.getLocation());
 			RepositoryInfo<T> info = repositories.get(key);
 			if (info == null) {
 				info = new RepositoryInfo<T>();
 				added = true;
 				repositories.put(key, info);
 			}
-			info.repository = new SoftReference<IRepository<T>>(repository);
+			if (size >= 0)
+				cache.put(key, repository, size);
 			info.name = repository.getName();
 			info.description = repository.getDescription();
 			info.location = repository.getLocation();
@@ -177,10 +212,11 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 		synchronized (repositoryLock) {
 			if (repositories == null)
 				restoreRepositories();
-			RepositoryInfo<T> info = repositories.get(getKey(location));
-			if (info == null || info.repository == null)
+			String key = getKey(location);
+			RepositoryInfo<T> info = repositories.get(key);
+			if (info == null)
 				return null;
-			IRepository<T> repo = info.repository.get();
+			IRepository<T> repo = cache.get(key);
 			//update our repository info because the repository may have changed
 			if (repo != null)
 				addRepository(repo, false, info.suffix);
@@ -222,25 +258,23 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 	 * found, and <code>false</code> otherwise.
 	 */
 	private boolean checkNotFound(URI location) {
-		if (unavailableRepositories == null)
-			return false;
-		List<URI> badRepos = unavailableRepositories.get();
-		if (badRepos == null)
+		synchronized (unavailableRepositories) {
+			Long time = unavailableRepositories.get(location);
+			if (time == null)
+				return false;
+			if (System.currentTimeMillis() - time.longValue() < NOT_FOUND_TIMEOUT)
+				return true;
+			unavailableRepositories.remove(location);
 			return false;
-		return badRepos.contains(location);
+		}
 	}
 
 	/**
 	 * Clear the fact that we tried to load a repository at this location and did not find anything.
 	 */
 	private void clearNotFound(URI location) {
-		List<URI> badRepos;
-		if (unavailableRepositories != null) {
-			badRepos = unavailableRepositories.get();
-			if (badRepos != null) {
-				badRepos.remove(location);
-				return;
-			}
+		synchronized (unavailableRepositories) {
+			unavailableRepositories.remove(location);
 		}
 	}
 
@@ -884,17 +918,9 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 	 * Cache the fact that we tried to load a repository at this location and did not find anything.
 	 */
 	private void rememberNotFound(URI location) {
-		List<URI> badRepos;
-		if (unavailableRepositories != null) {
-			badRepos = unavailableRepositories.get();
-			if (badRepos != null) {
-				badRepos.add(location);
-				return;
-			}
+		synchronized (unavailableRepositories) {
+			unavailableRepositories.put(location, new Long(System.currentTimeMillis()));
 		}
-		badRepos = new ArrayList<URI>();
-		badRepos.add(location);
-		unavailableRepositories = new SoftReference<List<URI>>(badRepos);
 	}
 
 	public boolean removeRepository(URI toRemove) {
@@ -909,6 +935,7 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 				restoreRepositories();
 			if (repositories.remove(repoKey) == null)
 				return false;
+			cache.remove(repoKey);
 		}
 		// remove the repository from the preference store
 		try {
@@ -1062,7 +1089,10 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 			saveToPreferences();
 		}
 		repositories = null;
-		unavailableRepositories = null;
+		cache.clear();
+		synchronized (unavailableRepositories) {
+			unavailableRepositories.clear();
+		}
 	}
 
 	/**
@@ -1174,12 +1204,35 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 	}
 
 	public void flushCache() {
-		synchronized (repositories) {
-			Collection<RepositoryInfo<T>> repos = repositories.values();
-			for (Iterator<RepositoryInfo<T>> iterator = repos.iterator(); iterator.hasNext();) {
-				RepositoryInfo<T> repositoryInfo = iterator.next();
-				repositoryInfo.repository = null;
-			}
-		}
+		cache.clear();
+	}
+
+	/**
+	 * Return the cache of the loaded repositories, mainly to monitor its hit, miss and
+	 * eviction counts.
+	 */
+	public RepositoryCache<T> getRepositoryCache() {
+		return cache;
+	}
+
+	/**
+	 * Keep the repository at the given location in memory, regardless of the memory budget,
+	 * until {@link #unpinRepository(URI)} is called. This is meant for repositories which are
+	 * used all the time, for example by a long running provisioning server.
+	 */
+	public void pinRepository(URI location) {
+		cache.pin(getKey(checkValidLocation(location)));
+	}
+
+	public void unpinRepository(URI location) {
+		cache.unpin(getKey(checkValidLocation(location)));
+	}
+
+	/**
+	 * Return an estimate of the memory used by the given repository, in bytes. The estimate is
+	 * computed once, when the repository is loaded.
+	 */
+	protected long estimateSize(IRepository<T> repository) {
+		return DEFAULT_REPOSITORY_SIZE;
 	}
 }
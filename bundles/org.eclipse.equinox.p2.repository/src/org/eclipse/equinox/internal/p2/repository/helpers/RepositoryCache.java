@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.repository.helpers;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
+import org.eclipse.equinox.p2.repository.IRepository;
+
+/**
+ * The loaded repositories of a repository manager. Repositories are kept in memory
+ * as long as the sum of their estimated sizes fits in a byte budget. When the budget
+ * is exceeded, the least recently used repositories which are not pinned are evicted.
+ * <p>
+ * An evicted repository is still returned by {@link #get(String)} as long as it is
+ * referenced from somewhere else, for example by a provisioning context which is
+ * being used, so that it does not have to be loaded a second time.
+ */
+public class RepositoryCache<R> {
+	private static class Entry<R> {
+		IRepository<R> repository;
+		final WeakReference<IRepository<R>> reference;
+		final long size;
+
+		Entry(IRepository<R> repository, long size) {
+			this.repository = repository;
+			this.reference = new WeakReference<IRepository<R>>(repository);
+			this.size = size;
+		}
+	}
+
+	// the least recently used entry comes first
+	private final LinkedHashMap<String, Entry<R>> entries = new LinkedHashMap<String, Entry<R>>();
+	private final Map<String, Integer> pins = new HashMap<String, Integer>();
+	private long budget;
+	private long size = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public RepositoryCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Return the repository with the given key, or <code>null</code> if it is not in
+	 * memory anymore.
+	 */
+	public synchronized IRepository<R> get(String key) {
+		Entry<R> entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		if (entry.repository == null) {
+			IRepository<R> repository = entry.reference.get();
+			if (repository == null) {
+				entries.remove(key);
+				misses++;
+				return null;
+			}
+			// the repository was evicted but is still in use, take it back
+			entry.repository = repository;
+			size += entry.size;
+		}
+		IRepository<R> result = entry.repository;
+		// move the entry to the end of the eviction order
+		entries.remove(key);
+		entries.put(key, entry);
+		evict();
+		hits++;
+		return result;
+	}
+
+	/**
+	 * Return the repository with the given key without affecting the eviction order
+	 * or the statistics.
+	 */
+	public synchronized IRepository<R> peek(String key) {
+		Entry<R> entry = entries.get(key);
+		return entry == null ? null : entry.reference.get();
+	}
+
+	/**
+	 * Add the given repository, whose estimated size is <code>estimatedSize</code> bytes,
+	 * replacing any other repository with the same key.
+	 */
+	public synchronized void put(String key, IRepository<R> repository, long estimatedSize) {
+		Entry<R> old = entries.remove(key);
+		entries.put(key, new Entry<R>(repository, estimatedSize));
+		if (old != null && old.repository != null)
+			size -= old.size;
+		size += estimatedSize;
+		evict();
+	}
+
+	public synchronized void remove(String key) {
+		Entry<R> old = entries.remove(key);
+		if (old != null && old.repository != null)
+			size -= old.size;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Prevent the repository with the given key from being evicted until
+	 * {@link #unpin(String)} is called the same number of times.
+	 */
+	public synchronized void pin(String key) {
+		Integer count = pins.get(key);
+		pins.put(key, new Integer(count == null ? 1 : count.intValue() + 1));
+	}
+
+	public synchronized void unpin(String key) {
+		Integer count = pins.get(key);
+		if (count == null)
+			return;
+		if (count.intValue() <= 1)
+			pins.remove(key);
+		else
+			pins.put(key, new Integer(count.intValue() - 1));
+		evict();
+	}
+
+	public synchronized boolean isPinned(String key) {
+		return pins.containsKey(key);
+	}
+
+	/**
+	 * Evict the least recently used repositories until the budget is respected.
+	 * Entries whose repository has been garbage collected are dropped on the way.
+	 */
+	private void evict() {
+		for (Iterator<Map.Entry<String, Entry<R>>> iter = entries.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<String, Entry<R>> mapEntry = iter.next();
+			Entry<R> entry = mapEntry.getValue();
+			if (entry.repository == null) {
+				if (entry.reference.get() == null)
+					iter.remove();
+				continue;
+			}
+			if (size <= budget)
+				continue;
+			if (pins.containsKey(mapEntry.getKey()))
+				continue;
+			if (Tracing.DEBUG)
+				Tracing.debug("Evicting repository from cache: " + mapEntry.getKey() + " (" + entry.size + " bytes)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			entry.repository = null;
+			size -= entry.size;
+			evictions++;
+		}
+	}
+
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	/**
+	 * Return the sum of the estimated sizes of the repositories kept in memory.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized String toString() {
+		return "size: " + size + ", budget: " + budget + ", hits: " + hits + ", misses: " + misses + ", evictions: " + evictions; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+}
@@ -15,6 +15,7 @@ import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.artifact.repository.Activator;
 import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactDescriptor;
 import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepository;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepositoryFactory;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
@@ -495,4 +496,42 @@ public class ArtifactLockingTest extends AbstractProvisioningTest {
 		assertEquals("Foo Bar", repo2.getDescription());
 	}
 
+	public void testJournaledChanges() throws Exception {
+		ArtifactKey k1 = new ArtifactKey("org.eclipse.test", "test1", Version.create("1.0.0"));
+		ArtifactKey k2 = new ArtifactKey("org.eclipse.test", "test2", Version.create("1.0.0"));
+		File artifactsFile = new File(targetLocation, "artifacts.xml");
+		File journalFile = new File(targetLocation, "artifacts.journal");
+
+		repo1.setProperty(SimpleArtifactRepository.PROP_JOURNAL, "true");
+		assertTrue(journalFile.exists());
+		long journalLength = journalFile.length();
+		repo1.addDescriptor(new SimpleArtifactDescriptor(k1), new NullProgressMonitor());
+		repo1.addDescriptor(new SimpleArtifactDescriptor(k2), new NullProgressMonitor());
+		touch(artifactsFile);
+		// the journal is compacted into the artifacts file when the lock is released
+		assertEquals("The journal was not compacted", journalLength, journalFile.length());
+
+		assertTrue(repo2.contains(k1));
+		repo2.removeDescriptor(k1, new NullProgressMonitor());
+		touch(artifactsFile);
+		assertEquals("The journal was not compacted", journalLength, journalFile.length());
+		assertFalse(repo1.contains(k1));
+		assertTrue(repo1.contains(k2));
+
+		// a client which does not read the journal finds all the changes in the artifacts file
+		assertTrue(journalFile.delete());
+		SimpleArtifactRepositoryFactory factory = new SimpleArtifactRepositoryFactory();
+		factory.setAgent(getAgent());
+		SimpleArtifactRepository loaded = (SimpleArtifactRepository) factory.load(targetLocation.toURI(), 0, new NullProgressMonitor());
+		assertEquals(1, loaded.getDescriptors().size());
+		assertTrue(loaded.contains(k2));
+	}
+
+	/*
+	 * Move the modification time of the given file ahead, so that the other instance of the
+	 * repository notices the change even when the file system only has a coarse resolution.
+	 */
+	private static void touch(File file) {
+		assertTrue(file.setLastModified(file.lastModified() + 2000));
+	}
 }
@@ -1,5 +1,5 @@
 /******************************************************************************* 
-* Copyright (c) 2009, 2010 EclipseSource and others. All rights reserved. This
+* Copyright (c) 2009, 2011 EclipseSource and others. All rights reserved. This
 * program and the accompanying materials are made available under the terms of
 * the Eclipse Public License v1.0 which accompanies this distribution, and is
 * available at http://www.eclipse.org/legal/epl-v10.html
@@ -65,6 +65,35 @@ public class BatchExecuteArtifactRepositoryTest extends AbstractProvisioningTest
 		}
 	}
 
+	/*
+	 * This tests that the descriptors added by a batch are visible to the thread executing it
+	 */
+	public void testAddVisibleDuringBatch() {
+		try {
+			repositoryFile = getTempFolder();
+			repositoryURI = repositoryFile.toURI();
+			Map properties = new HashMap();
+			final SimpleArtifactRepository repo = (SimpleArtifactRepository) getArtifactRepositoryManager().createRepository(repositoryURI, "My Repo", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+			final IArtifactDescriptor foo = createDescriptor("foo", "foo", Version.emptyVersion);
+			final IArtifactDescriptor bar = createDescriptor("bar", "bar", Version.emptyVersion);
+			IStatus status = repo.executeBatch(new IRunnableWithProgress() {
+				public void run(IProgressMonitor monitor) {
+					repo.addDescriptor(foo);
+					assertTrue("1.0", repo.contains(foo));
+					repo.addDescriptor(bar);
+					assertTrue("1.1", repo.contains(foo.getArtifactKey()));
+					assertEquals("1.2", 1, repo.getArtifactDescriptors(bar.getArtifactKey()).length);
+					assertEquals("1.3", 1, repo.query(new ArtifactKeyQuery("bar", "bar", null), new NullProgressMonitor()).toSet().size());
+				}
+			}, new NullProgressMonitor());
+			assertTrue(status.isOK());
+			assertTrue("2.0", repo.contains(foo));
+			assertTrue("2.1", repo.contains(bar));
+		} catch (Exception e) {
+			fail("Test failed", e);
+		}
+	}
+
 	/*
 	 * This tests 3 adds
 	 */
@@ -19,7 +19,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
 import org.eclipse.core.runtime.*;
-import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepository;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.*;
 import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepositoryFactory;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.provisional.p2.artifact.repository.processing.ProcessingStep;
@@ -33,6 +33,7 @@ import org.eclipse.equinox.p2.repository.artifact.*;
 import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
 import org.eclipse.equinox.p2.repository.artifact.spi.ProcessingStepDescriptor;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestActivator;
 import org.eclipse.equinox.spi.p2.publisher.PublisherHelper;
 
 public class SimpleArtifactRepositoryTest extends AbstractProvisioningTest {
@@ -257,6 +258,44 @@ public class SimpleArtifactRepositoryTest extends AbstractProvisioningTest {
 		}
 	}
 
+	public void testMappingRules() throws Exception {
+		String[][] rules = { {"(& (classifier=osgi.bundle) (format=packed))", "${repoUrl}/plugins/${id}_${version}.jar.pack.gz"}, //
+				{"(|(classifier=binary)(classifier=other))", "${repoUrl}/${classifier}/${id}_${version}"}, //
+				{"(& (classifier=osgi.bundle))", "${repoUrl}/plugins/${id}_${version}${unknown}.jar"}, //
+				{"(classifier=unterminated)", "${repoUrl}/${id"}};
+		Mapper mapper = new Mapper();
+		mapper.initialize(TestActivator.getContext(), rules);
+		URI base = new URI("http://localhost/repo/");
+
+		assertEquals("1.0", new URI("http://localhost/repo/plugins/a_1.0.0.jar.pack.gz"), mapper.map(base, "osgi.bundle", "a", "1.0.0", "packed"));
+		assertEquals("1.1", new URI("http://localhost/repo/plugins/a_1.0.0.jar"), mapper.map(base, "osgi.bundle", "a", "1.0.0", null));
+		assertEquals("1.2", new URI("http://localhost/repo/binary/b_2.0.0"), mapper.map(base, "binary", "b", "2.0.0", null));
+		assertEquals("1.3", new URI("http://localhost/repo/other/c_3.0.0"), mapper.map(base, "other", "c", "3.0.0", "packed"));
+		assertEquals("1.4", URIUtil.fromString("${repoUrl}/${id"), mapper.map(base, "unterminated", "d", "1.0.0", null));
+		assertNull("1.5", mapper.map(base, "org.eclipse.update.feature", "e", "1.0.0", null));
+		assertEquals("1.6", rules.length, mapper.serialize().length);
+	}
+
+	public void testMappedLocationFollowsFormat() throws Exception {
+		repositoryFile = getTempFolder();
+		repositoryURI = repositoryFile.toURI();
+		Map properties = new HashMap();
+		properties.put("publishPackFilesAsSiblings", Boolean.TRUE.toString());
+		SimpleArtifactRepository repo = (SimpleArtifactRepository) getArtifactRepositoryManager().createRepository(repositoryURI, "My Repo", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+
+		SimpleArtifactDescriptor descriptor = new SimpleArtifactDescriptor(new ArtifactKey("osgi.bundle", "test", Version.parseVersion("1.0.0")));
+		URI location = repo.getLocation(descriptor);
+		assertTrue("1.0", location.toString().endsWith("plugins/test_1.0.0.jar"));
+		assertSame("1.1", location, repo.getLocation(descriptor));
+
+		descriptor.setProperty(IArtifactDescriptor.FORMAT, IArtifactDescriptor.FORMAT_PACKED);
+		assertTrue("2.0", repo.getLocation(descriptor).toString().endsWith("plugins/test_1.0.0.jar.pack.gz"));
+
+		repo.setProperty("publishPackFilesAsSiblings", Boolean.FALSE.toString());
+		descriptor.setProperty(IArtifactDescriptor.FORMAT, null);
+		assertEquals("3.0", location, repo.getLocation(descriptor));
+	}
+
 	public void testRelativeRepositoryLocation() throws ProvisionException {
 		IArtifactDescriptor descriptor = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "helloworld", Version.createOSGi(1, 0, 0)));
 		URI repo = getTestData("CorruptedJar repo", "testData/artifactRepo/jarfiles").toURI();
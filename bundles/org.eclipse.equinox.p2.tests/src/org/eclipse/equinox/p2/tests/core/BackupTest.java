@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009 Cloudsmith Inc. and others.
+ * Copyright (c) 2009, 2011 Cloudsmith Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -286,10 +286,94 @@ public class BackupTest extends AbstractProvisioningTest {
 		assertNoGarbage(store);
 	}
 
+	/**
+	 * Test that a file of the install root which can not be renamed into the backup root is
+	 * renamed into the local backup folder of the install root rather than copied.
+	 */
+	public void testBackupInLocalRoot() {
+		// a backup root which is a file can not receive any backup
+		File buRoot = new File(sourceDir, "notADirectory");
+		try {
+			writeToFile(buRoot, "not a directory");
+		} catch (IOException e) {
+			fail("Could not write a file for testing purposes.");
+		}
+		BackupStore store = new BackupStore(buRoot, BUPREFIX, sourceDir);
+		try {
+			store.backup(aTxt);
+			store.backup(bTxt);
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail("IO Exception when backing up");
+		}
+		assertFalse("File not moved to backup - still exists", aTxt.exists());
+		File localRoot = new File(sourceDir, BackupStore.LOCAL_BACKUP_FOLDER).getAbsoluteFile();
+		assertEquals("Local backup folder of the install root not used", localRoot, store.getLocalBackupRoot());
+		assertTrue("No backup in the local backup folder", new File(localRoot, store.getBackupName()).isDirectory());
+		assertEquals(2, store.getFilesRenamed());
+		assertEquals(0, store.getFilesCopied());
+		assertEquals(0, store.getBytesCopied());
+		try {
+			store.restore();
+		} catch (IOException e) {
+			fail("Restore failed");
+		}
+		assertFileContent("A not restored", aTxt, "A");
+		assertFileContent("B not restored", bTxt, "B");
+		assertNoGarbage(store);
+		assertFalse("Local backup folder not removed", localRoot.exists());
+	}
+
+	/**
+	 * Test that the local backups left by a store with the given prefix are swept, and that
+	 * those of other stores are kept.
+	 */
+	public void testSweepLocalBackups() {
+		File localRoot = new File(sourceDir, BackupStore.LOCAL_BACKUP_FOLDER);
+		File stale = new File(localRoot, BUPREFIX + "_stale");
+		File other = new File(localRoot, "Other_1");
+		try {
+			writeToFile(new File(new File(stale, "A"), "a.txt"), "A");
+			writeToFile(new File(other, "b.txt"), "B");
+		} catch (IOException e) {
+			fail("Could not write a file for testing purposes.");
+		}
+		BackupStore.sweepLocalBackups(sourceDir, BUPREFIX);
+		assertFalse("Stale backup not removed", stale.exists());
+		assertTrue("Backup of another store removed", other.exists());
+		fullyDelete(other);
+		BackupStore.sweepLocalBackups(sourceDir, "Other");
+		assertFalse("Empty local backup folder not removed", localRoot.exists());
+	}
+
+	/**
+	 * Test that the bytes renamed and copied by the backups are counted.
+	 */
+	public void testBackupStatistics() {
+		BackupStore store = new BackupStore(null, BUPREFIX);
+		long aLength = aTxt.length();
+		long bLength = bTxt.length();
+		try {
+			store.backup(aTxt);
+			store.backupCopy(bTxt);
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail("IO Exception when backing up");
+		}
+		assertEquals(2, store.getFilesRenamed() + store.getFilesCopied());
+		assertEquals(aLength + bLength, store.getBytesRenamed() + store.getBytesCopied());
+		assertTrue("Copied backup not counted", store.getBytesCopied() >= bLength);
+		store.discard();
+		assertNoGarbage(store);
+	}
+
 	private void assertNoGarbage(BackupStore store) {
-		File buDir = new File(store.getBackupRoot(), BUPREFIX);
+		File buDir = new File(store.getBackupRoot(), store.getBackupName());
 		if (buDir.exists())
 			fail("Backup directory not cleaned up");
+		File localRoot = store.getLocalBackupRoot();
+		if (localRoot != null && new File(localRoot, store.getBackupName()).exists())
+			fail("Local backup directory not cleaned up");
 
 		//		Set roots = store.getBackupRoots();
 		//		if (roots.size() == 0)
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008,2009 IBM Corporation and others.
+ * Copyright (c) 2008, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials 
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,15 +11,15 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.core;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.zip.*;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
 import org.eclipse.equinox.internal.p2.core.helpers.FileUtils.IPathComputer;
+import org.eclipse.equinox.internal.p2.core.helpers.ZipExtractor;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
 
 /**
@@ -83,6 +83,54 @@ public class FileUtilsTest extends AbstractProvisioningTest {
 
 	}
 
+	/*
+	 * Test that extracting a zip file with several threads gives the same files as
+	 * extracting its entries one after the other from a stream.
+	 */
+	public void testUnzipInParallel() throws IOException {
+		File temp = getTempFolder();
+		File archive = new File(temp, getUniqueString() + ".zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+		try {
+			out.putNextEntry(new ZipEntry("dir/"));
+			out.closeEntry();
+			for (int i = 0; i < 50; i++) {
+				out.putNextEntry(new ZipEntry("dir/sub" + (i % 5) + "/file" + i + ".txt"));
+				for (int j = 0; j < i * 100; j++)
+					out.write(("line " + j + " of file " + i + "\n").getBytes());
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+
+		File serialDir = new File(temp, "serial");
+		InputStream in = new FileInputStream(archive);
+		File[] serial;
+		try {
+			serial = FileUtils.unzipStream(in, archive.length(), serialDir, null, null);
+		} finally {
+			in.close();
+		}
+		File parallelDir = new File(temp, "parallel");
+		File[] parallel = new ZipExtractor(archive, parallelDir).extract(null, null, 4);
+
+		assertEquals("1.0", serial.length, parallel.length);
+		for (int i = 0; i < serial.length; i++) {
+			String relative = serial[i].getPath().substring(serialDir.getPath().length());
+			assertEquals("1.1." + i, relative, parallel[i].getPath().substring(parallelDir.getPath().length()));
+			assertEquals("1.2." + i, serial[i].isDirectory(), parallel[i].isDirectory());
+			if (!serial[i].isDirectory())
+				assertTrue("1.3." + i, Arrays.equals(readAll(serial[i]), readAll(parallel[i])));
+		}
+	}
+
+	private static byte[] readAll(File file) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		FileUtils.copyStream(new FileInputStream(file), true, bytes, true);
+		return bytes.toByteArray();
+	}
+
 	public void testZipRootPathComputer() {
 		File temp = getTempFolder();
 
@@ -22,6 +22,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(DirectoryWatcherTest.class);
 		suite.addTestSuite(RepositoryListenerTest.class);
 		suite.addTestSuite(ProfileSynchronizerTest.class);
+		suite.addTestSuite(DropinsSnapshotTest.class);
 		return suite;
 	}
 
@@ -103,4 +103,113 @@ public class DirectoryWatcherTest extends AbstractProvisioningTest {
 		watcher.poll();
 		assertEquals(2, list.size());
 	}
+
+	/*
+	 * Listener which remembers the files it has been told about.
+	 */
+	static class RecordingListener extends DirectoryChangeListener {
+		final Map<File, Long> seen = new HashMap<File, Long>();
+		final List<File> added = new ArrayList<File>();
+		final List<File> changed = new ArrayList<File>();
+
+		public boolean added(File file) {
+			added.add(file);
+			seen.put(file, new Long(file.lastModified()));
+			return true;
+		}
+
+		public boolean changed(File file) {
+			changed.add(file);
+			seen.put(file, new Long(file.lastModified()));
+			return true;
+		}
+
+		public boolean removed(File file) {
+			seen.remove(file);
+			return true;
+		}
+
+		public boolean isInterested(File file) {
+			return true;
+		}
+
+		public Long getSeenFile(File file) {
+			return seen.get(file);
+		}
+	}
+
+	public void testCachedDirectoryListing() throws Exception {
+		File folder = getTempFolder();
+		writeBuffer(new File(folder, "a.jar"), new StringBuffer("a"));
+		assertTrue("0.1", folder.setLastModified(System.currentTimeMillis() - 10000));
+
+		DirectoryWatcher watcher = new DirectoryWatcher(folder);
+		RecordingListener listener = new RecordingListener();
+		watcher.addListener(listener);
+		watcher.poll();
+		watcher.poll();
+		assertEquals("1.0", 1, listener.added.size());
+		assertEquals("1.1", 2, watcher.getPollCount());
+		assertEquals("1.2", 1, watcher.getDirectoryListCount());
+		assertEquals("1.3", 1, watcher.getCachedListingCount());
+
+		// adding a file changes the directory timestamp so the listing is read again
+		writeBuffer(new File(folder, "b.jar"), new StringBuffer("b"));
+		assertTrue("2.0", folder.setLastModified(System.currentTimeMillis() - 5000));
+		watcher.poll();
+		assertEquals("2.1", 2, listener.added.size());
+		assertEquals("2.2", 2, watcher.getDirectoryListCount());
+	}
+
+	public void testCoalescedChanges() throws Exception {
+		File folder = getTempFolder();
+		File file = new File(folder, "a.jar");
+		writeBuffer(file, new StringBuffer("a"));
+
+		DirectoryWatcher watcher = new DirectoryWatcher(folder);
+		RecordingListener listener = new RecordingListener();
+		watcher.addListener(listener);
+		// use a long frequency so only the initial background poll happens
+		watcher.start(Long.MAX_VALUE);
+		try {
+			watcher.poll();
+			watcher.poll();
+			synchronized (watcher) {
+				assertEquals("1.0", Collections.singletonList(file), listener.added);
+				assertEquals("1.1", 1, watcher.getDeferredEventCount());
+				assertEquals("1.2", 1, watcher.getEventCount());
+			}
+		} finally {
+			watcher.stop();
+		}
+	}
+
+	public void testUnchangedFilesNotDeferred() throws Exception {
+		File folder = getTempFolder();
+		File file = new File(folder, "a.jar");
+		writeBuffer(file, new StringBuffer("a"));
+		assertTrue("0.1", file.setLastModified(System.currentTimeMillis() - 20000));
+
+		DirectoryWatcher watcher = new DirectoryWatcher(folder);
+		RecordingListener listener = new RecordingListener();
+		watcher.addListener(listener);
+		// use a long frequency so only the initial background poll happens
+		watcher.start(Long.MAX_VALUE);
+		try {
+			watcher.poll();
+			synchronized (watcher) {
+				assertEquals("1.0", Collections.singletonList(file), listener.added);
+				assertEquals("1.1", 0, watcher.getDeferredEventCount());
+			}
+			// a file which has not been written since the previous poll is reported right away
+			assertTrue("2.0", file.setLastModified(System.currentTimeMillis() - 10000));
+			watcher.poll();
+			synchronized (watcher) {
+				assertEquals("2.1", Collections.singletonList(file), listener.changed);
+				assertEquals("2.2", 0, watcher.getDeferredEventCount());
+			}
+		} finally {
+			watcher.stop();
+		}
+	}
 }
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.directorywatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.reconciler.dropins.DropinsSnapshot;
+import org.eclipse.equinox.internal.provisional.p2.directorywatcher.RepositoryListener;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+public class DropinsSnapshotTest extends AbstractProvisioningTest {
+	private static final Collection<String> REPOSITORIES = Arrays.asList(new String[] {"file:/dropins/", "file:/eclipse/"});
+
+	private IInstallableUnit createDropinIU(String id, String fileName, long lastModified) {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put(RepositoryListener.FILE_NAME, fileName);
+		properties.put(RepositoryListener.FILE_LAST_MODIFIED, Long.toString(lastModified));
+		return createIU(id, Version.create("1.0.0"), NO_REQUIRES, properties, false);
+	}
+
+	private DropinsSnapshot createSnapshot(long timestamp, Collection<String> repositories, IInstallableUnit[] ius) {
+		return DropinsSnapshot.create(timestamp, repositories, Arrays.asList(ius).iterator());
+	}
+
+	public void testNoChange() {
+		IInstallableUnit[] ius = new IInstallableUnit[] {createDropinIU("a", "/dropins/a.jar", 1), createDropinIU("b", "/dropins/b.jar", 1)};
+		DropinsSnapshot previous = createSnapshot(10, REPOSITORIES, ius);
+		DropinsSnapshot current = createSnapshot(10, REPOSITORIES, ius);
+		assertTrue("1.0", current.isSameProfile(previous));
+		assertTrue("1.1", current.computeDelta(previous).isEmpty());
+	}
+
+	public void testDelta() {
+		DropinsSnapshot previous = createSnapshot(10, REPOSITORIES, new IInstallableUnit[] {createDropinIU("a", "/dropins/a.jar", 1), createDropinIU("b", "/dropins/b.jar", 1), createDropinIU("c", "/dropins/c.jar", 1)});
+		DropinsSnapshot current = createSnapshot(10, REPOSITORIES, new IInstallableUnit[] {createDropinIU("a", "/dropins/a.jar", 1), createDropinIU("b", "/dropins/b.jar", 2), createDropinIU("d", "/dropins/d.jar", 1)});
+		DropinsSnapshot.Delta delta = current.computeDelta(previous);
+		assertFalse("1.0", delta.isEmpty());
+		assertEquals("1.1", Collections.singleton("d_1.0.0"), delta.getAdded());
+		assertEquals("1.2", Collections.singleton("c_1.0.0"), delta.getRemoved());
+		assertEquals("1.3", Collections.singleton("b_1.0.0"), delta.getChanged());
+	}
+
+	public void testRepositoriesAndProfileChanged() {
+		IInstallableUnit[] ius = new IInstallableUnit[] {createDropinIU("a", "/dropins/a.jar", 1)};
+		DropinsSnapshot previous = createSnapshot(10, REPOSITORIES, ius);
+		assertFalse("1.0", createSnapshot(10, Collections.singleton("file:/dropins/"), ius).computeDelta(previous).isEmpty());
+		assertFalse("1.1", createSnapshot(11, REPOSITORIES, ius).isSameProfile(previous));
+		assertFalse("1.2", createSnapshot(10, REPOSITORIES, ius).computeDelta(null).isEmpty());
+	}
+
+	public void testPersistence() throws IOException {
+		IInstallableUnit[] ius = new IInstallableUnit[] {createDropinIU("a", "/dropins/a.jar", 1), createDropinIU("b", "/dropins/b|pipe.jar", 5)};
+		DropinsSnapshot snapshot = createSnapshot(10, REPOSITORIES, ius);
+		File file = new File(getTempFolder(), "snapshot");
+		snapshot.write(file, "test");
+		DropinsSnapshot read = DropinsSnapshot.read(file);
+		assertNotNull("1.0", read);
+		assertTrue("1.1", snapshot.isSameProfile(read));
+		assertTrue("1.2", snapshot.computeDelta(read).isEmpty());
+		assertNull("1.3", DropinsSnapshot.read(new File(getTempFolder(), "missing")));
+	}
+}
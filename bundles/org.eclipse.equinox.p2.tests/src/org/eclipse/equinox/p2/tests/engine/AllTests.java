@@ -32,6 +32,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(ProfilePreferencesTest.class);
 		suite.addTestSuite(ProfileRegistryTest.class);
 		suite.addTestSuite(ProvisioningContextTest.class);
+		suite.addTestSuite(RepositoryLoaderTest.class);
 		suite.addTestSuite(SurrogateProfileHandlerTest.class);
 		suite.addTestSuite(ActionManagerTest.class);
 		suite.addTestSuite(TouchpointManagerTest.class);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -309,6 +309,42 @@ public class EngineTest extends AbstractProvisioningTest {
 		assertNull("test", profile.getInstallableUnitProperty(testIU, "test"));
 	}
 
+	public void testPerformRecordsMetrics() {
+		IProfile profile = createProfile("testPerformRecordsMetrics");
+		IProvisioningPlan plan = engine.createPlan(profile, null);
+		plan.addInstallableUnit(createResolvedIU(createIU("test")));
+		IStatus result = engine.perform(plan, new NullProgressMonitor());
+		assertTrue(result.isOK());
+
+		EngineMetrics metrics = (EngineMetrics) getAgent().getService(EngineMetrics.SERVICE_NAME);
+		assertNotNull(metrics);
+		EngineMetrics.Operation operation = metrics.getLastOperation();
+		assertNotNull(operation);
+		assertEquals(profile.getProfileId(), operation.getProfileId());
+		assertEquals(IStatus.OK, operation.getSeverity());
+		assertTrue(operation.getWallTime() >= 0);
+
+		EngineMetrics.Entry install = null;
+		for (EngineMetrics.Entry entry : operation.getPhases()) {
+			if (entry.getName().equals(PhaseSetFactory.PHASE_INSTALL))
+				install = entry;
+		}
+		assertNotNull(install);
+		assertEquals(1, install.getCount());
+		assertTrue(install.getWallTime() >= 0);
+
+		List<String> steps = new ArrayList<String>();
+		for (EngineMetrics.Entry entry : operation.getSteps())
+			steps.add(entry.getName());
+		assertTrue(steps.toString(), steps.contains("writeProfile"));
+		assertTrue(steps.toString(), steps.contains("commit"));
+
+		String json = metrics.toJSON();
+		assertTrue(json, json.startsWith("["));
+		assertTrue(json, json.indexOf("\"profile\":\"" + profile.getProfileId() + "\"") != -1);
+		assertTrue(json, json.indexOf("{\"name\":\"install\",\"count\":1,") != -1);
+	}
+
 	// This tests currently does not download anything. We need another sizing test to ensure sizes are retrieved
 	public void testPerformSizingOSGiFrameworkNoArtifacts() {
 		Map properties = new HashMap();
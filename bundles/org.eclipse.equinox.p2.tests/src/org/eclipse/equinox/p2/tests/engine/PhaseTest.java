@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -266,6 +266,99 @@ public class PhaseTest extends AbstractProvisioningTest {
 		}
 	}
 
+	public static class ConcurrentTestAction extends ProvisioningAction {
+		static int active;
+		static int maxActive;
+		static int executed;
+
+		public IStatus execute(Map parameters) {
+			synchronized (ConcurrentTestAction.class) {
+				active++;
+				executed++;
+				maxActive = Math.max(maxActive, active);
+			}
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+			synchronized (ConcurrentTestAction.class) {
+				active--;
+			}
+			return null;
+		}
+
+		public IStatus undo(Map parameters) {
+			return null;
+		}
+
+		static synchronized void reset() {
+			active = 0;
+			maxActive = 0;
+			executed = 0;
+		}
+	}
+
+	public static class SerialTestAction extends ProvisioningAction {
+		static final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+		public IStatus execute(Map parameters) {
+			InstallableUnitOperand operand = (InstallableUnitOperand) parameters.get("operand");
+			executed.add(operand.second().getId());
+			return null;
+		}
+
+		public IStatus undo(Map parameters) {
+			return null;
+		}
+	}
+
+	private IStatus performConcurrentTestActions(int count) {
+		InstallableUnitPhase phase = new InstallableUnitPhase("test", 1) {
+			protected List<ProvisioningAction> getActions(InstallableUnitOperand operand) {
+				return getActions(operand.second(), "concurrenttest");
+			}
+		};
+		PhaseSet phaseSet = new TestPhaseSet(phase);
+		IProfile profile = createProfile("PhaseTest");
+
+		Map instructions = new HashMap();
+		instructions.put("concurrenttest", MetadataFactory.createTouchpointInstruction("phasetest.concurrent();phasetest.serial()", null));
+		ITouchpointData touchpointData = MetadataFactory.createTouchpointData(instructions);
+		IProvisioningPlan plan = engine.createPlan(profile, null);
+		for (int i = 0; i < count; i++)
+			plan.addInstallableUnit(createIU("unit" + i, Version.create("1.0.0"), null, NO_REQUIRES, new IProvidedCapability[0], NO_PROPERTIES, ITouchpointType.NONE, touchpointData, false));
+		return engine.perform(plan, phaseSet, new NullProgressMonitor());
+	}
+
+	public void testConcurrentActions() {
+		ConcurrentTestAction.reset();
+		SerialTestAction.executed.clear();
+		System.setProperty(Phase.PROP_ACTION_THREADS, "4");
+		try {
+			assertOK("1.0", performConcurrentTestActions(8));
+		} finally {
+			System.getProperties().remove(Phase.PROP_ACTION_THREADS);
+		}
+		assertEquals("1.1", 8, ConcurrentTestAction.executed);
+		assertTrue("1.2", ConcurrentTestAction.maxActive > 1);
+		assertTrue("1.3", ConcurrentTestAction.maxActive <= 4);
+		// the actions which are not concurrent are executed in the order of their operands
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 8; i++)
+			expected.add("unit" + i);
+		assertEquals("1.4", expected, SerialTestAction.executed);
+	}
+
+	public void testSerialActionsByDefault() {
+		ConcurrentTestAction.reset();
+		SerialTestAction.executed.clear();
+		assertOK("1.0", performConcurrentTestActions(3));
+		assertEquals("1.1", 3, ConcurrentTestAction.executed);
+		assertEquals("1.2", 1, ConcurrentTestAction.maxActive);
+		assertEquals("1.3", Arrays.asList(new String[] {"unit0", "unit1", "unit2"}), SerialTestAction.executed);
+	}
+
 	public void testGetAction() {
 		final ArrayList actionsList1 = new ArrayList();
 		InstallableUnitPhase phase1 = new InstallableUnitPhase("test", 1) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -13,8 +13,11 @@ package org.eclipse.equinox.p2.tests.engine;
 import java.io.File;
 import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepositoryFactory;
 import org.eclipse.equinox.internal.p2.engine.*;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.p2.core.IAgentLocation;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepositoryManager;
@@ -107,6 +110,60 @@ public class ProfileMetadataRepositoryTest extends AbstractProvisioningTest {
 		assertContains("1.1", repoCollector, profileCollector);
 	}
 
+	public void testLoadCachedProfile() throws ProvisionException {
+		File testData = getTestData("0.1", "testData/sdkpatchingtest");
+		File tempFolder = getTempFolder();
+		copy("0.2", testData, tempFolder);
+		File simpleProfileFolder = new File(tempFolder, "SDKPatchingTest.profile");
+
+		ProfileMetadataRepositoryFactory factory = new ProfileMetadataRepositoryFactory();
+		factory.setAgent(getAgent());
+		ProfileMetadataRepository repo = (ProfileMetadataRepository) factory.load(simpleProfileFolder.toURI(), 0, getMonitor());
+		ProfileMetadataRepository repo2 = (ProfileMetadataRepository) factory.load(simpleProfileFolder.toURI(), 0, getMonitor());
+
+		IInstallableUnit iu = (IInstallableUnit) repo.query(QueryUtil.createIUAnyQuery(), getMonitor()).iterator().next();
+		IQueryResult<IInstallableUnit> result = repo2.query(QueryUtil.createIUQuery(iu.getId(), iu.getVersion()), getMonitor());
+		assertEquals("1.0", 1, queryResultSize(result));
+		// the profile was only read once
+		assertSame("1.1", iu, result.iterator().next());
+		assertNotNull("1.2", repo.getIndex(InstallableUnit.MEMBER_ID));
+	}
+
+	public void testFollowLatestProfileState() throws ProvisionException {
+		IInstallableUnit a = createIU("a");
+		IInstallableUnit b = createIU("b");
+		Profile profile = (Profile) createProfile("testFollowLatestProfileState");
+		profile.addInstallableUnit(a);
+		saveProfile(profile);
+
+		File registryDirectory = SimpleProfileRegistry.getDefaultRegistryDirectory((IAgentLocation) getAgent().getService(IAgentLocation.SERVICE_NAME));
+		File profileFolder = new File(registryDirectory, SimpleProfileRegistry.escape(profile.getProfileId()) + ".profile");
+		ProfileMetadataRepositoryFactory factory = new ProfileMetadataRepositoryFactory();
+		factory.setAgent(getAgent());
+		ProfileMetadataRepository repo = (ProfileMetadataRepository) factory.load(profileFolder.toURI(), 0, getMonitor());
+		assertEquals("1.0", 1, queryResultSize(repo.query(QueryUtil.createIUQuery("a"), getMonitor())));
+		assertTrue("1.1", repo.query(QueryUtil.createIUQuery("b"), getMonitor()).isEmpty());
+
+		profile = (Profile) getProfile(profile.getProfileId());
+		profile.addInstallableUnit(b);
+		saveProfile(profile);
+		assertEquals("2.0", 1, queryResultSize(repo.query(QueryUtil.createIUQuery("a"), getMonitor())));
+		assertEquals("2.1", 1, queryResultSize(repo.query(QueryUtil.createIUQuery("b"), getMonitor())));
+	}
+
+	private void saveProfile(Profile profile) {
+		SimpleProfileRegistry registry = (SimpleProfileRegistry) getProfileRegistry();
+		profile.setChanged(false);
+		registry.lockProfile(profile);
+		try {
+			profile.setChanged(true);
+			registry.updateProfile(profile);
+		} finally {
+			registry.unlockProfile(profile);
+			profile.setChanged(false);
+		}
+	}
+
 	public void DISABLED_testDefaultAgentRepoAndBundlePoolFromProfileRepo() throws InterruptedException {
 		File testData = getTestData("0.1", "testData/sdkpatchingtest");
 		// /p2/org.eclipse.equinox.p2.engine/profileRegistry");
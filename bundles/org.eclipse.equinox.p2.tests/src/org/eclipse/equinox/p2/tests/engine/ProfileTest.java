@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -122,6 +122,40 @@ public class ProfileTest extends AbstractProvisioningTest {
 		assertNull(registry.getProfile(PROFILE_NAME));
 	}
 
+	public void testSnapshotIsolation() {
+		Profile profile = new Profile(getAgent(), PROFILE_NAME, null, null);
+		IInstallableUnit a = createIU("a");
+		IInstallableUnit b = createIU("b");
+		profile.addInstallableUnit(a);
+		profile.setInstallableUnitProperty(a, "key", "value");
+		// build the indexes, which the snapshot shares
+		assertEquals(1, queryResultSize(profile.query(QueryUtil.createIUQuery("a"), null)));
+
+		Profile snapshot = profile.snapshot();
+		assertFalse(snapshot.isChanged());
+		assertEquals(1, queryResultSize(snapshot.query(QueryUtil.createIUQuery("a"), null)));
+		assertEquals("value", snapshot.getInstallableUnitProperty(a, "key"));
+
+		snapshot.addInstallableUnit(b);
+		snapshot.setInstallableUnitProperty(a, "key", "changed");
+		assertEquals(1, queryResultSize(snapshot.query(QueryUtil.createIUQuery("b"), null)));
+		assertTrue(profile.query(QueryUtil.createIUQuery("b"), null).isEmpty());
+		assertEquals("changed", snapshot.getInstallableUnitProperty(a, "key"));
+		assertEquals("value", profile.getInstallableUnitProperty(a, "key"));
+
+		profile.removeInstallableUnit(a);
+		profile.removeInstallableUnitProperty(a, "key");
+		assertTrue(profile.query(QueryUtil.createIUAnyQuery(), null).isEmpty());
+		assertEquals(2, queryResultSize(snapshot.query(QueryUtil.createIUAnyQuery(), null)));
+		assertEquals("changed", snapshot.getInstallableUnitProperty(a, "key"));
+
+		profile.setInstallableUnits(snapshot);
+		assertEquals(2, queryResultSize(profile.query(QueryUtil.createIUAnyQuery(), null)));
+		snapshot.removeInstallableUnit(b);
+		assertEquals(2, queryResultSize(profile.query(QueryUtil.createIUAnyQuery(), null)));
+		assertEquals(1, queryResultSize(snapshot.query(QueryUtil.createIUAnyQuery(), null)));
+	}
+
 	public void testAvailable() throws ProvisionException {
 		IProfileRegistry registry = getProfileRegistry();
 		assertNull(registry.getProfile(PROFILE_NAME));
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2010 IBM Corporation and others.
+ *  Copyright (c) 2008, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -14,7 +14,8 @@ package org.eclipse.equinox.p2.tests.engine;
 import org.eclipse.equinox.internal.p2.director.ProfileChangeRequest;
 
 import java.net.URI;
-import java.util.Collections;
+import java.util.*;
+import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.engine.IProvisioningPlan;
 import org.eclipse.equinox.p2.engine.ProvisioningContext;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
@@ -184,6 +185,29 @@ public class ProvisioningContextTest extends AbstractProvisioningTest {
 		assertEquals("1.1", 0, followed.length);
 	}
 
+	public void testMergedMetadata() throws ProvisionException {
+		IMetadataRepository first = createMetadataRepository(getTempFolder().toURI(), new HashMap<String, String>());
+		IMetadataRepository second = createMetadataRepository(getTempFolder().toURI(), new HashMap<String, String>());
+		IInstallableUnit shared = createIU("shared");
+		first.addInstallableUnits(Arrays.asList(new IInstallableUnit[] {createIU("first"), shared}));
+		second.addInstallableUnits(Arrays.asList(new IInstallableUnit[] {createIU("second"), shared}));
+
+		ProvisioningContext context = new ProvisioningContext(getAgent());
+		context.setMetadataRepositories(new URI[] {first.getLocation(), second.getLocation()});
+		context.setArtifactRepositories(new URI[0]);
+		IQueryable<IInstallableUnit> metadata = context.getMetadata(getMonitor());
+		assertEquals("1.0", 3, queryResultSize(metadata.query(QueryUtil.createIUAnyQuery(), getMonitor())));
+		assertEquals("1.1", 1, queryResultSize(metadata.query(QueryUtil.createIUQuery("shared"), getMonitor())));
+		assertSame("1.2", metadata, context.getMetadata(getMonitor()));
+
+		// changing one of the repositories must be reflected
+		second.addInstallableUnits(Collections.singletonList(createIU("added")));
+		IQueryable<IInstallableUnit> changed = context.getMetadata(getMonitor());
+		assertNotSame("2.0", metadata, changed);
+		assertEquals("2.1", 4, queryResultSize(changed.query(QueryUtil.createIUAnyQuery(), getMonitor())));
+		assertSame("2.2", changed, context.getMetadata(getMonitor()));
+	}
+
 	public void testFollowHelpsResolve() {
 		createProfile(TEST);
 		IProfileChangeRequest request = ProfileChangeRequest.createByProfileId(getAgent(), TEST);
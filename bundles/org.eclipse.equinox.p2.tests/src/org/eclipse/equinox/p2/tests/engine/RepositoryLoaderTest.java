@@ -0,0 +1,135 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *      IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.engine;
+
+import java.net.URI;
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.engine.EngineActivator;
+import org.eclipse.equinox.internal.p2.engine.RepositoryLoader;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests for {@link RepositoryLoader}.
+ */
+public class RepositoryLoaderTest extends AbstractProvisioningTest {
+	/**
+	 * Loads the locations of a fixed reference graph, counting the loads of each location.
+	 */
+	static class TestLoader extends RepositoryLoader<URI> {
+		final Map<URI, List<URI>> references = new HashMap<URI, List<URI>>();
+		final Map<URI, Integer> loads = new HashMap<URI, Integer>();
+		final Set<URI> missing = new HashSet<URI>();
+
+		TestLoader(int maxThreads) {
+			super(maxThreads);
+		}
+
+		void addReference(String from, String to) {
+			URI location = URI.create(from);
+			List<URI> list = references.get(location);
+			if (list == null) {
+				list = new ArrayList<URI>();
+				references.put(location, list);
+			}
+			list.add(URI.create(to));
+		}
+
+		protected URI loadRepository(URI location, IProgressMonitor monitor) throws ProvisionException {
+			synchronized (loads) {
+				Integer count = loads.get(location);
+				loads.put(location, new Integer(count == null ? 1 : count.intValue() + 1));
+			}
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+			if (missing.contains(location))
+				throw new ProvisionException(new Status(IStatus.ERROR, EngineActivator.ID, "Not found: " + location));
+			return location;
+		}
+
+		protected Collection<URI> getReferences(URI repository) {
+			List<URI> result = references.get(repository);
+			return result == null ? Collections.<URI> emptyList() : result;
+		}
+	}
+
+	private TestLoader createLoader(int maxThreads) {
+		TestLoader loader = new TestLoader(maxThreads);
+		loader.addReference("test:a", "test:a1");
+		loader.addReference("test:a", "test:a2");
+		loader.addReference("test:a1", "test:a");
+		loader.addReference("test:a2", "test:b");
+		loader.addReference("test:b", "test:b1");
+		loader.addReference("test:b1", "test:a1");
+		loader.missing.add(URI.create("test:b1"));
+		return loader;
+	}
+
+	private void assertLoaded(TestLoader loader, List<URI> loaded) {
+		assertEquals("1.0", 4, loaded.size());
+		assertEquals("1.1", URI.create("test:a"), loaded.get(0));
+		assertEquals("1.2", URI.create("test:b"), loaded.get(1));
+		assertTrue("1.3", loaded.containsAll(Arrays.asList(new URI[] {URI.create("test:a1"), URI.create("test:a2"), URI.create("test:b")})));
+		assertFalse("1.4", loaded.contains(URI.create("test:b1")));
+		// every location is loaded once, in spite of the cycles
+		assertEquals("1.5", 5, loader.loads.size());
+		for (Integer count : loader.loads.values())
+			assertEquals("1.6", 1, count.intValue());
+		List<RepositoryLoader.LoadRecord> timeline = loader.getTimeline();
+		assertEquals("1.7", 5, timeline.size());
+		for (RepositoryLoader.LoadRecord record : timeline) {
+			assertEquals("1.8", !record.getLocation().equals(URI.create("test:b1")), record.isLoaded());
+			assertTrue("1.9", record.getEnd() >= record.getStart());
+		}
+	}
+
+	public void testLoadSerially() {
+		TestLoader loader = createLoader(1);
+		assertLoaded(loader, loader.load(new URI[] {URI.create("test:a"), URI.create("test:b")}, getMonitor()));
+	}
+
+	public void testLoadSeriallyByDefault() {
+		String threads = System.getProperty(RepositoryLoader.PROP_LOAD_THREADS);
+		System.getProperties().remove(RepositoryLoader.PROP_LOAD_THREADS);
+		try {
+			assertEquals("1.0", 1, RepositoryLoader.getConfiguredThreads());
+		} finally {
+			if (threads != null)
+				System.setProperty(RepositoryLoader.PROP_LOAD_THREADS, threads);
+		}
+		TestLoader loader = createLoader(1);
+		assertLoaded(loader, loader.load(new URI[] {URI.create("test:a"), URI.create("test:b")}, getMonitor()));
+		// all repositories are loaded in the calling thread
+		for (RepositoryLoader.LoadRecord record : loader.getTimeline())
+			assertEquals("2.0", Thread.currentThread().getName(), record.getThread());
+	}
+
+	public void testLoadInParallel() {
+		TestLoader loader = createLoader(3);
+		assertLoaded(loader, loader.load(new URI[] {URI.create("test:a"), URI.create("test:b")}, getMonitor()));
+	}
+
+	public void testCancel() {
+		TestLoader loader = createLoader(3);
+		NullProgressMonitor monitor = new NullProgressMonitor();
+		monitor.setCanceled(true);
+		try {
+			loader.load(new URI[] {URI.create("test:a"), URI.create("test:b")}, monitor);
+			fail("1.0");
+		} catch (OperationCanceledException e) {
+			// expected
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2010 IBM Corporation and others.
+ *  Copyright (c) 2008, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -14,6 +14,7 @@ package org.eclipse.equinox.p2.tests.metadata.repository;
 import java.io.File;
 import java.net.URI;
 import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.ParallelUnitsParser;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.*;
 import org.eclipse.equinox.internal.provisional.p2.repository.RepositoryEvent;
 import org.eclipse.equinox.p2.core.ProvisionException;
@@ -171,6 +172,51 @@ public class LocalMetadataRepositoryTest extends AbstractProvisioningTest {
 		}
 	}
 
+	/**
+	 * Tests that the units of a repository are the same whether they are parsed by one or several threads.
+	 */
+	public void testParallelParsing() throws ProvisionException {
+		IMetadataRepositoryManager manager = getMetadataRepositoryManager();
+		Map properties = new HashMap();
+		properties.put(IRepository.PROP_COMPRESSED, "false");
+		IMetadataRepository repo = manager.createRepository(repoLocation.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		List<IInstallableUnit> ius = new ArrayList<IInstallableUnit>();
+		// enough units for several chunks
+		for (int i = 0; i < 1234; i++) {
+			InstallableUnitDescription descriptor = new MetadataFactory.InstallableUnitDescription();
+			descriptor.setId("testIuId" + i);
+			descriptor.setVersion(Version.createOSGi(1, 0, i));
+			descriptor.setProperty(TEST_KEY, TEST_VALUE + " <" + i + "> \u00e9\u4e2d");
+			descriptor.setRequirements(new IRequirement[] {MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "testIuId" + (i / 2), null, null, false, false)});
+			ius.add(MetadataFactory.createInstallableUnit(descriptor));
+		}
+		repo.addInstallableUnits(ius);
+
+		String oldThreads = System.getProperty(ParallelUnitsParser.PROP_PARSER_THREADS);
+		try {
+			String[] threads = new String[] {"1", "3"};
+			for (int i = 0; i < threads.length; i++) {
+				System.setProperty(ParallelUnitsParser.PROP_PARSER_THREADS, threads[i]);
+				manager.removeRepository(repoLocation.toURI());
+				IMetadataRepository loaded = manager.loadRepository(repoLocation.toURI(), getMonitor());
+				assertEquals("1." + threads[i], "TestRepo", loaded.getName());
+				Set<IInstallableUnit> units = loaded.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+				assertEquals("2." + threads[i], new HashSet<IInstallableUnit>(ius), units);
+				for (IInstallableUnit unit : units) {
+					String id = unit.getId();
+					int index = Integer.parseInt(id.substring("testIuId".length()));
+					assertEquals("3." + threads[i], TEST_VALUE + " <" + index + "> \u00e9\u4e2d", unit.getProperty(TEST_KEY));
+					assertEquals("4." + threads[i], 1, unit.getRequirements().size());
+				}
+			}
+		} finally {
+			if (oldThreads == null)
+				System.getProperties().remove(ParallelUnitsParser.PROP_PARSER_THREADS);
+			else
+				System.setProperty(ParallelUnitsParser.PROP_PARSER_THREADS, oldThreads);
+		}
+	}
+
 	/**
 	 * Tests loading a repository that has a reference to itself as a disabled repository.
 	 * @throws MalformedURLException 
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.File;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactDescriptor;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepository;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepositoryManager;
+
+/**
+ * Performance tests for artifact repositories
+ */
+public class ArtifactRepositoryPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int ARTIFACT_COUNT = 5000;
+	private static final int THREAD_COUNT = 8;
+	protected File repoLocation;
+	SimpleArtifactRepository repository;
+	IArtifactKey[] keys;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		String tempDir = System.getProperty("java.io.tmpdir");
+		repoLocation = new File(tempDir, "ArtifactRepositoryPerformanceTest");
+		delete(repoLocation);
+		repoLocation.mkdir();
+		IArtifactRepositoryManager manager = getArtifactRepositoryManager();
+		repository = (SimpleArtifactRepository) manager.createRepository(repoLocation.toURI(), "TestRepo", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
+		keys = new IArtifactKey[ARTIFACT_COUNT];
+		IArtifactDescriptor[] descriptors = new IArtifactDescriptor[ARTIFACT_COUNT];
+		for (int i = 0; i < ARTIFACT_COUNT; i++) {
+			keys[i] = new ArtifactKey("osgi.bundle", "org.eclipse.someartifact" + i, Version.createOSGi(1, 1, i));
+			descriptors[i] = new SimpleArtifactDescriptor(keys[i]);
+		}
+		repository.addDescriptors(descriptors, new NullProgressMonitor());
+	}
+
+	protected void tearDown() throws Exception {
+		getArtifactRepositoryManager().removeRepository(repoLocation.toURI());
+		delete(repoLocation);
+		super.tearDown();
+	}
+
+	/**
+	 * Looks up the artifacts of a local repository from several threads at the same time,
+	 * the way download jobs do.
+	 */
+	public void testConcurrentLookups() {
+		new PerformanceTestRunner() {
+			protected void test() {
+				Thread[] threads = new Thread[THREAD_COUNT];
+				for (int i = 0; i < threads.length; i++) {
+					final int first = i;
+					threads[i] = new Thread("Lookup " + i) {
+						public void run() {
+							for (int j = 0; j < keys.length; j++) {
+								IArtifactKey key = keys[(first + j) % keys.length];
+								if (!repository.contains(key))
+									continue;
+								IArtifactDescriptor[] descriptors = repository.getArtifactDescriptors(key);
+								for (int k = 0; k < descriptors.length; k++)
+									repository.getLocation(descriptors[k]);
+							}
+						}
+					};
+				}
+				for (int i = 0; i < threads.length; i++)
+					threads[i].start();
+				for (int i = 0; i < threads.length; i++) {
+					try {
+						threads[i].join();
+					} catch (InterruptedException e) {
+						fail("Interrupted while waiting for lookups");
+					}
+				}
+			}
+		}.run(this, "Test " + THREAD_COUNT + " threads looking up " + ARTIFACT_COUNT + " artifacts in a local artifact repo", REPEATS, 1);
+	}
+}
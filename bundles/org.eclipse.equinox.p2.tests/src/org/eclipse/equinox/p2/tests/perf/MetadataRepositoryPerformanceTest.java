@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,11 +10,13 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.perf;
 
-import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.*;
+import java.util.*;
 import org.eclipse.core.tests.harness.PerformanceTestRunner;
-import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.repository.MetadataRepositoryIO;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
@@ -69,4 +71,91 @@ public class MetadataRepositoryPerformanceTest extends ProvisioningPerformanceTe
 			}
 		}.run(this, "Test query local metadata repo for " + IU_COUNT + " ius", REPEATS, 10);
 	}
+
+	public void testWriteLocalRepository() {
+		final int IU_COUNT = 20000;
+		new PerformanceTestRunner() {
+			protected void setUp() {
+				List<IInstallableUnit> ius = new ArrayList(IU_COUNT);
+				for (int i = 0; i < IU_COUNT; i++)
+					ius.add(generateBundleIU(i));
+				repository.addInstallableUnits(ius);
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				try {
+					new MetadataRepositoryIO(getAgent()).write(repository, new OutputStream() {
+						public void write(int b) {
+							// discard
+						}
+
+						public void write(byte[] b, int off, int len) {
+							// discard
+						}
+					});
+				} catch (IOException e) {
+					fail("Failed to write the repository", e);
+				}
+			}
+		}.run(this, "Test write local metadata repo with " + IU_COUNT + " ius", REPEATS, 1);
+	}
+
+	public void testReadLocalRepository() {
+		final int IU_COUNT = 20000;
+		new PerformanceTestRunner() {
+			byte[] content;
+
+			protected void setUp() {
+				List<IInstallableUnit> ius = new ArrayList(IU_COUNT);
+				for (int i = 0; i < IU_COUNT; i++)
+					ius.add(generateBundleIU(i));
+				repository.addInstallableUnits(ius);
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				try {
+					new MetadataRepositoryIO(getAgent()).write(repository, output);
+				} catch (IOException e) {
+					fail("Failed to write the repository", e);
+				}
+				content = output.toByteArray();
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				try {
+					IMetadataRepository read = new MetadataRepositoryIO(getAgent()).read(repoLocation.toURI().toURL(), new ByteArrayInputStream(content), getMonitor());
+					assertEquals(IU_COUNT, read.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+				} catch (IOException e) {
+					fail("Failed to read the repository", e);
+				} catch (ProvisionException e) {
+					fail("Failed to read the repository", e);
+				}
+			}
+		}.run(this, "Test read local metadata repo with " + IU_COUNT + " ius", REPEATS, 1);
+	}
+
+	/*
+	 * Generate an IU shaped like the IU of a bundle, with properties, capabilities,
+	 * requirements and touchpoint data.
+	 */
+	IInstallableUnit generateBundleIU(int i) {
+		InstallableUnitDescription desc = new InstallableUnitDescription();
+		String id = "org.eclipse.someiu" + i;
+		Version version = Version.createOSGi(1, 1, i, "v20110101");
+		desc.setId(id);
+		desc.setVersion(version);
+		desc.setProperty(IInstallableUnit.PROP_NAME, "Some <bundle> " + i);
+		desc.setProperty(IInstallableUnit.PROP_PROVIDER, "Eclipse.org & friends");
+		desc.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, id, version), MetadataFactory.createProvidedCapability("osgi.bundle", id, version), MetadataFactory.createProvidedCapability("java.package", id + ".internal", version)});
+		desc.setRequirements(new IRequirement[] {MetadataFactory.createRequirement("osgi.bundle", "org.eclipse.someiu" + (i / 2), new VersionRange("[1.0.0,2.0.0)"), null, false, false), MetadataFactory.createRequirement("java.package", "org.osgi.framework", new VersionRange("1.3.0"), null, true, false)});
+		desc.setTouchpointType(MetadataFactory.createTouchpointType("org.eclipse.equinox.p2.osgi", Version.createOSGi(1, 0, 0)));
+		Map<String, String> instructions = new HashMap<String, String>();
+		instructions.put("manifest", "Bundle-SymbolicName: " + id + "\nBundle-Version: " + version);
+		desc.addTouchpointData(MetadataFactory.createTouchpointData(instructions));
+		return MetadataFactory.createInstallableUnit(desc);
+	}
 }
@@ -67,6 +67,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(DisabledExplanation.class);
 		suite.addTestSuite(DropinsScenario.class);
 		suite.addTestSuite(EPPPackageInstallStability_bug323322.class);
+		suite.addTestSuite(ExplanationCacheTest.class);
 		suite.addTestSuite(ExplanationDeepConflict.class);
 		suite.addTestSuite(ExplanationForOptionalDependencies.class);
 		suite.addTestSuite(ExplanationForPartialInstallation.class);
@@ -151,6 +152,8 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(SimulatedSharedInstallTest.class);
 		suite.addTestSuite(SingletonOptionallyInstalled.class);
 		suite.addTestSuite(SingletonOptionallyInstalled2.class);
+		suite.addTestSuite(SolutionCacheTest.class);
+		suite.addTestSuite(SolverPortfolioTest.class);
 		suite.addTestSuite(SWTFragment.class);
 		suite.addTestSuite(SynchronizeOperationTest.class);
 		suite.addTestSuite(TestNoopChangeRequest.class);
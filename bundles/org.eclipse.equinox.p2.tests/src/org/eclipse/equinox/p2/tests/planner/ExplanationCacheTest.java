@@ -0,0 +1,72 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ * 
+ *  Contributors:
+ *      IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.internal.provisional.p2.director.PlannerStatus;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.planner.IPlanner;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+public class ExplanationCacheTest extends AbstractProvisioningTest {
+	IInstallableUnit root;
+	IInstallableUnit b;
+	IInstallableUnit c;
+	IPlanner planner;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		root = createIU("root", Version.create("1.0.0"), new IRequirement[] {MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0, 1.0.0]"), null, false, false, true), MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "missing", new VersionRange("[1.0.0, 1.0.0]"), null, false, false, true), MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "C", new VersionRange("[1.0.0, 1.0.0]"), null, false, false, true)}, NO_PROPERTIES, true);
+		b = createIU("B", Version.create("1.0.0"), true);
+		c = createIU("C", Version.create("1.0.0"), true);
+		createTestMetdataRepository(new IInstallableUnit[] {root, b, c});
+		planner = createPlanner();
+	}
+
+	private Set<Explanation> getExplanation(String profileId) {
+		IProfile profile = createProfile(profileId);
+		ProfileChangeRequest req = new ProfileChangeRequest(profile);
+		req.addInstallableUnits(new IInstallableUnit[] {root});
+		IProvisioningPlan plan = planner.getProvisioningPlan(req, new ProvisioningContext(getAgent()), null);
+		assertFalse(plan.getStatus().isOK());
+		return ((PlannerStatus) plan.getStatus()).getRequestStatus().getExplanations();
+	}
+
+	public void testSameProblemReusesExplanation() {
+		Set<Explanation> first = getExplanation("TestProfile." + getName());
+		Set<Explanation> second = getExplanation("TestProfile2." + getName());
+		assertFalse("1.0", first.isEmpty());
+		assertEquals("1.1", new ArrayList<Explanation>(first), new ArrayList<Explanation>(second));
+		// the second explanation comes from the cache
+		try {
+			second.clear();
+			fail("1.2");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	public void testFingerprint() {
+		Map<String, String> context = new HashMap<String, String>();
+		context.put("osgi.os", "linux");
+		IInstallableUnit[] noRoots = new IInstallableUnit[0];
+		String fingerprint = ProblemFingerprint.compute(root, noRoots, new QueryableArray(new IInstallableUnit[] {b, c}), context, true);
+		// the order of the units in the slice doesn't matter
+		assertEquals("1.0", fingerprint, ProblemFingerprint.compute(root, noRoots, new QueryableArray(new IInstallableUnit[] {c, b}), context, true));
+		assertFalse("1.1", fingerprint.equals(ProblemFingerprint.compute(root, noRoots, new QueryableArray(new IInstallableUnit[] {b}), context, true)));
+		assertFalse("1.2", fingerprint.equals(ProblemFingerprint.compute(root, new IInstallableUnit[] {b}, new QueryableArray(new IInstallableUnit[] {b, c}), context, true)));
+		assertFalse("1.3", fingerprint.equals(ProblemFingerprint.compute(root, noRoots, new QueryableArray(new IInstallableUnit[] {b, c}), context, false)));
+		context.put("osgi.os", "win32");
+		assertFalse("1.4", fingerprint.equals(ProblemFingerprint.compute(root, noRoots, new QueryableArray(new IInstallableUnit[] {b, c}), context, true)));
+	}
+}
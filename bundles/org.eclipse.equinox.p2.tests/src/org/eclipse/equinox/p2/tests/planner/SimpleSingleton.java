@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -13,8 +13,10 @@ package org.eclipse.equinox.p2.tests.planner;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.equinox.internal.p2.director.Explanation;
 import org.eclipse.equinox.internal.p2.director.ProfileChangeRequest;
+import org.eclipse.equinox.internal.p2.director.SimplePlanner;
 import org.eclipse.equinox.internal.p2.engine.ProvisioningPlan;
 import org.eclipse.equinox.internal.provisional.p2.director.PlannerStatus;
+import org.eclipse.equinox.internal.provisional.p2.director.PlanningReport;
 import org.eclipse.equinox.internal.provisional.p2.director.RequestStatus;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.metadata.*;
@@ -22,6 +24,8 @@ import org.eclipse.equinox.p2.planner.IPlanner;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
 
 public class SimpleSingleton extends AbstractProvisioningTest {
+	private static final String PROP_SOLUTION_CACHE = "eclipse.p2.planner.solution.cache";
+
 	IInstallableUnit a1;
 	IInstallableUnit a2;
 	IInstallableUnit a3;
@@ -66,4 +70,38 @@ public class SimpleSingleton extends AbstractProvisioningTest {
 		assertEquals(Explanation.VIOLATED_SINGLETON_CONSTRAINT, requestStatus.getShortExplanation());
 		assertTrue(requestStatus.getConflictsWithInstalledRoots().contains(y));
 	}
+
+	public void testPlanningReport() {
+		// a planner without a solution cache always solves the request
+		String cacheProperty = System.getProperty(PROP_SOLUTION_CACHE);
+		System.setProperty(PROP_SOLUTION_CACHE, "false");
+		try {
+			planner = new SimplePlanner(getAgent());
+		} finally {
+			if (cacheProperty == null)
+				System.getProperties().remove(PROP_SOLUTION_CACHE);
+			else
+				System.setProperty(PROP_SOLUTION_CACHE, cacheProperty);
+		}
+		ProfileChangeRequest req = new ProfileChangeRequest(profile);
+		req.addInstallableUnits(new IInstallableUnit[] {a1});
+		ProvisioningPlan plan = (ProvisioningPlan) planner.getProvisioningPlan(req, null, null);
+		assertOK("1.0", plan.getStatus());
+		PlanningReport report = ((PlannerStatus) plan.getStatus()).getPlanningReport();
+		assertNotNull("1.1", report);
+		assertTrue("1.2", report.getSliceSize() > 0);
+		assertFalse("1.3", report.isReusedSolution());
+		assertTrue("1.4", report.getEncodedIUs() > 0);
+		assertTrue("1.5", report.getVariables() > 0);
+		assertTrue("1.6", report.getSolvingTime() >= 0);
+		assertEquals("1.7", -1, report.getExplanationTime());
+
+		req = new ProfileChangeRequest(profile);
+		req.addInstallableUnits(new IInstallableUnit[] {y});
+		plan = (ProvisioningPlan) planner.getProvisioningPlan(req, null, null);
+		assertEquals("2.0", IStatus.ERROR, plan.getStatus().getSeverity());
+		report = ((PlannerStatus) plan.getStatus()).getPlanningReport();
+		assertNotNull("2.1", report);
+		assertTrue("2.2", report.getExplanationTime() >= 0);
+	}
 }
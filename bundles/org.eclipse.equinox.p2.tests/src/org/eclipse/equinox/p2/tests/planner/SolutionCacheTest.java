@@ -0,0 +1,103 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ * 
+ *  Contributors:
+ *      IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.io.File;
+import java.io.IOException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.internal.provisional.p2.director.PlannerStatus;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+public class SolutionCacheTest extends AbstractProvisioningTest {
+	private static final String PROP_SOLUTION_CACHE = "eclipse.p2.planner.solution.cache";
+
+	IInstallableUnit a1;
+	IInstallableUnit b1;
+	IInstallableUnit b2;
+	SimplePlanner planner;
+	File cacheFolder;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		a1 = createIU("A", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0, 3.0.0)")));
+		b1 = createIU("B", Version.create("1.0.0"), true);
+		b2 = createIU("B", Version.create("2.0.0"), true);
+		createTestMetdataRepository(new IInstallableUnit[] {a1, b1, b2});
+		System.setProperty(PROP_SOLUTION_CACHE, "true");
+		planner = new SimplePlanner(getAgent());
+		cacheFolder = SolutionCache.create(getAgent()).getDirectory();
+		delete(cacheFolder);
+	}
+
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(PROP_SOLUTION_CACHE);
+		delete(cacheFolder);
+		super.tearDown();
+	}
+
+	private IProvisioningPlan install(String profileId) {
+		ProfileChangeRequest req = new ProfileChangeRequest(createProfile(profileId));
+		req.addInstallableUnits(new IInstallableUnit[] {a1});
+		IProvisioningPlan plan = planner.getProvisioningPlan(req, new ProvisioningContext(getAgent()), null);
+		assertEquals(IStatus.OK, plan.getStatus().getSeverity());
+		assertInstallOperand(plan, a1);
+		assertInstallOperand(plan, b2);
+		assertNoOperand(plan, b1);
+		return plan;
+	}
+
+	private static boolean isReusedSolution(IProvisioningPlan plan) {
+		return ((PlannerStatus) plan.getStatus()).getPlanningReport().isReusedSolution();
+	}
+
+	public void testReuseSolution() {
+		IProvisioningPlan plan = install("TestProfile." + getName());
+		assertFalse("1.0", isReusedSolution(plan));
+		// only the solution of the request is cached
+		assertEquals("1.1", 1, cacheFolder.list().length);
+
+		plan = install("TestProfile2." + getName());
+		assertTrue("1.2", isReusedSolution(plan));
+	}
+
+	public void testInvalidSolution() throws IOException {
+		install("TestProfile." + getName());
+		int runs = planner.getSolverStatistics().getRuns("eclipsep2");
+
+		// refer to a unit which is not part of the slice
+		File[] solutions = cacheFolder.listFiles();
+		for (int i = 0; i < solutions.length; i++)
+			writeBuffer(solutions[i], new StringBuffer("solution.0=Missing 1.0.0\n"));
+
+		install("TestProfile2." + getName());
+		assertTrue("1.0", planner.getSolverStatistics().getRuns("eclipsep2") > runs);
+	}
+
+	public void testEviction() throws IOException {
+		cacheFolder.mkdirs();
+		// last used a long time ago, one minute apart to be above any file system granularity
+		long lastUsed = 1000000000000L;
+		for (int i = 0; i < SolutionCache.MAX_ENTRIES + 5; i++) {
+			File solution = new File(cacheFolder, "unused" + i + ".solution");
+			writeBuffer(solution, new StringBuffer("solution.0=Missing 1.0.0\n"));
+			assertTrue(solution.setLastModified(lastUsed + i * 60000L));
+		}
+		install("TestProfile." + getName());
+		String[] solutions = cacheFolder.list();
+		assertEquals("1.0", SolutionCache.MAX_ENTRIES, solutions.length);
+		for (int i = 0; i < 6; i++)
+			assertFalse("1.1", new File(cacheFolder, "unused" + i + ".solution").exists());
+		assertTrue("1.2", new File(cacheFolder, "unused6.solution").exists());
+	}
+}
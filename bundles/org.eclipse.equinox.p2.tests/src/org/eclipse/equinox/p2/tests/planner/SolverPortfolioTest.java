@@ -0,0 +1,80 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ * 
+ *  Contributors:
+ *      IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+public class SolverPortfolioTest extends AbstractProvisioningTest {
+	private static final String PROP_PORTFOLIO = "eclipse.p2.projector.portfolio";
+
+	IInstallableUnit a1;
+	IInstallableUnit b1;
+	IInstallableUnit b2;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		a1 = createIU("A", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0, 3.0.0)")));
+		b1 = createIU("B", Version.create("1.0.0"), true);
+		b2 = createIU("B", Version.create("2.0.0"), true);
+		createTestMetdataRepository(new IInstallableUnit[] {a1, b1, b2});
+	}
+
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(PROP_PORTFOLIO);
+		super.tearDown();
+	}
+
+	public void testParse() {
+		SolverStrategy[] strategies = SolverStrategy.parse("light, eclipsep2,unknown,light");
+		assertEquals("1.0", 2, strategies.length);
+		assertSame("1.1", SolverStrategy.LIGHT, strategies[0]);
+		assertSame("1.2", SolverStrategy.ECLIPSE_P2, strategies[1]);
+		assertEquals("1.3", 0, SolverStrategy.parse("").length);
+	}
+
+	public void testPortfolio() {
+		System.setProperty(PROP_PORTFOLIO, "eclipsep2,default,light");
+		SimplePlanner planner = new SimplePlanner(getAgent());
+		ProfileChangeRequest req = new ProfileChangeRequest(createProfile("TestProfile." + getName()));
+		req.addInstallableUnits(new IInstallableUnit[] {a1});
+		IProvisioningPlan plan = planner.getProvisioningPlan(req, new ProvisioningContext(getAgent()), null);
+		assertEquals("1.0", IStatus.OK, plan.getStatus().getSeverity());
+		assertInstallOperand(plan, a1);
+		assertInstallOperand(plan, b2);
+		assertNoOperand(plan, b1);
+
+		SolverStatistics statistics = planner.getSolverStatistics();
+		int wins = 0;
+		int runs = 0;
+		String[] names = new String[] {"eclipsep2", "default", "light"};
+		for (int i = 0; i < names.length; i++) {
+			wins += statistics.getWins(names[i]);
+			runs += statistics.getRuns(names[i]);
+		}
+		assertEquals("1.1", 1, wins);
+		assertTrue("1.2", runs >= 1);
+	}
+
+	public void testDefaultStrategy() {
+		SimplePlanner planner = new SimplePlanner(getAgent());
+		ProfileChangeRequest req = new ProfileChangeRequest(createProfile("TestProfile." + getName()));
+		req.addInstallableUnits(new IInstallableUnit[] {a1});
+		IProvisioningPlan plan = planner.getProvisioningPlan(req, new ProvisioningContext(getAgent()), null);
+		assertEquals("1.0", IStatus.OK, plan.getStatus().getSeverity());
+		assertInstallOperand(plan, b2);
+		assertEquals("1.1", 1, planner.getSolverStatistics().getWins("eclipsep2"));
+		assertEquals("1.2", 1, planner.getSolverStatistics().getRuns("eclipsep2"));
+	}
+}
@@ -13,18 +13,20 @@ package org.eclipse.equinox.p2.tests.publisher.actions;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.Locale;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.equinox.internal.p2.metadata.TranslationSupport;
 import org.eclipse.equinox.internal.p2.updatesite.SiteXMLAction;
-import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitFragmentDescription;
 import org.eclipse.equinox.p2.publisher.PublisherInfo;
 import org.eclipse.equinox.p2.publisher.PublisherResult;
 import org.eclipse.equinox.p2.publisher.eclipse.BundlesAction;
 import org.eclipse.equinox.p2.publisher.eclipse.FeaturesAction;
-import org.eclipse.equinox.p2.query.IQueryResult;
-import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.query.*;
 import org.eclipse.equinox.p2.tests.*;
 
 /**
@@ -53,6 +55,40 @@ public class LocalizationTests extends AbstractProvisioningTest {
 		monitor = new NullProgressMonitor();
 	}
 
+	public void testFragmentTranslations() {
+		InstallableUnitDescription desc = new InstallableUnitDescription();
+		desc.setId("host");
+		desc.setVersion(Version.create("1.0.0"));
+		desc.setProperty(IInstallableUnit.PROP_NAME, "%name");
+		desc.setProperty(IInstallableUnit.PROP_DESCRIPTION, "%description");
+		desc.setProperty(IInstallableUnit.PROP_PROVIDER, "%provider");
+		desc.setProperty("de_CH.provider", "Host Provider");
+		IInstallableUnit host = MetadataFactory.createInstallableUnit(desc);
+
+		IInstallableUnit fragment = createTranslationFragment("host.translated", new VersionRange("[1.0.0,1.0.0]"), "de.name", "Deutscher Name", "de_CH.name", "Schweizer Name", "de.description", "Deutsche Beschreibung");
+		IInstallableUnit otherVersion = createTranslationFragment("host.translated.other", new VersionRange("[2.0.0,2.0.0]"), "de.name", "Falscher Name", "de.provider", "Falscher Anbieter");
+		TranslationSupport utils = new TranslationSupport(new CollectionResult<IInstallableUnit>(Arrays.asList(new IInstallableUnit[] {otherVersion, host, fragment})));
+
+		assertEquals("1.0", "Schweizer Name", utils.getIUProperty(host, IInstallableUnit.PROP_NAME, "de_CH"));
+		assertEquals("1.1", "Deutscher Name", utils.getIUProperty(host, IInstallableUnit.PROP_NAME, "de"));
+		assertEquals("1.2", "Deutsche Beschreibung", utils.getIUProperty(host, IInstallableUnit.PROP_DESCRIPTION, "de_CH"));
+		// a translation held by the host itself for the exact locale comes first
+		assertEquals("1.3", "Host Provider", utils.getIUProperty(host, IInstallableUnit.PROP_PROVIDER, "de_CH"));
+		assertEquals("1.4", "provider", utils.getIUProperty(host, IInstallableUnit.PROP_PROVIDER, "de"));
+		assertEquals("1.5", "name", utils.getIUProperty(host, IInstallableUnit.PROP_NAME, "fr"));
+	}
+
+	private IInstallableUnit createTranslationFragment(String id, VersionRange hostRange, String... translations) {
+		InstallableUnitFragmentDescription desc = new InstallableUnitFragmentDescription();
+		desc.setId(id);
+		desc.setVersion(Version.create("1.0.0"));
+		desc.setHost(new IRequirement[] {MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "host", hostRange, null, false, false)});
+		desc.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability("org.eclipse.equinox.p2.localization", "de", Version.create("1.0.0")), MetadataFactory.createProvidedCapability("org.eclipse.equinox.p2.localization", "de_CH", Version.create("1.0.0"))});
+		for (int i = 0; i < translations.length; i += 2)
+			desc.setProperty(translations[i], translations[i + 1]);
+		return MetadataFactory.createInstallableUnitFragment(desc);
+	}
+
 	public void testBundleLocalizationDE() throws IOException {
 		//Tests with the default localization file location
 		File file = TestData.getFile("localizationtests/foobundle", "");
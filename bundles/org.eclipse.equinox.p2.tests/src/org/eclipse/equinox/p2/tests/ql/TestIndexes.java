@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 Cloudsmith Inc. and others.
+ * Copyright (c) 2009, 2011 Cloudsmith Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,8 +11,14 @@
 package org.eclipse.equinox.p2.tests.ql;
 
 import java.net.URI;
+import java.util.*;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.metadata.IUMap;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.index.IdIndex;
+import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
 import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
@@ -63,6 +69,77 @@ public class TestIndexes extends AbstractProvisioningTest {
 		assertEquals(queryResultSize(result), 487);
 	}
 
+	public void testIUMapVersions() {
+		IUMap map = new IUMap();
+		int[] micros = new int[] {5, 1, 9, 3, 7, 1, 5};
+		for (int i = 0; i < micros.length; i++)
+			map.add(createIU("a", Version.createOSGi(1, 0, micros[i])));
+		map.add(createIU("b", Version.createOSGi(2, 0, 0)));
+
+		List<Version> versions = new ArrayList<Version>();
+		for (IInstallableUnit iu : map.getUnits("a"))
+			versions.add(iu.getVersion());
+		assertEquals(Arrays.asList(new Version[] {Version.create("1.0.1"), Version.create("1.0.3"), Version.create("1.0.5"), Version.create("1.0.7"), Version.create("1.0.9")}), versions);
+
+		assertEquals(Version.create("1.0.7"), map.get("a", Version.create("1.0.7")).getVersion());
+		assertNull(map.get("a", Version.create("1.0.4")));
+		assertEquals(Version.create("1.0.9"), map.getLatest("a").getVersion());
+		assertEquals(Version.create("2.0.0"), map.getLatest("b").getVersion());
+		assertNull(map.getLatest("c"));
+
+		assertEquals(3, map.getUnits("a", new VersionRange("[1.0.3,1.0.7]")).size());
+		assertEquals(2, map.getUnits("a", new VersionRange("(1.0.3,1.0.9)")).size());
+		assertEquals(1, map.getUnits("a", new VersionRange("[1.0.5,1.0.5]")).size());
+		assertEquals(0, map.getUnits("a", new VersionRange("[2.0.0,3.0.0)")).size());
+		assertEquals(5, map.getUnits("a", null).size());
+		assertEquals(6, map.size());
+		assertEquals(1, map.getUnits("b", new VersionRange("2.0.0")).size());
+
+		map.remove(createIU("a", Version.create("1.0.9")));
+		map.remove(createIU("a", Version.create("1.0.4")));
+		assertEquals(4, map.getUnits("a").size());
+		assertEquals(5, map.size());
+		assertEquals(Version.create("1.0.7"), map.getLatest("a").getVersion());
+
+		Iterator<IInstallableUnit> latestFirst = map.getUnitsLatestFirst("a");
+		assertEquals(Version.create("1.0.7"), latestFirst.next().getVersion());
+		assertEquals(Version.create("1.0.5"), latestFirst.next().getVersion());
+	}
+
+	public void testLatestWithIdIndex() {
+		final IUMap map = new IUMap();
+		for (int i = 0; i < 100; i++) {
+			map.add(createIU("a", Version.createOSGi(1, i % 10, i)));
+			map.add(createIU("b", Version.createOSGi(1, 0, i)));
+		}
+		IQueryable<IInstallableUnit> queryable = new IndexProvider<IInstallableUnit>() {
+			private IdIndex idIndex;
+
+			public synchronized IIndex<IInstallableUnit> getIndex(String memberName) {
+				if (!InstallableUnit.MEMBER_ID.equals(memberName))
+					return null;
+				if (idIndex == null)
+					idIndex = new IdIndex(map);
+				return idIndex;
+			}
+
+			public Iterator<IInstallableUnit> everything() {
+				return map.iterator();
+			}
+
+			public Object getManagedProperty(Object client, String memberName, Object key) {
+				return null;
+			}
+		};
+		IQueryResult<IInstallableUnit> result = queryable.query(QueryUtil.createLatestQuery(QueryUtil.createIUQuery("a")), getMonitor());
+		assertEquals(1, queryResultSize(result));
+		assertEquals(Version.createOSGi(1, 9, 99), result.iterator().next().getVersion());
+
+		result = queryable.query(QueryUtil.createLatestQuery(QueryUtil.createIUQuery("a", new VersionRange("[1.0.0,1.5.0)"))), getMonitor());
+		assertEquals(1, queryResultSize(result));
+		assertEquals(Version.createOSGi(1, 4, 94), result.iterator().next().getVersion());
+	}
+
 	private IMetadataRepository getMDR(String uri) throws Exception {
 		URI metadataRepo = getTestData("1.1", uri).toURI();
 
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.repository;
+
+import org.eclipse.equinox.internal.p2.repository.helpers.RepositoryCache;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.repository.IRepository;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestMetadataRepository;
+
+/**
+ * Tests for {@link RepositoryCache}.
+ */
+public class RepositoryCacheTest extends AbstractProvisioningTest {
+	private IRepository<IInstallableUnit> createRepository() {
+		return new TestMetadataRepository(getAgent(), new IInstallableUnit[0]);
+	}
+
+	public void testBudget() {
+		RepositoryCache<IInstallableUnit> cache = new RepositoryCache<IInstallableUnit>(100);
+		IRepository<IInstallableUnit> a = createRepository();
+		IRepository<IInstallableUnit> b = createRepository();
+		IRepository<IInstallableUnit> c = createRepository();
+		cache.put("a", a, 40);
+		cache.put("b", b, 40);
+		assertSame("1.0", a, cache.get("a"));
+		// b is now the least recently used
+		cache.put("c", c, 40);
+		assertEquals("1.1", 1, cache.getEvictions());
+		assertEquals("1.2", 80, cache.getSize());
+		assertSame("1.3", a, cache.get("a"));
+		assertSame("1.4", c, cache.get("c"));
+		assertNull("1.5", cache.get("d"));
+		assertEquals("1.6", 3, cache.getHits());
+		assertEquals("1.7", 1, cache.getMisses());
+	}
+
+	public void testEvictedButInUse() {
+		RepositoryCache<IInstallableUnit> cache = new RepositoryCache<IInstallableUnit>(50);
+		IRepository<IInstallableUnit> a = createRepository();
+		IRepository<IInstallableUnit> b = createRepository();
+		cache.put("a", a, 40);
+		cache.put("b", b, 40);
+		assertEquals("1.0", 1, cache.getEvictions());
+		// a is still referenced so it is taken back instead of being reloaded
+		assertSame("1.1", a, cache.get("a"));
+		assertEquals("1.2", 2, cache.getEvictions());
+		assertEquals("1.3", 40, cache.getSize());
+	}
+
+	public void testPinning() {
+		RepositoryCache<IInstallableUnit> cache = new RepositoryCache<IInstallableUnit>(50);
+		IRepository<IInstallableUnit> a = createRepository();
+		IRepository<IInstallableUnit> b = createRepository();
+		cache.pin("a");
+		cache.put("a", a, 40);
+		cache.put("b", b, 40);
+		// b is evicted because a is pinned
+		assertEquals("1.0", 1, cache.getEvictions());
+		assertEquals("1.1", 40, cache.getSize());
+		assertTrue("1.2", cache.isPinned("a"));
+		cache.unpin("a");
+		assertFalse("1.3", cache.isPinned("a"));
+
+		cache.remove("a");
+		assertEquals("1.4", 0, cache.getSize());
+		assertNull("1.5", cache.peek("a"));
+	}
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials 
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import junit.framework.TestCase;
+import org.eclipse.equinox.internal.p2.persistence.XMLWriter;
+
+/**
+ * Tests the encoding and escaping of XMLWriter
+ */
+public class XMLWriterTest extends TestCase {
+	private static final String NL = System.getProperty("line.separator");
+	private static final String HEADER = "<?xml version='1.0' encoding='UTF-8'?>" + NL;
+
+	public void testEscapedAttribute() throws UnsupportedEncodingException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		XMLWriter writer = new XMLWriter(output, null);
+		writer.start("a");
+		writer.attribute("x", "<>\"'&\t\n\r\u000B\u0001\u00E9\u4E2D\uD834\uDD1E\uFFFE");
+		writer.start("b");
+		writer.end();
+		writer.cdata("c&d");
+		writer.end("a");
+		writer.flush();
+		String expected = HEADER + "<a x='&lt;&gt;&quot;&apos;&amp;&#x9;&#xA;&#xD; \u00E9\u4E2D'>" + NL + "  <b/>" + NL + "  c&amp;d" + NL + "</a>" + NL;
+		assertEquals(expected, output.toString("UTF-8"));
+		assertEquals("&lt;\u00E9 ", XMLWriter.escape("<\u00E9\u000B\u0001"));
+		assertFalse(writer.checkError());
+	}
+
+	public void testUnescapedText() throws UnsupportedEncodingException {
+		String text = "\u00E9\u4E2D\uD834\uDD1E\uDC00\uD834x";
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		XMLWriter writer = new XMLWriter(output, null);
+		writer.start("a");
+		writer.cdata(text, false);
+		writer.end();
+		writer.flush();
+		String expected = HEADER + "<a>" + NL + "  " + text + NL + "</a>" + NL;
+		assertTrue(java.util.Arrays.equals(expected.getBytes("UTF-8"), output.toByteArray()));
+	}
+
+	public void testLargeDocument() throws UnsupportedEncodingException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		XMLWriter writer = new XMLWriter(output, null);
+		StringBuffer expected = new StringBuffer(HEADER);
+		writer.start("units");
+		expected.append("<units>").append(NL);
+		for (int i = 0; i < 10000; i++) {
+			writer.start("unit");
+			writer.attribute("id", "org.eclipse.unit\u00E9" + i);
+			writer.end();
+			expected.append("  <unit id='org.eclipse.unit\u00E9").append(i).append("'/>").append(NL);
+		}
+		writer.end();
+		expected.append("</units>").append(NL);
+		writer.flush();
+		assertTrue(java.util.Arrays.equals(expected.toString().getBytes("UTF-8"), output.toByteArray()));
+	}
+}
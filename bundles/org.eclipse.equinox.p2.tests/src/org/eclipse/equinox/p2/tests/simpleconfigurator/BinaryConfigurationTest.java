@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.simpleconfigurator;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import org.eclipse.equinox.internal.simpleconfigurator.manipulator.SimpleConfiguratorManipulatorUtils;
+import org.eclipse.equinox.internal.simpleconfigurator.utils.*;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+public class BinaryConfigurationTest extends AbstractProvisioningTest {
+	private static final URI BASE = URI.create("file:/base/");
+
+	private BundleInfo[] createBundles() {
+		return new BundleInfo[] {new BundleInfo("a", "1.0.0", URI.create("plugins/a_1.0.0.jar"), 4, true), new BundleInfo("b", "2.0.0", URI.create("file:/other/plugins/b,2.0.0.jar"), -1, false)};
+	}
+
+	private void assertSameBundles(List expected, List actual) {
+		assertEquals("size", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			BundleInfo expectedInfo = (BundleInfo) expected.get(i);
+			BundleInfo actualInfo = (BundleInfo) actual.get(i);
+			assertEquals("bundle " + i, expectedInfo, actualInfo);
+			assertEquals("location " + i, expectedInfo.getLocation(), actualInfo.getLocation());
+			assertEquals("base location " + i, expectedInfo.getBaseLocation(), actualInfo.getBaseLocation());
+			assertEquals("start level " + i, expectedInfo.getStartLevel(), actualInfo.getStartLevel());
+			assertEquals("started " + i, expectedInfo.isMarkedAsStarted(), actualInfo.isMarkedAsStarted());
+		}
+	}
+
+	public void testWriteAndRead() throws IOException {
+		File folder = getTempFolder();
+		folder.mkdirs();
+		File bundlesInfo = new File(folder, "bundles.info");
+		BundleInfo[] bundles = createBundles();
+		SimpleConfiguratorManipulatorUtils.writeConfiguration(bundles, bundlesInfo);
+		assertNull("1.0", BinaryConfiguration.read(bundlesInfo, BASE));
+
+		List parsed = SimpleConfiguratorUtils.readConfiguration(bundlesInfo.toURL(), BASE);
+		BinaryConfiguration.write(bundlesInfo, bundles);
+		assertTrue("1.1", BinaryConfiguration.getFile(bundlesInfo).isFile());
+		List read = BinaryConfiguration.read(bundlesInfo, BASE);
+		assertNotNull("1.2", read);
+		assertSameBundles(parsed, read);
+		assertSameBundles(parsed, SimpleConfiguratorUtils.readConfiguration(bundlesInfo.toURL(), BASE));
+		delete(folder);
+	}
+
+	public void testOutOfDate() throws IOException {
+		File folder = getTempFolder();
+		folder.mkdirs();
+		File bundlesInfo = new File(folder, "bundles.info");
+		BundleInfo[] bundles = createBundles();
+		SimpleConfiguratorManipulatorUtils.writeConfiguration(bundles, bundlesInfo);
+		BinaryConfiguration.write(bundlesInfo, bundles);
+
+		// change the config file behind the back of the companion
+		BundleInfo[] changed = new BundleInfo[] {bundles[0]};
+		SimpleConfiguratorManipulatorUtils.writeConfiguration(changed, bundlesInfo);
+		assertNull("1.0", BinaryConfiguration.read(bundlesInfo, BASE));
+		assertEquals("1.1", 1, SimpleConfiguratorUtils.readConfiguration(bundlesInfo.toURL(), BASE).size());
+
+		// a damaged companion is ignored as well
+		writeBuffer(BinaryConfiguration.getFile(bundlesInfo), new StringBuffer("garbage"));
+		assertNull("2.0", BinaryConfiguration.read(bundlesInfo, BASE));
+		assertEquals("2.1", 1, SimpleConfiguratorUtils.readConfiguration(bundlesInfo.toURL(), BASE).size());
+		delete(folder);
+	}
+}
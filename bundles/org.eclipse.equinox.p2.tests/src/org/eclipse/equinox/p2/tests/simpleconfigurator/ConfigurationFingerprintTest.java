@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.simpleconfigurator;
+
+import java.io.File;
+import java.io.IOException;
+import org.eclipse.equinox.internal.simpleconfigurator.utils.ConfigurationFingerprint;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestActivator;
+import org.osgi.framework.Bundle;
+
+public class ConfigurationFingerprintTest extends AbstractProvisioningTest {
+	private static final String CONFIGURATION = "#version=1\na,1.0.0,plugins/a_1.0.0.jar,4,false\n";
+
+	public void testHashConfiguration() throws IOException {
+		File folder = getTempFolder();
+		File bundlesInfo = new File(folder, "bundles.info");
+		writeBuffer(bundlesInfo, new StringBuffer(CONFIGURATION));
+		String hash = ConfigurationFingerprint.hashConfiguration(bundlesInfo.toURL());
+		assertNotNull("1.0", hash);
+		assertEquals("1.1", hash, ConfigurationFingerprint.hashConfiguration(bundlesInfo.toURL()));
+
+		// same length, different content
+		writeBuffer(bundlesInfo, new StringBuffer(CONFIGURATION.replace('4', '5')));
+		assertFalse("2.0", hash.equals(ConfigurationFingerprint.hashConfiguration(bundlesInfo.toURL())));
+
+		assertNull("3.0", ConfigurationFingerprint.hashConfiguration(new File(folder, "missing.info").toURL()));
+		delete(folder);
+	}
+
+	public void testHashBundles() {
+		Bundle[] bundles = TestActivator.getContext().getBundles();
+		String hash = ConfigurationFingerprint.hashBundles(bundles);
+		assertEquals("1.0", hash, ConfigurationFingerprint.hashBundles(TestActivator.getContext().getBundles()));
+		Bundle[] fewer = new Bundle[bundles.length - 1];
+		System.arraycopy(bundles, 1, fewer, 0, fewer.length);
+		assertFalse("1.1", hash.equals(ConfigurationFingerprint.hashBundles(fewer)));
+	}
+
+	public void testSaveAndClear() {
+		File folder = getTempFolder();
+		folder.mkdirs();
+		ConfigurationFingerprint fingerprint = new ConfigurationFingerprint(new File(folder, "configuration.fingerprint"));
+		String value = ConfigurationFingerprint.compute("abc-10", "true,true,false,null", "def-3");
+		assertFalse("1.0", fingerprint.isApplied(value));
+		fingerprint.save(value);
+		assertTrue("1.1", fingerprint.isApplied(value));
+		assertFalse("1.2", fingerprint.isApplied(ConfigurationFingerprint.compute("abc-10", "false,true,false,null", "def-3")));
+		fingerprint.clear();
+		assertFalse("1.3", fingerprint.isApplied(value));
+		assertFalse("1.4", new ConfigurationFingerprint(null).isApplied(value));
+		delete(folder);
+	}
+}
@@ -19,6 +19,8 @@ public class SimpleConfiguratorTests {
 		suite.addTestSuite(SimpleConfiguratorUtilsTest.class);
 		suite.addTestSuite(BundlesTxtTest.class);
 		suite.addTestSuite(NonExclusiveMode.class);
+		suite.addTestSuite(ConfigurationFingerprintTest.class);
+		suite.addTestSuite(BinaryConfigurationTest.class);
 		//$JUnit-END$
 		return suite;
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2009, 2010 IBM Corporation and others.
+ *  Copyright (c) 2009, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -11,6 +11,7 @@
 package org.eclipse.equinox.p2.tests.updatesite;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.net.URI;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.URIUtil;
@@ -19,6 +20,7 @@ import org.eclipse.equinox.internal.p2.metadata.repository.SimpleMetadataReposit
 import org.eclipse.equinox.internal.p2.updatesite.artifact.UpdateSiteArtifactRepositoryFactory;
 import org.eclipse.equinox.internal.p2.updatesite.metadata.UpdateSiteMetadataRepositoryFactory;
 import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
@@ -74,4 +76,42 @@ public class DoesNotCacheStaleData extends AbstractProvisioningTest {
 			fail("3.0", e1);
 		}
 	}
+
+	public void testLoadChangedSiteForMetadata() throws Exception {
+		File siteDirectory = getTempFolder();
+		copy("0.1", getTestData("0.2", "testData/updatesite/site"), siteDirectory);
+		URI siteURI = siteDirectory.toURI();
+		File cache = URIUtil.toFile(UpdateSiteMetadataRepositoryFactory.getLocalRepositoryLocation(siteURI));
+		try {
+			UpdateSiteMetadataRepositoryFactory factory = new UpdateSiteMetadataRepositoryFactory();
+			factory.setAgent(getAgent());
+			IMetadataRepository repo = factory.load(siteURI, 0, new NullProgressMonitor());
+			int size = repo.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size();
+			assertTrue("1.0", size > 0);
+
+			// a site which was not modified is not read again
+			File siteXml = new File(siteDirectory, "site.xml");
+			long lastModified = siteXml.lastModified();
+			FileWriter writer = new FileWriter(siteXml);
+			try {
+				writer.write("not a site");
+			} finally {
+				writer.close();
+			}
+			siteXml.setLastModified(lastModified);
+			repo = factory.load(siteURI, 0, new NullProgressMonitor());
+			assertEquals("2.0", size, repo.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+
+			// a modified site is read again
+			siteXml.setLastModified(lastModified + 10000);
+			try {
+				factory.load(siteURI, 0, new NullProgressMonitor());
+				fail("3.0");
+			} catch (ProvisionException e) {
+				// expected
+			}
+		} finally {
+			delete(cache);
+		}
+	}
 }
@@ -18,6 +18,7 @@ import java.util.*;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
 import org.eclipse.osgi.util.NLS;
 
 /**
@@ -58,8 +59,19 @@ import org.eclipse.osgi.util.NLS;
  * Backup directories are created as they are needed and will (at least on Un*x) inherit the
  * permissions from its parent directory. 
  * 
- * If a rename can not be performed, the backup store will make a copy and delete the original
- * file. This makes it possible to backup and restore across volume boundaries.
+ * If a file can not be renamed into the backup directory, typically because the backup root is
+ * on another volume, and the store was given the install root of the files, a file inside the
+ * install root is renamed into a backup directory in the dedicated folder {@link #LOCAL_BACKUP_FOLDER}
+ * of the install root instead. That folder is removed again when the store is restored or discarded,
+ * and the backups left in it by a crashed process are removed by {@link #sweepLocalBackups(File, String)}.
+ * Only if a file can not be renamed, the backup store makes a copy and deletes the original file.
+ * This makes it possible to backup and restore across volume boundaries without copying the content
+ * of the files in the common case. The number of files and bytes that were renamed and copied are
+ * available from {@link #getBytesRenamed()}, {@link #getBytesCopied()} and the related methods.
+ * 
+ * Hard links are not used. A backup of a file being removed is a rename, which is as cheap as a link,
+ * and the copy left in place by {@link #backupCopy(File)} may be modified in place by its caller, which
+ * would also modify a linked backup.
  * 
  * When restoring directories they
  * will be created with permissions in a platform specific way (on UN*IX they will inherit the permissions 
@@ -104,6 +116,35 @@ public class BackupStore implements IBackupStore {
 	//private Map backups = new HashMap();
 	private final File backupRoot;
 
+	/**
+	 * The name of the folder of the install root holding the local backups.
+	 */
+	public static final String LOCAL_BACKUP_FOLDER = ".p2backups"; //$NON-NLS-1$
+
+	/**
+	 * The directory into which the backed up files are installed, or <code>null</code>.
+	 */
+	private final File installRoot;
+
+	/**
+	 * The backup root on the volume of the install root, used for the files of the install root
+	 * which can not be renamed into {@link #backupRoot}, or <code>null</code> if there is no
+	 * install root.
+	 */
+	private final File localBackupRoot;
+
+	/**
+	 * Flag indicating that files were renamed into {@link #localBackupRoot}.
+	 */
+	private boolean localBackupUsed;
+
+	/**
+	 * Flag indicating that a file which could not be renamed into {@link #backupRoot} was renamed
+	 * into the local backup root, so the backup root is on another volume than the install root
+	 * and renaming into it is only tried when the local backup root can not be used.
+	 */
+	private boolean backupRootRemote;
+
 	/**
 	 * The name of the backup directory (no path - relative to the backup root).
 	 */
@@ -137,6 +178,14 @@ public class BackupStore implements IBackupStore {
 	 */
 	private boolean closed;
 
+	/**
+	 * Number of files and bytes backed up by a rename, and by a copy of their content.
+	 */
+	private long filesRenamed;
+	private long bytesRenamed;
+	private long filesCopied;
+	private long bytesCopied;
+
 	/**
 	 * Generates a BackupStore with a default prefix of ".p2bu" for backup directory and
 	 * probe file. 
@@ -157,6 +206,20 @@ public class BackupStore implements IBackupStore {
 	 * @param prefix - prefix used for human identification of backup directories
 	 */
 	public BackupStore(File buParentDirectory, String prefix) {
+		this(buParentDirectory, prefix, null);
+	}
+
+	/**
+	 * Generates a BackupStore with a specified prefix for backup directories and
+	 * probe file, for files installed in the given directory.
+	 * 
+	 * @param buParentDirectory - name of directory where the backup directory should be created - if null, java.io.tmpdir is used
+	 * @param prefix - prefix used for human identification of backup directories
+	 * @param installRoot - directory into which the backed up files are installed - may be null
+	 */
+	public BackupStore(File buParentDirectory, String prefix, File installRoot) {
+		this.installRoot = installRoot == null ? null : installRoot.getAbsoluteFile();
+		localBackupRoot = installRoot == null ? null : new File(this.installRoot, LOCAL_BACKUP_FOLDER);
 		if (buParentDirectory == null)
 			buParentDirectory = new File(System.getProperty("java.io.tmpdir")); //$NON-NLS-1$
 		backupRoot = buParentDirectory;
@@ -196,6 +259,66 @@ public class BackupStore implements IBackupStore {
 		return backupRoot;
 	}
 
+	/**
+	 * Returns the backup root used for the files of the install root which can not be renamed
+	 * into {@link #getBackupRoot()}, or <code>null</code> if the store has no install root.
+	 */
+	public File getLocalBackupRoot() {
+		return localBackupRoot;
+	}
+
+	/**
+	 * Removes the backups left in the local backup folder of the given install root by stores with
+	 * the given prefix which were neither restored nor discarded, for example because the process
+	 * crashed. Must only be called when no store with the given prefix is in use.
+	 * 
+	 * @param installRoot - directory into which the backed up files are installed
+	 * @param prefix - prefix of the backup stores whose backups are removed
+	 */
+	public static void sweepLocalBackups(File installRoot, String prefix) {
+		File folder = new File(installRoot, LOCAL_BACKUP_FOLDER);
+		File[] children = folder.listFiles();
+		if (children == null)
+			return;
+		for (int i = 0; i < children.length; i++) {
+			if (!children[i].getName().startsWith(prefix + "_")) //$NON-NLS-1$
+				continue;
+			logWarning(NLS.bind(Messages.BackupStore_removing_stale_backup, children[i].getAbsolutePath()));
+			if (!fullyDelete(children[i]))
+				logWarning(NLS.bind(Messages.BackupStore_can_not_remove_bu_directory, children[i].getAbsolutePath()));
+		}
+		// only removed when no other store uses it
+		folder.delete();
+	}
+
+	/**
+	 * Returns the number of files backed up by renaming them.
+	 */
+	public long getFilesRenamed() {
+		return filesRenamed;
+	}
+
+	/**
+	 * Returns the number of bytes backed up by renaming files.
+	 */
+	public long getBytesRenamed() {
+		return bytesRenamed;
+	}
+
+	/**
+	 * Returns the number of files backed up by copying their content.
+	 */
+	public long getFilesCopied() {
+		return filesCopied;
+	}
+
+	/**
+	 * Returns the number of bytes copied to back up files.
+	 */
+	public long getBytesCopied() {
+		return bytesCopied;
+	}
+
 	/**
 	 * Backup the file by moving it to the backup store (for later (optional) restore).
 	 * Calling this method with a file that represents a directory is equivalent to calling 
@@ -226,7 +349,7 @@ public class BackupStore implements IBackupStore {
 		if (file.isDirectory())
 			return backupDirectory(file);
 		file = makeParentCanonical(file);
-		File buFile = getBackupFile(file);
+		File buFile = findBackupFile(file);
 		// already backed up, but was a directory = wrong usage
 		if (buFile.isDirectory())
 			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_directory_file_mismatch, buFile.getAbsolutePath()));
@@ -240,48 +363,148 @@ public class BackupStore implements IBackupStore {
 			return false;
 		}
 
-		moveToBackup(file, buFile);
+		moveToBackup(file);
 
 		return true;
 	}
 
 	/**
-	 * Move/rename file to a backup file. Callers of the method must have ensured that the source file exists and the
-	 * backup file has not been created yet.
+	 * Move/rename file to a backup file. Callers of the method must have ensured that the source file exists and 
+	 * has not been backed up yet.
 	 * 
 	 * @param file source file to move; should already exist and must not be directory
-	 * @param buFile destination backup file to move to; should not exist and must be a directory
 	 * @throws IOException if the backup operation fails
 	 */
-	private void moveToBackup(File file, File buFile) throws IOException {
-		// make sure all of the directories exist / gets created
-		buFile.getParentFile().mkdirs();
-		if (buFile.getParentFile().exists() && !buFile.getParentFile().isDirectory())
-			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_file_directory_mismatch, buFile.getParentFile().getAbsolutePath()));
-		if (file.renameTo(buFile)) {
+	private void moveToBackup(File file) throws IOException {
+		long length = file.length();
+		if (renameToMainOrLocalBackup(file)) {
 			backupCounter++;
+			filesRenamed++;
+			bytesRenamed += length;
 			return;
 		}
-		// could not move - this can happen because source and target are on different volumes, or
-		// that source is locked "in use" on a windows machine. The copy will work across volumes,
-		// but the locked file will fail on the subsequent delete.
+		// could not move - this can happen because source and target are on different volumes and the
+		// file is not in the install root, or that source is locked "in use" on a windows machine.
+		// The copy will work across volumes, but the locked file will fail on the subsequent delete.
 		//
+		File buFile = getBackupFile(file);
+		createParent(buFile);
 		Util.copyStream(new FileInputStream(file), true, new FileOutputStream(buFile), true);
 		backupCounter++;
+		filesCopied++;
+		bytesCopied += length;
 
 		// need to remove the backed up file
 		if (!file.delete())
 			throw new IOException(NLS.bind(Messages.BackupStore_can_not_delete_after_copy_0, file));
 	}
 
+	/**
+	 * Renames the file into the backup root, or into the local backup root if the file is in the
+	 * install root. Once a file could only be renamed into the local backup root, the backup root
+	 * is known to be on another volume and is only tried last.
+	 * 
+	 * @return true if the file was renamed
+	 */
+	private boolean renameToMainOrLocalBackup(File file) {
+		if (backupRootRemote)
+			return renameToLocalBackup(file) || renameToBackup(file, backupRoot);
+		if (renameToBackup(file, backupRoot))
+			return true;
+		if (!renameToLocalBackup(file))
+			return false;
+		// the file is not locked, so the rename into the backup root failed across volumes
+		backupRootRemote = true;
+		return true;
+	}
+
+	/**
+	 * Renames the file to its backup file under the given backup root. The directories created for
+	 * the backup file are removed again if the rename fails.
+	 * 
+	 * @return true if the file was renamed
+	 */
+	private boolean renameToBackup(File file, File root) {
+		File buFile = getBackupFile(root, file);
+		// find the first directory that needs to be created
+		File created = null;
+		for (File parent = buFile.getParentFile(); parent != null && !parent.exists(); parent = parent.getParentFile())
+			created = parent;
+		createParent(buFile);
+		if (file.renameTo(buFile))
+			return true;
+		if (created != null)
+			fullyDelete(created);
+		return false;
+	}
+
+	/**
+	 * Renames the file into the local backup root if it is in the install root.
+	 * 
+	 * @return true if the file was renamed
+	 */
+	private boolean renameToLocalBackup(File file) {
+		if (localBackupRoot == null || !isAncestor(installRoot, file.getAbsolutePath()))
+			return false;
+		if (!renameToBackup(file, localBackupRoot))
+			return false;
+		if (!localBackupUsed) {
+			localBackupUsed = true;
+			if (Tracing.DEBUG)
+				Tracing.debug("BackupStore " + backupName + ": using local backup root " + localBackupRoot); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return true;
+	}
+
+	private static boolean isAncestor(File root, String path) {
+		String rootPath = root.getAbsolutePath();
+		if (!rootPath.endsWith(File.separator))
+			rootPath += File.separator;
+		return path.startsWith(rootPath);
+	}
+
+	/**
+	 * Creates the parent directories of the given backup file.
+	 * @throws IllegalArgumentException if one of the parents is a file.
+	 */
+	private static void createParent(File buFile) {
+		// make sure all of the directories exist / gets created
+		buFile.getParentFile().mkdirs();
+		if (buFile.getParentFile().exists() && !buFile.getParentFile().isDirectory())
+			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_file_directory_mismatch, buFile.getParentFile().getAbsolutePath()));
+	}
+
 	private File getBackupFile(File file) {
-		File buRoot = backupRoot;
+		return getBackupFile(backupRoot, file);
+	}
+
+	private File getBackupFile(File buRoot, File file) {
 		File buDir = new File(buRoot, backupName);
 		// create the relative path from root and use that in buDir
 		File buFile = new File(buDir, makeRelativeFromRoot(file).getPath());
 		return buFile;
 	}
 
+	/**
+	 * Returns the existing backup file of the given file in any of the backup roots, or the backup file
+	 * in the backup root if the file has not been backed up yet.
+	 */
+	private File findBackupFile(File file) {
+		if (localBackupUsed) {
+			File buFile = getBackupFile(localBackupRoot, file);
+			if (buFile.exists())
+				return buFile;
+		}
+		return getBackupFile(file);
+	}
+
+	/**
+	 * Returns whether the given file is a directory of the backups, which is never backed up.
+	 */
+	private boolean isBackupDirectory(File file) {
+		return file.getName().equals(backupName) || file.equals(localBackupRoot);
+	}
+
 	/**
 	 * Backs up a file, or everything under a directory.
 	 * 
@@ -296,7 +519,8 @@ public class BackupStore implements IBackupStore {
 			File[] files = file.listFiles();
 			if (files != null)
 				for (int i = 0; i < files.length; i++)
-					backupAll(files[i]);
+					if (!isBackupDirectory(files[i]))
+						backupAll(files[i]);
 		}
 		backup(file);
 	}
@@ -315,7 +539,8 @@ public class BackupStore implements IBackupStore {
 			File[] files = file.listFiles();
 			if (files != null)
 				for (int i = 0; i < files.length; i++)
-					backupCopyAll(files[i]);
+					if (!isBackupDirectory(files[i]))
+						backupCopyAll(files[i]);
 			// if directory was empty, it needs to be backed up and then recreated
 			//
 			if (files == null || files.length == 0) {
@@ -356,12 +581,7 @@ public class BackupStore implements IBackupStore {
 		if (file.isDirectory())
 			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_can_not_copy_directory, file.getAbsolutePath()));
 		file = makeParentCanonical(file);
-		//File buRoot = backupRoot;
-		// File buRoot = findBackupRoot(file);
-		File buDir = new File(backupRoot, backupName);
-		// move the file
-		// create the relative path from root and use that in buDir
-		File buFile = new File(buDir, makeRelativeFromRoot(file).getPath());
+		File buFile = findBackupFile(file);
 		// already backed up, but was a directory = wrong usage
 		if (buFile.isDirectory())
 			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_directory_file_mismatch, buFile.getAbsolutePath()));
@@ -379,6 +599,8 @@ public class BackupStore implements IBackupStore {
 		// but it is easier to just copy and keep original.
 		Util.copyStream(new FileInputStream(file), true, new FileOutputStream(buFile), true);
 		backupCounter++;
+		filesCopied++;
+		bytesCopied += buFile.length();
 		return true;
 	}
 
@@ -401,7 +623,7 @@ public class BackupStore implements IBackupStore {
 		// the easiest way is to create a dummy file and back that up (the dummy is simply ignored when restoring).
 		File dummy = new File(file, dummyName);
 		dummy = makeParentCanonical(dummy);
-		File buFile = getBackupFile(dummy);
+		File buFile = findBackupFile(dummy);
 		boolean backedUp = buFile.exists();
 		// backup only if the folder has not been already backed up;
 		// this can happen if, for example, two IUs unzip to the same folder and then want to delete it
@@ -410,7 +632,7 @@ public class BackupStore implements IBackupStore {
 				throw new ClosedBackupStoreException("Can not perform backup()"); //$NON-NLS-1$
 			if (!dummy.createNewFile())
 				throw new IOException(NLS.bind(Messages.BackupStore_can_not_create_dummy, dummy.getAbsolutePath()));
-			moveToBackup(dummy, buFile);
+			moveToBackup(dummy);
 		}
 		// previous checks have verified that the directory exists
 		if (!file.delete())
@@ -443,8 +665,14 @@ public class BackupStore implements IBackupStore {
 		if (!backupRoot.exists()) {
 			logError(NLS.bind(Messages.BackupStore_missing_backup_directory, backupRoot.getAbsolutePath()));
 			restored = false;
-		} else
-			restoreRoots(new File(backupRoot, backupName), unrestorable);
+		} else {
+			File buRoot = new File(backupRoot, backupName);
+			// all files may have been backed up in the local backup root
+			if (buRoot.exists() || !localBackupUsed)
+				restoreRoots(buRoot, unrestorable);
+		}
+		if (localBackupUsed)
+			restoreRoots(new File(localBackupRoot, backupName), unrestorable);
 
 		logUnrestorables(unrestorable);
 		if (unrestorable.size() > 0)
@@ -469,12 +697,14 @@ public class BackupStore implements IBackupStore {
 	public void discard() {
 		if (closed)
 			return;
+		traceStatistics();
 		closeSocket();
 		removeBackups();
 		closed = true;
 	}
 
 	private void close(boolean fullyRestored) throws IOException {
+		traceStatistics();
 		closeSocket();
 		// check external tampering with backup store
 		if (backupCounter != restoreCounter) {
@@ -504,6 +734,18 @@ public class BackupStore implements IBackupStore {
 		File buRoot = new File(backupRoot, backupName);
 		if (!fullyDelete(buRoot))
 			logWarning(NLS.bind(Messages.BackupStore_can_not_remove_bu_directory, buRoot.getAbsolutePath()));
+		if (localBackupUsed) {
+			buRoot = new File(localBackupRoot, backupName);
+			if (!fullyDelete(buRoot))
+				logWarning(NLS.bind(Messages.BackupStore_can_not_remove_bu_directory, buRoot.getAbsolutePath()));
+			// only removed when no other store uses it
+			localBackupRoot.delete();
+		}
+	}
+
+	private void traceStatistics() {
+		if (Tracing.DEBUG && backupCounter > 0)
+			Tracing.debug("BackupStore " + backupName + ": renamed " + filesRenamed + " files (" + bytesRenamed + " bytes), copied " + filesCopied + " files (" + bytesCopied + " bytes)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
 	}
 
 	private static void logWarning(String message) {
@@ -527,7 +769,7 @@ public class BackupStore implements IBackupStore {
 	 * @param file the file or directory to fully delete
 	 * @return true if, and only if the file is deleted without errors
 	 */
-	private boolean fullyDelete(File file) {
+	private static boolean fullyDelete(File file) {
 		if (!file.exists())
 			return true;
 		if (file.isDirectory()) {
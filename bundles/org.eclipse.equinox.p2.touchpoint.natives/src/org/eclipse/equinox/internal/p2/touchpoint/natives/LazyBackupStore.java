@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009 Cloudsmith Inc. and others.
+ * Copyright (c) 2009, 2011 Cloudsmith Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -15,39 +15,50 @@ import java.io.IOException;
 
 /**
  * LazyBackupStore is a BackupStore that only instantiates a real backup store
- * when needed.
+ * when needed. It can be used by actions executed concurrently.
  * 
  *
  */
 public class LazyBackupStore implements IBackupStore {
 	private BackupStore delegate;
 	private final String prefix;
+	private final File installRoot;
 
 	/**
 	 * Creates a new lazy backup store
 	 * @param prefix The prefix to use in constructing the backup store directory
 	 */
 	public LazyBackupStore(String prefix) {
+		this(prefix, null);
+	}
+
+	/**
+	 * Creates a new lazy backup store for files installed in the given directory
+	 * @param prefix The prefix to use in constructing the backup store directory
+	 * @param installRoot The directory into which the backed up files are installed, or <code>null</code>
+	 */
+	public LazyBackupStore(String prefix, File installRoot) {
 		this.prefix = prefix;
+		this.installRoot = installRoot;
 	}
 
-	public boolean backup(File file) throws IOException {
+	public synchronized boolean backup(File file) throws IOException {
 		loadDelegate();
 		return delegate.backup(file);
 	}
 
-	public boolean backupDirectory(File file) throws IOException {
+	public synchronized boolean backupDirectory(File file) throws IOException {
 		loadDelegate();
 		return delegate.backupDirectory(file);
 	}
 
-	public void discard() {
+	public synchronized void discard() {
 		if (delegate == null)
 			return;
 		delegate.discard();
 	}
 
-	public void restore() throws IOException {
+	public synchronized void restore() throws IOException {
 		if (delegate == null)
 			return;
 		delegate.restore();
@@ -56,25 +67,25 @@ public class LazyBackupStore implements IBackupStore {
 	private void loadDelegate() {
 		if (delegate != null)
 			return;
-		delegate = new BackupStore(null, prefix);
+		delegate = new BackupStore(null, prefix, installRoot);
 	}
 
-	public String getBackupName() {
+	public synchronized String getBackupName() {
 		loadDelegate();
 		return delegate.getBackupName();
 	}
 
-	public boolean backupCopy(File file) throws IOException {
+	public synchronized boolean backupCopy(File file) throws IOException {
 		loadDelegate();
 		return delegate.backupCopy(file);
 	}
 
-	public void backupCopyAll(File file) throws IOException {
+	public synchronized void backupCopyAll(File file) throws IOException {
 		loadDelegate();
 		delegate.backupCopyAll(file);
 	}
 
-	public void backupAll(File file) throws IOException {
+	public synchronized void backupAll(File file) throws IOException {
 		loadDelegate();
 		delegate.backupAll(file);
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2009 IBM Corporation and others.
+ * Copyright (c) 2007, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -38,6 +38,7 @@ public class Messages extends NLS {
 	public static String BackupStore_manual_restore_needed;
 	public static String BackupStore_missing_backup_directory;
 	public static String BackupStore_not_a_directory;
+	public static String BackupStore_removing_stale_backup;
 	public static String BackupStore_restore_closed_store;
 
 	public static String action_0_failed_file_1_doesNotExist;
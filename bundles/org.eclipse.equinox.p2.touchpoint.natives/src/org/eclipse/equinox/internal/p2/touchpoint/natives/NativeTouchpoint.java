@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -131,7 +131,13 @@ public class NativeTouchpoint extends Touchpoint {
 	private static synchronized IBackupStore getBackupStore(IProfile profile) {
 		IBackupStore store = backups.get(profile);
 		if (store == null) {
-			store = new LazyBackupStore(escape(profile.getProfileId()));
+			String installFolder = Util.getInstallFolder(profile);
+			File installRoot = installFolder == null ? null : new File(installFolder);
+			String prefix = escape(profile.getProfileId());
+			// no store of the profile is in use, so local backups left with its prefix are stale
+			if (installRoot != null)
+				BackupStore.sweepLocalBackups(installRoot, prefix);
+			store = new LazyBackupStore(prefix, installRoot);
 			backups.put(profile, store);
 		}
 		return store;
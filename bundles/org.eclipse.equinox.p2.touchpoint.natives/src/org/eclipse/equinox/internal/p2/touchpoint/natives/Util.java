@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -17,6 +17,8 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.core.helpers.ZipExtractor;
+import org.eclipse.equinox.internal.p2.engine.EngineMetrics;
 import org.eclipse.equinox.p2.core.*;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.repository.IRepository;
@@ -80,15 +82,23 @@ public class Util {
 	 * Unzip from a File to an output directory, with progress indication and backup.
 	 * monitor and backup store may be null.
 	 */
-	public static File[] unzipFile(File zipFile, File outputDir, IBackupStore store, String taskName, IProgressMonitor monitor) throws IOException {
-		InputStream in = new FileInputStream(zipFile);
+	public static File[] unzipFile(File zipFile, File outputDir, final IBackupStore store, String taskName, IProgressMonitor monitor) throws IOException {
+		ZipExtractor extractor = new ZipExtractor(zipFile, outputDir) {
+			protected void prepareExisting(File outFile) throws IOException {
+				if (store != null)
+					store.backup(outFile);
+				else
+					outFile.delete();
+			}
+		};
 		try {
-			return unzipStream(in, zipFile.length(), outputDir, store, taskName, monitor);
+			File[] result = extractor.extract(taskName, monitor);
+			EngineMetrics.recordBytesRead(zipFile.length());
+			EngineMetrics.recordBytesWritten(extractor.getBytesWritten());
+			return result;
 		} catch (IOException e) {
 			// add the file name to the message
 			throw new IOException(NLS.bind(Messages.Util_Error_Unzipping, zipFile, e.getMessage()));
-		} finally {
-			in.close();
 		}
 	}
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2010 IBM Corporation and others.
+ *  Copyright (c) 2008, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -14,8 +14,7 @@ package org.eclipse.equinox.internal.p2.updatesite;
 import java.io.*;
 import java.lang.ref.SoftReference;
 import java.net.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.zip.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
@@ -24,6 +23,7 @@ import org.eclipse.equinox.internal.p2.repository.Transport;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.publisher.eclipse.*;
 import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.BundleContext;
 import org.xml.sax.SAXException;
 
 /**
@@ -31,6 +31,15 @@ import org.xml.sax.SAXException;
  */
 public class UpdateSite {
 
+	/**
+	 * System property specifying the maximum number of threads downloading and parsing
+	 * the features of a site which has no digest. A value of 1 loads the features one after
+	 * the other in the calling thread.
+	 */
+	public static final String PROP_FEATURE_THREADS = "eclipse.p2.updatesite.feature.threads"; //$NON-NLS-1$
+	private static final int DEFAULT_FEATURE_THREADS = 4;
+	private static final long POLL_INTERVAL = 100;
+
 	private static final String VERSION_SEPARATOR = "_"; //$NON-NLS-1$
 	private static final String JAR_EXTENSION = ".jar"; //$NON-NLS-1$
 	private static final String FEATURE_DIR = "features/"; //$NON-NLS-1$
@@ -170,6 +179,30 @@ public class UpdateSite {
 		}
 	}
 
+	/**
+	 * Return the time the site file at the given location was last modified, without downloading
+	 * it, or 0 if it is not known.
+	 */
+	public static long getSiteTimestamp(URI location, Transport transport, IProgressMonitor monitor) {
+		return getLastModified(getSiteURI(location), transport, monitor);
+	}
+
+	/**
+	 * Return the time the file at the given location was last modified, or 0 if the file does
+	 * not exist or the time is not known.
+	 */
+	public static long getLastModified(URI location, Transport transport, IProgressMonitor monitor) {
+		if (PROTOCOL_FILE.equals(location.getScheme()))
+			return URIUtil.toFile(location).lastModified();
+		try {
+			return transport.getLastModified(location, monitor);
+		} catch (IOException e) {
+			return 0;
+		} catch (CoreException e) {
+			return 0;
+		}
+	}
+
 	/**
 	 * Returns a local file containing the contents of the update site at the given location.
 	 */
@@ -492,7 +525,10 @@ public class UpdateSite {
 		return null;
 	}
 
-	private URI getDigestURI() {
+	/*
+	 * Return the location of the digest of this site, which may not exist.
+	 */
+	public URI getDigestURI() {
 		URI digestBase = null;
 		String digestURIString = site.getDigestURIString();
 		if (digestURIString != null) {
@@ -513,60 +549,205 @@ public class UpdateSite {
 	 */
 	private Feature[] loadFeaturesFromSite(IProgressMonitor monitor) throws ProvisionException {
 		SiteFeature[] siteFeatures = site.getFeatures();
-		FeatureParser featureParser = new FeatureParser();
-		Map<String, Feature> tmpFeatureCache = new HashMap<String, Feature>(siteFeatures.length);
+		FeatureLoader loader = new FeatureLoader(siteFeatures);
+		int threads = Math.min(getFeatureThreads(), siteFeatures.length);
+		if (threads > 1)
+			loader.loadInParallel(threads, monitor);
+		else
+			loader.load(new FeatureParser(), monitor);
+		featureCache = loader.features;
+		return featureCache.values().toArray(new Feature[featureCache.size()]);
+	}
 
-		for (int i = 0; i < siteFeatures.length; i++) {
-			if (monitor.isCanceled()) {
-				throw new OperationCanceledException();
-			}
-			SiteFeature siteFeature = siteFeatures[i];
-			String key = null;
-			if (siteFeature.getFeatureIdentifier() != null && siteFeature.getFeatureVersion() != null) {
-				key = siteFeature.getFeatureIdentifier() + VERSION_SEPARATOR + siteFeature.getFeatureVersion();
-				if (tmpFeatureCache.containsKey(key))
-					continue;
-			}
-			URI featureURI = getSiteFeatureURI(siteFeature);
-			Feature feature = parseFeature(featureParser, featureURI, new NullProgressMonitor());
-			if (feature == null) {
-				LogHelper.log(new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.ErrorReadingFeature, featureURI)));
-			} else {
-				if (key == null) {
-					siteFeature.setFeatureIdentifier(feature.getId());
-					siteFeature.setFeatureVersion(feature.getVersion());
-					key = siteFeature.getFeatureIdentifier() + VERSION_SEPARATOR + siteFeature.getFeatureVersion();
-				}
-				tmpFeatureCache.put(key, feature);
-				loadIncludedFeatures(feature, featureParser, tmpFeatureCache, monitor);
+	/*
+	 * Return the maximum number of threads loading the features of a site, as configured
+	 * by the PROP_FEATURE_THREADS property.
+	 */
+	private static int getFeatureThreads() {
+		BundleContext context = Activator.getBundleContext();
+		String value = context == null ? System.getProperty(PROP_FEATURE_THREADS) : context.getProperty(PROP_FEATURE_THREADS);
+		if (value != null) {
+			try {
+				return Math.max(1, Integer.parseInt(value));
+			} catch (NumberFormatException e) {
+				System.err.println("Ignoring user-specified '" + PROP_FEATURE_THREADS + "' value of: " + value); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 		}
-		featureCache = tmpFeatureCache;
-		return featureCache.values().toArray(new Feature[featureCache.size()]);
+		return DEFAULT_FEATURE_THREADS;
 	}
 
 	/*
-	 * Load the features that are included by the given feature.
+	 * A feature to download and parse: either a feature listed by the site, or a feature
+	 * included by another one.
 	 */
-	private void loadIncludedFeatures(Feature feature, FeatureParser featureParser, Map<String, Feature> features, IProgressMonitor monitor) throws ProvisionException {
-		FeatureEntry[] featureEntries = feature.getEntries();
-		for (int i = 0; i < featureEntries.length; i++) {
+	private static class FeatureRequest {
+		final URI featureURI;
+		final SiteFeature siteFeature;
+		final String key;
+
+		FeatureRequest(URI featureURI, SiteFeature siteFeature, String key) {
+			this.featureURI = featureURI;
+			this.siteFeature = siteFeature;
+			this.key = key;
+		}
+	}
+
+	/*
+	 * Loads the features listed by the site and, transitively, the features they include.
+	 * Each feature is requested once, and the features included by a loaded feature are
+	 * requested as soon as it is parsed, so that several threads can download and parse
+	 * features at the same time.
+	 */
+	private class FeatureLoader {
+		private final Object lock = new Object();
+		private final LinkedList<FeatureRequest> queue = new LinkedList<FeatureRequest>();
+		// the keys of the features requested so far
+		private final Set<String> requested = new HashSet<String>();
+		final Map<String, Feature> features;
+		// the number of requests taken from the queue which are not completed yet
+		private int inProgress = 0;
+		private int running = 0;
+		private Throwable failure;
+
+		FeatureLoader(SiteFeature[] siteFeatures) {
+			features = new HashMap<String, Feature>(siteFeatures.length);
+			for (int i = 0; i < siteFeatures.length; i++) {
+				SiteFeature siteFeature = siteFeatures[i];
+				String key = null;
+				if (siteFeature.getFeatureIdentifier() != null && siteFeature.getFeatureVersion() != null) {
+					key = siteFeature.getFeatureIdentifier() + VERSION_SEPARATOR + siteFeature.getFeatureVersion();
+					if (!requested.add(key))
+						continue;
+				}
+				queue.add(new FeatureRequest(getSiteFeatureURI(siteFeature), siteFeature, key));
+			}
+		}
+
+		/*
+		 * Load the requested features in the calling thread, until none is left.
+		 */
+		void load(FeatureParser featureParser, IProgressMonitor monitor) {
+			FeatureRequest request;
+			while ((request = next(monitor)) != null) {
+				Feature feature = null;
+				try {
+					// checked here, so that the request is always completed
+					if (monitor.isCanceled())
+						throw new OperationCanceledException();
+					feature = parseFeature(featureParser, request.featureURI, monitor);
+				} finally {
+					completed(request, feature, monitor);
+				}
+			}
 			if (monitor.isCanceled())
 				throw new OperationCanceledException();
-			FeatureEntry entry = featureEntries[i];
-			if (entry.isRequires() || entry.isPlugin())
-				continue;
-			String key = entry.getId() + VERSION_SEPARATOR + entry.getVersion();
-			if (features.containsKey(key))
-				continue;
-
-			URI includedFeatureURI = getFeatureURI(entry.getId(), entry.getVersion());
-			Feature includedFeature = parseFeature(featureParser, includedFeatureURI, monitor);
-			if (includedFeature == null) {
-				LogHelper.log(new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.ErrorReadingFeature, includedFeatureURI)));
-			} else {
-				features.put(key, includedFeature);
-				loadIncludedFeatures(includedFeature, featureParser, features, monitor);
+		}
+
+		void loadInParallel(int threads, IProgressMonitor monitor) {
+			final IProgressMonitor threadMonitor = new NullProgressMonitor();
+			synchronized (lock) {
+				for (int i = 0; i < threads; i++) {
+					running++;
+					Thread thread = new Thread("p2 update site feature loader " + i) { //$NON-NLS-1$
+						public void run() {
+							try {
+								load(new FeatureParser(), threadMonitor);
+							} catch (Throwable t) {
+								synchronized (lock) {
+									if (failure == null)
+										failure = t;
+									queue.clear();
+								}
+							} finally {
+								synchronized (lock) {
+									running--;
+									lock.notifyAll();
+								}
+							}
+						}
+					};
+					thread.setDaemon(true);
+					thread.start();
+				}
+				while (running > 0) {
+					if (monitor.isCanceled() && !threadMonitor.isCanceled()) {
+						threadMonitor.setCanceled(true);
+						queue.clear();
+						lock.notifyAll();
+					}
+					try {
+						lock.wait(POLL_INTERVAL);
+					} catch (InterruptedException e) {
+						// ignore
+					}
+				}
+				if (monitor.isCanceled())
+					throw new OperationCanceledException();
+				if (failure instanceof RuntimeException)
+					throw (RuntimeException) failure;
+				if (failure instanceof Error)
+					throw (Error) failure;
+			}
+		}
+
+		/*
+		 * Return the next feature to load, waiting for the features being loaded to request
+		 * the features they include, or null once all features are loaded, the loading is
+		 * canceled or a loading thread failed.
+		 */
+		private FeatureRequest next(IProgressMonitor monitor) {
+			synchronized (lock) {
+				while (true) {
+					if (monitor.isCanceled() || failure != null)
+						return null;
+					if (!queue.isEmpty())
+						break;
+					if (inProgress == 0)
+						return null;
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						// ignore
+					}
+				}
+				inProgress++;
+				return queue.removeFirst();
+			}
+		}
+
+		private void completed(FeatureRequest request, Feature feature, IProgressMonitor monitor) {
+			synchronized (lock) {
+				inProgress--;
+				if (feature == null) {
+					if (!monitor.isCanceled())
+						LogHelper.log(new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.ErrorReadingFeature, request.featureURI)));
+				} else {
+					String key = request.key;
+					if (key == null) {
+						request.siteFeature.setFeatureIdentifier(feature.getId());
+						request.siteFeature.setFeatureVersion(feature.getVersion());
+						key = feature.getId() + VERSION_SEPARATOR + feature.getVersion();
+						requested.add(key);
+					}
+					features.put(key, feature);
+					requestIncludedFeatures(feature);
+				}
+				lock.notifyAll();
+			}
+		}
+
+		/*
+		 * Request the features that are included by the given feature.
+		 */
+		private void requestIncludedFeatures(Feature feature) {
+			FeatureEntry[] featureEntries = feature.getEntries();
+			for (int i = 0; i < featureEntries.length; i++) {
+				FeatureEntry entry = featureEntries[i];
+				if (entry.isRequires() || entry.isPlugin())
+					continue;
+				String key = entry.getId() + VERSION_SEPARATOR + entry.getVersion();
+				if (requested.add(key))
+					queue.add(new FeatureRequest(getFeatureURI(entry.getId(), entry.getVersion()), null, key));
 			}
 		}
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 IBM Corporation and others.
+ * Copyright (c) 2008, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -15,6 +15,7 @@ package org.eclipse.equinox.internal.p2.updatesite.metadata;
 
 import java.io.File;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Map;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository;
@@ -30,6 +31,9 @@ import org.eclipse.osgi.util.NLS;
 
 public class UpdateSiteMetadataRepositoryFactory extends MetadataRepositoryFactory {
 	private static final String PROP_SITE_CHECKSUM = "site.checksum"; //$NON-NLS-1$
+	private static final String PROP_SITE_TIMESTAMP = "site.timestamp"; //$NON-NLS-1$
+	private static final String PROP_DIGEST_LOCATION = "site.digest.location"; //$NON-NLS-1$
+	private static final String PROP_DIGEST_TIMESTAMP = "site.digest.timestamp"; //$NON-NLS-1$
 
 	public static URI getLocalRepositoryLocation(URI location) {
 		String stateDirName = Integer.toString(location.hashCode());
@@ -66,6 +70,7 @@ public class UpdateSiteMetadataRepositoryFactory extends MetadataRepositoryFacto
 	}
 
 	private void resetCache(IMetadataRepository repository) {
+		repository.setProperty(PROP_SITE_TIMESTAMP, null);
 		repository.setProperty(PROP_SITE_CHECKSUM, "0"); //$NON-NLS-1$
 		repository.removeAll();
 	}
@@ -84,20 +89,53 @@ public class UpdateSiteMetadataRepositoryFactory extends MetadataRepositoryFacto
 	}
 
 	public void initializeRepository(IMetadataRepository repository, URI location, IProgressMonitor monitor) throws ProvisionException {
-		UpdateSite updateSite = UpdateSite.load(location, (Transport) getAgent().getService(Transport.SERVICE_NAME), monitor);
-		String savedChecksum = repository.getProperties().get(PROP_SITE_CHECKSUM);
-		if (savedChecksum != null && savedChecksum.equals(updateSite.getChecksum()))
+		Transport transport = (Transport) getAgent().getService(Transport.SERVICE_NAME);
+		long siteTimestamp = UpdateSite.getSiteTimestamp(location, transport, monitor);
+		if (isCacheCurrent(repository, siteTimestamp, transport, monitor))
 			return;
-		repository.setProperty(PROP_SITE_CHECKSUM, updateSite.getChecksum());
-		repository.removeAll();
-		IStatus status = generateMetadata(updateSite, repository, monitor);
-		//site references should be published on load
-		if (repository instanceof LocalMetadataRepository)
-			((LocalMetadataRepository) repository).publishRepositoryReferences();
-		if (monitor.isCanceled())
-			throw new OperationCanceledException();
-		if (!status.isOK())
-			throw new ProvisionException(status);
+		UpdateSite updateSite = UpdateSite.load(location, transport, monitor);
+		URI digestLocation = updateSite.getDigestURI();
+		String digestTimestamp = Long.toString(UpdateSite.getLastModified(digestLocation, transport, monitor));
+		Map<String, String> properties = repository.getProperties();
+		String savedChecksum = properties.get(PROP_SITE_CHECKSUM);
+		if (savedChecksum == null || !savedChecksum.equals(updateSite.getChecksum()) || !digestTimestamp.equals(properties.get(PROP_DIGEST_TIMESTAMP))) {
+			repository.setProperty(PROP_SITE_TIMESTAMP, null);
+			repository.setProperty(PROP_SITE_CHECKSUM, updateSite.getChecksum());
+			repository.removeAll();
+			IStatus status = generateMetadata(updateSite, repository, monitor);
+			//site references should be published on load
+			if (repository instanceof LocalMetadataRepository)
+				((LocalMetadataRepository) repository).publishRepositoryReferences();
+			if (monitor.isCanceled())
+				throw new OperationCanceledException();
+			if (!status.isOK())
+				throw new ProvisionException(status);
+			repository.setProperty(PROP_DIGEST_LOCATION, digestLocation.toString());
+			repository.setProperty(PROP_DIGEST_TIMESTAMP, digestTimestamp);
+		}
+		// the next time, the site is only downloaded again if it changed
+		if (siteTimestamp != 0)
+			repository.setProperty(PROP_SITE_TIMESTAMP, Long.toString(siteTimestamp));
+	}
+
+	/*
+	 * Return whether the metadata cached for a site was generated from the same site file and digest
+	 * as the ones the site currently has. This is decided from the time they were last modified,
+	 * without downloading them.
+	 */
+	private boolean isCacheCurrent(IMetadataRepository repository, long siteTimestamp, Transport transport, IProgressMonitor monitor) {
+		Map<String, String> properties = repository.getProperties();
+		if (siteTimestamp == 0 || !Long.toString(siteTimestamp).equals(properties.get(PROP_SITE_TIMESTAMP)))
+			return false;
+		String digestLocation = properties.get(PROP_DIGEST_LOCATION);
+		String digestTimestamp = properties.get(PROP_DIGEST_TIMESTAMP);
+		if (digestLocation == null || digestTimestamp == null)
+			return false;
+		try {
+			return digestTimestamp.equals(Long.toString(UpdateSite.getLastModified(new URI(digestLocation), transport, monitor)));
+		} catch (URISyntaxException e) {
+			return false;
+		}
 	}
 
 	private IStatus generateMetadata(UpdateSite updateSite, IMetadataRepository repository, IProgressMonitor monitor) {
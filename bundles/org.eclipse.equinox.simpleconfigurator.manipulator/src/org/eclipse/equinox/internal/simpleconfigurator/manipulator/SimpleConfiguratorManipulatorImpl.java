@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others. All rights reserved.
+ * Copyright (c) 2007, 2011 IBM Corporation and others. All rights reserved.
  * This program and the accompanying materials are made available under the
  * terms of the Eclipse Public License v1.0 which accompanies this distribution,
  * and is available at http://www.eclipse.org/legal/epl-v10.html
@@ -19,7 +19,9 @@ import org.eclipse.equinox.internal.frameworkadmin.utils.Utils;
 import org.eclipse.equinox.internal.provisional.configuratormanipulator.ConfiguratorManipulator;
 import org.eclipse.equinox.internal.provisional.frameworkadmin.*;
 import org.eclipse.equinox.internal.simpleconfigurator.SimpleConfiguratorImpl;
+import org.eclipse.equinox.internal.simpleconfigurator.utils.BinaryConfiguration;
 import org.eclipse.equinox.internal.simpleconfigurator.utils.EquinoxUtils;
+import org.eclipse.equinox.internal.simpleconfigurator.utils.SimpleConfiguratorConstants;
 import org.eclipse.equinox.internal.simpleconfigurator.utils.SimpleConfiguratorUtils;
 import org.eclipse.equinox.simpleconfigurator.manipulator.SimpleConfiguratorManipulator;
 import org.eclipse.osgi.service.datalocation.Location;
@@ -331,10 +333,27 @@ public class SimpleConfiguratorManipulatorImpl implements SimpleConfiguratorMani
 			}
 		}
 
+		// use the binary companion of the config file when it is up to date
+		if ("file".equals(configURL.getProtocol())) { //$NON-NLS-1$
+			List simpleBundles = BinaryConfiguration.read(new File(configURL.getFile()), installArea);
+			if (simpleBundles != null) {
+				stream.close();
+				return toFrameworkAdminBundleInfos(simpleBundles);
+			}
+		}
+
 		//stream will be closed
 		return loadConfiguration(stream, installArea);
 	}
 
+	private BundleInfo[] loadConfiguration(File configFile, URI installArea) throws IOException {
+		List simpleBundles = BinaryConfiguration.read(configFile, installArea);
+		if (simpleBundles != null)
+			return toFrameworkAdminBundleInfos(simpleBundles);
+		//input stream will be closed for us
+		return loadConfiguration(new FileInputStream(configFile), installArea);
+	}
+
 	/*
 	 * InputStream must be closed
 	 * (non-Javadoc)
@@ -345,7 +364,10 @@ public class SimpleConfiguratorManipulatorImpl implements SimpleConfiguratorMani
 			return NULL_BUNDLEINFOS;
 
 		List simpleBundles = SimpleConfiguratorUtils.readConfiguration(stream, installArea);
+		return toFrameworkAdminBundleInfos(simpleBundles);
+	}
 
+	private BundleInfo[] toFrameworkAdminBundleInfos(List simpleBundles) {
 		// convert to FrameworkAdmin BundleInfo Type
 		BundleInfo[] result = new BundleInfo[simpleBundles.size()];
 		int i = 0;
@@ -386,6 +408,7 @@ public class SimpleConfiguratorManipulatorImpl implements SimpleConfiguratorMani
 			if (outputFile.exists()) {
 				outputFile.delete();
 			}
+			BinaryConfiguration.getFile(outputFile).delete();
 			File parentDir = outputFile.getParentFile();
 			if (parentDir.exists()) {
 				parentDir.delete();
@@ -393,6 +416,23 @@ public class SimpleConfiguratorManipulatorImpl implements SimpleConfiguratorMani
 			return;
 		}
 		SimpleConfiguratorManipulatorUtils.writeConfiguration(simpleInfos, outputFile);
+		saveBinaryConfiguration(simpleInfos, outputFile);
+	}
+
+	/*
+	 * Write the binary companion of the config file if it is enabled, or if there is
+	 * already one which would otherwise be out of date.
+	 */
+	private void saveBinaryConfiguration(org.eclipse.equinox.internal.simpleconfigurator.utils.BundleInfo[] simpleInfos, File outputFile) {
+		File binaryFile = BinaryConfiguration.getFile(outputFile);
+		if (!binaryFile.exists() && !Boolean.valueOf(System.getProperty(SimpleConfiguratorConstants.PROP_KEY_BINARY_CONFIGURATION)).booleanValue())
+			return;
+		try {
+			BinaryConfiguration.write(outputFile, simpleInfos);
+		} catch (IOException e) {
+			// the config file is read instead
+			binaryFile.delete();
+		}
 	}
 
 	private org.eclipse.equinox.internal.simpleconfigurator.utils.BundleInfo[] convertBundleInfos(BundleInfo[] configuration, URI installArea) {
@@ -494,8 +534,7 @@ public class SimpleConfiguratorManipulatorImpl implements SimpleConfiguratorMani
 		File installArea = ParserUtils.getOSGiInstallArea(Arrays.asList(manipulator.getLauncherData().getProgramArgs()), manipulator.getConfigData().getProperties(), manipulator.getLauncherData());
 		BundleInfo[] toInstall = null;
 		try {
-			//input stream will be closed for us
-			toInstall = loadConfiguration(new FileInputStream(configFile), installArea.toURI());
+			toInstall = loadConfiguration(configFile, installArea.toURI());
 		} catch (FileNotFoundException e) {
 			//no file, just return an empty list
 			toInstall = new BundleInfo[0];
@@ -534,6 +573,7 @@ public class SimpleConfiguratorManipulatorImpl implements SimpleConfiguratorMani
 	public void cleanup(Manipulator manipulator) {
 		File outputFile = getConfigFile(manipulator);
 		outputFile.delete();
+		BinaryConfiguration.getFile(outputFile).delete();
 
 		if (outputFile.getParentFile().isDirectory())
 			outputFile.getParentFile().delete();
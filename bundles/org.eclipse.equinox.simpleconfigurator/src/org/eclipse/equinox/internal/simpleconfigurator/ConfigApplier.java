@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2009 IBM Corporation and others. All rights reserved.
+ * Copyright (c) 2007, 2011 IBM Corporation and others. All rights reserved.
  * This program and the accompanying materials are made available under the
  * terms of the Eclipse Public License v1.0 which accompanies this distribution,
  * and is available at http://www.eclipse.org/legal/epl-v10.html
@@ -19,6 +19,7 @@ import org.osgi.service.startlevel.StartLevel;
 
 class ConfigApplier {
 	private static final String LAST_BUNDLES_INFO = "last.bundles.info"; //$NON-NLS-1$
+	private static final String FINGERPRINT = "configuration.fingerprint"; //$NON-NLS-1$
 	private static final String PROP_DEVMODE = "osgi.dev"; //$NON-NLS-1$
 
 	private final BundleContext manipulatingContext;
@@ -29,6 +30,7 @@ class ConfigApplier {
 
 	private final Bundle callingBundle;
 	private final URI baseLocation;
+	private final ConfigurationFingerprint fingerprint;
 
 	ConfigApplier(BundleContext context, Bundle callingBundle) {
 		manipulatingContext = context;
@@ -36,6 +38,7 @@ class ConfigApplier {
 		runningOnEquinox = "Eclipse".equals(context.getProperty(Constants.FRAMEWORK_VENDOR)); //$NON-NLS-1$
 		inDevMode = manipulatingContext.getProperty(PROP_DEVMODE) != null;
 		baseLocation = runningOnEquinox ? EquinoxUtils.getInstallLocationURI(context) : null;
+		fingerprint = new ConfigurationFingerprint(manipulatingContext.getDataFile(FINGERPRINT));
 
 		ServiceReference packageAdminRef = manipulatingContext.getServiceReference(PackageAdmin.class.getName());
 		if (packageAdminRef == null)
@@ -49,6 +52,16 @@ class ConfigApplier {
 	}
 
 	void install(URL url, boolean exclusiveMode) throws IOException {
+		// skip the configuration if it has already been applied to the current framework state
+		String configurationHash = ConfigurationFingerprint.hashConfiguration(url);
+		String options = getOptions(exclusiveMode);
+		if (configurationHash != null && fingerprint.isApplied(ConfigurationFingerprint.compute(configurationHash, options, ConfigurationFingerprint.hashBundles(manipulatingContext.getBundles())))) {
+			if (Activator.DEBUG)
+				System.out.println("applyConfiguration() configuration already applied: " + url); //$NON-NLS-1$
+			return;
+		}
+		fingerprint.clear();
+
 		List bundleInfoList = SimpleConfiguratorUtils.readConfiguration(url, baseLocation);
 		if (Activator.DEBUG)
 			System.out.println("applyConfiguration() bundleInfoList.size()=" + bundleInfoList.size());
@@ -85,13 +98,14 @@ class ConfigApplier {
 		Collection prevouslyResolved = getResolvedBundles();
 		Collection toRefresh = new ArrayList();
 		Collection toStart = new ArrayList();
+		Map index = indexBundles();
 		if (exclusiveMode) {
-			toRefresh.addAll(installBundles(expectedState, toStart));
-			toRefresh.addAll(uninstallBundles(expectedState, packageAdminService));
+			toRefresh.addAll(installBundles(expectedState, toStart, index));
+			toRefresh.addAll(uninstallBundles(expectedState, index));
 		} else {
-			toRefresh.addAll(installBundles(expectedState, toStart));
+			toRefresh.addAll(installBundles(expectedState, toStart, index));
 			if (toUninstall != null)
-				toRefresh.addAll(uninstallBundles(toUninstall));
+				toRefresh.addAll(uninstallBundles(toUninstall, index));
 		}
 		refreshPackages((Bundle[]) toRefresh.toArray(new Bundle[toRefresh.size()]), manipulatingContext);
 		if (toRefresh.size() > 0)
@@ -106,6 +120,69 @@ class ConfigApplier {
 				// do nothing; no resolver package available
 			}
 		startBundles((Bundle[]) toStart.toArray(new Bundle[toStart.size()]));
+
+		if (configurationHash != null)
+			fingerprint.save(ConfigurationFingerprint.compute(configurationHash, options, ConfigurationFingerprint.hashBundles(manipulatingContext.getBundles())));
+	}
+
+	/*
+	 * Return the options which influence how a configuration is applied.
+	 */
+	private String getOptions(boolean exclusiveMode) {
+		return exclusiveMode + "," + isUsingReference() + "," + inDevMode + "," + baseLocation; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	private boolean isUsingReference() {
+		String useReferenceProperty = manipulatingContext.getProperty(SimpleConfiguratorConstants.PROP_KEY_USE_REFERENCE);
+		return useReferenceProperty == null ? runningOnEquinox : Boolean.valueOf(useReferenceProperty).booleanValue();
+	}
+
+	/*
+	 * Index the installed bundles by symbolic name, so that the bundles of a configuration
+	 * are found without asking the package admin service once per bundle.
+	 */
+	private Map indexBundles() {
+		Map index = new HashMap();
+		Bundle[] bundles = manipulatingContext.getBundles();
+		for (int i = 0; i < bundles.length; i++)
+			addToIndex(index, bundles[i]);
+		return index;
+	}
+
+	private static void addToIndex(Map index, Bundle bundle) {
+		String symbolicName = bundle.getSymbolicName();
+		if (symbolicName == null)
+			return;
+		List bundles = (List) index.get(symbolicName);
+		if (bundles == null) {
+			bundles = new ArrayList(1);
+			index.put(symbolicName, bundles);
+		}
+		bundles.add(bundle);
+	}
+
+	private static void removeFromIndex(Map index, Bundle bundle) {
+		String symbolicName = bundle.getSymbolicName();
+		List bundles = symbolicName == null ? null : (List) index.get(symbolicName);
+		if (bundles != null)
+			bundles.remove(bundle);
+	}
+
+	/*
+	 * Return the installed bundles with the given symbolic name and version, or null if there are none.
+	 */
+	private static Bundle[] getBundles(Map index, String symbolicName, String version) {
+		List bundles = (List) index.get(symbolicName);
+		if (bundles == null || version == null)
+			return null;
+		Version expected = Version.parseVersion(version);
+		List result = new ArrayList(1);
+		for (Iterator iter = bundles.iterator(); iter.hasNext();) {
+			Bundle bundle = (Bundle) iter.next();
+			if (bundle.getState() != Bundle.UNINSTALLED && expected.equals(bundle.getVersion()))
+				result.add(bundle);
+		}
+		return result.isEmpty() ? null : (Bundle[]) result.toArray(new Bundle[result.size()]);
 	}
 
 	private Collection getResolvedBundles() {
@@ -117,14 +194,15 @@ class ConfigApplier {
 		return resolved;
 	}
 
-	private Collection uninstallBundles(HashSet toUninstall) {
+	private Collection uninstallBundles(HashSet toUninstall, Map index) {
 		Collection removedBundles = new ArrayList(toUninstall.size());
 		for (Iterator iterator = toUninstall.iterator(); iterator.hasNext();) {
 			BundleInfo current = (BundleInfo) iterator.next();
-			Bundle[] matchingBundles = packageAdminService.getBundles(current.getSymbolicName(), getVersionRange(current.getVersion()));
+			Bundle[] matchingBundles = getBundles(index, current.getSymbolicName(), current.getVersion());
 			for (int j = 0; matchingBundles != null && j < matchingBundles.length; j++) {
 				try {
 					removedBundles.add(matchingBundles[j]);
+					removeFromIndex(index, matchingBundles[j]);
 					matchingBundles[j].uninstall();
 				} catch (BundleException e) {
 					//TODO log in debug mode...
@@ -170,11 +248,10 @@ class ConfigApplier {
 		}
 	}
 
-	private ArrayList installBundles(BundleInfo[] finalList, Collection toStart) {
+	private ArrayList installBundles(BundleInfo[] finalList, Collection toStart, Map index) {
 		ArrayList toRefresh = new ArrayList();
 
-		String useReferenceProperty = manipulatingContext.getProperty(SimpleConfiguratorConstants.PROP_KEY_USE_REFERENCE);
-		boolean useReference = useReferenceProperty == null ? runningOnEquinox : Boolean.valueOf(useReferenceProperty).booleanValue();
+		boolean useReference = isUsingReference();
 
 		for (int i = 0; i < finalList.length; i++) {
 			if (finalList[i] == null)
@@ -187,7 +264,7 @@ class ConfigApplier {
 
 			Bundle[] matches = null;
 			if (symbolicName != null && version != null)
-				matches = packageAdminService.getBundles(symbolicName, getVersionRange(version));
+				matches = getBundles(index, symbolicName, version);
 
 			String bundleLocation = SimpleConfiguratorUtils.getBundleLocation(finalList[i], useReference);
 
@@ -199,6 +276,7 @@ class ConfigApplier {
 						// can happen if, for example, the new version of the bundle is installed
 						// to the same bundle location as the old version
 						current.update();
+					addToIndex(index, current);
 
 					if (Activator.DEBUG)
 						System.out.println("installed bundle:" + finalList[i]); //$NON-NLS-1$
@@ -214,6 +292,7 @@ class ConfigApplier {
 				// We do not do this for the system bundle (id==0), the manipulating bundle or any bundle installed from the osgi.bundles list (locations starting with "@initial"
 				// The bundle exists; but the location is different. Uninstall the current and install the new one (bug 229700)
 				try {
+					removeFromIndex(index, current);
 					current.uninstall();
 					toRefresh.add(current);
 				} catch (BundleException e) {
@@ -225,6 +304,7 @@ class ConfigApplier {
 				}
 				try {
 					current = manipulatingContext.installBundle(bundleLocation);
+					addToIndex(index, current);
 					if (Activator.DEBUG)
 						System.out.println("installed bundle:" + finalList[i]); //$NON-NLS-1$
 					toRefresh.add(current);
@@ -324,10 +404,10 @@ class ConfigApplier {
 	 * Uninstall bundles which are not listed on finalList.  
 	 * 
 	 * @param finalList bundles list not to be uninstalled.
-	 * @param packageAdmin package admin service.
+	 * @param index installed bundles by symbolic name.
 	 * @return Collection HashSet of bundles finally installed.
 	 */
-	private Collection uninstallBundles(BundleInfo[] finalList, PackageAdmin packageAdmin) {
+	private Collection uninstallBundles(BundleInfo[] finalList, Map index) {
 		Bundle[] allBundles = manipulatingContext.getBundles();
 
 		//Build a set with all the bundles from the system
@@ -343,7 +423,7 @@ class ConfigApplier {
 		for (int i = 0; i < finalList.length; i++) {
 			if (finalList[i] == null)
 				continue;
-			Bundle[] toAdd = packageAdmin.getBundles(finalList[i].getSymbolicName(), getVersionRange(finalList[i].getVersion()));
+			Bundle[] toAdd = getBundles(index, finalList[i].getSymbolicName(), finalList[i].getVersion());
 			for (int j = 0; toAdd != null && j < toAdd.length; j++) {
 				removedBundles.remove(toAdd[j]);
 			}
@@ -370,8 +450,4 @@ class ConfigApplier {
 
 		return removedBundles;
 	}
-
-	private String getVersionRange(String version) {
-		return version == null ? null : new StringBuffer().append('[').append(version).append(',').append(version).append(']').toString();
-	}
 }
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.simpleconfigurator.utils;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The binary companion of a config file. It holds the bundles of the config file
+ * in a form which is read without tokenizing lines or fixing up locations, together
+ * with the checksum of the config file it was written for. A companion whose checksum
+ * does not match the config file is ignored.
+ * 
+ * Format: magic, format version, checksum of the config file, number of bundles, then
+ * for each bundle its symbolic name, version, location, start level and started flag.
+ */
+public class BinaryConfiguration {
+	public static final String FILE_EXTENSION = ".bin"; //$NON-NLS-1$
+	private static final int MAGIC = 0x53434246; // "SCBF"
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Return the companion of the given config file.
+	 */
+	public static File getFile(File configuration) {
+		return new File(configuration.getParentFile(), configuration.getName() + FILE_EXTENSION);
+	}
+
+	/**
+	 * Return the bundles of the given config file read from its companion, or
+	 * <code>null</code> if there is no companion or if it does not match the config file.
+	 * 
+	 * @param configuration the config file
+	 * @param base the location relative bundle locations are resolved against
+	 * @return List of {@link BundleInfo}
+	 */
+	public static List read(File configuration, URI base) {
+		File file = getFile(configuration);
+		if (!file.isFile())
+			return null;
+		String checksum;
+		try {
+			checksum = ConfigurationFingerprint.hashConfiguration(configuration.toURL());
+		} catch (MalformedURLException e) {
+			return null;
+		}
+		if (checksum == null)
+			return null;
+
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION || !checksum.equals(input.readUTF()))
+					return null;
+				int count = input.readInt();
+				List bundles = new ArrayList(count);
+				for (int i = 0; i < count; i++) {
+					String symbolicName = input.readUTF();
+					String version = input.readUTF();
+					URI location = new URI(input.readUTF());
+					int startLevel = input.readInt();
+					boolean markedAsStarted = input.readBoolean();
+					BundleInfo bundleInfo = new BundleInfo(symbolicName, version, location, startLevel, markedAsStarted);
+					if (!location.isAbsolute())
+						bundleInfo.setBaseLocation(base);
+					bundles.add(bundleInfo);
+				}
+				return bundles;
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			// fall back to the config file
+			return null;
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Write the companion of the given config file, which must already hold the given bundles.
+	 * 
+	 * @param configuration the config file
+	 * @param bundles the bundles of the config file
+	 * @throws IOException
+	 */
+	public static void write(File configuration, BundleInfo[] bundles) throws IOException {
+		File file = getFile(configuration);
+		String checksum = ConfigurationFingerprint.hashConfiguration(configuration.toURL());
+		if (checksum == null) {
+			file.delete();
+			return;
+		}
+		boolean done = false;
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+			output.writeUTF(checksum);
+			output.writeInt(bundles.length);
+			for (int i = 0; i < bundles.length; i++) {
+				output.writeUTF(bundles[i].getSymbolicName());
+				output.writeUTF(bundles[i].getVersion());
+				output.writeUTF(bundles[i].getLocation().toString());
+				output.writeInt(bundles[i].getStartLevel());
+				output.writeBoolean(bundles[i].isMarkedAsStarted());
+			}
+			done = true;
+		} finally {
+			output.close();
+			if (!done)
+				file.delete();
+		}
+	}
+}
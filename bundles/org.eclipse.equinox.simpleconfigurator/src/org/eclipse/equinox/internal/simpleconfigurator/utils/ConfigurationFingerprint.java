@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.simpleconfigurator.utils;
+
+import java.io.*;
+import java.net.URL;
+import java.util.zip.CRC32;
+import org.osgi.framework.Bundle;
+
+/*
+ * A fingerprint of an applied configuration. It combines a checksum of the raw content
+ * of the configuration file, the options the configuration was applied with and the
+ * bundles installed in the framework once the configuration was applied.
+ *
+ * When the fingerprint saved after the last application of a configuration is equal
+ * to the fingerprint computed before applying it again, the application would not
+ * change anything and can be skipped. Computing the fingerprint neither parses the
+ * configuration nor looks up its bundles in the framework.
+ */
+public class ConfigurationFingerprint {
+	private static final String SEPARATOR = "|"; //$NON-NLS-1$
+
+	private final File file;
+
+	/**
+	 * @param file the file the fingerprint is saved in
+	 */
+	public ConfigurationFingerprint(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Return a checksum of the content of the configuration at the given URL, or
+	 * <code>null</code> if it cannot be read.
+	 */
+	public static String hashConfiguration(URL url) {
+		CRC32 crc = new CRC32();
+		long length = 0;
+		try {
+			InputStream stream = url.openStream();
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = stream.read(buffer)) != -1) {
+					crc.update(buffer, 0, read);
+					length += read;
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		return Long.toHexString(crc.getValue()) + '-' + length;
+	}
+
+	/**
+	 * Return a checksum of the given installed bundles. It changes when a bundle is
+	 * installed, uninstalled or updated, but not when a bundle is started or stopped.
+	 */
+	public static String hashBundles(Bundle[] bundles) {
+		CRC32 crc = new CRC32();
+		for (int i = 0; i < bundles.length; i++) {
+			StringBuffer buffer = new StringBuffer();
+			buffer.append(bundles[i].getBundleId()).append(',');
+			buffer.append(bundles[i].getLastModified()).append(',');
+			buffer.append(bundles[i].getLocation()).append('\n');
+			byte[] bytes;
+			try {
+				bytes = buffer.toString().getBytes("UTF-8"); //$NON-NLS-1$
+			} catch (UnsupportedEncodingException e) {
+				bytes = buffer.toString().getBytes();
+			}
+			crc.update(bytes);
+		}
+		return Long.toHexString(crc.getValue()) + '-' + bundles.length;
+	}
+
+	/**
+	 * Combine the given parts into a fingerprint.
+	 */
+	public static String compute(String configurationHash, String options, String bundlesHash) {
+		return configurationHash + SEPARATOR + options + SEPARATOR + bundlesHash;
+	}
+
+	/**
+	 * Return whether the given fingerprint is the one saved after the last application
+	 * of the configuration.
+	 */
+	public boolean isApplied(String fingerprint) {
+		if (fingerprint == null || file == null || !file.isFile())
+			return false;
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+			try {
+				return fingerprint.equals(reader.readLine());
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public void save(String fingerprint) {
+		if (file == null)
+			return;
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8"); //$NON-NLS-1$
+			try {
+				writer.write(fingerprint);
+				writer.write('\n');
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			// the configuration will be applied again next time
+			file.delete();
+		}
+	}
+
+	/**
+	 * Forget the saved fingerprint, so that the configuration is applied again next time.
+	 */
+	public void clear() {
+		if (file != null)
+			file.delete();
+	}
+}
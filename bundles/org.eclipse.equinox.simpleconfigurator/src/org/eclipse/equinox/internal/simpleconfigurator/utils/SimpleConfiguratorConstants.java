@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2008 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -39,6 +39,16 @@ public class SimpleConfiguratorConstants {
 	 */
 	public static final String PROP_KEY_CONFIGURL = "org.eclipse.equinox.simpleconfigurator.configUrl"; //$NON-NLS-1$
 
+	/**
+	 * If System.getProperty(PROP_KEY_BINARY_CONFIGURATION) equals "true" ignoring case, the simpleconfigurator
+	 * manipulator writes a binary companion of the config file, holding the already parsed bundles.
+	 * Once a companion exists, it is kept up to date whatever the value of the property.
+	 * SimpleConfigurator reads the companion instead of the config file whenever it matches the config file.
+	 * 
+	 * Default: false
+	 */
+	public static final String PROP_KEY_BINARY_CONFIGURATION = "org.eclipse.equinox.simpleconfigurator.binaryConfiguration"; //$NON-NLS-1$
+
 	public static final String CONFIG_LIST = "bundles.info"; //$NON-NLS-1$
 	public static final String CONFIGURATOR_FOLDER = "org.eclipse.equinox.simpleconfigurator"; //$NON-NLS-1$
 
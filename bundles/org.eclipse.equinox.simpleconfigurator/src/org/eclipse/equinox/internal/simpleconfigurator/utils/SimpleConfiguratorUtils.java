@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others. All rights reserved.
+ * Copyright (c) 2007, 2011 IBM Corporation and others. All rights reserved.
  * This program and the accompanying materials are made available under the
  * terms of the Eclipse Public License v1.0 which accompanies this distribution,
  * and is available at http://www.eclipse.org/legal/epl-v10.html
@@ -27,6 +27,13 @@ public class SimpleConfiguratorUtils {
 	private static final String ENCODED_COMMA = "%2C";
 
 	public static List readConfiguration(URL url, URI base) throws IOException {
+		// use the binary companion of the config file when it is up to date
+		if (FILE_SCHEME.equals(url.getProtocol())) {
+			List bundles = BinaryConfiguration.read(new File(url.getFile()), base);
+			if (bundles != null)
+				return bundles;
+		}
+
 		InputStream stream = null;
 		try {
 			stream = url.openStream();